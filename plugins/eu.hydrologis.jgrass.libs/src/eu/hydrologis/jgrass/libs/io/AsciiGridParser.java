@@ -0,0 +1,541 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Parses the values of the ascii raster formats (esri, grass and fluidturtle ascii), which are
+ * numbers separated by whitespaces.
+ * </p>
+ * <p>
+ * The file is read through large windows of bytes and the numbers are parsed directly from the
+ * bytes, without creating lines, tokens and strings. The numbers with up to 15 significant digits
+ * and a small exponent, which are the most of the numbers found in a raster, are computed exactly
+ * from their digits, the others are left to {@link Double#parseDouble(String)}, so the values
+ * are always the same as those of {@link Double#parseDouble(String)}. The <b>*</b> of the grass
+ * nulls, the <b>NaN</b> and the novalue are read as {@link Double#NaN}.
+ * </p>
+ * <p>
+ * The values can be parsed into an array or streamed row by row. With more than one thread the
+ * values parsed into an array are split into chunks, which are first counted and then parsed in
+ * parallel, each at its position in the array.
+ * </p>
+ * <p>
+ * The header lines of the formats are read through {@link #readLine()} before the values.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ * @since 1.1.0
+ */
+public class AsciiGridParser {
+
+    /**
+     * Handles the rows of values that are streamed by the parser.
+     */
+    public interface RowHandler {
+        /**
+         * @param row the index of the row.
+         * @param values the values of the row, the array is reused for the next row.
+         */
+        public void row( int row, double[] values ) throws IOException;
+    }
+
+    private static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+
+    /* the longest value that can be read */
+    private static final int MAX_VALUE_LENGTH = 256;
+
+    /* the powers of ten that are exact as doubles */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+            1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private long position = 0;
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private int threads = 1;
+
+    private double novalue = Double.NaN;
+
+    /**
+     * @param file the ascii file to parse.
+     * @throws IOException
+     */
+    public AsciiGridParser( File file ) throws IOException {
+        this.file = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        channel = this.file.getChannel();
+        length = channel.size();
+    }
+
+    /**
+     * @param windowSize the number of bytes read at once by every thread.
+     */
+    public void setWindowSize( int windowSize ) {
+        this.windowSize = Math.max(2 * MAX_VALUE_LENGTH, windowSize);
+    }
+
+    /**
+     * @param threads the number of threads used to parse the values into an array.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param novalue the value of the file that is read as {@link Double#NaN}.
+     */
+    public void setNovalue( double novalue ) {
+        this.novalue = novalue;
+    }
+
+    /**
+     * @return the position in the file from which the next line or value is read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @param position the position in the file from which the next line or value is read.
+     */
+    public void setPosition( long position ) {
+        this.position = position;
+    }
+
+    /**
+     * Reads a line of the header.
+     * 
+     * @return the line without the line terminator, null at the end of the file.
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        if (position >= length) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        Window window = new Window(1024);
+        long from = position;
+        while( from < length ) {
+            window.fill(from, length);
+            for( int i = 0; i < window.limit; i++ ) {
+                byte b = window.bytes[i];
+                if (b == '\n') {
+                    position = window.start + i + 1;
+                    return stripCarriageReturn(line);
+                }
+                line.append((char) (b & 0xFF));
+            }
+            from = window.start + window.limit;
+        }
+        position = length;
+        return stripCarriageReturn(line);
+    }
+
+    private String stripCarriageReturn( StringBuilder line ) {
+        int last = line.length() - 1;
+        if (last >= 0 && line.charAt(last) == '\r') {
+            line.setLength(last);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Parses the next values of the file into an array.
+     * 
+     * @param values the array to fill.
+     * @param count the number of values to read.
+     * @throws IOException if the file can't be read, has less values than requested or a value
+     *         that is not a number.
+     */
+    public void parse( double[] values, int count ) throws IOException {
+        if (threads == 1 || length - position < 2L * threads * MAX_VALUE_LENGTH) {
+            Cursor cursor = new Cursor(position, length);
+            for( int i = 0; i < count; i++ ) {
+                if (!cursor.hasNext()) {
+                    throw new IOException("The file has " + i + " values instead of " + count); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                values[i] = cursor.next();
+            }
+            position = cursor.position();
+            return;
+        }
+
+        // chunks of the file that start and end between two values
+        final long[] bounds = new long[threads + 1];
+        bounds[0] = position;
+        bounds[threads] = length;
+        for( int k = 1; k < threads; k++ ) {
+            long bound = position + (length - position) * k / threads;
+            bounds[k] = Math.max(bounds[k - 1], endOfValue(bound));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread(r, "AsciiGridParser worker"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
+            for( int k = 0; k < threads; k++ ) {
+                final int chunk = k;
+                counts.add(new Callable<Long>(){
+                    public Long call() throws Exception {
+                        return new Cursor(bounds[chunk], bounds[chunk + 1]).count();
+                    }
+                });
+            }
+            final long[] offsets = new long[threads + 1];
+            List<Future<Long>> results = executor.invokeAll(counts);
+            for( int k = 0; k < threads; k++ ) {
+                offsets[k + 1] = offsets[k] + results.get(k).get();
+            }
+            if (offsets[threads] < count) {
+                throw new IOException("The file has " + offsets[threads] + " values instead of " //$NON-NLS-1$ //$NON-NLS-2$
+                        + count);
+            }
+
+            final double[] target = values;
+            final int total = count;
+            List<Callable<Long>> parsers = new ArrayList<Callable<Long>>();
+            for( int k = 0; k < threads; k++ ) {
+                final int chunk = k;
+                parsers.add(new Callable<Long>(){
+                    public Long call() throws Exception {
+                        Cursor cursor = new Cursor(bounds[chunk], bounds[chunk + 1]);
+                        for( long i = offsets[chunk]; i < offsets[chunk + 1] && i < total; i++ ) {
+                            cursor.hasNext();
+                            target[(int) i] = cursor.next();
+                        }
+                        return cursor.position();
+                    }
+                });
+            }
+            results = executor.invokeAll(parsers);
+            for( int k = 0; k < threads; k++ ) {
+                long end = results.get(k).get();
+                if (offsets[k] < count && count <= offsets[k + 1]) {
+                    position = end;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while parsing the values."); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Streams the next values of the file row by row, without keeping them in memory.
+     * 
+     * @param rows the number of rows to read.
+     * @param cols the number of values of every row.
+     * @param handler the handler of the rows.
+     * @throws IOException if the file can't be read, has less values than requested or a value
+     *         that is not a number.
+     */
+    public void parse( int rows, int cols, RowHandler handler ) throws IOException {
+        Cursor cursor = new Cursor(position, length);
+        double[] values = new double[cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                if (!cursor.hasNext()) {
+                    throw new IOException("The file has " + r + " rows instead of " + rows); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                values[c] = cursor.next();
+            }
+            handler.row(r, values);
+        }
+        position = cursor.position();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @return the position of the first whitespace from the given position on, the end of the
+     *         file if there is none.
+     */
+    private long endOfValue( long from ) throws IOException {
+        Window window = new Window(MAX_VALUE_LENGTH);
+        long start = from - 1;
+        while( start < length ) {
+            window.fill(start, length);
+            for( int i = 0; i < window.limit; i++ ) {
+                if (isWhitespace(window.bytes[i])) {
+                    return Math.max(from, window.start + i);
+                }
+            }
+            start = window.start + window.limit;
+        }
+        return length;
+    }
+
+    private static boolean isWhitespace( byte b ) {
+        return b <= ' ' && b >= 0;
+    }
+
+    /**
+     * Parses a number from the bytes of the given range.
+     * 
+     * @return the number, {@link Double#NaN} for the grass null.
+     * @throws NumberFormatException if the bytes aren't a number.
+     */
+    static double parseNumber( byte[] bytes, int from, int to ) {
+        int i = from;
+        boolean negative = false;
+        if (bytes[i] == '-') {
+            negative = true;
+            i++;
+        } else if (bytes[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for( ; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++ ) {
+            hasDigits = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                digits++;
+            }
+        }
+        if (i < to && bytes[i] == '.') {
+            for( i++; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++ ) {
+                hasDigits = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                }
+            }
+        }
+        if (hasDigits && i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int value = 0;
+            for( ; i < to && bytes[i] >= '0' && bytes[i] <= '9' && value < 100000; i++ ) {
+                value = value * 10 + (bytes[i] - '0');
+            }
+            if (i == exponentStart) {
+                return parseString(bytes, from, to);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (!hasDigits || i != to || digits > 15) {
+            return parseString(bytes, from, to);
+        }
+
+        double value;
+        if (exponent == 0 || mantissa == 0) {
+            value = mantissa;
+        } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseString(bytes, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseString( byte[] bytes, int from, int to ) {
+        if (to - from == 1 && bytes[from] == '*') {
+            return Double.NaN;
+        }
+        char[] chars = new char[to - from];
+        for( int i = 0; i < chars.length; i++ ) {
+            chars[i] = (char) (bytes[from + i] & 0xFF);
+        }
+        String value = new String(chars);
+        if (value.equalsIgnoreCase("nan")) { //$NON-NLS-1$
+            return Double.NaN;
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * A window of bytes of the file.
+     */
+    private final class Window {
+        private final byte[] bytes;
+        private long start;
+        private int limit;
+
+        private Window( int size ) {
+            bytes = new byte[size];
+        }
+
+        /**
+         * Reads the bytes from the given position, up to the end position.
+         */
+        private void fill( long from, long end ) throws IOException {
+            start = from;
+            int size = (int) Math.min(bytes.length, end - from);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+            while( buffer.hasRemaining() ) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            limit = buffer.position();
+        }
+    }
+
+    /**
+     * Reads the values of a range of the file, from the start to the end position.
+     */
+    private final class Cursor {
+        private final Window window = new Window(windowSize);
+        private final long end;
+        private int index = 0;
+
+        private Cursor( long start, long end ) throws IOException {
+            this.end = end;
+            window.fill(start, end);
+        }
+
+        private long position() {
+            return window.start + index;
+        }
+
+        /**
+         * Moves to the start of the next value.
+         * 
+         * @return false if there are no more values.
+         */
+        private boolean hasNext() throws IOException {
+            while( true ) {
+                if (index == window.limit) {
+                    if (position() >= end || window.limit == 0) {
+                        return false;
+                    }
+                    window.fill(position(), end);
+                    index = 0;
+                    continue;
+                }
+                if (!isWhitespace(window.bytes[index])) {
+                    return true;
+                }
+                index++;
+            }
+        }
+
+        /**
+         * Parses the value at the current position, found by {@link #hasNext()}.
+         */
+        private double next() throws IOException {
+            int valueEnd = endOfValue();
+            if (valueEnd == window.limit && position() + (valueEnd - index) < end) {
+                // the value goes on in the next window
+                window.fill(position(), end);
+                index = 0;
+                valueEnd = endOfValue();
+                if (valueEnd == window.limit && window.start + valueEnd < end) {
+                    throw new IOException("Value too long at position " + position()); //$NON-NLS-1$
+                }
+            }
+            double value;
+            try {
+                value = parseNumber(window.bytes, index, valueEnd);
+            } catch (NumberFormatException e) {
+                throw new IOException("Wrong value at position " + position() + ": " //$NON-NLS-1$ //$NON-NLS-2$
+                        + e.getMessage());
+            }
+            index = valueEnd;
+            if (value == novalue) {
+                return Double.NaN;
+            }
+            return value;
+        }
+
+        private int endOfValue() {
+            int i = index;
+            while( i < window.limit && !isWhitespace(window.bytes[i]) ) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * @return the number of values up to the end position.
+         */
+        private long count() throws IOException {
+            long count = 0;
+            boolean inValue = false;
+            while( true ) {
+                if (index == window.limit) {
+                    if (position() >= end || window.limit == 0) {
+                        return count;
+                    }
+                    window.fill(position(), end);
+                    index = 0;
+                    continue;
+                }
+                boolean whitespace = isWhitespace(window.bytes[index++]);
+                if (!whitespace && !inValue) {
+                    count++;
+                }
+                inValue = !whitespace;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Compresses the rows of a GRASS raster and appends them to the map file, filling the row address
+ * table.
+ * </p>
+ * <p>
+ * With a single thread every row is deflated and written in the calling thread. With more threads
+ * the rows are deflated by a pool of workers, while a single writer thread appends them to the
+ * file in row order. The number of rows in flight is bounded, so the memory used doesn't depend on
+ * the size of the map. In both cases the file produced is the same, since every row is deflated
+ * independently with the default settings.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @since 1.1.0
+ */
+public class CompressedRowPipeline {
+
+    /* the number of rows in flight for every worker thread */
+    private static final int ROWS_IN_FLIGHT_PER_THREAD = 4;
+
+    private final RandomAccessFile theCreatedFile;
+
+    private final long[] rowaddresses;
+
+    private final int threads;
+
+    private long pointerInFilePosition;
+
+    private int rowIndex = 0;
+
+    /* pooled resources, shared by all the worker threads */
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    private final ConcurrentLinkedQueue<CompressedRow> rows = new ConcurrentLinkedQueue<CompressedRow>();
+
+    private ExecutorService workers = null;
+
+    private BlockingQueue<Future<CompressedRow>> writeQueue = null;
+
+    private Thread writer = null;
+
+    private volatile Exception failure = null;
+
+    /* marks the end of the rows for the writer thread */
+    private final Future<CompressedRow> endOfRows = new FutureTask<CompressedRow>(
+            new Callable<CompressedRow>(){
+                public CompressedRow call() throws Exception {
+                    return null;
+                }
+            });
+
+    /**
+     * @param theCreatedFile the map file, with the empty header already written.
+     * @param pointerInFilePosition the position at which the first row has to be written.
+     * @param rowaddresses the row address table to fill, the first address is expected to be
+     *        already set.
+     * @param threads the number of threads to use for the compression.
+     */
+    public CompressedRowPipeline( RandomAccessFile theCreatedFile, long pointerInFilePosition,
+            long[] rowaddresses, int threads ) {
+        this.theCreatedFile = theCreatedFile;
+        this.pointerInFilePosition = pointerInFilePosition;
+        this.rowaddresses = rowaddresses;
+        this.threads = Math.max(1, threads);
+
+        if (this.threads > 1) {
+            workers = Executors.newFixedThreadPool(this.threads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "CompressedRowPipeline deflater"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            writeQueue = new ArrayBlockingQueue<Future<CompressedRow>>(this.threads
+                    * ROWS_IN_FLIGHT_PER_THREAD);
+            writer = new Thread(new Runnable(){
+                public void run() {
+                    writeRows();
+                }
+            }, "CompressedRowPipeline writer"); //$NON-NLS-1$
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Compresses and writes the next row. The row data are copied, so the array can be reused by
+     * the caller as soon as the method returns.
+     *
+     * @param rowAsBytes the row values, as they have to be written in the map file.
+     * @throws IOException
+     */
+    public void writeRow( byte[] rowAsBytes ) throws IOException {
+        checkFailure();
+        final CompressedRow row = takeRow(rowAsBytes.length);
+        System.arraycopy(rowAsBytes, 0, row.input, 0, rowAsBytes.length);
+        row.inputLength = rowAsBytes.length;
+        row.index = rowIndex++;
+
+        if (threads == 1) {
+            compress(row);
+            append(row);
+            return;
+        }
+        Future<CompressedRow> future = workers.submit(new Callable<CompressedRow>(){
+            public CompressedRow call() throws Exception {
+                compress(row);
+                return row;
+            }
+        });
+        try {
+            writeQueue.put(future);
+        } catch (InterruptedException e) {
+            abort();
+            throw new IOException("Interrupted while writing the raster rows."); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Waits for all the rows to be written and releases the threads.
+     *
+     * @return the position in the file after the last row.
+     * @throws IOException
+     */
+    public long finish() throws IOException {
+        if (threads > 1) {
+            try {
+                writeQueue.put(endOfRows);
+                writer.join();
+            } catch (InterruptedException e) {
+                abort();
+                throw new IOException("Interrupted while writing the raster rows."); //$NON-NLS-1$
+            }
+            workers.shutdown();
+        }
+        Deflater deflater;
+        while( (deflater = deflaters.poll()) != null ) {
+            deflater.end();
+        }
+        rows.clear();
+        checkFailure();
+        return pointerInFilePosition;
+    }
+
+    /**
+     * Stops the threads without waiting for the pending rows, to be used when the writing failed.
+     */
+    public void abort() {
+        if (threads > 1) {
+            workers.shutdownNow();
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * The loop of the writer thread. On failure it keeps consuming the queue, so that the producer
+     * never blocks, and the error is thrown back at the next call.
+     */
+    private void writeRows() {
+        try {
+            while( true ) {
+                Future<CompressedRow> future = writeQueue.take();
+                if (future == endOfRows) {
+                    return;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    append(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof Exception ? (Exception) cause : e;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        }
+    }
+
+    private void compress( CompressedRow row ) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        deflater.setInput(row.input, 0, row.inputLength);
+        deflater.finish();
+        row.outputLength = deflater.deflate(row.output);
+        deflater.reset();
+        deflaters.offer(deflater);
+    }
+
+    private void append( CompressedRow row ) throws IOException {
+        theCreatedFile.seek(pointerInFilePosition);
+        /*
+         * jgrass always uses compression, so the first byte of the row will always be 49, i.e. 1
+         * which means that the row is compressed
+         */
+        theCreatedFile.write(49);
+        theCreatedFile.write(row.output, 0, row.outputLength);
+        rowaddresses[row.index + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+        rows.offer(row);
+    }
+
+    private CompressedRow takeRow( int length ) {
+        CompressedRow row = rows.poll();
+        if (row == null || row.input.length < length) {
+            row = new CompressedRow(length);
+        }
+        return row;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw new IOException(failure.toString());
+        }
+    }
+
+    /**
+     * A row with its uncompressed and compressed bytes. Instances are recycled once written.
+     */
+    private static class CompressedRow {
+        private final byte[] input;
+
+        /* length * 2 since not always compressing gives the needed result :) */
+        private final byte[] output;
+
+        private int inputLength;
+
+        private int outputLength;
+
+        private int index;
+
+        private CompressedRow( int length ) {
+            input = new byte[length];
+            output = new byte[length * 2];
+        }
+    }
+}
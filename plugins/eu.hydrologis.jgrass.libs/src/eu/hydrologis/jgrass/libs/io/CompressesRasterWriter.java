@@ -22,8 +22,8 @@ import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.zip.Deflater;
 
 import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.*;
 import eu.hydrologis.jgrass.libs.map.RasterData;
@@ -54,6 +54,8 @@ public class CompressesRasterWriter {
 
     private JGrassRegion dataWindow = null;
 
+    private int writeThreads = 1;
+
     /**
      * Preparing the environment for compressing and writing the map to disk
      * 
@@ -75,6 +77,17 @@ public class CompressesRasterWriter {
         dataWindow = _dataWindow;
     }
 
+    /**
+     * Defines the number of threads used to compress the rows. With more than one thread the rows
+     * are compressed in parallel and written in order by a separate writer thread. The written
+     * file is the same in both cases.
+     * 
+     * @param writeThreads the number of compression threads.
+     */
+    public void setWriteThreads( int writeThreads ) {
+        this.writeThreads = writeThreads;
+    }
+
     /**
      * Passing the object after defining the type of data that will be written
      * 
@@ -110,6 +123,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, RasterData dataObject )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -163,6 +177,8 @@ public class CompressesRasterWriter {
             // if (logger.isDebugEnabled())
             // logger.debug("rows x cols = " + rastermatrix.length + " x "
             // + rastermatrix[0].length);
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
 
             for( int i = 0; i < dataObject.getRows(); i++ ) {
@@ -238,32 +254,16 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
-                 */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
-                 */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
 
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -274,6 +274,9 @@ public class CompressesRasterWriter {
             }
             return true;
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER + e.toString());
         }
 
@@ -296,6 +299,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, double[][] rastermatrix )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -348,6 +352,8 @@ public class CompressesRasterWriter {
             // if (logger.isDebugEnabled())
             // logger.debug("rows x cols = " + rastermatrix.length + " x "
             // + rastermatrix[0].length);
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
 
             for( int i = 0; i < rastermatrix.length; i++ ) {
@@ -422,32 +428,16 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
-                 */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
 
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -457,6 +447,9 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
@@ -474,6 +467,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, float[][] floatmatrix )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -515,6 +509,8 @@ public class CompressesRasterWriter {
 
             // iterate over the number of rows to compress every row and
             // write the result to disk
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
             for( int i = 0; i < floatmatrix.length; i++ ) {
                 /*
@@ -590,31 +586,15 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
-                 */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -624,6 +604,9 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
@@ -641,6 +624,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, int[][] intmatrix )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -684,6 +668,8 @@ public class CompressesRasterWriter {
 
             // iterate over the number of rows to compress every row and
             // write the result to disk
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
             for( int i = 0; i < intmatrix.length; i++ ) {
 
@@ -760,31 +746,15 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
-                 */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -794,6 +764,9 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
@@ -811,6 +784,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, DoubleBuffer buffer )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -854,6 +828,8 @@ public class CompressesRasterWriter {
             // iterate over the number of rows to compress every row and
             // write the result to disk
             double value;
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
             for( int i = 0; i < dataWindow.getRows(); i++ ) {
                 /*
@@ -930,31 +906,15 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
-                 */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -964,6 +924,9 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
@@ -981,6 +944,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, FloatBuffer buffer )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -1024,6 +988,8 @@ public class CompressesRasterWriter {
             // iterate over the number of rows to compress every row and
             // write the result to disk
             float value;
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
             for( int i = 0; i < dataWindow.getRows(); i++ ) {
                 /*
@@ -1101,31 +1067,15 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
-                 */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -1135,6 +1085,9 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
@@ -1152,6 +1105,7 @@ public class CompressesRasterWriter {
     private boolean compressAndWrite( RandomAccessFile theCreatedFile,
             RandomAccessFile theCreatedNullFile, IntBuffer buffer )
             throws RasterWritingFailureException {
+        CompressedRowPipeline pipeline = null;
         try {
             // set the number of bytes needed for the values to write to disk
             int numberofbytes = outputToDiskType * 4;
@@ -1193,6 +1147,8 @@ public class CompressesRasterWriter {
             // iterate over the number of rows to compress every row and
             // write the result to disk
             int value;
+            pipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                    rowaddresses, writeThreads);
             int k = 0;
             for( int i = 0; i < dataWindow.getRows(); i++ ) {
                 /*
@@ -1270,31 +1226,15 @@ public class CompressesRasterWriter {
 
                 /*
                  * now the row is converted to an array of bytes (ByteBuffer's method wrap applies
-                 * changes on the ByteBuffer to the bytearray and vice versa. We can start with the
-                 * deflater.
-                 */
-                byte[] output = new byte[rowAsBytes.length * 2];
-                /* lenght *2 since not always compressing gives the needed result :) */
-                Deflater compresser = new Deflater();
-                compresser.setInput(rowAsBytes);
-                compresser.finish();
-                int compressedDataLength = compresser.deflate(output);
-
-                /*
-                 * now write to file the compressed row and set the right rowaddress.
-                 */
-                theCreatedFile.seek(pointerInFilePosition);
-                /*
-                 * jgrass always uses compression, so the first byte of the row will always be 49,
-                 * i.e. 1 which means that the row is compressed
+                 * changes on the ByteBuffer to the bytearray and vice versa. We can hand it over to
+                 * the compression, which also takes care to write it and set the right rowaddress.
                  */
-                theCreatedFile.write(49);
-                theCreatedFile.write(output, 0, compressedDataLength);
-
-                rowaddresses[i + 1] = pointerInFilePosition = theCreatedFile.getFilePointer();
+                pipeline.writeRow(rowAsBytes);
                 rowAsByteBuffer.clear();
             }
 
+            pointerInFilePosition = pipeline.finish();
+
             /*
              * now that all the compressed rows are written to file, we have to write their
              * addresses in the header
@@ -1304,12 +1244,106 @@ public class CompressesRasterWriter {
                 theCreatedFile.writeInt((int) rowaddresses[i]);
             }
         } catch (Exception e) {
+            if (pipeline != null) {
+                pipeline.abort();
+            }
             throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER
                     + e.getLocalizedMessage());
         }
         return true;
     }
 
+    /*
+     * the state of the writing by rows
+     */
+    private RandomAccessFile rowsFile;
+    private RandomAccessFile rowsNullFile;
+    private CompressedRowPipeline rowsPipeline;
+    private ByteBuffer rowsByteBuffer;
+    private byte[] rowsNullBytes;
+
+    /**
+     * Starts the writing of the map row by row, for data that are produced a row at the time and
+     * don't need to be kept in memory. The rows are then passed in order to
+     * {@link #writeRow(double[])} and the writing is completed by {@link #finishRows()}.
+     * 
+     * @param theCreatedFile the handler for the main map file, with the empty header written.
+     * @param theCreatedNullFile the handler for the file of the null map (in cell_misc).
+     */
+    public void startRows( RandomAccessFile theCreatedFile, RandomAccessFile theCreatedNullFile ) {
+        int cols = dataWindow.getCols();
+        rowsFile = theCreatedFile;
+        rowsNullFile = theCreatedNullFile;
+        rowsByteBuffer = ByteBuffer.wrap(new byte[cols * outputToDiskType * 4]);
+        rowsNullBytes = new byte[(cols + 7) / 8];
+        rowsPipeline = new CompressedRowPipeline(theCreatedFile, pointerInFilePosition,
+                rowaddresses, writeThreads);
+    }
+
+    /**
+     * Compresses and writes the next row of the map, updating the range of the values.
+     * 
+     * @param row the values of the row, as many as the columns of the data window. The array can
+     *        be reused once the method returns.
+     * @throws RasterWritingFailureException
+     */
+    public void writeRow( double[] row ) throws RasterWritingFailureException {
+        try {
+            boolean isDouble = outputToDiskType * 4 == 8;
+            int cols = dataWindow.getCols();
+            Arrays.fill(rowsNullBytes, (byte) 0);
+            for( int j = 0; j < cols; j++ ) {
+                double value = row[j];
+                if (!isNovalue(value)) {
+                    if (!jump) {
+                        range[0] = range[1] = value;
+                        jump = true;
+                    } else if (value < range[0]) {
+                        range[0] = value;
+                    } else if (value > range[1]) {
+                        range[1] = value;
+                    }
+                } else {
+                    // the placeholder is written in the map and the bit set in the null map
+                    value = 0.0;
+                    rowsNullBytes[j / 8] |= (byte) (0x80 >>> (j % 8));
+                }
+                if (isDouble) {
+                    rowsByteBuffer.putDouble(value);
+                } else {
+                    rowsByteBuffer.putFloat((float) value);
+                }
+            }
+            rowsNullFile.write(rowsNullBytes);
+            rowsPipeline.writeRow(rowsByteBuffer.array());
+            rowsByteBuffer.clear();
+        } catch (Exception e) {
+            rowsPipeline.abort();
+            throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER + e.toString());
+        }
+    }
+
+    /**
+     * Waits for all the rows to be written and writes their addresses in the header of the map.
+     * 
+     * @throws RasterWritingFailureException
+     */
+    public void finishRows() throws RasterWritingFailureException {
+        try {
+            pointerInFilePosition = rowsPipeline.finish();
+            rowsFile.seek(1);
+            for( int i = 0; i < rowaddresses.length; i++ ) {
+                rowsFile.writeInt((int) rowaddresses[i]);
+            }
+        } catch (Exception e) {
+            rowsPipeline.abort();
+            throw new RasterWritingFailureException(ERROR_IN_WRITING_RASTER + e.toString());
+        } finally {
+            rowsPipeline = null;
+            rowsByteBuffer = null;
+        }
+    }
+
     public JGrassRegion getDataWindow() {
         return dataWindow;
     }
@@ -17,10 +17,8 @@
  */
 package eu.hydrologis.jgrass.libs.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
@@ -93,7 +91,11 @@ public class FluidturtleAsciiRasterReader extends MapReader {
 
     private final double[] dataRange = new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
 
-    private double[][] datamatrix = null;
+    /* the values of the file, row after row */
+    private double[] datamatrix = null;
+
+    /* number of threads used to parse the values, 1 means sequential parsing */
+    private int parsingThreads = 1;
 
     /* Storage for cell category descriptive information */
     private AttributeTable attTable = null;
@@ -615,7 +617,16 @@ public class FluidturtleAsciiRasterReader extends MapReader {
         } else if (key.equals("matrixtype")) {
             Integer dmtype = (Integer) obj;
             matrixType = dmtype.intValue();
+        } else if (key.equals("readthreads")) { //$NON-NLS-1$
+            parsingThreads = Math.max(1, ((Integer) obj).intValue());
+        }
+    }
+
+    public Object getParameter( String key, Object obj ) {
+        if (key.equals("novalue")) { //$NON-NLS-1$
+            return novalue;
         }
+        return obj;
     }
 
     public void setOutputDataObject( Object _dataObject ) {
@@ -631,9 +642,10 @@ public class FluidturtleAsciiRasterReader extends MapReader {
         HashMap<String, String> fileMapHeader = new HashMap<String, String>();
         /* Read contents of 'cellhd/name' file from the current mapset */
         String line = null;
+        AsciiGridParser fluidasciireader = null;
         try {
             //
-            BufferedReader fluidasciireader = new BufferedReader(new FileReader(theFilePath));
+            fluidasciireader = new AsciiGridParser(new File(theFilePath));
             // read the header
             boolean readheader = false;
             while( !readheader ) {
@@ -735,63 +747,37 @@ public class FluidturtleAsciiRasterReader extends MapReader {
             numberOfBytesPerValue = 8;
 
             /*
-             * jump over empty lines
+             * read the file and keep it in memory for further resolution issues, empty lines are
+             * jumped over
              */
-            if ((line = fluidasciireader.readLine()) != null) {
-                while( line.length() < 1 ) {
-                    if ((line = fluidasciireader.readLine()) == null) {
-                        return false;
-                    }
-                }
-            } else {
-                return false;
+            if (novalue instanceof Number) {
+                fluidasciireader.setNovalue(((Number) novalue).doubleValue());
             }
-
-            /*
-             * read the file and keep it in memory for further resolution issues
-             */
-            datamatrix = new double[fileWindow.getRows()][fileWindow.getCols()];
-            // put all the values into a matrix
-            String value = null;
-            for( int i = 0; i < fileWindow.getRows(); i++ ) {
-                // if the line is empty, just jump it
-                if (line.length() < 1 || line.equals("") || line.equals(" ")) {
-                    i--;
-                    if ((line = fluidasciireader.readLine()) != null) {
-                        continue;
-                    } else {
-                        break;
-                    }
-                }
-
-                StringTokenizer tok = new StringTokenizer(line);
-                for( int j = 0; j < fileWindow.getCols(); j++ ) {
-                    value = tok.nextToken().trim();
-                    if (!value.equals(String.valueOf(novalue))) {
-                        datamatrix[i][j] = Double.parseDouble(value);
-                    } else {
-                        datamatrix[i][j] = Double.NaN;
-                    }
-                }
-                if ((line = fluidasciireader.readLine()) != null) {
-                    continue;
-                } else {
-                    break;
-                }
-
-            }
-
-            // close the handler to the file
-            fluidasciireader.close();
+            fluidasciireader.setThreads(parsingThreads);
+            datamatrix = new double[fileWindow.getRows() * fileWindow.getCols()];
+            fluidasciireader.parse(datamatrix, datamatrix.length);
 
         } catch (FileNotFoundException e) {
             return false;
         } catch (IOException e) {
             return false;
+        } finally {
+            // close the handler to the file
+            closeParser(fluidasciireader);
         }
         return true;
     }
 
+    private void closeParser( AsciiGridParser parser ) {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // the values are already read
+            }
+        }
+    }
+
     /**
      * reads a row of data from the file into a byte array.
      * 
@@ -823,9 +809,8 @@ public class FluidturtleAsciiRasterReader extends MapReader {
         // System.out.println("currentfilerow="+currentfilerow+",
         // fileWindow.getRows()="+fileWindow.getRows());
 
-        /* Reset row cache and read new row data */
-        double[] rowCache = new double[datamatrix[currentfilerow].length];
-        System.arraycopy(datamatrix[currentfilerow], 0, rowCache, 0, datamatrix[0].length);
+        /* the offset of the row in the values of the file */
+        int rowOffset = currentfilerow * fileWindow.getCols();
 
         // if the northing is inside the file boundaries, calculate the values
         // for (double col = activewest; col < activeeast; col += activeewres)
@@ -849,14 +834,15 @@ public class FluidturtleAsciiRasterReader extends MapReader {
                  * rowCache.position(currentfilecol * numberOfBytesPerValue); double cell =
                  * rowCache.getDouble();
                  */
-                rowBuffer.putDouble(rowCache[currentfilecol]);
+                double cell = datamatrix[rowOffset + currentfilecol];
+                rowBuffer.putDouble(cell);
                 if (colorTable != null)
-                    colorTable.interpolateColorValue(rowColorBuffer, rowCache[currentfilecol]);
+                    colorTable.interpolateColorValue(rowColorBuffer, cell);
                 /* Update data range value */
-                if (rowCache[currentfilecol] < dataRange[0])
-                    dataRange[0] = rowCache[currentfilecol];
-                else if (rowCache[currentfilecol] > dataRange[1])
-                    dataRange[1] = rowCache[currentfilecol];
+                if (cell < dataRange[0])
+                    dataRange[0] = cell;
+                else if (cell > dataRange[1])
+                    dataRange[1] = cell;
             }
         }
 
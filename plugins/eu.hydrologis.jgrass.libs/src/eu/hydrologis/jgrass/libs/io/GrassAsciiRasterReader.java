@@ -17,10 +17,8 @@
  */
 package eu.hydrologis.jgrass.libs.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
@@ -88,7 +86,11 @@ public class GrassAsciiRasterReader extends MapReader {
     private final double[] dataRange = new double[]{Double.POSITIVE_INFINITY,
             Double.NEGATIVE_INFINITY};
 
-    private double[][] datamatrix = null;
+    /* the values of the file, row after row */
+    private double[] datamatrix = null;
+
+    /* number of threads used to parse the values, 1 means sequential parsing */
+    private int parsingThreads = 1;
 
     /* Storage for cell category descriptive information */
     private AttributeTable attTable = null;
@@ -613,9 +615,18 @@ public class GrassAsciiRasterReader extends MapReader {
         } else if (key.equals("matrixtype")) {
             Integer dmtype = (Integer) obj;
             matrixType = dmtype.intValue();
+        } else if (key.equals("readthreads")) { //$NON-NLS-1$
+            parsingThreads = Math.max(1, ((Integer) obj).intValue());
         }
     }
 
+    public Object getParameter( String key, Object obj ) {
+        if (key.equals("novalue")) { //$NON-NLS-1$
+            return novalue;
+        }
+        return obj;
+    }
+
     public void setOutputDataObject( Object _dataObject ) {
         /* Call parent class to store data object */
         super.setOutputDataObject(_dataObject);
@@ -628,10 +639,12 @@ public class GrassAsciiRasterReader extends MapReader {
         HashMap<String, String> fileMapHeader = new HashMap<String, String>();
         /* Read contents of 'cellhd/name' file from the current mapset */
         String line = null;
+        AsciiGridParser grassasciireader = null;
         try {
             //
-            BufferedReader grassasciireader = new BufferedReader(new FileReader(theFilePath));
+            grassasciireader = new AsciiGridParser(new File(theFilePath));
             // read the header
+            long dataStart = 0;
             for( int i = 0; i < 8; i++ ) {
                 if ((line = grassasciireader.readLine()) != null) {
                     String lowerline = line.toLowerCase().trim();
@@ -651,6 +664,7 @@ public class GrassAsciiRasterReader extends MapReader {
                             key = "n-s res";
                         }
                         fileMapHeader.put(key, value);
+                        dataStart = grassasciireader.getPosition();
                     } else {
                         break;
                     }
@@ -714,38 +728,35 @@ public class GrassAsciiRasterReader extends MapReader {
             /*
              * read the file and keep it in memory for further resolution issues
              */
-            datamatrix = new double[fileWindow.getRows()][fileWindow.getCols()];
-            // put all the values into a matrix
-            String value = null;
-            for( int i = 0; i < fileWindow.getRows(); i++ ) {
-                StringTokenizer tok = new StringTokenizer(line);
-                for( int j = 0; j < fileWindow.getCols(); j++ ) {
-                    value = tok.nextToken().trim();
-                    if (value.equals("*") || value.equals(String.valueOf(novalue))) {
-                        datamatrix[i][j] = Double.NaN;
-                    } else {
-                        datamatrix[i][j] = Double.parseDouble(value);
-                    }
-                }
-                if ((line = grassasciireader.readLine()) != null) {
-                    continue;
-                } else {
-                    break;
-                }
-
+            grassasciireader.setPosition(dataStart);
+            if (novalue instanceof Number) {
+                grassasciireader.setNovalue(((Number) novalue).doubleValue());
             }
-
-            // close the handler to the file
-            grassasciireader.close();
+            grassasciireader.setThreads(parsingThreads);
+            datamatrix = new double[fileWindow.getRows() * fileWindow.getCols()];
+            grassasciireader.parse(datamatrix, datamatrix.length);
 
         } catch (FileNotFoundException e) {
             return false;
         } catch (IOException e) {
             return false;
+        } finally {
+            // close the handler to the file
+            closeParser(grassasciireader);
         }
         return true;
     }
 
+    private void closeParser( AsciiGridParser parser ) {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // the values are already read
+            }
+        }
+    }
+
     /**
      * reads a row of data from the file into a byte array.
      * 
@@ -774,9 +785,8 @@ public class GrassAsciiRasterReader extends MapReader {
         double filewest = fileWindow.getWest();
         double fileewres = fileWindow.getWEResolution();
 
-        /* Reset row cache and read new row data */
-        double[] rowCache = new double[datamatrix[currentfilerow].length];
-        System.arraycopy(datamatrix[currentfilerow], 0, rowCache, 0, datamatrix[0].length);
+        /* the offset of the row in the values of the file */
+        int rowOffset = currentfilerow * fileWindow.getCols();
 
         for( int col = 0; col < dataWindow.getCols(); col++ ) {
             /*
@@ -793,14 +803,15 @@ public class GrassAsciiRasterReader extends MapReader {
                 if (colorTable != null)
                     colorTable.interpolateColorValue(rowColorBuffer, Double.NaN);
             } else {
-                rowBuffer.putDouble(rowCache[currentfilecol]);
+                double cell = datamatrix[rowOffset + currentfilecol];
+                rowBuffer.putDouble(cell);
                 if (colorTable != null)
-                    colorTable.interpolateColorValue(rowColorBuffer, rowCache[currentfilecol]);
+                    colorTable.interpolateColorValue(rowColorBuffer, cell);
                 /* Update data range value */
-                if (rowCache[currentfilecol] < dataRange[0])
-                    dataRange[0] = rowCache[currentfilecol];
-                else if (rowCache[currentfilecol] > dataRange[1])
-                    dataRange[1] = rowCache[currentfilecol];
+                if (cell < dataRange[0])
+                    dataRange[0] = cell;
+                else if (cell > dataRange[1])
+                    dataRange[1] = cell;
             }
         }
 
@@ -0,0 +1,194 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Row based reader for the <b>cell_misc/&lt;map&gt;/null</b> file of a GRASS raster.
+ * </p>
+ * <p>
+ * The null file holds one bit per cell, row after row, every row padded to a full byte. The most
+ * significant bit of every byte is the first of the eight columns it covers. Instead of seeking the
+ * file for every single cell, a whole row is read at once and decoded into a reusable
+ * <code>long[]</code> bitmask, which is then used for all the columns of that row.
+ * </p>
+ * <p>
+ * The file can optionally be memory mapped, in which case no system call is done at all while
+ * reading the rows.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @since 1.1.0
+ */
+public class GrassNullMaskReader {
+
+    private final RandomAccessFile nullFile;
+
+    private final int cols;
+
+    /* the number of bytes a row takes in the null file */
+    private final int bytesPerRow;
+
+    /* the raw bytes of the last read row */
+    private final byte[] rowBytes;
+
+    /* the decoded bitmask of the last read row, bit set = novalue */
+    private final long[] rowMask;
+
+    private MappedByteBuffer mappedNullFile = null;
+
+    private int currentRow = -1;
+
+    private boolean currentRowHasNulls = false;
+
+    /**
+     * @param nullFile the already opened null file.
+     * @param cols the number of columns of the map file.
+     * @param useMemoryMapping if true, the null file is memory mapped.
+     * @throws IOException
+     */
+    public GrassNullMaskReader( RandomAccessFile nullFile, int cols, boolean useMemoryMapping )
+            throws IOException {
+        this.nullFile = nullFile;
+        this.cols = cols;
+        bytesPerRow = (cols + 7) / 8;
+        rowBytes = new byte[bytesPerRow];
+        rowMask = new long[(cols + 63) / 64];
+
+        long length = nullFile.length();
+        if (useMemoryMapping && length <= Integer.MAX_VALUE) {
+            mappedNullFile = nullFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    /**
+     * Loads and decodes a row of the null file. Reading the same row twice doesn't access the
+     * file again.
+     *
+     * @param row the row of the map file, starting from 0.
+     * @throws IOException
+     */
+    public void readRow( int row ) throws IOException {
+        if (row == currentRow) {
+            return;
+        }
+        long position = (long) bytesPerRow * row;
+        if (mappedNullFile != null) {
+            mappedNullFile.position((int) position);
+            mappedNullFile.get(rowBytes, 0, bytesPerRow);
+        } else {
+            nullFile.seek(position);
+            nullFile.readFully(rowBytes, 0, bytesPerRow);
+        }
+        decode();
+        currentRow = row;
+    }
+
+    /**
+     * @param col the column of the map file, starting from 0.
+     * @return true if the cell of the last read row is a novalue.
+     */
+    public boolean isNull( int col ) {
+        return (rowMask[col >>> 6] & (1L << (col & 63))) != 0;
+    }
+
+    /**
+     * @return true if the last read row contains at least one novalue. If it doesn't, the per
+     *         column checks can be skipped entirely.
+     */
+    public boolean rowHasNulls() {
+        return currentRowHasNulls;
+    }
+
+    /**
+     * @return the bitmask of the last read row, one bit per column, bit set = novalue. The
+     *         returned array is reused on the next read.
+     */
+    public long[] getRowMask() {
+        return rowMask;
+    }
+
+    /**
+     * Reads the null information of a single cell directly from the file, the way it was done
+     * before the row based reading was available. Useful for sparse random access.
+     *
+     * @param row the row of the map file, starting from 0.
+     * @param col the column of the map file, starting from 0.
+     * @return true if the cell is a novalue.
+     * @throws IOException
+     */
+    public boolean isNullAt( int row, int col ) throws IOException {
+        long position = (long) bytesPerRow * row + (col >>> 3);
+        int theByte;
+        if (mappedNullFile != null) {
+            theByte = mappedNullFile.get((int) position);
+        } else {
+            nullFile.seek(position);
+            theByte = nullFile.readByte();
+        }
+        return (theByte & (0x80 >>> (col & 7))) != 0;
+    }
+
+    /**
+     * @return the number of columns handled by the mask.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Releases the reference to the mapped buffer. The null file itself is closed by its owner.
+     */
+    public void close() {
+        mappedNullFile = null;
+        currentRow = -1;
+    }
+
+    private void decode() {
+        long any = 0;
+        int col = 0;
+        for( int w = 0; w < rowMask.length; w++ ) {
+            long word = 0;
+            int firstByte = w * 8;
+            int lastByte = Math.min(firstByte + 8, bytesPerRow);
+            for( int b = firstByte; b < lastByte; b++ ) {
+                /*
+                 * the first column is the most significant bit, reverse the byte so that column n
+                 * ends up in bit n of the word.
+                 */
+                int reversed = Integer.reverse(rowBytes[b] & 0xff) >>> 24;
+                word |= ((long) reversed) << ((b - firstByte) * 8);
+            }
+            col += 64;
+            if (col > cols) {
+                /* clear the padding bits of the last byte */
+                int valid = cols - (col - 64);
+                word &= valid == 64 ? -1L : (1L << valid) - 1;
+            }
+            rowMask[w] = word;
+            any |= word;
+        }
+        currentRowHasNulls = any != 0;
+    }
+
+}
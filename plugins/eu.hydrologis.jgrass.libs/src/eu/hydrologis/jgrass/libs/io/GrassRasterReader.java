@@ -18,6 +18,7 @@
 package eu.hydrologis.jgrass.libs.io;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -28,11 +29,21 @@ import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.BitSet;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.StringTokenizer;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -45,7 +56,6 @@ import eu.hydrologis.jgrass.libs.map.color.GrassColorTable;
 import eu.hydrologis.jgrass.libs.messages.Messages;
 import eu.hydrologis.jgrass.libs.object.GDataObject;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
-import eu.hydrologis.jgrass.libs.utils.FileUtilities;
 import eu.hydrologis.jgrass.libs.utils.Format;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JlsTokenizer;
@@ -91,6 +101,12 @@ public class GrassRasterReader extends MapReader {
 
     private RandomAccessFile nullFile = null;
 
+    /* row based decoder of the null file, created lazily on the first read row */
+    private GrassNullMaskReader nullMask = null;
+
+    /* if true, the null file is memory mapped instead of being read through seeks */
+    private boolean mapNullFile = false;
+
     private String filename = null;
 
     private String locationPath = null;
@@ -101,6 +117,30 @@ public class GrassRasterReader extends MapReader {
 
     private Vector<Object> reclassTable = null;
 
+    /* number of rows decompressed in advance by every decoding thread */
+    private static final int PREFETCH_ROWS_PER_THREAD = 8;
+
+    /* number of threads used to decompress rows, 1 means sequential reading */
+    private int decodingThreads = 1;
+
+    private ExecutorService decodingExecutor = null;
+
+    /* rows decompressed in parallel, in advance of their use */
+    private ByteBuffer[] prefetchedRows = null;
+
+    /* the rows of the map file held by the prefetched rows */
+    private int[] prefetchFileRows = null;
+
+    private int prefetchCount = 0;
+
+    /* inflaters and read buffers, pooled so that they are reused by every thread */
+    private final ConcurrentLinkedQueue<RowDecoder> rowDecoders = new ConcurrentLinkedQueue<RowDecoder>();
+
+    /* row caches reused by the row block reading */
+    private byte[] blockRowDataCache = null;
+
+    private byte[] blockRowColorDataCache = null;
+
     /**
      * Comment for <code>addressesofrows</code> the pointers to access in the map file the begin
      * of every row
@@ -115,7 +155,8 @@ public class GrassRasterReader extends MapReader {
 
     private boolean isOldIntegerMap = false;
 
-    // private ByteBuffer rowCache = null;
+    /* the row of the map file being resampled on the data window, reused for every row */
+    private ByteBuffer rowCache = null;
     private int rowCacheRow = -1;
 
     private int firstDataRow = -1;
@@ -163,6 +204,8 @@ public class GrassRasterReader extends MapReader {
      */
     public boolean open( String fileName, String locationPath, String mapsetName ) {
         cellFile = nullFile = null;
+        nullMask = null;
+        prefetchCount = 0;
 
         filename = fileName;
         this.locationPath = locationPath;
@@ -199,8 +242,24 @@ public class GrassRasterReader extends MapReader {
     public void close() {
         try {
             cellFile.close();
+            if (nullMask != null) {
+                nullMask.close();
+                nullMask = null;
+            }
             if (nullFile != null)
                 nullFile.close();
+            if (decodingExecutor != null) {
+                decodingExecutor.shutdown();
+                decodingExecutor = null;
+            }
+            prefetchedRows = null;
+            prefetchFileRows = null;
+            rowCache = null;
+            prefetchCount = 0;
+            RowDecoder decoder;
+            while( (decoder = rowDecoders.poll()) != null ) {
+                decoder.inflater.end();
+            }
         } catch (IOException e) {
             JGrassLibsPlugin.log("JGrassLibsPlugin problem", e); //$NON-NLS-1$
             e.printStackTrace();
@@ -334,10 +393,6 @@ public class GrassRasterReader extends MapReader {
                     int rowindex = -1;
                     /* Get a local reference to speed things up */
                     int filerows = fileWindow.getRows();
-                    double filenorth = fileWindow.getNorth();
-                    double filensres = fileWindow.getNSResolution();
-                    double datanorth = dataWindow.getNorth();
-                    double datansres = dataWindow.getNSResolution();
                     // double datansres2 = datansres / 2;
                     /* Iterate through all the rows of the data window. */
                     // int lastpos = 0;
@@ -352,8 +407,7 @@ public class GrassRasterReader extends MapReader {
                         /*
                          * Calculate the map file row for the current data window row.
                          */
-                        double filerow = (filenorth - (datanorth - (row * datansres))) / filensres;
-                        filerow = Math.floor(filerow);
+                        double filerow = dataRowToFileRow(row);
                         // int filerow = (int) ((filenorth - (datanorth - (row *
                         // datansres + datansres2))) / filensres);
                         // System.out.print("FILENORTH="+filenorth+",
@@ -482,6 +536,78 @@ public class GrassRasterReader extends MapReader {
         return dataObject;
     }
 
+    /**
+     * Reads a block of rows of the data window straight into the supplied matrix, without
+     * allocating the buffer for the whole map. Rows outside of the data window or of the map file
+     * are filled with the novalue.
+     * 
+     * @see MapReader#readRows(int, double[][], int, int)
+     */
+    public void readRows( int firstRow, double[][] rows, int offset, int count ) throws IOException {
+        int cols = dataWindow.getCols();
+        int datarows = dataWindow.getRows();
+        int filerows = fileWindow.getRows();
+        double nv = ((Double) novalue).doubleValue();
+        if (blockRowDataCache == null || blockRowDataCache.length != cols * numberOfBytesPerValue) {
+            blockRowDataCache = new byte[cols * numberOfBytesPerValue];
+            blockRowColorDataCache = new byte[cols * 4];
+        }
+        ByteBuffer rowBuffer = ByteBuffer.wrap(blockRowDataCache);
+        int cachedFileRow = -1;
+        try {
+            for( int i = 0; i < count; i++ ) {
+                double[] target = rows[offset + i];
+                int row = firstRow + i;
+                double filerow = dataRowToFileRow(row);
+                if (row < 0 || row >= datarows || filerow < 0 || filerow >= filerows) {
+                    for( int c = 0; c < cols; c++ ) {
+                        target[c] = nv;
+                    }
+                    continue;
+                }
+                if ((int) filerow != cachedFileRow) {
+                    readRasterRow((int) filerow, blockRowDataCache, blockRowColorDataCache);
+                    cachedFileRow = (int) filerow;
+                }
+                rowBuffer.rewind();
+                for( int c = 0; c < cols; c++ ) {
+                    double value;
+                    if (rasterMapType > 0) {
+                        int tmp = rowBuffer.getInt();
+                        value = tmp == Integer.MAX_VALUE ? Double.NaN : tmp;
+                    } else if (rasterMapType == -1) {
+                        value = rowBuffer.getFloat();
+                    } else {
+                        value = rowBuffer.getDouble();
+                    }
+                    if (value == value) {
+                        setRange(value, row, c);
+                        target[c] = value;
+                    } else {
+                        target[c] = nv;
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            JGrassLibsPlugin.log(
+                    "JGrassLibsPlugin problem: eu.hydrologis.jgrass.libs.io#GrassRasterReader#readRows", e); //$NON-NLS-1$
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Calculates the map file row for a data window row.
+     * 
+     * @param row the row of the data window.
+     * @return the row of the map file, may be outside of the file bounds.
+     */
+    private double dataRowToFileRow( double row ) {
+        double filerow = (fileWindow.getNorth() - (dataWindow.getNorth() - (row * dataWindow
+                .getNSResolution())))
+                / fileWindow.getNSResolution();
+        return Math.floor(filerow);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -763,6 +889,10 @@ public class GrassRasterReader extends MapReader {
             matrixType = dmtype.intValue();
         } else if (key.equals("donotloadcolortable")) { //$NON-NLS-1$
             cmapBuffer = null;
+        } else if (key.equals("mapnullfile")) { //$NON-NLS-1$
+            mapNullFile = ((Boolean) obj).booleanValue();
+        } else if (key.equals("readthreads")) { //$NON-NLS-1$
+            decodingThreads = Math.max(1, ((Integer) obj).intValue());
         }
     }
 
@@ -1173,12 +1303,29 @@ public class GrassRasterReader extends MapReader {
         // fileWindow.getRows()="+fileWindow.getRows());
 
         /* Reset row cache and read new row data */
-        ByteBuffer rowCache = ByteBuffer.allocate(fileWindow.getCols()
-                * ((rasterMapType == -2) ? 8 : 4));
-        // rowCache.rewind();
+        int rowCacheSize = fileWindow.getCols() * ((rasterMapType == -2) ? 8 : 4);
+        if (rowCache == null || rowCache.capacity() != rowCacheSize) {
+            rowCache = ByteBuffer.allocate(rowCacheSize);
+        } else {
+            rowCache.clear();
+            Arrays.fill(rowCache.array(), (byte) 0);
+        }
         getMapRow(currentfilerow, rowCache, iscompressed);
         // rowCacheRow = currentfilerow;
 
+        /*
+         * Read the null information of the whole row at once, if the row doesn't contain novalues
+         * there is no need to check every single cell.
+         */
+        boolean rowHasNulls = false;
+        if (nullFile != null) {
+            if (nullMask == null) {
+                nullMask = new GrassNullMaskReader(nullFile, fileWindow.getCols(), mapNullFile);
+            }
+            nullMask.readRow(currentfilerow);
+            rowHasNulls = nullMask.rowHasNulls();
+        }
+
         // if the northing is inside the file boundaries, calculate the values
         // for (double col = activewest; col < activeeast; col += activeewres)
         for( double col = 0; col < dataWindow.getCols(); col++ ) {
@@ -1217,7 +1364,7 @@ public class GrassRasterReader extends MapReader {
                 } else {
                     /* Don't know what to do. Probably throw some exception? */
                 }
-            } else if (readNullValueAtRowCol(currentfilerow, (int) x)) {
+            } else if (rowHasNulls && nullMask.isNull((int) x)) {
                 // System.out.println("COL="+col+", X="+x+", NULL VALUE(2)");
                 /*
                  * Depending on the map type we store a different 'NO VALUE' value.
@@ -1367,23 +1514,18 @@ public class GrassRasterReader extends MapReader {
         // ", iscompressed = " + iscompressed);
         // }
 
-        if (iscompressed) {
-            /* Compressed maps */
-            if (rasterMapType == -2) {
-                /* Compressed double map */
-                readCompressedFPRowByNumber(rowdata, currentrow, addressesofrows, cellFile,
-                        numberOfBytesPerValue);
-            } else if (rasterMapType == -1) {
-                /* Compressed floating point map */
-                readCompressedFPRowByNumber(rowdata, currentrow, addressesofrows, cellFile,
-                        numberOfBytesPerValue);
-            } else if (rasterMapType > 0) {
-                /* Compressed integer map */
-                readCompressedIntegerRowByNumber(rowdata, currentrow, addressesofrows, cellFile);
-            } else {
-                // if (logger.isDebugEnabled())
-                // logger.error("format not double nor float");
+        if (iscompressed && decodingThreads > 1) {
+            /* Compressed maps, decompressed in parallel in advance */
+            int index = prefetchedRowIndex(currentrow);
+            if (index == -1) {
+                prefetchCompressedRows(currentrow);
+                index = 0;
             }
+            ByteBuffer prefetched = prefetchedRows[index];
+            System.arraycopy(prefetched.array(), 0, rowdata.array(), 0, prefetched.capacity());
+        } else if (iscompressed) {
+            /* Compressed maps */
+            readCompressedRow(rowdata, currentrow);
         } else {
             if (rasterMapType < 0) {
                 /* Uncompressed floating point map */
@@ -1401,6 +1543,184 @@ public class GrassRasterReader extends MapReader {
         return;
     }
 
+    /**
+     * read a row of a compressed map, of any type. This can be called concurrently, since the file
+     * is accessed only through positional reads.
+     * 
+     * @param rowdata the buffer to fill with the decompressed row
+     * @param currentrow the row of the map file
+     * @throws IOException
+     * @throws DataFormatException
+     */
+    private void readCompressedRow( ByteBuffer rowdata, int currentrow ) throws IOException,
+            DataFormatException {
+        if (rasterMapType == -2) {
+            /* Compressed double map */
+            readCompressedFPRowByNumber(rowdata, currentrow, addressesofrows, cellFile,
+                    numberOfBytesPerValue);
+        } else if (rasterMapType == -1) {
+            /* Compressed floating point map */
+            readCompressedFPRowByNumber(rowdata, currentrow, addressesofrows, cellFile,
+                    numberOfBytesPerValue);
+        } else if (rasterMapType > 0) {
+            /* Compressed integer map */
+            readCompressedIntegerRowByNumber(rowdata, currentrow, addressesofrows, cellFile);
+        } else {
+            // if (logger.isDebugEnabled())
+            // logger.error("format not double nor float");
+        }
+    }
+
+    /**
+     * decompresses in parallel a batch of rows starting from the given one. The row address table
+     * makes every row independently readable, so every row is a separate task. Only the rows of
+     * the map file that the data window maps to are decompressed, so that a window coarser than
+     * the map doesn't decompress the rows it skips.
+     * 
+     * @param firstRow the first row of the map file to decompress
+     * @throws IOException
+     * @throws DataFormatException
+     */
+    private void prefetchCompressedRows( int firstRow ) throws IOException, DataFormatException {
+        int rowBytes = fileWindow.getCols() * ((rasterMapType == -2) ? 8 : 4);
+        int maxRows = decodingThreads * PREFETCH_ROWS_PER_THREAD;
+        if (prefetchedRows == null || prefetchedRows.length != maxRows
+                || prefetchedRows[0].capacity() != rowBytes) {
+            prefetchedRows = new ByteBuffer[maxRows];
+            for( int i = 0; i < maxRows; i++ ) {
+                prefetchedRows[i] = ByteBuffer.allocate(rowBytes);
+            }
+            prefetchFileRows = new int[maxRows];
+        }
+        if (decodingExecutor == null) {
+            decodingExecutor = Executors.newFixedThreadPool(decodingThreads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "GrassRasterReader row decoder"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        /* invalidate the batch until it is completely decoded */
+        prefetchCount = 0;
+
+        /*
+         * the file rows of the data rows that follow the one mapping to the first row. The search
+         * starts a data row earlier, against the rounding of the inverse of dataRowToFileRow.
+         */
+        int[] fileRows = prefetchFileRows;
+        fileRows[0] = firstRow;
+        int count = 1;
+        int datarows = dataWindow.getRows();
+        int filerows = fileWindow.getRows();
+        int row = (int) Math.floor((firstRow * fileWindow.getNSResolution()
+                - fileWindow.getNorth() + dataWindow.getNorth())
+                / dataWindow.getNSResolution()) - 1;
+        for( row = Math.max(0, row); row < datarows && count < maxRows; row++ ) {
+            double filerow = dataRowToFileRow(row);
+            if (filerow >= filerows) {
+                break;
+            }
+            if (filerow > fileRows[count - 1]) {
+                fileRows[count++] = (int) filerow;
+            }
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(count);
+        for( int i = 0; i < count; i++ ) {
+            final ByteBuffer target = prefetchedRows[i];
+            final int fileRow = fileRows[i];
+            tasks.add(new Callable<Object>(){
+                public Object call() throws Exception {
+                    target.clear();
+                    readCompressedRow(target, fileRow);
+                    return null;
+                }
+            });
+        }
+        try {
+            List<Future<Object>> results = decodingExecutor.invokeAll(tasks);
+            for( Future<Object> result : results ) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while decompressing the raster rows."); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DataFormatException) {
+                throw (DataFormatException) cause;
+            }
+            throw new IOException(cause.getLocalizedMessage());
+        }
+        prefetchCount = count;
+    }
+
+    /**
+     * @param fileRow a row of the map file
+     * @return the index of the prefetched row holding the given row of the file, -1 if it has not
+     *         been prefetched
+     */
+    private int prefetchedRowIndex( int fileRow ) {
+        for( int i = 0; i < prefetchCount; i++ ) {
+            if (prefetchFileRows[i] == fileRow) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * reads the bytes of a row of a compressed map through a positional read, which doesn't
+     * modify the file pointer and is therefore safe to be called concurrently.
+     * 
+     * @param thefile the file to read from
+     * @param position the position of the row in the file
+     * @param buffer the array to fill
+     * @param length the number of bytes to read
+     * @throws IOException
+     */
+    private static void readRowBytes( RandomAccessFile thefile, long position, byte[] buffer,
+            int length ) throws IOException {
+        FileChannel channel = thefile.getChannel();
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, length);
+        while( wrapped.hasRemaining() ) {
+            if (channel.read(wrapped, position + wrapped.position()) < 0) {
+                throw new EOFException("The raster file ended while reading a row at position " //$NON-NLS-1$
+                        + position + "."); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private RowDecoder takeRowDecoder() {
+        RowDecoder decoder = rowDecoders.poll();
+        return decoder != null ? decoder : new RowDecoder();
+    }
+
+    private void releaseRowDecoder( RowDecoder decoder ) {
+        decoder.inflater.reset();
+        rowDecoders.offer(decoder);
+    }
+
+    /**
+     * Inflater and read buffer used to decompress a row. Instances are pooled instead of being
+     * created for every row.
+     */
+    private static class RowDecoder {
+        private final Inflater inflater = new Inflater();
+
+        private byte[] buffer = new byte[0];
+
+        private byte[] getBuffer( int size ) {
+            if (buffer.length < size) {
+                buffer = new byte[size];
+            }
+            return buffer;
+        }
+    }
+
     /**
      * read a row of data from a compressed floating point map
      * 
@@ -1415,30 +1735,26 @@ public class GrassRasterReader extends MapReader {
     private void readCompressedFPRowByNumber( ByteBuffer rowdata, int rn, long[] adrows,
             RandomAccessFile thefile, int typeBytes ) throws DataFormatException, IOException {
         int offset = (int) (adrows[rn + 1] - adrows[rn]);
-        /*
-         * The fact that the file is compressed does not mean that the row is compressed. If the
-         * first byte is 0 (49), then the row is compressed, otherwise (first byte = 48) the row has
-         * to be read in simple XDR uncompressed format.
-         */
-        byte[] tmp = new byte[offset - 1];
-        thefile.seek(adrows[rn]);
-        int firstbyte = (thefile.read() & 0xff);
-        if (firstbyte == 49) {
-            /* The row is compressed. */
-            // thefile.seek((long) adrows[rn] + 1);
-            thefile.read(tmp, 0, offset - 1);
-            Inflater decompresser = new Inflater();
-            decompresser.setInput(tmp, 0, tmp.length);
-            decompresser.inflate(rowdata.array());
-            decompresser.end();
-        } else if (firstbyte == 48) {
-            /* The row is NOT compressed */
-            // thefile.seek((long) (adrows[rn]));
-            // if (thefile.read() == 48)
-            // {
-            // thefile.seek((long) (adrows[rn] + 1));
-            thefile.read(rowdata.array(), 0, offset - 1);
-            // }
+        RowDecoder decoder = takeRowDecoder();
+        try {
+            /*
+             * The fact that the file is compressed does not mean that the row is compressed. If
+             * the first byte is 0 (49), then the row is compressed, otherwise (first byte = 48) the
+             * row has to be read in simple XDR uncompressed format.
+             */
+            byte[] tmp = decoder.getBuffer(offset);
+            readRowBytes(thefile, adrows[rn], tmp, offset);
+            int firstbyte = (tmp[0] & 0xff);
+            if (firstbyte == 49) {
+                /* The row is compressed. */
+                decoder.inflater.setInput(tmp, 1, offset - 1);
+                decoder.inflater.inflate(rowdata.array());
+            } else if (firstbyte == 48) {
+                /* The row is NOT compressed */
+                System.arraycopy(tmp, 1, rowdata.array(), 0, offset - 1);
+            }
+        } finally {
+            releaseRowDecoder(decoder);
         }
     }
 
@@ -1473,86 +1789,92 @@ public class GrassRasterReader extends MapReader {
             RandomAccessFile thefile ) throws IOException, DataFormatException {
         int offset = (int) (adrows[rn + 1] - adrows[rn]);
 
-        thefile.seek(adrows[rn]);
-        /*
-         * Read how many bytes the values are ex 1 => if encoded: 1 byte for the value and one byte
-         * for the count = 2 2 => if encoded: 2 bytes for the value and one byte for the count = 3
-         * etc... etc
-         */
-        int bytespervalue = (thefile.read() & 0xff);
-        ByteBuffer cell = ByteBuffer.allocate(bytespervalue);
-        int cellValue = 0;
-
-        /* Create the buffer in which read the compressed row */
-        byte[] tmp = new byte[offset - 1];
-        thefile.read(tmp);
-        ByteBuffer tmpBuffer = ByteBuffer.wrap(tmp);
-        tmpBuffer.order(ByteOrder.nativeOrder());
-
-        /*
-         * Create the buffer in which read the decompressed row. The final decompressed row will
-         * always contain 4-byte integer values
-         */
-        if ((offset - 1) == (bytespervalue * fileWindow.getCols())) {
-            /* There is no compression in this row */
-            for( int i = 0; i < offset - 1; i = i + bytespervalue ) {
-                /* Read the value */
-                tmpBuffer.get(cell.array());
-
-                /*
-                 * Integers can be of 1, 2, or 4 bytes. As rasterBuffer expects 4 byte integers we
-                 * need to pad them with 0's. The order of the padding is determined by the
-                 * ByteOrder of the buffer.
-                 */
-                if (bytespervalue == 1) {
-                    cellValue = (cell.get(0) & 0xff);
-                } else if (bytespervalue == 2) {
-                    cellValue = cell.getShort(0);
-                } else if (bytespervalue == 4) {
-                    cellValue = cell.getInt(0);
-                }
-                // if (logger.isDebugEnabled()) logger.debug("tmpint=" + tmpint
-                // );
-                rowdata.putInt(cellValue);
-            }
-        } else {
+        /* Read the whole row in the buffer of a pooled decoder */
+        RowDecoder decoder = takeRowDecoder();
+        try {
+            byte[] tmp = decoder.getBuffer(offset);
+            readRowBytes(thefile, adrows[rn], tmp, offset);
             /*
-             * If the row is compressed, then the values appear in pairs (like couples a party). The
-             * couple is composed of the count and the value value (WARNING: this can be more than
-             * one byte). Therefore, knowing the length of the compressed row we can calculate the
-             * number of couples.
+             * Read how many bytes the values are ex 1 => if encoded: 1 byte for the value and one byte
+             * for the count = 2 2 => if encoded: 2 bytes for the value and one byte for the count = 3
+             * etc... etc
              */
-            int couples = (offset - 1) / (1 + bytespervalue);
+            int bytespervalue = (tmp[0] & 0xff);
+            ByteBuffer cell = ByteBuffer.allocate(bytespervalue);
+            int cellValue = 0;
 
-            for( int i = 0; i < couples; i++ ) {
-                /* Read the count of values */
-                int count = (tmpBuffer.get() & 0xff);
+            /* Wrap the compressed row, skipping the byte count */
+            ByteBuffer tmpBuffer = ByteBuffer.wrap(tmp, 1, offset - 1);
+            tmpBuffer.order(ByteOrder.nativeOrder());
 
-                /* Read the value */
-                tmpBuffer.get(cell.array());
+            /*
+             * Create the buffer in which read the decompressed row. The final decompressed row will
+             * always contain 4-byte integer values
+             */
+            if ((offset - 1) == (bytespervalue * fileWindow.getCols())) {
+                /* There is no compression in this row */
+                for( int i = 0; i < offset - 1; i = i + bytespervalue ) {
+                    /* Read the value */
+                    tmpBuffer.get(cell.array());
 
-                /*
-                 * Integers can be of 1, 2, or 4 bytes. As rasterBuffer expects 4 byte integers we
-                 * need to pad them with 0's. The order of the padding is determined by the
-                 * ByteOrder of the buffer.
-                 */
-                if (bytespervalue == 1) {
-                    cellValue = (cell.get(0) & 0xff);
-                } else if (bytespervalue == 2) {
-                    cellValue = cell.getShort(0);
-                } else if (bytespervalue == 4) {
-                    cellValue = cell.getInt(0);
+                    /*
+                     * Integers can be of 1, 2, or 4 bytes. As rasterBuffer expects 4 byte integers we
+                     * need to pad them with 0's. The order of the padding is determined by the
+                     * ByteOrder of the buffer.
+                     */
+                    if (bytespervalue == 1) {
+                        cellValue = (cell.get(0) & 0xff);
+                    } else if (bytespervalue == 2) {
+                        cellValue = cell.getShort(0);
+                    } else if (bytespervalue == 4) {
+                        cellValue = cell.getInt(0);
+                    }
+                    // if (logger.isDebugEnabled()) logger.debug("tmpint=" + tmpint
+                    // );
+                    rowdata.putInt(cellValue);
                 }
+            } else {
                 /*
-                 * Now write the cell value the required number of times to the raster row data
-                 * buffer.
+                 * If the row is compressed, then the values appear in pairs (like couples a party). The
+                 * couple is composed of the count and the value value (WARNING: this can be more than
+                 * one byte). Therefore, knowing the length of the compressed row we can calculate the
+                 * number of couples.
                  */
-                for( int j = 0; j < count; j++ ) {
-                    // // if (logger.isDebugEnabled()) logger.debug(" " +
-                    // tmpint);
-                    rowdata.putInt(cellValue);
+                int couples = (offset - 1) / (1 + bytespervalue);
+
+                for( int i = 0; i < couples; i++ ) {
+                    /* Read the count of values */
+                    int count = (tmpBuffer.get() & 0xff);
+
+                    /* Read the value */
+                    tmpBuffer.get(cell.array());
+
+                    /*
+                     * Integers can be of 1, 2, or 4 bytes. As rasterBuffer expects 4 byte integers we
+                     * need to pad them with 0's. The order of the padding is determined by the
+                     * ByteOrder of the buffer.
+                     */
+                    if (bytespervalue == 1) {
+                        cellValue = (cell.get(0) & 0xff);
+                    } else if (bytespervalue == 2) {
+                        cellValue = cell.getShort(0);
+                    } else if (bytespervalue == 4) {
+                        cellValue = cell.getInt(0);
+                    }
+                    /*
+                     * Now write the cell value the required number of times to the raster row data
+                     * buffer.
+                     */
+                    for( int j = 0; j < count; j++ ) {
+                        // // if (logger.isDebugEnabled()) logger.debug(" " +
+                        // tmpint);
+                        rowdata.putInt(cellValue);
+                    }
                 }
             }
+        } finally {
+            /* The integer rows don't need the inflater, just give the buffer back */
+            releaseRowDecoder(decoder);
         }
     }
 
@@ -1605,69 +1927,6 @@ public class GrassRasterReader extends MapReader {
         }
     }
 
-    /**
-     * read the null value from the null file (if it exists) and returns the information about the
-     * particular cell (true if it is novalue, false if it is not a novalue
-     * 
-     * @param currentfilerow
-     * @param currentfilecol
-     * @return
-     */
-    private boolean readNullValueAtRowCol( int currentfilerow, int currentfilecol )
-            throws IOException {
-        /*
-         * If the null file doesn't exist and the map is an integer, than it is an old integer-map
-         * format, where the novalues are the cells that contain the values 0
-         */
-        if (nullFile != null) {
-            long byteperrow = (long) Math.ceil(fileWindow.getCols() / 8.0); // in the
-            // null
-            // map of
-            // cell_misc
-            long currentByte = (long) Math.ceil((currentfilecol + 1) / 8.0); // in the
-            // null
-            // map
-
-            // currentfilerow starts from 0, so it is the row before the one we
-            // need
-            long byteToRead = (byteperrow * currentfilerow) + currentByte;
-
-            nullFile.seek(byteToRead - 1);
-
-            int bitposition = (currentfilecol) % 8;
-
-            byte[] thetmp = new byte[1];
-            thetmp[0] = nullFile.readByte();
-            BitSet tmp = FileUtilities.fromByteArray(thetmp);
-
-            boolean theBit = tmp.get(7 - bitposition);
-            /*
-             * if (theBit) { System.out.println("1 at position: " + (7-bitposition) + " due to
-             * bitposition: " + bitposition); } else { System.out.println("0 at position: " +
-             * (7-bitposition) + " due to bitposition: " + bitposition); }
-             */
-            return theBit;
-
-        }
-        // else
-        // {
-        // /* There is no null file around */
-        // if (rasterMapType > 0)
-        // {
-        // // isOldIntegerMap = true;
-        // return false;
-        // }
-        // else
-        // {
-        // //throw some exception
-        // return false;
-        // }
-        //
-        // }
-        return false;
-
-    }
-
     /**
      * Utility method to read a double matrix of data from a double raster map
      */
@@ -67,6 +67,9 @@ public class GrassRasterWriter extends MapWriter {
 
     private boolean jump = false;
 
+    /* the number of threads used to compress the rows */
+    private int writeThreads = 1;
+
     /**
      * 
      */
@@ -126,6 +129,7 @@ public class GrassRasterWriter extends MapWriter {
          */
         CompressesRasterWriter crwriter = new CompressesRasterWriter(outputToDiskType, jump, range,
                 pointerInFilePosition, rowaddresses, dataWindow);
+        crwriter.setWriteThreads(writeThreads);
         crwriter.compressAndWriteObj(theCreatedFile, theCreatedNullFile, dataObject);
         // not sure I have to do this, have to check sooner or later
         outputToDiskType = crwriter.getOutputToDiskType();
@@ -141,6 +145,57 @@ public class GrassRasterWriter extends MapWriter {
         return true;
     }
 
+    /*
+     * the writing by rows in progress
+     */
+    private CompressesRasterWriter rowsWriter = null;
+    private RandomAccessFile rowsFile = null;
+    private RandomAccessFile rowsNullFile = null;
+
+    /**
+     * Starts writing the map row by row, as an alternative to {@link #write(Object)} for data that
+     * are produced a row at the time. The rows are passed in order to {@link #writeRow(double[])}
+     * and the map is completed by {@link #finishRows()}.
+     */
+    public void startRows() throws Exception {
+        rowsFile = new RandomAccessFile(new File(fcellFilePath), "rw"); //$NON-NLS-1$
+        rowsNullFile = new RandomAccessFile(new File(mapsetPath + File.separator
+                + JGrassConstants.CELL_MISC + File.separator + name + File.separator
+                + JGrassConstants.CELLMISC_NULL), "rw"); //$NON-NLS-1$
+        rowsWriter = new CompressesRasterWriter(outputToDiskType, jump, range,
+                pointerInFilePosition, rowaddresses, dataWindow);
+        rowsWriter.setWriteThreads(writeThreads);
+        rowsWriter.startRows(rowsFile, rowsNullFile);
+    }
+
+    /**
+     * Writes the next row of the map.
+     * 
+     * @param row the values of the row, the array can be reused once the method returns.
+     */
+    public void writeRow( double[] row ) throws Exception {
+        rowsWriter.writeRow(row);
+    }
+
+    /**
+     * Completes the map written by rows, writing the header and the support files.
+     */
+    public boolean finishRows() throws Exception {
+        try {
+            rowsWriter.finishRows();
+            jump = rowsWriter.isJump();
+            range = rowsWriter.getRange();
+            pointerInFilePosition = rowsWriter.getPointerInFilePosition();
+            rowaddresses = rowsWriter.getRowaddresses();
+        } finally {
+            rowsFile.close();
+            rowsNullFile.close();
+            rowsWriter = null;
+        }
+        createUtilityFiles();
+        return true;
+    }
+
     /**
      * check if the needed folders are there (they could be missing if the mapset has just been
      * created and this is the first file that gets into it
@@ -365,6 +420,9 @@ public class GrassRasterWriter extends MapWriter {
     }
 
     public void setParameter( String key, Object obj ) {
+        if (key.equals("writethreads")) { //$NON-NLS-1$
+            writeThreads = Math.max(1, ((Integer) obj).intValue());
+        }
     }
 
     public void setDataWindow( JGrassRegion window ) {
@@ -24,6 +24,7 @@ import java.util.Vector;
 import eu.hydrologis.jgrass.libs.map.color.ColorMapBuffer;
 import eu.hydrologis.jgrass.libs.map.color.ColorTable;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
 /**
@@ -59,6 +60,12 @@ public abstract class MapReader {
 
     protected int readerType = 0;
 
+    /*
+     * the data window read at once by the default readRows, for the readers that are not able to
+     * read by rows
+     */
+    private double[][] readRowsData = null;
+
     /** Creates a new instance of MapReader */
     public MapReader( int _readerType ) {
         readerType = _readerType;
@@ -142,6 +149,7 @@ public abstract class MapReader {
      */
     public void setDataWindow( JGrassRegion window ) {
         dataWindow = window;
+        readRowsData = null;
     }
 
     /**
@@ -193,6 +201,61 @@ public abstract class MapReader {
      */
     public abstract Object getNextData();
 
+    /**
+     * Reads a block of rows of the active region into a matrix supplied by the caller. This allows
+     * to process maps of any size with a bounded amount of memory, since only the requested rows
+     * are decoded.
+     * 
+     * <p>
+     * Readers that are not able to read by rows rely on this default, that reads the whole data
+     * window once through {@link #hasMoreData(IProgressMonitorJGrass)} and {@link #getNextData()}
+     * and copies the requested rows out of it. After that the data of the reader have been
+     * consumed, so the two methods can't be used any more.
+     * </p>
+     * 
+     * @param firstRow the first row of the active region to read. Rows outside of the region are
+     *        filled with the novalue.
+     * @param rows the matrix to fill, every row has to be as long as the active region columns.
+     * @param offset the index of the first row of the matrix to fill.
+     * @param count the number of rows to read.
+     * @throws IOException
+     */
+    public void readRows( int firstRow, double[][] rows, int offset, int count ) throws IOException {
+        if (readRowsData == null) {
+            Object outputDataObject = dataObject;
+            setOutputDataObject(new double[0][0]);
+            try {
+                if (!hasMoreData(new DummyProgressMonitor())) {
+                    throw new IOException("No data could be read from the map.");
+                }
+                readRowsData = (double[][]) getNextData();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getLocalizedMessage());
+            } finally {
+                setOutputDataObject(outputDataObject);
+            }
+            if (readRowsData == null) {
+                throw new IOException("No data could be read from the map.");
+            }
+        }
+        Object novalue = getParameter("novalue", new Double(Double.NaN)); //$NON-NLS-1$
+        double nv = novalue instanceof Number ? ((Number) novalue).doubleValue() : Double.NaN;
+        for( int i = 0; i < count; i++ ) {
+            double[] target = rows[offset + i];
+            int row = firstRow + i;
+            if (row < 0 || row >= readRowsData.length) {
+                for( int c = 0; c < target.length; c++ ) {
+                    target[c] = nv;
+                }
+            } else {
+                System.arraycopy(readRowsData[row], 0, target, 0, Math.min(target.length,
+                        readRowsData[row].length));
+            }
+        }
+    }
+
     /**
      * @param attIndex
      * @return the data color
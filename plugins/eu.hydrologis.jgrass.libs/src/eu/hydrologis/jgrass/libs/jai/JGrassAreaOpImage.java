@@ -14,6 +14,9 @@ import javax.media.jai.ImageLayout;
 import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.messages.Messages;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 /**
  * An useful extension of AreaOpImage which adpat the Image to the geographical map.
  * <p>
@@ -55,6 +58,10 @@ public class JGrassAreaOpImage extends AreaOpImage {
      *  the number of tile to be computed.
      */
     protected int numTile = 0;
+    /**
+     *  the number of block computations running, during which the tiles report no progress.
+     */
+    private int blockComputations = 0;
 
     public JGrassAreaOpImage( RenderedImage source, ImageLayout layout, Map configuration,
             boolean cobbleSources, BorderExtender extender, int leftPadding, int rightPadding,
@@ -66,6 +73,7 @@ public class JGrassAreaOpImage extends AreaOpImage {
         this.yRes = dy;
         this.err = err;
         this.out = out;
+        numTile = getNumXTiles() * getNumYTiles();
         if (cobbleSources) {
             // if the cobbleSource is true (doTile=true) then print some information about the tiles
             out.println("tile size = " + this.tileHeight); //$NON-NLS-1$
@@ -87,18 +95,111 @@ public class JGrassAreaOpImage extends AreaOpImage {
             return super.computeTile(tileX, tileY);
         }
 
-        out.println(Messages.getString("working") + " " + currentTile + " of " + numTile
-                + " tiles.");
-        out.println(Messages.getString("readtile") + " " + tileX + " " + tileY);
+        synchronized (this) {
+            out.println(Messages.getString("working") + " " + currentTile + " of " + numTile
+                    + " tiles.");
+            out.println(Messages.getString("readtile") + " " + tileX + " " + tileY);
+            currentTile++;
+        }
 
         /* Create a new WritableRaster to represent this tile. */
         Point org = new Point(tileXToX(tileX), tileYToY(tileY));
         WritableRaster dest = createWritableRaster(sampleModel, org);
 
         /* Clip output rectangle to image bounds. */
-        Rectangle rect = new Rectangle(org.x, org.y, sampleModel.getWidth(), sampleModel
-                .getHeight());
+        Rectangle destRect = getDestRect(new Rectangle(org.x, org.y, sampleModel.getWidth(),
+                sampleModel.getHeight()));
+        if (destRect == null) {
+            return dest;
+        }
+
+        /* account for padding in srcRectangle */
+        Rectangle srcRect = getPaddedRect(destRect);
+
+        // Fetch the padded src rectangle
+        Raster source = getPaddedData(srcRect);
+
+        // Make a destRectangle
+        computePaddedRect(source, dest, destRect);
+
+        // Recycle the source tile
+        recyclePaddedData(source, srcRect);
+
+        return dest;
+
+    }
+
+    /**
+     * Computes the whole image on a pool of threads.
+     * 
+     * @param threads the number of threads.
+     * @return the raster of the whole image.
+     * @see JGrassAreaTileScheduler
+     */
+    public WritableRaster computeTiles( int threads ) {
+        return new JGrassAreaTileScheduler(threads).compute(this)[0];
+    }
+
+    /**
+     * Computes several operations on the same source in one pass, reading every padded block of
+     * the source once for all of them.
+     * 
+     * @param threads the number of threads.
+     * @param operations the operations, with the same source, padding and border extender.
+     * @return the rasters of the operations, in the same order.
+     * @see JGrassAreaTileScheduler
+     */
+    public static WritableRaster[] computeTiles( int threads, JGrassAreaOpImage... operations ) {
+        return new JGrassAreaTileScheduler(threads).compute(operations);
+    }
+
+    /**
+     * Whether the operation can be computed by blocks.
+     * <p>
+     * This is the case if the result of {@link #computeRect(Raster[], WritableRaster, Rectangle)}
+     * on a rectangle depends only on the padded source of that rectangle, so that the image can be
+     * split in blocks of any size without changing the result. Operations that need more than
+     * their padding, or carry values from a cell to the next, are not.
+     * </p>
+     * 
+     * @return <code>true</code> if the operation can be computed by the
+     *         {@link JGrassAreaTileScheduler}, <code>false</code> by default.
+     */
+    protected boolean isBlockSafe() {
+        return false;
+    }
+
+    /**
+     * The monitor for the progress of a tile computation.
+     * <p>
+     * When the operation is computed by blocks on several threads the progress is reported by the
+     * {@link JGrassAreaTileScheduler} and the tiles report nothing.
+     * </p>
+     * 
+     * @return the monitor to use in the computation of a tile.
+     */
+    protected synchronized IProgressMonitorJGrass getTileMonitor() {
+        if (blockComputations > 0) {
+            return new DummyProgressMonitor();
+        }
+        return new PrintStreamProgressMonitor(out);
+    }
+
+    synchronized void beginBlockComputation() {
+        blockComputations++;
+    }
+
+    synchronized void endBlockComputation() {
+        blockComputations--;
+    }
 
+    /**
+     * The part of a rectangle that is computed, i.e. the rectangle clipped to the image less the
+     * padding.
+     * 
+     * @return the rectangle to compute or <code>null</code> if nothing of it is computed.
+     */
+    Rectangle getDestRect( Rectangle rect ) {
         int d_x0 = getMinX() + leftPadding;
         int d_y0 = getMinY() + topPadding;
 
@@ -111,35 +212,61 @@ public class JGrassAreaOpImage extends AreaOpImage {
         Rectangle theDest = new Rectangle(d_x0, d_y0, d_w, d_h);
         Rectangle destRect = rect.intersection(theDest);
         if ((destRect.width <= 0) || (destRect.height <= 0)) {
-            return dest;
+            return null;
         }
+        destRect = destRect.intersection(getSource(0).getBounds());
+        if ((destRect.width <= 0) || (destRect.height <= 0)) {
+            return null;
+        }
+        return destRect;
+    }
 
-        /* account for padding in srcRectangle */
-        PlanarImage s = getSource(0);
+    /**
+     * An empty raster on the rectangle, with the sample model of the tiles.
+     */
+    WritableRaster createDestRaster( Rectangle destRect ) {
+        return createWritableRaster(sampleModel.createCompatibleSampleModel(destRect.width,
+                destRect.height), new Point(destRect.x, destRect.y));
+    }
 
-        destRect = destRect.intersection(s.getBounds());
+    /**
+     * The source rectangle needed to compute the destination rectangle.
+     */
+    Rectangle getPaddedRect( Rectangle destRect ) {
         Rectangle srcRect = new Rectangle(destRect);
         srcRect.x -= getLeftPadding();
         srcRect.width += getLeftPadding() + getRightPadding();
         srcRect.y -= getTopPadding();
         srcRect.height += getTopPadding() + getBottomPadding();
+        return srcRect;
+    }
 
-        Raster[] sources = new Raster[1];
-
-        // Fetch the padded src rectangle
-        sources[0] = (extender != null) ? s.getExtendedData(srcRect, extender) : s.getData(srcRect);
-
-        // Make a destRectangle
-        computeRect(sources, dest, destRect);
+    /**
+     * The source data of the padded rectangle, extended by the border extender if there is one.
+     */
+    Raster getPaddedData( Rectangle srcRect ) {
+        PlanarImage s = getSource(0);
+        return (extender != null) ? s.getExtendedData(srcRect, extender) : s.getData(srcRect);
+    }
 
-        // Recycle the source tile
-        if (s.overlapsMultipleTiles(srcRect)) {
-            recycleTile(sources[0]);
+    void recyclePaddedData( Raster source, Rectangle srcRect ) {
+        if (getSource(0).overlapsMultipleTiles(srcRect)) {
+            recycleTile(source);
         }
-        currentTile++;
+    }
 
-        return dest;
+    void computePaddedRect( Raster source, WritableRaster dest, Rectangle destRect ) {
+        computeRect(new Raster[]{source}, dest, destRect);
+    }
 
+    /**
+     * Whether the padded source tiles of this operation are also those of the other one.
+     */
+    boolean sharesPaddedSource( JGrassAreaOpImage other ) {
+        return getSource(0) == other.getSource(0) && extender == other.extender
+                && leftPadding == other.leftPadding && rightPadding == other.rightPadding
+                && topPadding == other.topPadding && bottomPadding == other.bottomPadding
+                && getBounds().equals(other.getBounds());
     }
 
 }
@@ -0,0 +1,209 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.jai;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import eu.hydrologis.jgrass.libs.messages.Messages;
+import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+
+/**
+ * Computes {@link JGrassAreaOpImage area operations} by blocks on a pool of threads.
+ * <p>
+ * The image is split in blocks, independently of the tiles of the operation, so also an image
+ * made of a single tile is computed in parallel. The padded source of every block is read once,
+ * in order, by the calling thread, while the blocks already read are computed by the workers. At
+ * most two blocks per worker are read ahead, so the memory stays bounded whatever the size of the
+ * image.
+ * </p>
+ * <p>
+ * Several operations on the same source, with the same padding and border extender, can be
+ * computed in one pass: every padded block of the source is then read once and given to all of
+ * them, in place of one read of the whole source per operation. The kernels are the
+ * {@link JGrassAreaOpImage#computeRect(Raster[], WritableRaster, Rectangle) tile computations} of
+ * the operations, so the result is the one of the tiled (doTile) operations with tiles of the size
+ * of the blocks, whatever the number of threads. Only the operations that are
+ * {@link JGrassAreaOpImage#isBlockSafe() block safe} are accepted.
+ * </p>
+ * <p>
+ * The progress is reported by block, from the calling thread, on the output stream of the first
+ * operation.
+ * </p>
+ * <p>
+ * The models compute a single operation of a map, so they don't use the pass on several
+ * operations: it serves the callers that need more than one derivative of the same map.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class JGrassAreaTileScheduler {
+
+    private final int threads;
+    private final int blockWidth;
+    private final int blockHeight;
+
+    /**
+     * @param threads the number of threads that compute the blocks.
+     */
+    public JGrassAreaTileScheduler( int threads ) {
+        this(threads, 256, 256);
+    }
+
+    /**
+     * @param threads the number of threads that compute the blocks.
+     * @param blockWidth the width of the blocks in pixels.
+     * @param blockHeight the height of the blocks in pixels.
+     */
+    public JGrassAreaTileScheduler( int threads, int blockWidth, int blockHeight ) {
+        if (blockWidth < 1 || blockHeight < 1) {
+            throw new IllegalArgumentException("The blocks need to be at least one pixel wide.");
+        }
+        this.threads = Math.max(1, threads);
+        this.blockWidth = blockWidth;
+        this.blockHeight = blockHeight;
+    }
+
+    /**
+     * Computes the operations, sharing the reading of the padded source blocks.
+     *
+     * @param operations the operations, all on the same source and with the same padding and
+     *        border extender.
+     * @return the results of the operations, in the same order, each a raster on the bounds of
+     *         the operation.
+     * @throws IllegalArgumentException if an operation can not be computed by blocks or the
+     *         operations do not share the source, the padding or the extender.
+     */
+    public WritableRaster[] compute( final JGrassAreaOpImage... operations ) {
+        if (operations.length == 0) {
+            return new WritableRaster[0];
+        }
+        final JGrassAreaOpImage first = operations[0];
+        for( int i = 0; i < operations.length; i++ ) {
+            if (!operations[i].isBlockSafe()) {
+                throw new IllegalArgumentException("The operation "
+                        + operations[i].getClass().getSimpleName()
+                        + " can not be computed by blocks.");
+            }
+            if (!first.sharesPaddedSource(operations[i])) {
+                throw new IllegalArgumentException(
+                        "The operations computed together need the same source, padding and border extender.");
+            }
+        }
+
+        final WritableRaster[] results = new WritableRaster[operations.length];
+        for( int i = 0; i < operations.length; i++ ) {
+            results[i] = operations[i].createDestRaster(operations[i].getBounds());
+        }
+
+        int blocksX = (first.getWidth() + blockWidth - 1) / blockWidth;
+        int blocksY = (first.getHeight() + blockHeight - 1) / blockHeight;
+        int blocks = blocksX * blocksY;
+        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(first.out);
+        pm.beginTask(Messages.getString("working") + " " + blocks + " blocks...", blocks);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread(r, "JGrassAreaTileScheduler worker"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for( int i = 0; i < operations.length; i++ ) {
+            operations[i].beginBlockComputation();
+        }
+        final Semaphore readAhead = new Semaphore(2 * threads);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        try {
+            for( int y = first.getMinY(); y < first.getMaxY(); y += blockHeight ) {
+                for( int x = first.getMinX(); x < first.getMaxX(); x += blockWidth ) {
+                    final Rectangle destRect = first.getDestRect(new Rectangle(x, y, blockWidth,
+                            blockHeight));
+                    if (destRect == null) {
+                        pm.worked(1);
+                        continue;
+                    }
+                    final Rectangle srcRect = first.getPaddedRect(destRect);
+                    readAhead.acquire();
+                    final Raster paddedSource;
+                    try {
+                        paddedSource = first.getPaddedData(srcRect);
+                    } catch (RuntimeException e) {
+                        readAhead.release();
+                        throw e;
+                    }
+                    futures.add(executor.submit(new Callable<Object>(){
+                        public Object call() {
+                            try {
+                                for( int i = 0; i < operations.length; i++ ) {
+                                    WritableRaster dest = operations[i].createDestRaster(destRect);
+                                    operations[i].computePaddedRect(paddedSource, dest, destRect);
+                                    results[i].setRect(dest);
+                                }
+                                first.recyclePaddedData(paddedSource, srcRect);
+                                return null;
+                            } finally {
+                                readAhead.release();
+                            }
+                        }
+                    }));
+                    // report the blocks done and stop reading at the first failed one
+                    for( Iterator<Future<Object>> it = futures.iterator(); it.hasNext(); ) {
+                        Future<Object> future = it.next();
+                        if (future.isDone()) {
+                            it.remove();
+                            future.get();
+                            pm.worked(1);
+                        }
+                    }
+                }
+            }
+            for( Future<Object> future : futures ) {
+                future.get();
+                pm.worked(1);
+            }
+            pm.done();
+            return results;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while computing the blocks.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause.getLocalizedMessage());
+        } finally {
+            executor.shutdownNow();
+            for( int i = 0; i < operations.length; i++ ) {
+                operations[i].endBlockComputation();
+            }
+        }
+    }
+
+}
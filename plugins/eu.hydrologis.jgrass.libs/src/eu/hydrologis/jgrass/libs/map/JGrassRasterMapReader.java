@@ -57,6 +57,7 @@ public class JGrassRasterMapReader {
      * <li>the number to use internally instead of the map novalues</li>
      * <li>the raster map type to read (ex. {@link JGrassConstants#GRASSBINARYRASTERMAP})</li>
      * <li>a monitor object</li>
+     * <li>the number of threads decompressing the rows of the map, or parsing the ascii maps</li>
      * </ul>
      * </p>
      */
@@ -68,6 +69,7 @@ public class JGrassRasterMapReader {
         private double novalue = JGrassConstants.doubleNovalue;
         private String maptype = JGrassConstants.GRASSBINARYRASTERMAP;
         private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
+        private int threads = 1;
 
         /**
          * Constructor for the {@link BuilderFromGeoresource} with the required parameters.
@@ -113,6 +115,18 @@ public class JGrassRasterMapReader {
             return this;
         }
 
+        /**
+         * Sets the optional number of threads that decompress the rows of the binary maps or parse
+         * the values of the ascii maps, default is 1.
+         * 
+         * @param threads the number of threads to be used.
+         * @return the builder object to allow chaining.
+         */
+        public BuilderFromMapPath threads( int threads ) {
+            this.threads = threads;
+            return this;
+        }
+
         /**
          * Builds the {@link JGrassRasterMapReader}.
          * 
@@ -140,6 +154,7 @@ public class JGrassRasterMapReader {
      * <li>the number to use internally instead of the map novalues</li>
      * <li>the raster map type to read (ex. {@link JGrassConstants#GRASSBINARYRASTERMAP})</li>
      * <li>a monitor object</li>
+     * <li>the number of threads decompressing the rows of the map, or parsing the ascii maps</li>
      * </ul>
      * </p>
      */
@@ -153,6 +168,7 @@ public class JGrassRasterMapReader {
         private double novalue = JGrassConstants.doubleNovalue;
         private String maptype = JGrassConstants.GRASSBINARYRASTERMAP;
         private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
+        private int threads = 1;
 
         /**
          * Constructor for the {@link BuilderFromGeoresource} with the required paraeters.
@@ -201,6 +217,18 @@ public class JGrassRasterMapReader {
             return this;
         }
 
+        /**
+         * Sets the optional number of threads that decompress the rows of the binary maps or parse
+         * the values of the ascii maps, default is 1.
+         * 
+         * @param threads the number of threads to be used.
+         * @return the builder object to allow chaining.
+         */
+        public BuilderFromPathAndNames threads( int threads ) {
+            this.threads = threads;
+            return this;
+        }
+
         /**
          * Builds the {@link JGrassRasterMapReader}.
          * 
@@ -233,6 +261,7 @@ public class JGrassRasterMapReader {
         this.locationPath = builder.locationPath;
         reader = MapIOFactory.CreateRasterMapReader(builder.maptype);
         reader.setParameter("novalue", builder.novalue);
+        reader.setParameter("readthreads", builder.threads);
         reader.setDataWindow(builder.readWindow);
         reader.setOutputDataObject(new double[0][0]);
 
@@ -251,6 +280,7 @@ public class JGrassRasterMapReader {
         this.mapPath = builder.mapPath;
         reader = MapIOFactory.CreateRasterMapReader(builder.maptype);
         reader.setParameter("novalue", builder.novalue);
+        reader.setParameter("readthreads", builder.threads);
         reader.setDataWindow(builder.readWindow);
         reader.setOutputDataObject(new double[0][0]);
         fullMapPath = mapPath;
@@ -305,6 +335,23 @@ public class JGrassRasterMapReader {
 
     }
 
+    /**
+     * Creates an iterator that reads the map by blocks of rows, instead of materializing the whole
+     * map as {@link #getNextData()} does. The reader has to be opened before.
+     * 
+     * <p>
+     * Neighbourhood operators can ask for halo rows, that are made available above and below every
+     * block (see {@link RasterRowBlock}).
+     * </p>
+     * 
+     * @param blockRows the number of rows of every block.
+     * @param halo the number of extra rows to read above and below every block.
+     * @return the iterator over the row blocks.
+     */
+    public RasterRowBlockIterator rowBlocks( int blockRows, int halo ) {
+        return new RasterRowBlockIterator(reader, blockRows, halo);
+    }
+
     /**
      * This assures a range only after the data were read at least once
      * 
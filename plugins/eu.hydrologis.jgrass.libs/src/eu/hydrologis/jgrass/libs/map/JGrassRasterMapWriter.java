@@ -24,6 +24,7 @@ import java.util.Date;
 import net.refractions.udig.catalog.IGeoResource;
 
 import eu.hydrologis.jgrass.libs.JGrassLibsPlugin;
+import eu.hydrologis.jgrass.libs.io.GrassRasterWriter;
 import eu.hydrologis.jgrass.libs.io.MapIOFactory;
 import eu.hydrologis.jgrass.libs.io.MapWriter;
 import eu.hydrologis.jgrass.libs.io.RasterWritingFailureException;
@@ -259,6 +260,16 @@ public class JGrassRasterMapWriter {
                 JGrassConstants.GRASSBINARYRASTERMAP, monitor);
     }
 
+    /**
+     * Sets the number of threads that compress the rows of the map, default is 1. It has to be set
+     * before the map is written.
+     * 
+     * @param threads the number of threads to be used.
+     */
+    public void setThreads( int threads ) {
+        writer.setParameter("writethreads", threads);
+    }
+
     /**
      * <p>
      * Opens the raster map and does some first checking
@@ -316,6 +327,71 @@ public class JGrassRasterMapWriter {
 
     }
 
+    /**
+     * <p>
+     * Starts writing the map row by row, for data that are produced a row at the time and don't
+     * need to be kept in memory. The rows are then passed in order to {@link #writeRow(double[])}
+     * and the map is completed by {@link #finishRows()}.
+     * </p>
+     * <p>
+     * <b>NOTE:</b> only the GRASS binary rasters can be written by rows.
+     * </p>
+     * 
+     * @throws RasterWritingFailureException
+     */
+    public void startRows() throws RasterWritingFailureException {
+        try {
+            getRowsWriter().startRows();
+        } catch (RasterWritingFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RasterWritingFailureException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Writes the next row of the map started with {@link #startRows()}.
+     * 
+     * @param row the values of the row, as many as the columns of the region.
+     * @throws RasterWritingFailureException
+     */
+    public void writeRow( double[] row ) throws RasterWritingFailureException {
+        try {
+            getRowsWriter().writeRow(row);
+        } catch (RasterWritingFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RasterWritingFailureException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Completes the map written by rows.
+     * 
+     * @return true if everything went well
+     * @throws RasterWritingFailureException
+     */
+    public boolean finishRows() throws RasterWritingFailureException {
+        try {
+            return getRowsWriter().finishRows();
+        } catch (RasterWritingFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            JGrassLibsPlugin
+                    .log(
+                            "JGrassLibsPlugin problem: eu.hydrologis.jgrass.libs.map#JGrassRasterMapWriter#finishRows", e); //$NON-NLS-1$
+            throw new RasterWritingFailureException(e.getLocalizedMessage());
+        }
+    }
+
+    private GrassRasterWriter getRowsWriter() throws RasterWritingFailureException {
+        if (!(writer instanceof GrassRasterWriter)) {
+            throw new RasterWritingFailureException(
+                    "Only the GRASS binary rasters can be written by rows.");
+        }
+        return (GrassRasterWriter) writer;
+    }
+
     public void close() {
         writer.close();
     }
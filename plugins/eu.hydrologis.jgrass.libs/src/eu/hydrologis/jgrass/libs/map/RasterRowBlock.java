@@ -0,0 +1,123 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+/**
+ * A block of consecutive rows of a raster map, as returned by the {@link RasterRowBlockIterator}.
+ * 
+ * <p>
+ * Rows are addressed relative to the first row of the block. The block can carry a number of halo
+ * rows above and below it, which can be accessed through negative row indexes and indexes beyond
+ * {@link #getRows()}. This is what neighbourhood operators like slope and gradient need to process
+ * the border rows of the block.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RasterRowBlock implements RasterData {
+
+    private double[][] data;
+
+    private final int halo;
+
+    private int firstRow;
+
+    private int rows;
+
+    /**
+     * @param data the backing matrix, holding the block rows plus the halo rows above and below.
+     * @param halo the number of halo rows on each side of the block.
+     */
+    RasterRowBlock( double[][] data, int halo ) {
+        this.data = data;
+        this.halo = halo;
+    }
+
+    void set( double[][] data, int firstRow, int rows ) {
+        this.data = data;
+        this.firstRow = firstRow;
+        this.rows = rows;
+    }
+
+    /**
+     * @return the row of the whole map that corresponds to row 0 of the block.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return the number of halo rows available on each side of the block.
+     */
+    public int getHalo() {
+        return halo;
+    }
+
+    public double getValueAt( int row, int col ) {
+        return data[row + halo][col];
+    }
+
+    public double getValueAt( int index ) {
+        int cols = getCols();
+        return data[index / cols + halo][index % cols];
+    }
+
+    public double getValueAt( java.awt.Point point ) {
+        return data[point.x + halo][point.y];
+    }
+
+    public void setValueAt( int row, int col, double value ) {
+        data[row + halo][col] = value;
+    }
+
+    public void setValueAt( int index, double value ) {
+        int cols = getCols();
+        data[index / cols + halo][index % cols] = value;
+    }
+
+    /**
+     * @return the number of valid rows of the block, without the halo.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return data[0].length;
+    }
+
+    public double[] getRowValue( int row ) {
+        return data[row + halo];
+    }
+
+    /**
+     * @return the backing matrix, including the halo rows. Row <code>i</code> of the block is at
+     *         index <code>i + getHalo()</code>.
+     */
+    public double[][] getData() {
+        return data;
+    }
+
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("JGrass Raster Row Block: ").append("first row = ").append(firstRow).append(
+                " rows = ").append(rows).append(" cols = ").append(getCols()).append(" halo = ")
+                .append(halo);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import eu.hydrologis.jgrass.libs.JGrassLibsPlugin;
+import eu.hydrologis.jgrass.libs.io.MapReader;
+
+/**
+ * Iterates over a raster map by blocks of rows, decoding only the rows of the current block.
+ * 
+ * <p>
+ * The memory used is <code>(blockRows + 2 * halo) * cols</code> doubles, regardless of the number
+ * of rows of the map. The block returned by {@link #next()} is reused, so its content is only
+ * valid until the next call. Halo rows shared by consecutive blocks are not read twice.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RasterRowBlockIterator implements Iterator<RasterRowBlock> {
+
+    private final MapReader reader;
+
+    private final int blockRows;
+
+    private final int halo;
+
+    private final int mapRows;
+
+    private final double[][] buffer;
+
+    private final RasterRowBlock block;
+
+    private int nextRow = 0;
+
+    /**
+     * @param reader the opened reader to read from.
+     * @param blockRows the number of rows of every block.
+     * @param halo the number of extra rows to read above and below every block.
+     */
+    public RasterRowBlockIterator( MapReader reader, int blockRows, int halo ) {
+        if (blockRows < 1 || halo < 0) {
+            throw new IllegalArgumentException("The block needs at least one row and a positive halo.");
+        }
+        this.reader = reader;
+        this.blockRows = blockRows;
+        this.halo = halo;
+        mapRows = reader.getDataWindow().getRows();
+        int cols = reader.getDataWindow().getCols();
+        buffer = new double[blockRows + 2 * halo][cols];
+        block = new RasterRowBlock(buffer, halo);
+    }
+
+    public boolean hasNext() {
+        return nextRow < mapRows;
+    }
+
+    public RasterRowBlock next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            int total = buffer.length;
+            if (nextRow == 0) {
+                reader.readRows(-halo, buffer, 0, total);
+            } else {
+                /*
+                 * the rows at the end of the previous block are the upper halo of this one, rotate
+                 * them to the top and read only the new rows.
+                 */
+                rotate(buffer, blockRows);
+                int kept = total - blockRows;
+                reader.readRows(nextRow - halo + kept, buffer, kept, blockRows);
+            }
+        } catch (IOException e) {
+            JGrassLibsPlugin.log(
+                    "JGrassLibsPlugin problem: eu.hydrologis.jgrass.libs.map#RasterRowBlockIterator#next", e); //$NON-NLS-1$
+            throw new RuntimeException(e.getLocalizedMessage());
+        }
+        int rows = Math.min(blockRows, mapRows - nextRow);
+        block.set(buffer, nextRow, rows);
+        nextRow += blockRows;
+        return block;
+    }
+
+    /*
+     * rotates the row references of the matrix up by the given number of rows in place, by
+     * reversing the two parts and then the whole
+     */
+    private static void rotate( double[][] rows, int shift ) {
+        reverse(rows, 0, shift);
+        reverse(rows, shift, rows.length);
+        reverse(rows, 0, rows.length);
+    }
+
+    private static void reverse( double[][] rows, int from, int to ) {
+        for( int i = from, j = to - 1; i < j; i++, j-- ) {
+            double[] tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -51,12 +51,11 @@ import org.opengis.referencing.operation.TransformException;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
 
 import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.messages.Messages;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
 
 /**
  * <p>
@@ -511,46 +510,20 @@ public class JGrassUtilities {
      * @param value the value to set if a second map is not given
      * @param monitor
      */
-    public static void rasterizePolygonGeometry( JGrassRegion active, Geometry polygon, WritableRandomIter raster, RandomIter rasterToMap, double value, IProgressMonitor monitor ) {
-        GeometryFactory gFactory = new GeometryFactory();
-        int rows = active.getRows();
-        int cols = active.getCols();
-        double delta = active.getWEResolution() / 4.0;
-
-        monitor.beginTask(Messages.getString("JGrassUtilities.rasterizing"), rows); //$NON-NLS-1$
-        for( int i = 0; i < rows; i++ ) {
-            monitor.worked(1);
-            // do scan line to fill the polygon
-            Coordinate west = rowColToCenterCoordinates(active, i, 0);
-            Coordinate east = rowColToCenterCoordinates(active, i, cols - 1);
-            LineString line = gFactory.createLineString(new Coordinate[]{west, east});
-            if (polygon.intersects(line)) {
-                Geometry internalLines = polygon.intersection(line);
-                Coordinate[] coords = internalLines.getCoordinates();
-                for( int j = 0; j < coords.length; j = j + 2 ) {
-                    Coordinate startC = new Coordinate(coords[j].x + delta, coords[j].y);
-                    Coordinate endC = new Coordinate(coords[j + 1].x - delta, coords[j + 1].y);
-                    int[] startcol = coordinateToNearestRowCol(active, startC);
-                    int[] endcol = coordinateToNearestRowCol(active, endC);
-
-                    if (startcol == null || endcol == null) {
-                        // vertex is outside of the region, ignore it
-                        continue;
-                    }
-                    /*
-                     * the part in between has to be filled
-                     */
-                    for( int k = startcol[1]; k <= endcol[1]; k++ ) {
-                        if (rasterToMap != null) {
-                            raster.setSample(k, i, 0, rasterToMap.getSampleDouble(k, i, 0));
-                        } else {
-                            raster.setSample(k, i, 0, value);
-                        }
+    public static void rasterizePolygonGeometry( JGrassRegion active, Geometry polygon, final WritableRandomIter raster, final RandomIter rasterToMap, final double value, IProgressMonitor monitor ) {
+        monitor.beginTask(Messages.getString("JGrassUtilities.rasterizing"), 1); //$NON-NLS-1$
+        new PolygonRasterizer(active).rasterize(polygon, new PolygonRasterizer.SpanHandler(){
+            public void span( int row, int startCol, int endCol ) {
+                for( int k = startCol; k <= endCol; k++ ) {
+                    if (rasterToMap != null) {
+                        raster.setSample(k, row, 0, rasterToMap.getSampleDouble(k, row, 0));
+                    } else {
+                        raster.setSample(k, row, 0, value);
                     }
                 }
-
             }
-        }
+        });
+        monitor.worked(1);
     }
 
     //
@@ -0,0 +1,288 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.utils.raster;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+
+/**
+ * <p>
+ * Scanline rasterizer of polygon geometries on a region.
+ * </p>
+ * <p>
+ * The edges of the rings of a polygon, holes included, are put in an edge table, sorted by the
+ * first row they cross, and only the rows of the polygon envelope are scanned: for every row the
+ * active edges are intersected with the line through the cell centers and the intersections are
+ * paired up with the even-odd rule. The parts of multipolygons are scanned one by one. A cell is filled if the
+ * span covers more than a quarter of it, as the jts based rasterization of
+ * {@link eu.hydrologis.jgrass.libs.utils.JGrassUtilities} did.
+ * </p>
+ * <p>
+ * The spans are passed to a {@link SpanHandler}, so that the same scan can fill a raster or
+ * collect statistics of the cells covered by a polygon. An instance is not thread safe.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class PolygonRasterizer {
+
+    /**
+     * Receives the spans of cells covered by a polygon.
+     */
+    public interface SpanHandler {
+        /**
+         * @param row the row of the span.
+         * @param startCol the first column covered.
+         * @param endCol the last column covered, inclusive.
+         */
+        public void span( int row, int startCol, int endCol );
+    }
+
+    private final int rows;
+    private final int cols;
+    private final double north;
+    private final double west;
+    private final double nsres;
+    private final double ewres;
+    private final double delta;
+    private final double firstCenter;
+    private final double lastCenter;
+
+    /* the edge table: the upper and lower points of every edge */
+    private double[] x1 = new double[64];
+    private double[] y1 = new double[64];
+    private double[] x2 = new double[64];
+    private double[] y2 = new double[64];
+    private int edgesNum;
+    /* the edges that start at every row, as linked lists */
+    private int[] rowFirstEdge;
+    private int[] nextEdge = new int[64];
+    private int[] edgeLastRow = new int[64];
+
+    private int[] active = new int[64];
+    private double[] crossings = new double[64];
+
+    /**
+     * @param region the region on which to rasterize.
+     */
+    public PolygonRasterizer( JGrassRegion region ) {
+        rows = region.getRows();
+        cols = region.getCols();
+        north = region.getNorth();
+        west = region.getWest();
+        nsres = region.getNSResolution();
+        ewres = region.getWEResolution();
+        delta = ewres / 4.0;
+        firstCenter = west + ewres / 2.0;
+        lastCenter = west + (cols - 1) * ewres + ewres / 2.0;
+        rowFirstEdge = new int[rows];
+    }
+
+    /**
+     * Fills the cells covered by a geometry with a value.
+     * 
+     * @param geometry the polygon or multipolygon geometry.
+     * @param buffer the row major buffer of the region to fill.
+     * @param value the value to set.
+     */
+    public void fill( Geometry geometry, final double[] buffer, final double value ) {
+        rasterize(geometry, new SpanHandler(){
+            public void span( int row, int startCol, int endCol ) {
+                int offset = row * cols;
+                for( int col = startCol; col <= endCol; col++ ) {
+                    buffer[offset + col] = value;
+                }
+            }
+        });
+    }
+
+    /**
+     * Scans the cells covered by a geometry.
+     * 
+     * @param geometry the polygon or multipolygon geometry. Other geometries have no area and
+     *        cover no cells.
+     * @param handler the handler of the covered spans.
+     */
+    public void rasterize( Geometry geometry, SpanHandler handler ) {
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+        for( int i = 0; i < geometry.getNumGeometries(); i++ ) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon) {
+                rasterize((Polygon) part, handler);
+            }
+        }
+    }
+
+    /**
+     * Scans a single polygon, so that overlapping parts of a multipolygon are all filled.
+     */
+    private void rasterize( Polygon polygon, SpanHandler handler ) {
+        Envelope envelope = polygon.getEnvelopeInternal();
+        if (envelope.isNull()) {
+            return;
+        }
+        int firstRow = Math.max(0, rowAbove(envelope.getMaxY()));
+        int lastRow = Math.min(rows - 1, rowAbove(envelope.getMinY()));
+        if (firstRow > lastRow) {
+            return;
+        }
+
+        edgesNum = 0;
+        addRing(polygon.getExteriorRing());
+        for( int j = 0; j < polygon.getNumInteriorRing(); j++ ) {
+            addRing(polygon.getInteriorRingN(j));
+        }
+
+        for( int row = firstRow; row <= lastRow; row++ ) {
+            rowFirstEdge[row] = -1;
+        }
+        for( int e = 0; e < edgesNum; e++ ) {
+            // the rows whose centers lie in [y2, y1)
+            int startRow = Math.max(firstRow, rowAbove(y1[e]) + 1);
+            int endRow = Math.min(lastRow, rowAbove(y2[e]));
+            if (startRow > endRow) {
+                continue;
+            }
+            edgeLastRow[e] = endRow;
+            nextEdge[e] = rowFirstEdge[startRow];
+            rowFirstEdge[startRow] = e;
+        }
+
+        int activeNum = 0;
+        for( int row = firstRow; row <= lastRow; row++ ) {
+            // update the active edge table
+            int kept = 0;
+            for( int k = 0; k < activeNum; k++ ) {
+                if (edgeLastRow[active[k]] >= row) {
+                    active[kept++] = active[k];
+                }
+            }
+            activeNum = kept;
+            for( int e = rowFirstEdge[row]; e != -1; e = nextEdge[e] ) {
+                if (activeNum == active.length) {
+                    active = grow(active);
+                    crossings = grow(crossings);
+                }
+                active[activeNum++] = e;
+            }
+            if (activeNum == 0) {
+                continue;
+            }
+
+            double y = north - row * nsres - nsres / 2.0;
+            for( int k = 0; k < activeNum; k++ ) {
+                int e = active[k];
+                double x = x1[e] + (y - y1[e]) * (x2[e] - x1[e]) / (y2[e] - y1[e]);
+                // insertion sort, the crossings of a row are few
+                int j = k - 1;
+                while( j >= 0 && crossings[j] > x ) {
+                    crossings[j + 1] = crossings[j];
+                    j--;
+                }
+                crossings[j + 1] = x;
+            }
+
+            for( int k = 0; k + 1 < activeNum; k += 2 ) {
+                // the part of the span on the line through the cell centers
+                double start = Math.max(crossings[k], firstCenter);
+                double end = Math.min(crossings[k + 1], lastCenter);
+                if (start > end) {
+                    continue;
+                }
+                int startCol = column(start + delta);
+                int endCol = column(end - delta);
+                if (startCol <= endCol) {
+                    handler.span(row, startCol, endCol);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the non horizontal edges of a ring to the edge table, with the upper point first.
+     */
+    private void addRing( LineString ring ) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        for( int i = 0; i < coordinates.length - 1; i++ ) {
+            Coordinate a = coordinates[i];
+            Coordinate b = coordinates[i + 1];
+            if (a.y == b.y) {
+                continue;
+            }
+            if (edgesNum == x1.length) {
+                x1 = grow(x1);
+                y1 = grow(y1);
+                x2 = grow(x2);
+                y2 = grow(y2);
+                nextEdge = grow(nextEdge);
+                edgeLastRow = grow(edgeLastRow);
+            }
+            if (a.y > b.y) {
+                x1[edgesNum] = a.x;
+                y1[edgesNum] = a.y;
+                x2[edgesNum] = b.x;
+                y2[edgesNum] = b.y;
+            } else {
+                x1[edgesNum] = b.x;
+                y1[edgesNum] = b.y;
+                x2[edgesNum] = a.x;
+                y2[edgesNum] = a.y;
+            }
+            edgesNum++;
+        }
+    }
+
+    /**
+     * @return the last row whose cell center is not below the given northing, -1 if there is none.
+     */
+    private int rowAbove( double northing ) {
+        int row = (int) Math.floor((north - nsres / 2.0 - northing) / nsres);
+        // fix the rounding of the division
+        while( row >= 0 && north - row * nsres - nsres / 2.0 < northing ) {
+            row--;
+        }
+        while( north - (row + 1) * nsres - nsres / 2.0 >= northing ) {
+            row++;
+        }
+        return Math.max(row, -1);
+    }
+
+    private int column( double easting ) {
+        int col = (int) Math.floor((easting - west) / ewres);
+        return Math.min(Math.max(col, 0), cols - 1);
+    }
+
+    private static double[] grow( double[] array ) {
+        double[] newArray = new double[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static int[] grow( int[] array ) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
 import org.geotools.feature.FeatureCollection;
@@ -36,6 +37,7 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -80,6 +82,7 @@ public class h_adige extends ModelsBackbone {
     private static final String RAINDURATION = "rainduration"; //$NON-NLS-1$
     private static final String VEGETATION = "vegetation"; //$NON-NLS-1$
     private static final String LOG = "log"; //$NON-NLS-1$
+    private static final String THREADS = "threads"; //$NON-NLS-1$
 
     public final static String dischargeOutputID = "discharge"; //$NON-NLS-1$
     public final static String s1OutputID = "s1"; //$NON-NLS-1$
@@ -212,37 +215,39 @@ public class h_adige extends ModelsBackbone {
     private double[] windspeedArray;
     private double[] pressureArray;
     private double[] snowWaterEquivalentArray;
+    private double[] rainfallValues = null;
     /** the running discharge array, which at the begin holds the initial conditions */
     private double[] initialConditions = null;
 
     private RungeKuttaFelberg rainRunoffRaining;
     private List<PfafstetterNumber> netPfaffsList;
     private boolean doLog = false;
+    private int threads = 1;
     private DuffyModel duffyEvaluator;
 
     // hydrometers
     private DischargeContributor hydrometersHandler;
     private HashMap<String, Integer> hydrometer_pfaff2idMap;
     private HashMap<Integer, Double> hydrometer_id2valuesMap;
-    private ScalarSet hydrometerScalarSet;
+    private IScalarSet hydrometerScalarSet;
 
     // dams
     private DischargeContributor damsHandler;
     private HashMap<String, Integer> dams_pfaff2idMap;
     private HashMap<Integer, Double> dams_id2valuesQMap;
-    private ScalarSet damsQScalarSet;
+    private IScalarSet damsQScalarSet;
 
     // tributaries
     private DischargeContributor tributaryHandler;
     private HashMap<String, Integer> tributary_pfaff2idMap;
     private HashMap<Integer, Double> tributary_id2valuesQMap;
-    private ScalarSet tributaryQScalarSet;
+    private IScalarSet tributaryQScalarSet;
 
     // offtakes
     private DischargeContributor offtakesHandler;
     private HashMap<String, Integer> offtakes_pfaff2idMap;
     private HashMap<Integer, Double> offtakes_id2valuesQMap;
-    private ScalarSet offtakesQScalarSet;
+    private IScalarSet offtakesQScalarSet;
 
     private HashMap<Integer, Integer> basinid2Index;
     private HashMap<Integer, Integer> index2Basinid;
@@ -319,6 +324,12 @@ public class h_adige extends ModelsBackbone {
                 } catch (Exception e) {
                 }
             }
+            if (key.equals(THREADS)) {
+                try {
+                    threads = Math.max(1, Integer.parseInt(argument.getValue()));
+                } catch (Exception e) {
+                }
+            }
             if (key.equals(ModelsConstants.STARTDATE)) {
                 startDateArg = argument.getValue();
             }
@@ -516,12 +527,12 @@ public class h_adige extends ModelsBackbone {
                 // hydrometers values
                 IValueSet hydrometerValueSet = hydrometersDataInputLink.getSourceComponent()
                         .getValues(time, hydrometersDataInputLink.getID());
-                if (hydrometerValueSet != null && hydrometerValueSet instanceof ScalarSet) {
-                    hydrometerScalarSet = (ScalarSet) hydrometerValueSet;
+                if (hydrometerValueSet != null && hydrometerValueSet instanceof IScalarSet) {
+                    hydrometerScalarSet = (IScalarSet) hydrometerValueSet;
                     hydrometer_id2valuesMap.clear();
-                    for( int i = 1; i < hydrometerScalarSet.size(); i = i + 2 ) {
-                        int id = hydrometerScalarSet.get(i).intValue();
-                        Double value = hydrometerScalarSet.get(i + 1);
+                    for( int i = 1; i < hydrometerScalarSet.getCount(); i = i + 2 ) {
+                        int id = (int) hydrometerScalarSet.getScalar(i);
+                        Double value = hydrometerScalarSet.getScalar(i + 1);
                         hydrometer_id2valuesMap.put(id, value);
                     }
                 } else {
@@ -583,12 +594,12 @@ public class h_adige extends ModelsBackbone {
                 IValueSet damsDischargeValueSet = damsOverflowDischargeInputLink
                         .getSourceComponent().getValues(time,
                                 damsOverflowDischargeInputLink.getID());
-                if (damsDischargeValueSet != null && damsDischargeValueSet instanceof ScalarSet) {
-                    damsQScalarSet = (ScalarSet) damsDischargeValueSet;
+                if (damsDischargeValueSet != null && damsDischargeValueSet instanceof IScalarSet) {
+                    damsQScalarSet = (IScalarSet) damsDischargeValueSet;
                     dams_id2valuesQMap.clear();
-                    for( int i = 1; i < damsQScalarSet.size(); i = i + 2 ) {
-                        int id = damsQScalarSet.get(i).intValue();
-                        Double value = damsQScalarSet.get(i + 1);
+                    for( int i = 1; i < damsQScalarSet.getCount(); i = i + 2 ) {
+                        int id = (int) damsQScalarSet.getScalar(i);
+                        Double value = damsQScalarSet.getScalar(i + 1);
                         dams_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -651,12 +662,12 @@ public class h_adige extends ModelsBackbone {
                 IValueSet tributaryDischargeValueSet = tributaryDischargeInputLink
                         .getSourceComponent().getValues(time, tributaryDischargeInputLink.getID());
                 if (tributaryDischargeValueSet != null
-                        && tributaryDischargeValueSet instanceof ScalarSet) {
-                    tributaryQScalarSet = (ScalarSet) tributaryDischargeValueSet;
+                        && tributaryDischargeValueSet instanceof IScalarSet) {
+                    tributaryQScalarSet = (IScalarSet) tributaryDischargeValueSet;
                     tributary_id2valuesQMap.clear();
-                    for( int i = 1; i < tributaryQScalarSet.size(); i = i + 2 ) {
-                        int id = tributaryQScalarSet.get(i).intValue();
-                        Double value = tributaryQScalarSet.get(i + 1);
+                    for( int i = 1; i < tributaryQScalarSet.getCount(); i = i + 2 ) {
+                        int id = (int) tributaryQScalarSet.getScalar(i);
+                        Double value = tributaryQScalarSet.getScalar(i + 1);
                         tributary_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -719,12 +730,12 @@ public class h_adige extends ModelsBackbone {
                 IValueSet offtakesDischargeValueSet = offtakesDischargeInputLink
                         .getSourceComponent().getValues(time, offtakesDischargeInputLink.getID());
                 if (offtakesDischargeValueSet != null
-                        && offtakesDischargeValueSet instanceof ScalarSet) {
-                    offtakesQScalarSet = (ScalarSet) offtakesDischargeValueSet;
+                        && offtakesDischargeValueSet instanceof IScalarSet) {
+                    offtakesQScalarSet = (IScalarSet) offtakesDischargeValueSet;
                     offtakes_id2valuesQMap.clear();
-                    for( int i = 1; i < offtakesQScalarSet.size(); i = i + 2 ) {
-                        int id = offtakesQScalarSet.get(i).intValue();
-                        Double value = offtakesQScalarSet.get(i + 1);
+                    for( int i = 1; i < offtakesQScalarSet.getCount(); i = i + 2 ) {
+                        int id = (int) offtakesQScalarSet.getScalar(i);
+                        Double value = offtakesQScalarSet.getScalar(i + 1);
                         offtakes_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -796,6 +807,7 @@ public class h_adige extends ModelsBackbone {
 
                 duffyEvaluator = new DuffyModel(orderedHillslopes, routingType, out,
                         deltaTinMinutes, doLog);
+                duffyEvaluator.setThreads(threads);
                 if (hydrometersHandler != null) {
                     duffyEvaluator.addDischargeContributor(hydrometersHandler);
                 }
@@ -813,26 +825,26 @@ public class h_adige extends ModelsBackbone {
                  * read the initial conditions. 
                  */
                 initialConditions = new double[hillsSlopeNum * 4];
-                ScalarSet boundaryInputSet = null;
+                DoubleScalarSet boundaryInputSet = null;
                 if (boundaryInputLink != null) {
-                    boundaryInputSet = ModelsConstants.getScalarSetFromLink(boundaryInputLink,
-                            time, err);
+                    boundaryInputSet = ModelsConstants.getDoubleScalarSetFromLink(
+                            boundaryInputLink, time, err);
                 }
 
                 if (boundaryInputSet != null) {
                     int dataIndex = 0;
-                    for( int i = 0; i < (boundaryInputSet.size() - 1) / 5; i++ ) {
-                        Double idHillslope = boundaryInputSet.get(dataIndex + 1);
-                        Integer index = basinid2Index.get(idHillslope.intValue());
+                    for( int i = 0; i < (boundaryInputSet.getCount() - 1) / 5; i++ ) {
+                        int idHillslope = (int) boundaryInputSet.getScalar(dataIndex + 1);
+                        Integer index = basinid2Index.get(idHillslope);
                         if (index == null)
                             continue;
-                        initialConditions[index] = boundaryInputSet.get(dataIndex + 2);
+                        initialConditions[index] = boundaryInputSet.getScalar(dataIndex + 2);
                         initialConditions[index + hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 3);
+                                .getScalar(dataIndex + 3);
                         initialConditions[index + 2 * hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 4);
+                                .getScalar(dataIndex + 4);
                         initialConditions[index + 3 * hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 5);
+                                .getScalar(dataIndex + 5);
                         dataIndex = dataIndex + 5;
                     }
                 } else {
@@ -888,8 +900,9 @@ public class h_adige extends ModelsBackbone {
             } else {
                 // read rainfall from input link scalar set and transform into a rainfall intensity
                 // [mm/h]
-                ScalarSet rainfallScalarSet = ModelsConstants.getScalarSetFromLink(
+                DoubleScalarSet rainfallScalarSet = ModelsConstants.getDoubleScalarSetFromLink(
                         rainfallInputLink, time, err);
+                rainfallValues = rainfallScalarSet.getScalars(rainfallValues);
 
                 rainArray = new double[hillsSlopeNum];
                 radiationArray = new double[hillsSlopeNum];
@@ -899,40 +912,40 @@ public class h_adige extends ModelsBackbone {
                 windspeedArray = new double[hillsSlopeNum];
                 pressureArray = new double[hillsSlopeNum];
                 snowWaterEquivalentArray = new double[hillsSlopeNum];
-                for( int i = 1; i < rainfallScalarSet.size(); i = i + 9 ) {
+                for( int i = 1; i < rainfallScalarSet.getCount(); i = i + 9 ) {
                     // rain
-                    Double basinId = rainfallScalarSet.get(i);
-                    Integer index = basinid2Index.get(basinId.intValue());
+                    int basinId = (int) rainfallValues[i];
+                    Integer index = basinid2Index.get(basinId);
                     if (index == null) {
 //                        System.out.println("Per il bacino " + basinId
 //                                + " non e' stata trovata una corrispondenza tra rete e bacini.");
                         continue;
                     }
-                    double rValue = rainfallScalarSet.get(i + 1);
+                    double rValue = rainfallValues[i + 1];
                     if (JGrassConstants.isNovalue(rValue)) {
                         rValue = 0.0;
                     }
                     rainArray[index] = rValue / (deltaTinMinutes / 60.0);
                     // radiation
-                    rValue = rainfallScalarSet.get(i + 2);
+                    rValue = rainfallValues[i + 2];
                     radiationArray[index] = rValue;
                     // netshort
-                    rValue = rainfallScalarSet.get(i + 3);
+                    rValue = rainfallValues[i + 3];
                     netshortArray[index] = rValue;
                     // temperature
-                    rValue = rainfallScalarSet.get(i + 4);
+                    rValue = rainfallValues[i + 4];
                     temperatureArray[index] = rValue;
                     // humidity
-                    rValue = rainfallScalarSet.get(i + 5);
+                    rValue = rainfallValues[i + 5];
                     humidityArray[index] = rValue;
                     // windspeed
-                    rValue = rainfallScalarSet.get(i + 6);
+                    rValue = rainfallValues[i + 6];
                     windspeedArray[index] = rValue;
                     // pressure
-                    rValue = rainfallScalarSet.get(i + 7);
+                    rValue = rainfallValues[i + 7];
                     pressureArray[index] = rValue;
                     // snow water equivalent
-                    rValue = rainfallScalarSet.get(i + 8);
+                    rValue = rainfallValues[i + 8];
                     snowWaterEquivalentArray[index] = rValue;
                 }
 
@@ -956,7 +969,7 @@ public class h_adige extends ModelsBackbone {
             }
             avgRain = avgRain / rainArray.length;
 
-            ScalarSet ret = new ScalarSet();
+            DoubleScalarSet ret = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
                 ret.add((double) (outNum + 1));
@@ -1007,7 +1020,7 @@ public class h_adige extends ModelsBackbone {
             // ret.add(avgRain);
             return ret;
         } else if (boundaryOutputLink != null && linkID.equals(boundaryOutputLink.getID())) {
-            ScalarSet outputBoundarySet = new ScalarSet();
+            DoubleScalarSet outputBoundarySet = new DoubleScalarSet();
             outputBoundarySet.add((initialConditions.length / 4.0) * 5.0);
             for( int i = 0; i < initialConditions.length / 4; i++ ) {
                 Integer basinId = index2Basinid.get(i);
@@ -1019,7 +1032,7 @@ public class h_adige extends ModelsBackbone {
             }
             return outputBoundarySet;
         } else if (s1OutputLink != null && linkID.equals(s1OutputLink.getID())) {
-            ScalarSet outputS1Set = new ScalarSet();
+            DoubleScalarSet outputS1Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
                 outputS1Set.add((double) (outNum));
@@ -1040,7 +1053,7 @@ public class h_adige extends ModelsBackbone {
             }
             return outputS1Set;
         } else if (s2OutputLink != null && linkID.equals(s2OutputLink.getID())) {
-            ScalarSet outputS2Set = new ScalarSet();
+            DoubleScalarSet outputS2Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
                 outputS2Set.add((double) (outNum));
@@ -1061,7 +1074,7 @@ public class h_adige extends ModelsBackbone {
             }
             return outputS2Set;
         } else if (s3OutputLink != null && linkID.equals(s3OutputLink.getID())) {
-            ScalarSet outputS3Set = new ScalarSet();
+            DoubleScalarSet outputS3Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
                 outputS3Set.add((double) (outNum));
@@ -1086,7 +1099,7 @@ public class h_adige extends ModelsBackbone {
             }
             return outputS3Set;
         } else if (basinrainOutputLink != null && linkID.equals(basinrainOutputLink.getID())) {
-            ScalarSet basinrainSet = new ScalarSet();
+            DoubleScalarSet basinrainSet = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
                 basinrainSet.add((double) (outNum));
@@ -1323,6 +1336,9 @@ public class h_adige extends ModelsBackbone {
     }
 
     public void finish() {
+        if (duffyEvaluator != null) {
+            duffyEvaluator.dispose();
+        }
     }
 
     public IInputExchangeItem getInputExchangeItem( int inputExchangeItemIndex ) {
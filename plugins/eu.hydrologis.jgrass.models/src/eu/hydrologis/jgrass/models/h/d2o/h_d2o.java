@@ -28,8 +28,6 @@ import java.io.File;
 import java.io.PrintStream;
 
 import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -47,6 +45,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
 import eu.hydrologis.openmi.JGrassElementset;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.hydrologis.openmi.util.UtilitiesFacade;
@@ -294,14 +293,15 @@ public class h_d2o extends ModelsBackbone {
         double dx = activeRegion.getWEResolution();
         double dy = activeRegion.getNSResolution();
 
-        // FluidUtils.setJaiNovalueBorder();
-        RenderedImage flowImage = FluidUtils.setJaiNovalueBorder(flowTmpImage);
-        RandomIter flowIterator = RandomIterFactory.create(flowImage, null);
+        GridDouble flowGrid = GridDouble.fromRenderedImage(flowTmpImage);
+        flowGrid.setNovalueBorder();
+        GridDouble distToOutGrid = GridDouble.fromRaster(distToOutImage);
         if (mode == 1) {
-            FluidUtils.outletdistance(flowIterator, distToOutImage, dx, dy, out);
+            FluidUtils.outletdistance(flowGrid, distToOutGrid, dx, dy, out);
         } else if (mode == 0) {
-            FluidUtils.topological_outletdistance(flowIterator, distToOutImage, out);
+            FluidUtils.topological_outletdistance(flowGrid, distToOutGrid, out);
         }
+        distToOutGrid.toWritableRaster(distToOutImage);
         return true;
     }
 
@@ -31,9 +31,6 @@ import java.io.File;
 import java.io.PrintStream;
 
 import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -51,6 +48,7 @@ import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -392,27 +390,24 @@ public class h_draindir extends ModelsBackbone {
         int nelev;
 
         // get rows and cols from the active region
-        int minX = pitTmpImage.getMinX();
-        int minY = pitTmpImage.getMinY();
-        int maxX = pitTmpImage.getMaxX();
-        int maxY = pitTmpImage.getMaxY();
         int activecols = pitTmpImage.getWidth();
         int activerows = pitTmpImage.getHeight();
         // setting novalues...
-        PlanarImage flowImage = FluidUtils.setJaiNovalueBorder(flowTmpImage);
-        PlanarImage pitImage = FluidUtils.setJaiNovalueBorder(pitTmpImage);
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
+        GridDouble flowGrid = GridDouble.fromRenderedImage(flowTmpImage);
+        flowGrid.setNovalueBorder();
+        GridDouble pitGrid = GridDouble.fromRenderedImage(pitTmpImage);
+        pitGrid.setNovalueBorder();
 
         // create new matrix
         orderedelev = new double[activecols * activerows];
         indexes = new double[activecols * activerows];
 
         nelev = 0;
-        for( int j = minY; j < maxY; j++ ) {
-            for( int i = minX; i < maxX; i++ ) {
-                orderedelev[((j) * activecols) + i] = pitRandomIter.getSampleDouble(i, j, 0);
+        for( int j = 0; j < activerows; j++ ) {
+            for( int i = 0; i < activecols; i++ ) {
+                orderedelev[((j) * activecols) + i] = pitGrid.get(i, j);
                 indexes[((j) * activecols) + i] = ((j) * activecols) + i + 1;
-                if (!isNovalue(pitRandomIter.getSampleDouble(i, j, 0))) {
+                if (!isNovalue(pitGrid.get(i, j))) {
                     nelev = nelev + 1;
                 }
             }
@@ -425,24 +420,24 @@ public class h_draindir extends ModelsBackbone {
 
         out.println(Messages.getString("initializematrix")); //$NON-NLS-1$
         // inizialize new RasterData and set value
-        WritableRaster tcaImage = FluidUtils.createDoubleWritableRaster(activecols, activerows, null, null, NaN);
-        WritableRaster dirImage = FluidUtils.createDoubleWritableRaster(activecols, activerows, null, null, NaN);
+        GridDouble tcaGrid = new GridDouble(activecols, activerows, NaN);
+        GridDouble dirGrid = new GridDouble(activecols, activerows, NaN);
 
         // it contains the analyzed cells
-        WritableRaster analyzeImage = FluidUtils.createDoubleWritableRaster(activecols, activerows, null, null, null);
-        WritableRaster deviationsImage = FluidUtils.createDoubleWritableRaster(activecols, activerows, null, null, null);
+        GridDouble analyseGrid = new GridDouble(activecols, activerows);
+        GridDouble deviationGrid = new GridDouble(activecols, activerows);
 
         if (mode == 1) {
-            OrlandiniD8_LAD(indexes, deviationsImage, analyzeImage, pitImage, flowImage, tcaImage, dirImage, nelev, activeRegion);
+            OrlandiniD8_LAD(indexes, deviationGrid, analyseGrid, pitGrid, flowGrid, tcaGrid, dirGrid, nelev, activeRegion);
         } else {
-            OrlandiniD8_LTD(indexes, deviationsImage, analyzeImage, pitImage, flowImage, tcaImage, dirImage, nelev, activeRegion);
+            OrlandiniD8_LTD(indexes, deviationGrid, analyseGrid, pitGrid, flowGrid, tcaGrid, dirGrid, nelev, activeRegion);
             // only if required executes this method
             if (fixedMode == 1) {
-                newDirections(flowfixedImage, pitImage, dirImage);
+                newDirections(flowfixedImage, pitGrid, dirGrid);
             }
 
         }
-        return new WritableRaster[]{dirImage, tcaImage};
+        return new WritableRaster[]{dirGrid.toWritableRaster(), tcaGrid.toWritableRaster()};
 
     };
 
@@ -451,14 +446,14 @@ public class h_draindir extends ModelsBackbone {
      * 
      * @param indexes
      *            vector containing the order of elevation
-     * @param deviationsImage
+     * @param deviationGrid
      *            the map containing the deviation
-     * @param analyzeImage
+     * @param analyseGrid
      * @param nelev
      * @return
      */
-    private short OrlandiniD8_LAD( double[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
-            PlanarImage pitImage, PlanarImage flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev,
+    private short OrlandiniD8_LAD( double[] indexes, GridDouble deviationGrid, GridDouble analyseGrid,
+            GridDouble pitGrid, GridDouble flowGrid, GridDouble tcaGrid, GridDouble dirGrid, int nelev,
             JGrassRegion activeRegion ) {
         int row, col, ncelle, nr, nc;
         int realrows, realcols;
@@ -473,17 +468,10 @@ public class h_draindir extends ModelsBackbone {
         double[] u = {activeRegion.getWEResolution(), activeRegion.getNSResolution()};
         double[] v = {NaN, NaN};
         // get rows and cols from the active region
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
+        realrows = pitGrid.getRows();
+        realcols = pitGrid.getCols();
 
         ncelle = 0;
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowImage, null);
-
-        WritableRandomIter tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
-        WritableRandomIter analyseRandomIter = RandomIterFactory.createWritable(analyzeImage, null);
-        WritableRandomIter deviationRandomIter = RandomIterFactory.createWritable(deviationsImage, null);
-        WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirImage, null);
 
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask(WORKING_ON + "OrlandiniD8 LAD", realrows * realcols);
@@ -491,9 +479,9 @@ public class h_draindir extends ModelsBackbone {
             count = indexes[i];
             col = (int) count % realcols - 1;
             row = (int) count / realcols;
-            if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0)) && !isNovalue(flowRandomIter.getSampleDouble(col, row, 0))) {
+            if (!isNovalue(pitGrid.get(col, row)) && !isNovalue(flowGrid.get(col, row))) {
                 ncelle = ncelle + 1;
-                compose(analyseRandomIter, pitRandomIter, tcaRandomIter, dati, u, v, col, row);
+                compose(analyseGrid, pitGrid, tcaGrid, dati, u, v, col, row);
 
                 if (dati[1] > 0) {
                     dev1 = dati[2];
@@ -504,30 +492,30 @@ public class h_draindir extends ModelsBackbone {
                     } else {
                         dev1 = -dev1;
                     }
-                    calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                            dirRandomIter, i, i);
+                    calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                            dirGrid, i, i);
 
                     sumdev = dati[6];
                     sumdev1 = dev1 + (lambda * sumdev);
                     sumdev2 = dev2 + (lambda * sumdev);
                     if ((Math.abs(sumdev1) <= Math.abs(sumdev2)) && ((dati[3] - dati[4]) > 0.0)) {
-                        dirRandomIter.setSample(col, row, 0, dati[7]);
-                        deviationRandomIter.setSample(col, row, 0, sumdev1);
+                        dirGrid.set(col, row, dati[7]);
+                        deviationGrid.set(col, row, sumdev1);
                     } else if (Math.abs(sumdev1) > Math.abs(sumdev2) || (dati[3] - dati[5]) > 0.0) {
-                        dirRandomIter.setSample(col, row, 0, dati[8]);
-                        deviationRandomIter.setSample(col, row, 0, sumdev2);
+                        dirGrid.set(col, row, dati[8]);
+                        deviationGrid.set(col, row, sumdev2);
                     } else {
                         break;
                     }
                 } else if (dati[1] == 0) {
                     if (ncelle == nelev) {
                         /* sono all'uscita */
-                        calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                                dirRandomIter, realcols, realrows);
-                        dirRandomIter.setSample(col, row, 0, 10);
-                        deviationRandomIter.setSample(col, row, 0, lambda * dati[6]);
+                        calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                                dirGrid, realcols, realrows);
+                        dirGrid.set(col, row, 10);
+                        deviationGrid.set(col, row, lambda * dati[6]);
 
-                        if (tcaRandomIter.getSampleDouble(col, row, 0) != ncelle) {
+                        if (tcaGrid.get(col, row) != ncelle) {
                             pm.done();
                             return (1);
                         } else {
@@ -535,36 +523,29 @@ public class h_draindir extends ModelsBackbone {
                             return (2);
                         }
                     } else {
-                        calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                                dirRandomIter, realcols, realrows);
+                        calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                                dirGrid, realcols, realrows);
                         sumdev = lambda * dati[6];
-                        dirRandomIter.setSample(col, row, 0, flowRandomIter.getSampleDouble(col, row, 0));
-                        flow = dirRandomIter.getSampleDouble(col, row, 0);
+                        dirGrid.set(col, row, flowGrid.get(col, row));
+                        flow = dirGrid.get(col, row);
                         nr = row + order[(int) flow][0];
                         nc = col + order[(int) flow][1];
-                        while( analyseRandomIter.getSampleDouble(nc, nr, 0) == 1 ) {
-                            tcaRandomIter.setSample(nc, nr, 0, tcaRandomIter.getSampleDouble(nc, nr, 0)
-                                    + tcaRandomIter.getSampleDouble(col, row, 0));
-                            flow = dirRandomIter.getSampleDouble(nc, nr, 0);
+                        while( analyseGrid.get(nc, nr) == 1 ) {
+                            tcaGrid.set(nc, nr, tcaGrid.get(nc, nr)
+                                    + tcaGrid.get(col, row));
+                            flow = dirGrid.get(nc, nr);
                             nr = nr + order[(int) flow][0];
                             nc = nc + order[(int) flow][1];
                         }
-                        deviationRandomIter.setSample(col, row, 0, sumdev);
+                        deviationGrid.set(col, row, sumdev);
                     }
                 }
-            } else if (isNovalue(pitRandomIter.getSampleDouble(col, row, 0))) {
+            } else if (isNovalue(pitGrid.get(col, row))) {
                 break;
             }
             pm.worked(1);
         }
         pm.done();
-
-        dirRandomIter.done();
-        pitRandomIter.done();
-        flowRandomIter.done();
-        deviationRandomIter.done();
-        analyseRandomIter.done();
-        tcaRandomIter.done();
         return 1;
     }
 
@@ -573,14 +554,14 @@ public class h_draindir extends ModelsBackbone {
      * 
      * @param indexes
      *            vector containing the order of elevation
-     * @param deviationsImage
+     * @param deviationGrid
      *            the map containing the deviation
-     * @param analyzeImage
+     * @param analyseGrid
      * @param nelev
      * @return
      */
-    private short OrlandiniD8_LTD( double[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
-            PlanarImage pitImage, PlanarImage flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev,
+    private short OrlandiniD8_LTD( double[] indexes, GridDouble deviationGrid, GridDouble analyseGrid,
+            GridDouble pitGrid, GridDouble flowGrid, GridDouble tcaGrid, GridDouble dirGrid, int nelev,
             JGrassRegion activeRegion ) {
 
         int row, col, ncelle, nr, nc;
@@ -595,23 +576,16 @@ public class h_draindir extends ModelsBackbone {
         /*
          * it indicates the position of the triangle's vertexes
          */
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
+        realrows = pitGrid.getRows();
+        realcols = pitGrid.getCols();
         dx = activeRegion.getWEResolution();
         ncelle = 0;
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowImage, null);
-
-        WritableRandomIter tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
-        WritableRandomIter analyseRandomIter = RandomIterFactory.createWritable(analyzeImage, null);
-        WritableRandomIter deviationRandomIter = RandomIterFactory.createWritable(deviationsImage, null);
-        WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirImage, null);
         double[] u = {activeRegion.getWEResolution(), activeRegion.getNSResolution()};
         double[] v = {NaN, NaN};
         dx = u[0];
         // get rows and cols from the active region
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
+        realrows = pitGrid.getRows();
+        realcols = pitGrid.getCols();
 
         ncelle = 0;
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
@@ -621,10 +595,10 @@ public class h_draindir extends ModelsBackbone {
             col = (int) count % realcols - 1;
             row = (int) count / realcols;
 
-            if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0)) && !isNovalue(flowRandomIter.getSampleDouble(col, row, 0))) {
+            if (!isNovalue(pitGrid.get(col, row)) && !isNovalue(flowGrid.get(col, row))) {
                 ncelle = ncelle + 1;
 
-                compose(analyseRandomIter, pitRandomIter, tcaRandomIter, dati, u, v, col, row);
+                compose(analyseGrid, pitGrid, tcaGrid, dati, u, v, col, row);
 
                 if (dati[1] > 0) {
                     dev1 = dx * Math.sin(dati[2]);
@@ -634,29 +608,29 @@ public class h_draindir extends ModelsBackbone {
                     } else {
                         dev1 = -dev1;
                     }
-                    calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                            dirRandomIter, realcols, realrows);
+                    calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                            dirGrid, realcols, realrows);
                     sumdev = dati[6];
                     sumdev1 = dev1 + lambda * sumdev;
                     sumdev2 = dev2 + lambda * sumdev;
                     if (Math.abs(sumdev1) <= Math.abs(sumdev2) && (dati[3] - dati[4]) > 0.0) {
-                        dirRandomIter.setSample(col, row, 0, dati[7]);
-                        deviationRandomIter.setSample(col, row, 0, sumdev1);
+                        dirGrid.set(col, row, dati[7]);
+                        deviationGrid.set(col, row, sumdev1);
                     } else if (Math.abs(sumdev1) > Math.abs(sumdev2) || (dati[3] - dati[5]) > 0.0) {
-                        dirRandomIter.setSample(col, row, 0, dati[8]);
-                        deviationRandomIter.setSample(col, row, 0, sumdev2);
+                        dirGrid.set(col, row, dati[8]);
+                        deviationGrid.set(col, row, sumdev2);
                     } else {
                         break;
                     }
                 } else if (dati[1] == 0) {
                     if (ncelle == nelev) {
                         /* sono all'uscita */
-                        calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                                dirRandomIter, realcols, realrows);
-                        dirRandomIter.setSample(col, row, 0, 10);
-                        deviationRandomIter.setSample(col, row, 0, lambda * dati[6]);
+                        calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                                dirGrid, realcols, realrows);
+                        dirGrid.set(col, row, 10);
+                        deviationGrid.set(col, row, lambda * dati[6]);
 
-                        if (tcaRandomIter.getSampleDouble(col, row, 0) != ncelle) {
+                        if (tcaGrid.get(col, row) != ncelle) {
                             pm.done();
                             return (1);
                         } else {
@@ -664,36 +638,28 @@ public class h_draindir extends ModelsBackbone {
                             return (2);
                         }
                     } else {
-                        calcarea(row, col, dati, v, analyseRandomIter, deviationRandomIter, pitRandomIter, tcaRandomIter,
-                                dirRandomIter, realcols, realrows);
+                        calcarea(row, col, dati, v, analyseGrid, deviationGrid, pitGrid, tcaGrid,
+                                dirGrid, realcols, realrows);
                         sumdev = lambda * dati[6];
-                        dirRandomIter.setSample(col, row, 0, flowRandomIter.getSampleDouble(col, row, 0));
-                        flow = dirRandomIter.getSampleDouble(col, row, 0);
+                        dirGrid.set(col, row, flowGrid.get(col, row));
+                        flow = dirGrid.get(col, row);
                         nr = row + order[(int) flow][0];
                         nc = col + order[(int) flow][1];
-                        while( analyseRandomIter.getSampleDouble(nc, nr, 0) == 1 ) {
-                            tcaRandomIter.setSample(nc, nr, 0, (tcaRandomIter.getSampleDouble(nc, nr, 0) + tcaRandomIter
-                                    .getSampleDouble(col, row, 0)));
-                            flow = dirRandomIter.getSampleDouble(nc, nr, 0);
+                        while( analyseGrid.get(nc, nr) == 1 ) {
+                            tcaGrid.set(nc, nr, (tcaGrid.get(nc, nr) + tcaGrid.get(col, row)));
+                            flow = dirGrid.get(nc, nr);
                             nr = nr + order[(int) flow][0];
                             nc = nc + order[(int) flow][1];
                         }
-                        deviationRandomIter.setSample(col, row, 0, sumdev);
+                        deviationGrid.set(col, row, sumdev);
                     }
                 }
-            } else if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0))) {
+            } else if (!isNovalue(pitGrid.get(col, row))) {
                 break;
             }
             pm.worked(1);
         }
         pm.done();
-
-        dirRandomIter.done();
-        pitRandomIter.done();
-        flowRandomIter.done();
-        deviationRandomIter.done();
-        analyseRandomIter.done();
-        tcaRandomIter.done();
         return 1;
     }
 
@@ -704,11 +670,11 @@ public class h_draindir extends ModelsBackbone {
      * @param col
      * @param dati
      * @param v
-     * @param analyse
-     * @param deviation
+     * @param analyseGrid
+     * @param deviationGrid
      */
-    private void calcarea( int row, int col, double[] dati, double[] v, WritableRandomIter analyse, WritableRandomIter deviation,
-            RandomIter pitRandomIter, WritableRandomIter tcaRandomIter, WritableRandomIter dirRandomIter, int nCols, int nRows ) {
+    private void calcarea( int row, int col, double[] dati, double[] v, GridDouble analyseGrid, GridDouble deviationGrid,
+            GridDouble pitGrid, GridDouble tcaGrid, GridDouble dirGrid, int nCols, int nRows ) {
         int conta, ninflow;
         int outdir;
         double sumdev;
@@ -722,26 +688,26 @@ public class h_draindir extends ModelsBackbone {
             /*
              * verifico se la cella che sto considerando è stata già processata
              */
-            if (analyse.getSampleDouble(col + order[n][1], row + order[n][0], 0) == 1) {
-                if (!isNovalue(pitRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0)) || conta <= nRows * nCols) {
-                    outdir = (int) dirRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0);
+            if (analyseGrid.get(col + order[n][1], row + order[n][0]) == 1) {
+                if (!isNovalue(pitGrid.get(col + order[n][1], row + order[n][0])) || conta <= nRows * nCols) {
+                    outdir = (int) dirGrid.get(col + order[n][1], row + order[n][0]);
                     /*
                      * verifico se la cella che sto considerando drena nel pixel
                      * centrale
                      */
                     if (outdir - n == 4 || outdir - n == -4) {
                         ninflow = ninflow + 1;
-                        tcaRandomIter.setSample(col, row, 0, tcaRandomIter.getSampleDouble(col, row, 0)
-                                + tcaRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0));
-                        dev[ninflow] = deviation.getSampleDouble(col + order[n][1], row + order[n][0], 0);
-                        are[ninflow] = tcaRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0);
+                        tcaGrid.set(col, row, tcaGrid.get(col, row)
+                                + tcaGrid.get(col + order[n][1], row + order[n][0]));
+                        dev[ninflow] = deviationGrid.get(col + order[n][1], row + order[n][0]);
+                        are[ninflow] = tcaGrid.get(col + order[n][1], row + order[n][0]);
                     }
                 }
             }
         }
 
         for( int i = 1; i <= ninflow; i++ ) {
-            sumdev = sumdev + are[i] * dev[i] / tcaRandomIter.getSampleDouble(col, row, 0);
+            sumdev = sumdev + are[i] * dev[i] / tcaGrid.get(col, row);
         }
         dati[6] = sumdev;
 
@@ -750,14 +716,14 @@ public class h_draindir extends ModelsBackbone {
     /**
      * It calculates the direction of maximun slope.
      * 
-     * @param analyse
+     * @param analyseGrid
      * @param dati
      * @param u
      * @param v
      * @param col
      * @param row
      */
-    private void compose( WritableRandomIter analyse, RandomIter pitRandomIter, WritableRandomIter tcaRandomIter, double[] dati,
+    private void compose( GridDouble analyseGrid, GridDouble pitGrid, GridDouble tcaGrid, double[] dati,
             double[] u, double[] v, int col, int row ) {
         int n = 1, m = 1;
 
@@ -778,10 +744,10 @@ public class h_draindir extends ModelsBackbone {
         {1, 8, -1} /* tri 089 */
         };
 
-        analyse.setSample(col, row, 0, 1.0);
-        tcaRandomIter.setSample(col, row, 0, 1.0);
+        analyseGrid.set(col, row, 1.0);
+        tcaGrid.set(col, row, 1.0);
         pendmax = 0.0;
-        dati[3] = pitRandomIter.getSampleDouble(col, row, 0);
+        dati[3] = pitGrid.get(col, row);
         /*
          * per ogni triangolo calcolo la pendenza massima e la direzione di
          * deflusso reale.
@@ -790,8 +756,8 @@ public class h_draindir extends ModelsBackbone {
             n = tri[j][0];
             m = tri[j][1];
 
-            dati[4] = pitRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0);
-            dati[5] = pitRandomIter.getSampleDouble(col + order[m][1], row + order[m][0], 0);
+            dati[4] = pitGrid.get(col + order[n][1], row + order[n][0]);
+            dati[5] = pitGrid.get(col + order[m][1], row + order[m][0]);
             /*
              * verifico che i punti attorno al pixel considerato non siano
              * novalue. In questo caso trascuro il triangolo.
@@ -866,83 +832,67 @@ public class h_draindir extends ModelsBackbone {
      * The fixed network method allows you to assign a known channel network and
      * to then correct the drainage directions.
      */
-    private void newDirections( PlanarImage flowfixedTmpImage, PlanarImage pitImage, WritableRaster dirImage ) {
+    private void newDirections( PlanarImage flowfixedTmpImage, GridDouble pitGrid, GridDouble dirGrid ) {
         int[][] odir = {{0, 0, 0}, {0, 1, 1}, {-1, 1, 2}, {-1, 0, 3}, {-1, -1, 4}, {0, -1, 5}, {1, -1, 6}, {1, 0, 7}, {1, 1, 8},
                 {0, 0, 9}, {0, 0, 10}};
         double elev = 0.0;
         int[] flow = new int[2], nflow = new int[2];
-        int cols = pitImage.getWidth();
-        int rows = pitImage.getHeight();
-        int minX = pitImage.getMinX();
-        int minY = pitImage.getMinY();
-        int maxX = pitImage.getMaxX();
-        int maxY = pitImage.getMaxY();
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-
-        WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirImage, null);
+        int cols = pitGrid.getCols();
+        int rows = pitGrid.getRows();
 
         // setting novalues...
-        PlanarImage flowFixedImage = FluidUtils.setJaiNovalueBorder(flowfixedTmpImage);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowFixedImage, null);
-
-        WritableRaster modflowImage = FluidUtils.createDoubleWritableRaster(pitImage.getWidth(), pitImage.getHeight(), null,
-                null, null);
+        GridDouble flowGrid = GridDouble.fromRenderedImage(flowfixedTmpImage);
+        flowGrid.setNovalueBorder();
 
-        WritableRandomIter modflowRandomIter = RandomIterFactory.createWritable(modflowImage, null);
+        GridDouble modflowGrid = new GridDouble(cols, rows);
 
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
-        pm.beginTask(WORKING_ON + "new directions...", maxY - minY);
-        for( int j = minY; j <= maxY; j++ ) {
-            for( int i = minX; i <= maxX; i++ ) {
-                if (!isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
+        pm.beginTask(WORKING_ON + "new directions...", rows);
+        for( int j = 0; j < rows; j++ ) {
+            for( int i = 0; i < cols; i++ ) {
+                if (!isNovalue(flowGrid.get(i, j))) {
                     flow[0] = i;
                     flow[1] = j;
                     for( int k = 1; k <= 8; k++ ) {
                         nflow[0] = flow[0] + odir[k][1];
                         nflow[1] = flow[1] + odir[k][0];
-                        if (modflowRandomIter.getSampleDouble(nflow[0], nflow[1], 0) == 0
-                                && isNovalue(flowRandomIter.getSampleDouble(nflow[0], nflow[1], 0))) {
-                            elev = pitRandomIter.getSampleDouble(nflow[0] + odir[1][1], nflow[1] + odir[1][0], 0);
+                        if (modflowGrid.get(nflow[0], nflow[1]) == 0
+                                && isNovalue(flowGrid.get(nflow[0], nflow[1]))) {
+                            elev = pitGrid.get(nflow[0] + odir[1][1], nflow[1] + odir[1][0]);
                             for( int n = 2; n <= 8; n++ ) {
                                 if (nflow[0] + odir[n][0] >= 0 && nflow[0] + odir[n][1] <= rows && nflow[1] + odir[n][0] >= 0
                                         && nflow[1] + odir[n][0] <= cols) {
-                                    if (pitRandomIter.getSampleDouble(nflow[0] + odir[n][1], nflow[1] + odir[n][0], 0) >= elev) {
-                                        elev = pitRandomIter.getSampleDouble(nflow[0] + odir[n][1], nflow[1] + odir[n][0], 0);
-                                        dirRandomIter.setSample(nflow[0], nflow[1], 0, odir[n][2]);
+                                    if (pitGrid.get(nflow[0] + odir[n][1], nflow[1] + odir[n][0]) >= elev) {
+                                        elev = pitGrid.get(nflow[0] + odir[n][1], nflow[1] + odir[n][0]);
+                                        dirGrid.set(nflow[0], nflow[1], odir[n][2]);
                                     }
                                 }
                             }
                             for( int s = 1; s <= 8; s++ ) {
                                 if (nflow[0] + odir[s][0] >= 0 && nflow[0] + odir[s][0] <= rows && nflow[1] + odir[s][1] >= 0
                                         && nflow[1] + odir[s][1] <= cols) {
-                                    if (!isNovalue(flowRandomIter
-                                            .getSampleDouble(nflow[0] + odir[s][1], nflow[1] + odir[s][0], 0))) {
+                                    if (!isNovalue(flowGrid.get(nflow[0] + odir[s][1], nflow[1] + odir[s][0]))) {
 
-                                        if (pitRandomIter.getSampleDouble(nflow[0] + odir[s][1], nflow[1] + odir[s][0], 0) <= elev) {
-                                            elev = pitRandomIter.getSampleDouble(nflow[0] + odir[s][1], nflow[1] + odir[s][0], 0);
-                                            dirRandomIter.setSample(nflow[0], nflow[1], 0, odir[s][2]);
+                                        if (pitGrid.get(nflow[0] + odir[s][1], nflow[1] + odir[s][0]) <= elev) {
+                                            elev = pitGrid.get(nflow[0] + odir[s][1], nflow[1] + odir[s][0]);
+                                            dirGrid.set(nflow[0], nflow[1], odir[s][2]);
                                         }
                                     }
                                 }
                             }
-                            modflowRandomIter.setSample(nflow[0], nflow[1], 0, 1);
+                            modflowGrid.set(nflow[0], nflow[1], 1);
                         }
 
                     }
                 }
-                if (!isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                    dirRandomIter.setSample(i, j, 0, flowRandomIter.getSampleDouble(i, j, 0));
+                if (!isNovalue(flowGrid.get(i, j))) {
+                    dirGrid.set(i, j, flowGrid.get(i, j));
                 }
             }
             pm.worked(1);
         }
         pm.done();
 
-        dirRandomIter.done();
-        pitRandomIter.done();
-        modflowRandomIter.done();
-        flowRandomIter.done();
-
     }
 
 }
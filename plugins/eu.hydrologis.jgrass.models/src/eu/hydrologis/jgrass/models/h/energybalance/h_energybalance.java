@@ -43,7 +43,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -53,6 +53,7 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -150,6 +151,11 @@ public class h_energybalance extends ModelsBackbone {
 
     private Calendar myCalendar = Calendar.getInstance();
 
+    /*
+     * the buffer into which the scalar inputs are read, one after the other
+     */
+    private double[] scalarsBuffer = null;
+
     /*
      * Model's variables definition
      */
@@ -533,14 +539,14 @@ public class h_energybalance extends ModelsBackbone {
             if (rainInputLink != null) {
                 rainValueSet = rainInputLink.getSourceComponent().getValues(time,
                         rainInputLink.getID());
-                if (rainValueSet instanceof ScalarSet) {
-                    ScalarSet rainscalarSet = (ScalarSet) rainValueSet;
+                if (rainValueSet instanceof IScalarSet) {
+                    double[] rainScalars = scalars((IScalarSet) rainValueSet);
                     rain = new double[basinNum];
                     pm.beginTask("Read rain data.", rainValueSet.getCount() - 1);
                     for( int i = 1; i < rainValueSet.getCount(); i = i + 2 ) {
                         pm.worked(2);
-                        int rId = rainscalarSet.get(i).intValue();
-                        double rainValue = rainscalarSet.get(i + 1);
+                        int rId = (int) rainScalars[i];
+                        double rainValue = rainScalars[i + 1];
                         Integer index = basinid2BasinindexMap.get(rId);
                         if (index == null) {
                             basinid2BasinindexMap.remove(rId);
@@ -569,10 +575,10 @@ public class h_energybalance extends ModelsBackbone {
                 if (energyIndexInputLink != null) {
                     energyIndexValueSet = energyIndexInputLink.getSourceComponent().getValues(time,
                             energyIndexInputLink.getID());
-                    if (energyIndexValueSet instanceof ScalarSet) {
-                        ScalarSet energyIndexScalarSet = (ScalarSet) energyIndexValueSet;
+                    if (energyIndexValueSet instanceof IScalarSet) {
+                        double[] energyIndexScalars = scalars((IScalarSet) energyIndexValueSet);
                         // get the number of element for each "line"
-                        int energyIndexColumnNumber = energyIndexScalarSet.get(0).intValue();
+                        int energyIndexColumnNumber = (int) energyIndexScalars[0];
                         // get the number of energy bands with the number of basins known
                         {
                             Integer index = null;
@@ -580,7 +586,7 @@ public class h_energybalance extends ModelsBackbone {
                             int ind = 0;
                             for( int i = 1; i < energyIndexValueSet.getCount(); i = i
                                     + energyIndexColumnNumber ) {
-                                int tempId = energyIndexScalarSet.get(i).intValue();
+                                int tempId = (int) energyIndexScalars[i];
                                 index = basinid2BasinindexMap.get(tempId);
                                 if (index != null) {
                                     if (previndex == null || previndex.equals(index)) {
@@ -596,7 +602,7 @@ public class h_energybalance extends ModelsBackbone {
 
                         for( int i = 1; i < energyIndexValueSet.getCount(); i = i
                                 + energyIndexColumnNumber ) {
-                            int tempId = energyIndexScalarSet.get(i).intValue();
+                            int tempId = (int) energyIndexScalars[i];
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index == null) {
                                 basinid2BasinindexMap.remove(tempId);
@@ -607,7 +613,7 @@ public class h_energybalance extends ModelsBackbone {
                                 for( int k = 0; k < 12; k++ ) {
                                     int findex = 5;
                                     if (k < 6) {
-                                        EI[k][j][index] = energyIndexScalarSet.get(i + 3);
+                                        EI[k][j][index] = energyIndexScalars[i + 3];
                                     } else {
                                         EI[k][j][index] = EI[findex][j][basinid2BasinindexMap
                                                 .get(tempId)];
@@ -633,11 +639,11 @@ public class h_energybalance extends ModelsBackbone {
                 if (areaHeigthEnergyInputLink != null) {
                     areaHeigthEnergyValueSet = areaHeigthEnergyInputLink.getSourceComponent()
                             .getValues(time, areaHeigthEnergyInputLink.getID());
-                    if (areaHeigthEnergyValueSet instanceof ScalarSet) {
-                        ScalarSet areaEigthEnergyScalarSet = (ScalarSet) areaHeigthEnergyValueSet;
+                    if (areaHeigthEnergyValueSet instanceof IScalarSet) {
+                        double[] areaEigthEnergyScalars = scalars(
+                                (IScalarSet) areaHeigthEnergyValueSet);
                         // get the number of element for each "line"
-                        int areaEightEnergyColumnNumber = areaEigthEnergyScalarSet.get(0)
-                                .intValue();
+                        int areaEightEnergyColumnNumber = (int) areaEigthEnergyScalars[0];
 
                         // get the number of elevation bands with the number of basins and energy
                         // bands known
@@ -647,7 +653,7 @@ public class h_energybalance extends ModelsBackbone {
                             int ind = 0;
                             for( int i = 1; i < areaHeigthEnergyValueSet.getCount(); i = i
                                     + areaEightEnergyColumnNumber ) {
-                                int tempId = areaEigthEnergyScalarSet.get(i).intValue();
+                                int tempId = (int) areaEigthEnergyScalars[i];
                                 index = basinid2BasinindexMap.get(tempId);
                                 if (index != null) {
                                     if (previndex == null || previndex.equals(index)) {
@@ -662,11 +668,11 @@ public class h_energybalance extends ModelsBackbone {
 
                         A = new double[num_ES][num_EI][basinNum];
                         pm.beginTask("Read area per heigth and band data.",
-                                areaEigthEnergyScalarSet.size() - 2);
+                                areaHeigthEnergyValueSet.getCount() - 2);
 
                         HashMap<Integer, HashMap<Integer, HashMap<Integer, Double>>> idbasinMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, Double>>>();
-                        for( int j = 1; j < areaEigthEnergyScalarSet.size(); ) {
-                            Integer idBas = areaEigthEnergyScalarSet.get(j).intValue();
+                        for( int j = 1; j < areaHeigthEnergyValueSet.getCount(); ) {
+                            Integer idBas = (int) areaEigthEnergyScalars[j];
                             HashMap<Integer, HashMap<Integer, Double>> idfasceMap = idbasinMap
                                     .get(idBas);
                             if (idfasceMap == null) {
@@ -674,7 +680,7 @@ public class h_energybalance extends ModelsBackbone {
                                 idbasinMap.put(idBas, idfasceMap);
                             }
                             j++;
-                            Integer idFasc = areaEigthEnergyScalarSet.get(j).intValue();
+                            Integer idFasc = (int) areaEigthEnergyScalars[j];
                             HashMap<Integer, Double> idbandeMap = idfasceMap.get(idFasc);
                             if (idbandeMap == null) {
                                 idbandeMap = new HashMap<Integer, Double>();
@@ -682,9 +688,9 @@ public class h_energybalance extends ModelsBackbone {
                             }
 
                             j++;
-                            Integer idBand = areaEigthEnergyScalarSet.get(j).intValue();
+                            Integer idBand = (int) areaEigthEnergyScalars[j];
                             j++;
-                            Double value = areaEigthEnergyScalarSet.get(j);
+                            Double value = areaEigthEnergyScalars[j];
                             j++;
                             idbandeMap.put(idBand, value);
                             pm.worked(4);
@@ -722,9 +728,9 @@ public class h_energybalance extends ModelsBackbone {
             if (temperatureInputLink != null) {
                 temperatureValueSet = temperatureInputLink.getSourceComponent().getValues(time,
                         temperatureInputLink.getID());
-                if (temperatureValueSet instanceof ScalarSet) {
-                    ScalarSet temperaturescalarSet = (ScalarSet) temperatureValueSet;
-                    int allColumns = temperaturescalarSet.get(0).intValue();
+                if (temperatureValueSet instanceof IScalarSet) {
+                    double[] temperatureScalars = scalars((IScalarSet) temperatureValueSet);
+                    int allColumns = (int) temperatureScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
                     // num_ES = perBasinColumns - 1;
@@ -733,11 +739,11 @@ public class h_energybalance extends ModelsBackbone {
 
                     for( int i = 1; i < temperatureValueSet.getCount(); i = i + perBasinColumns ) {
                         pm.worked(perBasinColumns);
-                        int tempId = temperaturescalarSet.get(i).intValue();
+                        int tempId = (int) temperatureScalars[i];
                         Integer index = basinid2BasinindexMap.get(tempId);
                         if (index != null) {
                             for( int j = 1; j < perBasinColumns; j++ ) {
-                                T[index][j - 1] = temperaturescalarSet.get(i + j);
+                                T[index][j - 1] = temperatureScalars[i + j];
                             }
                         }
                     }
@@ -756,9 +762,9 @@ public class h_energybalance extends ModelsBackbone {
             if (windSpeedInputLink != null) {
                 windValueSet = windSpeedInputLink.getSourceComponent().getValues(time,
                         windSpeedInputLink.getID());
-                if (windValueSet instanceof ScalarSet) {
-                    ScalarSet windScalarSet = (ScalarSet) windValueSet;
-                    int windColumnNumber = windScalarSet.get(0).intValue();
+                if (windValueSet instanceof IScalarSet) {
+                    double[] windScalars = scalars((IScalarSet) windValueSet);
+                    int windColumnNumber = (int) windScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
 
@@ -766,7 +772,7 @@ public class h_energybalance extends ModelsBackbone {
                     pm.beginTask("Read wind speed data.", windValueSet.getCount() - 1);
 
                     for( int i = 1; i < windValueSet.getCount(); i = i + perBasinColumns ) {
-                        int tempId = windScalarSet.get(i).intValue();
+                        int tempId = (int) windScalars[i];
                         pm.worked(perBasinColumns);
                         for( int j = 1; j < perBasinColumns; j++ ) {
                             Integer index = basinid2BasinindexMap.get(tempId);
@@ -774,7 +780,7 @@ public class h_energybalance extends ModelsBackbone {
                                 basinid2BasinindexMap.remove(tempId);
                                 continue;
                             }
-                            V[index][j - 1] = windScalarSet.get(i + j);
+                            V[index][j - 1] = windScalars[i + j];
                         }
                     }
                 }
@@ -792,9 +798,9 @@ public class h_energybalance extends ModelsBackbone {
             if (pressureInputLink != null) {
                 pressurValueSet = pressureInputLink.getSourceComponent().getValues(time,
                         pressureInputLink.getID());
-                if (pressurValueSet instanceof ScalarSet) {
-                    ScalarSet pressureScalarSet = (ScalarSet) pressurValueSet;
-                    int pressureColumnNumber = pressureScalarSet.get(0).intValue();
+                if (pressurValueSet instanceof IScalarSet) {
+                    double[] pressureScalars = scalars((IScalarSet) pressurValueSet);
+                    int pressureColumnNumber = (int) pressureScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
 
@@ -803,14 +809,14 @@ public class h_energybalance extends ModelsBackbone {
 
                     for( int i = 1; i < pressurValueSet.getCount(); i = i + perBasinColumns ) {
                         pm.worked(perBasinColumns);
-                        int tempId = pressureScalarSet.get(i).intValue();
+                        int tempId = (int) pressureScalars[i];
                         for( int j = 1; j < perBasinColumns; j++ ) {
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index == null) {
                                 basinid2BasinindexMap.remove(tempId);
                                 continue;
                             }
-                            P[index][j - 1] = pressureScalarSet.get(i + j);
+                            P[index][j - 1] = pressureScalars[i + j];
                         }
                     }
                 }
@@ -828,9 +834,9 @@ public class h_energybalance extends ModelsBackbone {
             if (relativeHumidityInputLink != null) {
                 relHumidValueSet = relativeHumidityInputLink.getSourceComponent().getValues(time,
                         relativeHumidityInputLink.getID());
-                if (relHumidValueSet instanceof ScalarSet) {
-                    ScalarSet relHumidScalarSet = (ScalarSet) relHumidValueSet;
-                    int relHumidColumnNumber = relHumidScalarSet.get(0).intValue();
+                if (relHumidValueSet instanceof IScalarSet) {
+                    double[] relHumidScalars = scalars((IScalarSet) relHumidValueSet);
+                    int relHumidColumnNumber = (int) relHumidScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
 
@@ -839,14 +845,14 @@ public class h_energybalance extends ModelsBackbone {
 
                     for( int i = 1; i < relHumidValueSet.getCount(); i = i + perBasinColumns ) {
                         pm.worked(perBasinColumns);
-                        int tempId = relHumidScalarSet.get(i).intValue();
+                        int tempId = (int) relHumidScalars[i];
                         for( int j = 1; j < perBasinColumns; j++ ) {
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index == null) {
                                 basinid2BasinindexMap.remove(tempId);
                                 continue;
                             }
-                            RH[index][j - 1] = relHumidScalarSet.get(i + j);
+                            RH[index][j - 1] = relHumidScalars[i + j];
                         }
                     }
                 }
@@ -865,9 +871,9 @@ public class h_energybalance extends ModelsBackbone {
             if (dailyTempRangeInputLink != null) {
                 dtDayValueSet = dailyTempRangeInputLink.getSourceComponent().getValues(time,
                         dailyTempRangeInputLink.getID());
-                if (dtDayValueSet instanceof ScalarSet) {
-                    ScalarSet dtDayScalarSet = (ScalarSet) dtDayValueSet;
-                    int dtDayColumnNumber = dtDayScalarSet.get(0).intValue();
+                if (dtDayValueSet instanceof IScalarSet) {
+                    double[] dtDayScalars = scalars((IScalarSet) dtDayValueSet);
+                    int dtDayColumnNumber = (int) dtDayScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
 
@@ -878,14 +884,14 @@ public class h_energybalance extends ModelsBackbone {
 
                     for( int i = 1; i < dtDayValueSet.getCount(); i = i + perBasinColumns ) {
                         pm.worked(perBasinColumns);
-                        int tempId = dtDayScalarSet.get(i).intValue();
+                        int tempId = (int) dtDayScalars[i];
                         for( int j = 1; j < perBasinColumns; j++ ) {
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index == null) {
                                 basinid2BasinindexMap.remove(tempId);
                                 continue;
                             }
-                            DTd[index][j - 1] = dtDayScalarSet.get(i + j);
+                            DTd[index][j - 1] = dtDayScalars[i + j];
                         }
                     }
                 }
@@ -904,9 +910,9 @@ public class h_energybalance extends ModelsBackbone {
             if (montlyTempRangeInputLink != null) {
                 dtMonthValueSet = montlyTempRangeInputLink.getSourceComponent().getValues(time,
                         montlyTempRangeInputLink.getID());
-                if (dtMonthValueSet instanceof ScalarSet) {
-                    ScalarSet dtMonthScalarSet = (ScalarSet) dtMonthValueSet;
-                    int dtMonthColumnNumber = dtMonthScalarSet.get(0).intValue();
+                if (dtMonthValueSet instanceof IScalarSet) {
+                    double[] dtMonthScalars = scalars((IScalarSet) dtMonthValueSet);
+                    int dtMonthColumnNumber = (int) dtMonthScalars[0];
                     // basinid, valeBand1, valueband2, valueband3,...
                     int perBasinColumns = num_ES + 1;
 
@@ -916,11 +922,11 @@ public class h_energybalance extends ModelsBackbone {
 
                     for( int i = 1; i < dtMonthValueSet.getCount(); i = i + perBasinColumns ) {
                         pm.worked(perBasinColumns);
-                        int tempId = dtMonthScalarSet.get(i).intValue();
+                        int tempId = (int) dtMonthScalars[i];
                         for( int j = 1; j < perBasinColumns; j++ ) {
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index != null) {
-                                DTm[index][j - 1] = dtMonthScalarSet.get(i + j);
+                                DTm[index][j - 1] = dtMonthScalars[i + j];
                             }
                         }
                     }
@@ -1007,36 +1013,22 @@ public class h_energybalance extends ModelsBackbone {
         }
 
         if (netPrecipitationLink != null && linkID.equals(netPrecipitationLink.getID())) {
-            ScalarSet pnetScalarSet = new ScalarSet(Pnet);
-            pnetScalarSet.add(0, (double) 2.0 * basinNum);
-            return pnetScalarSet;
+            return outputScalarSet(2.0 * basinNum, Pnet);
         } else if (rainPrecipitationLink != null && linkID.equals(rainPrecipitationLink.getID())) {
-            ScalarSet prnScalarSet = new ScalarSet(Prn);
-            prnScalarSet.add(0, (double) 2.0 * basinNum);
-            return prnScalarSet;
+            return outputScalarSet(2.0 * basinNum, Prn);
         } else if (snowPrecipitationLink != null && linkID.equals(snowPrecipitationLink.getID())) {
-            ScalarSet psnScalarSet = new ScalarSet(Psn);
-            psnScalarSet.add(0, (double) 2.0 * basinNum);
-            return psnScalarSet;
+            return outputScalarSet(2.0 * basinNum, Psn);
         } else if (snowWaterEquivalentLink != null
                 && linkID.equals(snowWaterEquivalentLink.getID())) {
-            ScalarSet sweScalarSet = new ScalarSet(SWEbasin);
-            sweScalarSet.add(0, (double) 2.0 * basinNum);
-            return sweScalarSet;
+            return outputScalarSet(2.0 * basinNum, SWEbasin);
         } else if (outuptRainLink != null && linkID.equals(outuptRainLink.getID())) {
-            ScalarSet outRainScalarSet = new ScalarSet(rain);
-            outRainScalarSet.add(0, (double) 2.0 * basinNum);
-            return outRainScalarSet;
+            return outputScalarSet(2.0 * basinNum, rain);
         } else if (AverageTemperatureLink != null && linkID.equals(AverageTemperatureLink.getID())) {
-            ScalarSet avgTempScalarSet = new ScalarSet(averageTemperature);
-            avgTempScalarSet.add(0, (double) 2.0 * basinNum);
-            return avgTempScalarSet;
+            return outputScalarSet(2.0 * basinNum, averageTemperature);
         } else if (fullAdigeOutputLink != null && linkID.equals(fullAdigeOutputLink.getID())) {
-            ScalarSet fullAdigeScalarSet = new ScalarSet(fullAdigeData);
-            fullAdigeScalarSet.add(0, (double) 9.0 * basinNum);
-            return fullAdigeScalarSet;
+            return outputScalarSet(9.0 * basinNum, fullAdigeData);
         } else if (mainOutputLink != null && linkID.equals(mainOutputLink.getID())) {
-            ScalarSet mainScalarSet = new ScalarSet();
+            DoubleScalarSet mainScalarSet = new DoubleScalarSet(1 + 5 * basinNum);
             mainScalarSet.add(5.0 * basinNum);
 
             int index = 0;
@@ -1059,6 +1051,31 @@ public class h_energybalance extends ModelsBackbone {
 
         return null;
     }
+    /**
+     * Reads the values of a scalar input into the buffer shared by all the inputs.
+     * 
+     * @param valueSet the scalar input.
+     * @return the buffer holding the values, valid until the next input is read.
+     */
+    private double[] scalars( IScalarSet valueSet ) {
+        scalarsBuffer = DoubleScalarSet.toArray(valueSet, scalarsBuffer);
+        return scalarsBuffer;
+    }
+
+    /**
+     * Creates an output set with the number of values as header.
+     * 
+     * @param header the first value of the set.
+     * @param values the values that follow the header.
+     * @return the output set.
+     */
+    private DoubleScalarSet outputScalarSet( double header, double[] values ) {
+        DoubleScalarSet scalarSet = new DoubleScalarSet(values.length + 1);
+        scalarSet.add(header);
+        scalarSet.add(values, 0, values.length);
+        return scalarSet;
+    }
+
     private SafePoint getSafePointData() {
         FileInputStream fis = null;
         ObjectInputStream in = null;
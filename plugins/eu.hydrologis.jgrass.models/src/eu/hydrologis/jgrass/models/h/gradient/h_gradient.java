@@ -23,6 +23,7 @@
 package eu.hydrologis.jgrass.models.h.gradient;
 
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.PrintStream;
 
@@ -43,6 +44,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.operations.jai.gradient.HMGradientDescriptor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
@@ -88,6 +90,8 @@ public class h_gradient extends ModelsBackbone {
 
     public final static String gradientID = "gradient";
 
+    private static final String THREADS = "threads"; //$NON-NLS-1$
+
     private final static String modelParameters = eu.hydrologis.libs.messages.help.Messages.getString("h_gradient.usage"); //$NON-NLS-1$
 
     private ILink pitLink = null;
@@ -104,6 +108,8 @@ public class h_gradient extends ModelsBackbone {
 
     private boolean doTile = false;
 
+    private int threads = 1;
+
     private JGrassGridCoverageValueSet jgrValueSet;
 
     private String locationPath;
@@ -202,9 +208,16 @@ public class h_gradient extends ModelsBackbone {
             // set the tiling.
             if (pitImage != null) {
                 RenderedOp gradient = HMGradientDescriptor.create(pitImage, dx, dy, false, err, out);
+                CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
+                if (threads > 1) {
+                    // computed by blocks in parallel, the border is set to noValue
+                    WritableRaster gradientRaster = FluidUtils.computeWithNovalueBorder(gradient,
+                            threads);
+                    jgrValueSet = new JGrassGridCoverageValueSet(gradientRaster, activeRegion, crs);
+                    return jgrValueSet;
+                }
                 // set the border to noValue
                 RenderedOp gradientNoV = FluidUtils.setJaiNovalueBorder(gradient);
-                CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
                 jgrValueSet = new JGrassGridCoverageValueSet(gradientNoV, activeRegion, crs);
                 return jgrValueSet;
             }
@@ -238,6 +251,17 @@ public class h_gradient extends ModelsBackbone {
                     doTile = Boolean.parseBoolean(argument.getValue());
 
                 }
+                if (key.compareTo(THREADS) == 0) {
+                    try {
+                        threads = Integer.parseInt(argument.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        throw new ModelsIllegalargumentException(
+                                "The threads parameter has to be a positive integer.", this);
+                    }
+                }
             }
         }
 
@@ -30,9 +30,6 @@ import java.io.File;
 import java.io.PrintStream;
 
 import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -49,6 +46,7 @@ import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -311,55 +309,39 @@ public class h_h2cd extends ModelsBackbone {
         // get resolution of the active region
         double dx = activeRegion.getWEResolution();
         double dy = activeRegion.getNSResolution();
-        FluidUtils.setJAInoValueBorderIT(flowImage2);
-        WritableRandomIter flowRandomIter = RandomIterFactory.createWritable(flowImage2, null);
-        RandomIter netRandomIter = RandomIterFactory.create(netImage, null);
+        GridDouble flowGrid = GridDouble.fromRaster(flowImage2);
+        flowGrid.setNovalueBorder();
+        GridDouble netGrid = GridDouble.fromRenderedImage(netImage);
 
         WritableRaster h2cDImage = FluidUtils.createDoubleWritableRaster(flowImage2.getWidth(), flowImage2.getHeight(), null,
                 flowImage2.getSampleModel(), 0.0);
-        WritableRandomIter h2cDRandomIter = RandomIterFactory.createWritable(h2cDImage, null);
+        GridDouble h2cDGrid = new GridDouble(flowGrid.getCols(), flowGrid.getRows());
         // create new matrix
 
         out.println(Messages.getString("working") + " h.h2cd");
-        // setting novalue border...
-
-        // FluidUtils.setNovalueBorder(netData);
 
         for( int j = 0; j < rows; j++ ) {
             for( int i = 0; i < cols; i++ ) {
-                if (netRandomIter.getSample(i, j, 0) == 2)
-                    flowRandomIter.setSample(i, j, 0, 10);
+                if ((int) netGrid.get(i, j) == 2)
+                    flowGrid.set(i, j, 10);
             }
         }
 
         if (mode == 1) {
-            FluidUtils.outletdistance(flowRandomIter, h2cDImage, dx, dy, out);
-            for( int j = 0; j < rows; j++ ) {
-                for( int i = 0; i < cols; i++ ) {
-                    if (netRandomIter.getSample(i, j, 0) == 2 && !isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                        h2cDRandomIter.setSample(i, j, 0, 0);
-                    } else if (isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                        h2cDRandomIter.setSample(i, j, 0, JGrassConstants.doubleNovalue);
-                    }
-                }
-            }
-            netRandomIter.done();
-            h2cDRandomIter.done();
-            flowRandomIter.done();
+            FluidUtils.outletdistance(flowGrid, h2cDGrid, dx, dy, out);
         } else if (mode == 0) {
-            FluidUtils.topological_outletdistance(flowRandomIter, h2cDImage, out);
-            h2cDRandomIter = RandomIterFactory.createWritable(h2cDImage, null);
-            // create new matrix
-            for( int j = 0; j < rows; j++ ) {
-                for( int i = 0; i < cols; i++ ) {
-                    if (netRandomIter.getSample(i, j, 0) == 2 && !isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                        h2cDRandomIter.setSample(i, j, 0, 0);
-                    } else if (isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                        h2cDRandomIter.setSample(i, j, 0, JGrassConstants.doubleNovalue);
-                    }
+            FluidUtils.topological_outletdistance(flowGrid, h2cDGrid, out);
+        }
+        for( int j = 0; j < rows; j++ ) {
+            for( int i = 0; i < cols; i++ ) {
+                if ((int) netGrid.get(i, j) == 2 && !isNovalue(flowGrid.get(i, j))) {
+                    h2cDGrid.set(i, j, 0);
+                } else if (isNovalue(flowGrid.get(i, j))) {
+                    h2cDGrid.set(i, j, JGrassConstants.doubleNovalue);
                 }
             }
         }
+        h2cDGrid.toWritableRaster(h2cDImage);
         return h2cDImage;
     }
 }
@@ -46,6 +46,7 @@ import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -398,17 +399,11 @@ public class h_hackstream extends ModelsBackbone {
         int[] punto = new int[2];
 
         // create new matrix
-        WritableRaster segnaImage = FluidUtils.createFromRaster(flowDiskImage);
-
-        RandomIter flowRandomIter = RandomIterFactory.create(flowDiskImage, null);
-        WritableRandomIter segnaRandomIter = RandomIterFactory.createWritable(segnaImage, null);
-        RandomIter tcaRandomIter = RandomIterFactory.create(tcaImage, null);
-        RandomIter hacklRandomIter = RandomIterFactory.create(hacklImage, null);
-
-        WritableRaster hacksImage = FluidUtils.createDoubleWritableRaster(flowDiskImage.getWidth(), flowDiskImage.getHeight(),
-                null, flowDiskImage.getSampleModel(), doubleNovalue);
-
-        WritableRandomIter hacksRandomIter = RandomIterFactory.createWritable(hacksImage, null);
+        GridDouble flowGrid = GridDouble.fromRaster(flowDiskImage);
+        GridDouble segnaGrid = GridDouble.fromRaster(flowDiskImage);
+        GridDouble tcaGrid = GridDouble.fromRenderedImage(tcaImage);
+        GridDouble hacklGrid = GridDouble.fromRenderedImage(hacklImage);
+        GridDouble hacksGrid = new GridDouble(cols, rows, doubleNovalue);
 
         int iterations = 1;
         do {
@@ -422,27 +417,27 @@ public class h_hackstream extends ModelsBackbone {
             for( int j = 0; j < rows; j++ ) {
                 for( int i = 0; i < cols; i++ ) {
                     contr = 0;
-                    if (segnaRandomIter.getSampleDouble(i, j, 0) == 10) {
+                    if (segnaGrid.get(i, j) == 10) {
                         flow[0] = i;
                         flow[1] = j;
                         contr = 1;
                         // it s really an output point (the segna matrix can be
                         // modified into the
                         // loop).
-                        if (flowRandomIter.getSampleDouble(i, j, 0) == 10) {
+                        double direction = flowGrid.get(i, j);
+                        if (direction == 10) {
                             // the output value is setted as 1 in the hack
                             // matrix.
-                            hacksRandomIter.setSample(i, j, 0, 1);
-                        } else if (flowRandomIter.getSampleDouble(i, j, 0) != 10
-                                || !isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
+                            hacksGrid.set(i, j, 1);
+                        } else if (direction != 10 || !isNovalue(direction)) {
                             // after the call to go_downstream the flow is the
                             // next pixel in the channel.
-                            if (!FluidUtils.go_downstream(flow, flowRandomIter.getSampleDouble(flow[0], flow[1], 0)))
+                            if (!FluidUtils.go_downstream(flow, direction))
                                 return null;
                             // this if is true if there is a fork (segna==10 but
                             // m!=10) so add one to the hack number.
-                            if (!isNovalue(flowRandomIter.getSampleDouble(flow[0], flow[1], 0)))
-                                hacksRandomIter.setSample(i, j, 0, hacksRandomIter.getSampleDouble(flow[0], flow[1], 0) + 1);
+                            if (!isNovalue(flowGrid.get(flow[0], flow[1])))
+                                hacksGrid.set(i, j, hacksGrid.get(flow[0], flow[1]) + 1);
                         }
                         // memorize where the cycle was
                         punto[0] = i;
@@ -463,7 +458,7 @@ public class h_hackstream extends ModelsBackbone {
                 kk = 0;
                 // the flow point is changed in order to follow the drainage
                 // direction.
-                FluidUtils.go_upstream_a(flow, flowRandomIter, tcaRandomIter, hacklRandomIter, param);
+                FluidUtils.go_upstream_a(flow, flowGrid, tcaGrid, hacklGrid, param);
                 // the direction
                 kk = param[0];
                 // number of pixel which drainage into this pixel, N.B. in a
@@ -473,13 +468,13 @@ public class h_hackstream extends ModelsBackbone {
 
                 double tmp = 0;
                 if (count > 0) {
-                    tmp = hacksRandomIter.getSampleDouble(punto[0], punto[1], 0);
-                    hacksRandomIter.setSample(flow[0], flow[1], 0, tmp);
+                    tmp = hacksGrid.get(punto[0], punto[1]);
+                    hacksGrid.set(flow[0], flow[1], tmp);
                 }
                 if (count > 1) {
                     for( int k = 1; k <= 8; k++ ) {
-                        if (flowRandomIter.getSampleDouble(punto[0] + dir[k][0], punto[1] + dir[k][1], 0) == dir[k][2] && k != kk) {
-                            segnaRandomIter.setSample(punto[0] + dir[k][0], punto[1] + dir[k][1], 0, 10);
+                        if (flowGrid.get(punto[0] + dir[k][0], punto[1] + dir[k][1]) == dir[k][2] && k != kk) {
+                            segnaGrid.set(punto[0] + dir[k][0], punto[1] + dir[k][1], 10);
                         }
                     }
                 }
@@ -488,30 +483,28 @@ public class h_hackstream extends ModelsBackbone {
                     flow_p[0] = flow[0];
                     flow_p[1] = flow[1];
                     kk = 0;
-                    FluidUtils.go_upstream_a(flow, flowRandomIter, tcaRandomIter, hacklRandomIter, param);
+                    FluidUtils.go_upstream_a(flow, flowGrid, tcaGrid, hacklGrid, param);
                     kk = param[0];
                     count = param[1];
-                    double temp = hacksRandomIter.getSampleDouble(punto[0], punto[1], 0);
-                    hacksRandomIter.setSample(flow[0], flow[1], 0, temp);
+                    double temp = hacksGrid.get(punto[0], punto[1]);
+                    hacksGrid.set(flow[0], flow[1], temp);
                     if (count > 1) {
                         // attribuisco ai nodi che incontro direzione di
                         // drenaggio 10
                         for( int k = 1; k <= 8; k++ ) {
-                            if (flowRandomIter.getSample(flow_p[0] + dir[k][0], flow_p[1] + dir[k][1], 0) == dir[k][2] && k != kk) {
-                                segnaRandomIter.setSample(flow_p[0] + dir[k][0], flow_p[1] + dir[k][1], 0, 10);
+                            if (flowGrid.get(flow_p[0] + dir[k][0], flow_p[1] + dir[k][1]) == dir[k][2] && k != kk) {
+                                segnaGrid.set(flow_p[0] + dir[k][0], flow_p[1] + dir[k][1], 10);
                             }
                         }
                     }
                 }
-                segnaRandomIter.setSample(punto[0], punto[1], 0, 5);
+                segnaGrid.set(punto[0], punto[1], 5);
             }
         } while( contr == 1 );
-        segnaRandomIter.done();
-        hacklRandomIter.done();
-        hacksRandomIter.done();
-        flowRandomIter.done();
 
-        segnaImage = null;
+        WritableRaster hacksImage = FluidUtils.createDoubleWritableRaster(cols, rows, null, flowDiskImage
+                .getSampleModel(), doubleNovalue);
+        hacksGrid.toWritableRaster(hacksImage);
         return hacksImage;
     }
 
@@ -31,7 +31,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -41,6 +41,7 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -249,6 +250,8 @@ public class h_jami extends ModelsBackbone {
 
     private double[] DTmonth = null;
 
+    private double[] stationValues = null;
+
     public h_jami() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -473,24 +476,25 @@ public class h_jami extends ModelsBackbone {
              */
             IValueSet altimetryValueSet = altimetryLink.getSourceComponent().getValues(time,
                     altimetryLink.getID());
-            if (altimetryValueSet instanceof ScalarSet) {
-                ScalarSet altimetryScalarSet = (ScalarSet) altimetryValueSet;
+            if (altimetryValueSet instanceof IScalarSet) {
+                double[] altimetry = DoubleScalarSet.toArray((IScalarSet) altimetryValueSet,
+                        null);
                 // the format is: idbasin, idfascia, elevfascia, rangefascia
-                int columns = altimetryScalarSet.get(0).intValue();
-                int total = altimetryScalarSet.getCount() - 1;
+                int columns = (int) altimetry[0];
+                int total = altimetryValueSet.getCount() - 1;
                 int basinNum = basinBaricenterCoordinates.size();
                 int fascieNum = total / basinNum / columns;
 
                 bandsBasins = new double[fascieNum][basinNum];
-                for( int i = 1; i < altimetryScalarSet.size(); i = i + 4 ) {
-                    int idbasin = altimetryScalarSet.get(i).intValue();
-                    int idfascia = altimetryScalarSet.get(i + 1).intValue();
-                    double baricenter = altimetryScalarSet.get(i + 2);
+                for( int i = 1; i < altimetryValueSet.getCount(); i = i + 4 ) {
+                    int idbasin = (int) altimetry[i];
+                    int idfascia = (int) altimetry[i + 1];
+                    double baricenter = altimetry[i + 2];
                     Integer index = basinid2BasinindexMap.get(idbasin);
                     if (index != null)
                         bandsBasins[idfascia][index] = baricenter;
                     // TODO make it range aware
-                    // double range = altimetryScalarSet.get(i + 3);
+                    // double range = altimetry[i + 3];
                     // bandsBasins[idfascia +
                     // 1][basinid2BasinindexMap.get(idbasin)] = baricenter
                     // + range / 2.0;
@@ -531,15 +535,17 @@ public class h_jami extends ModelsBackbone {
         /*
          * get values for current timestep and order them with the stations ids
          */
-        ScalarSet valuesValueSet = (ScalarSet) valuesLink.getSourceComponent().getValues(time,
+        IScalarSet valuesValueSet = (IScalarSet) valuesLink.getSourceComponent().getValues(time,
                 valuesLink.getID());
+        int valuesCount = valuesValueSet.getCount();
+        stationValues = DoubleScalarSet.toArray(valuesValueSet, stationValues);
         double[] statValues = new double[stationCoordinates.size()];
         for( int i = 0; i < statValues.length; i++ ) {
             statValues[i] = JGrassConstants.doubleNovalue;
         }
-        for( int i = 1; i < valuesValueSet.getCount(); i = i + 2 ) {
-            double id = valuesValueSet.get(i);
-            double value = valuesValueSet.get(i + 1);
+        for( int i = 1; i < valuesCount; i = i + 2 ) {
+            double id = stationValues[i];
+            double value = stationValues[i + 1];
             Integer index = stationid2StationindexMap.get((int) id);
             if (index == null)
                 continue;
@@ -562,8 +568,9 @@ public class h_jami extends ModelsBackbone {
             }
         }
 
-        ScalarSet interpolatedMeteoSet = new ScalarSet();
         int bandsNum = bandsBasins.length;
+        DoubleScalarSet interpolatedMeteoSet = new DoubleScalarSet(1 + (bandsNum + 1)
+                * basinBaricenterCoordinates.size());
         /*
          * the number of scalars exiting at every timestep is: basin number
          * (band number + 1) where 1 is the place for the basin id
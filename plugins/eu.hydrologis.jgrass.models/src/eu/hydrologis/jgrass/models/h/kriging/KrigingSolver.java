@@ -0,0 +1,397 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.jgrass.models.h.kriging;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.models.h.kriging.sextante.Point3D;
+import eu.hydrologis.jgrass.models.h.kriging.sextante.PtAndDistance;
+import eu.hydrologis.libs.utils.LinearAlgebra;
+
+/**
+ * <p>
+ * Solves the ordinary kriging system for a set of neighbour stations.
+ * </p>
+ * <p>
+ * Neighbouring cells of a grid mostly share the same neighbour stations, so the LU factorization
+ * of the variogram matrix is kept in a LRU {@link FactorizationCache}, keyed by the set of station
+ * ids and bounded by the memory of the factorizations it holds. The system is
+ * always assembled with the stations sorted by id, so the same set gives the same matrix
+ * regardless of the distance order in which the stations were found. For every cell only the
+ * right hand side has to be built and solved, instead of inverting the whole matrix.
+ * </p>
+ * <p>
+ * An instance is not thread safe, every thread has to use its own. The threads can share the
+ * same cache instead, so that the memory budget holds for all of them together.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class KrigingSolver {
+
+    private final int model;
+    private final double nugget;
+    private final double sill;
+    private final double range;
+    private final int maxPoints;
+    private final int minPoints;
+
+    private final FactorizationCache factorizations;
+
+    /* the neighbours of the current cell, sorted by station id */
+    private final PtAndDistance[] sorted;
+    private final double[] gammas;
+    private final double[] lambdas;
+    private final SystemKey probe;
+
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * @param model the variogram model: 0 = spherical, 1 = exponential, 2 = gaussian, 3 = sillian.
+     * @param nugget the nugget of the variogram.
+     * @param sill the sill of the variogram.
+     * @param range the range of the variogram.
+     * @param maxPoints the maximum number of stations used for a cell.
+     * @param minPoints the minimum number of stations needed to interpolate a cell.
+     * @param cacheBudget the memory in bytes the cached factorizations of this solver may take.
+     */
+    public KrigingSolver( int model, double nugget, double sill, double range, int maxPoints,
+            int minPoints, long cacheBudget ) {
+        this(model, nugget, sill, range, maxPoints, minPoints, new FactorizationCache(cacheBudget));
+    }
+
+    /**
+     * @param model the variogram model: 0 = spherical, 1 = exponential, 2 = gaussian, 3 = sillian.
+     * @param nugget the nugget of the variogram.
+     * @param sill the sill of the variogram.
+     * @param range the range of the variogram.
+     * @param maxPoints the maximum number of stations used for a cell.
+     * @param minPoints the minimum number of stations needed to interpolate a cell.
+     * @param cache the cache of the factorizations, that may be shared with other solvers using
+     *        the same variogram.
+     */
+    public KrigingSolver( int model, double nugget, double sill, double range, int maxPoints,
+            int minPoints, FactorizationCache cache ) {
+        this.model = model;
+        this.nugget = nugget;
+        this.sill = sill;
+        this.range = range;
+        this.maxPoints = maxPoints;
+        this.minPoints = minPoints;
+
+        factorizations = cache;
+        sorted = new PtAndDistance[maxPoints];
+        gammas = new double[maxPoints + 1];
+        lambdas = new double[maxPoints + 1];
+        probe = new SystemKey(new int[maxPoints], 0);
+    }
+
+    /**
+     * Interpolates a value from the nearest stations.
+     *
+     * @param nearestPoints the stations found around the point to interpolate.
+     * @param result the array to fill with the interpolated value and the variance, novalues if
+     *        there are not enough stations.
+     */
+    public void interpolate( PtAndDistance[] nearestPoints, double[] result ) {
+        int nPoints = Math.min(nearestPoints.length, maxPoints);
+        if (nPoints < minPoints) {
+            result[0] = JGrassConstants.doubleNovalue;
+            result[1] = JGrassConstants.doubleNovalue;
+            return;
+        }
+
+        Factorization lu = getFactorization(nearestPoints, nPoints);
+        if (lu == null) {
+            // a singular system is handled as a system without stations
+            if (minPoints > 0) {
+                result[0] = JGrassConstants.doubleNovalue;
+                result[1] = JGrassConstants.doubleNovalue;
+            } else {
+                result[0] = 0.0;
+                result[1] = 0.0;
+            }
+            return;
+        }
+
+        for( int i = 0; i < nPoints; i++ ) {
+            gammas[i] = getWeight(sorted[i].getDist());
+        }
+        gammas[nPoints] = 1.0;
+        LinearAlgebra.luSolve(lu.lu, nPoints + 1, lu.pivot, gammas, lambdas);
+
+        double value = 0.0;
+        double variance = 0.0;
+        for( int i = 0; i < nPoints; i++ ) {
+            value += lambdas[i] * sorted[i].getPt().getZ();
+            variance += lambdas[i] * gammas[i];
+        }
+        result[0] = value;
+        result[1] = variance;
+    }
+
+    /**
+     * @return the variogram value at the given distance.
+     */
+    public double getWeight( double d ) {
+
+        if (d == 0.0) {
+            d = 0.0001;
+        }
+        double scale = sill - nugget;
+        switch( model ) {
+        case 0: // Spherical Model
+            if (d >= range) {
+                d = nugget + scale;
+            } else {
+                d = nugget + scale
+                        * (3 * d / (2 * range) - d * d * d / (2 * range * range * range));
+            }
+            break;
+        case 1: // Exponential Model
+            d = nugget + scale * (1 - Math.exp(-3 * d / range));
+            break;
+        case 2: // Gaussian Model
+            // d = 1 - Math.exp(-3 * d / (range * range));
+            // d = nugget + scale * d * d;
+            d = nugget + scale * (1 - Math.exp(-3 * Math.pow(d, 2)) / (range * range));
+            break;
+        case 3: // Sillian Model
+            d = 1 - Math.exp(-3 * d / (range * range));
+            d = nugget + scale * d * d;
+            break;
+        }
+
+        return d;
+    }
+
+    /**
+     * @return the number of systems that were found in the cache.
+     */
+    public int getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of systems that had to be factorized.
+     */
+    public int getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Sorts the neighbours by id and gets the factorization of their system, from the cache if
+     * possible.
+     *
+     * @return the factorization or null if the system is singular.
+     */
+    private Factorization getFactorization( PtAndDistance[] nearestPoints, int n ) {
+        // insertion sort, the neighbours are few
+        for( int i = 0; i < n; i++ ) {
+            PtAndDistance pt = nearestPoints[i];
+            int j = i - 1;
+            while( j >= 0 && sorted[j].getID() > pt.getID() ) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = pt;
+        }
+        for( int i = 0; i < n; i++ ) {
+            probe.ids[i] = sorted[i].getID();
+        }
+        probe.set(n);
+
+        Factorization cached = factorizations.get(probe);
+        if (cached != null) {
+            hits++;
+            return cached.lu != null ? cached : null;
+        }
+        misses++;
+
+        int size = n + 1;
+        double[] system = new double[size * size];
+        for( int i = 0; i < n; i++ ) {
+            Point3D pt = sorted[i].getPt();
+            system[i * size + i] = 0.0;
+            system[i * size + n] = system[n * size + i] = 1.0;
+            for( int j = i + 1; j < n; j++ ) {
+                Point3D pt2 = sorted[j].getPt();
+                double dx = pt.getX() - pt2.getX();
+                double dy = pt.getY() - pt2.getY();
+                system[i * size + j] = system[j * size + i] = getWeight(Math.sqrt(dx * dx + dy
+                        * dy));
+            }
+        }
+        system[n * size + n] = 0.0;
+
+        int[] pivot = new int[size];
+        Factorization lu;
+        if (LinearAlgebra.luDecompose(system, size, pivot)) {
+            lu = new Factorization(system, pivot);
+        } else {
+            // the singular systems are cached too, so that they are not factorized again
+            lu = new Factorization(null, null);
+        }
+        int[] ids = new int[n];
+        System.arraycopy(probe.ids, 0, ids, 0, n);
+        factorizations.put(new SystemKey(ids, n), lu);
+        return lu.lu != null ? lu : null;
+    }
+
+    /**
+     * A least recently used cache of the factorized kriging systems, bounded by the memory taken
+     * by the factorizations. The cache is thread safe and can be shared by the solvers of several
+     * threads.
+     */
+    public static class FactorizationCache {
+        /* the memory taken by the objects of an entry, besides its arrays */
+        private static final long ENTRY_OVERHEAD = 128;
+
+        // in access order, the least recently used first
+        private final LinkedHashMap<SystemKey, Factorization> factorizations = new LinkedHashMap<SystemKey, Factorization>(
+                16, 0.75f, true);
+        private final long budget;
+        private long used = 0;
+
+        /**
+         * @param budget the memory in bytes the cached factorizations may take.
+         */
+        public FactorizationCache( long budget ) {
+            this.budget = budget;
+        }
+
+        /**
+         * @return the memory in bytes the cached factorizations may take.
+         */
+        public long getBudget() {
+            return budget;
+        }
+
+        /**
+         * @return the memory in bytes taken by the cached factorizations.
+         */
+        public synchronized long getUsed() {
+            return used;
+        }
+
+        /**
+         * @return the number of cached factorizations.
+         */
+        public synchronized int size() {
+            return factorizations.size();
+        }
+
+        private synchronized Factorization get( SystemKey key ) {
+            return factorizations.get(key);
+        }
+
+        private synchronized void put( SystemKey key, Factorization factorization ) {
+            long bytes = sizeOf(key, factorization);
+            Factorization old = factorizations.remove(key);
+            if (old != null) {
+                used -= sizeOf(key, old);
+            }
+            if (bytes > budget) {
+                return;
+            }
+            factorizations.put(key, factorization);
+            used += bytes;
+            Iterator<Map.Entry<SystemKey, Factorization>> iterator = factorizations
+                    .entrySet().iterator();
+            while( used > budget && iterator.hasNext() ) {
+                Map.Entry<SystemKey, Factorization> eldest = iterator.next();
+                used -= sizeOf(eldest.getKey(), eldest.getValue());
+                iterator.remove();
+            }
+        }
+
+        private static long sizeOf( SystemKey key, Factorization factorization ) {
+            long bytes = ENTRY_OVERHEAD + 4L * key.ids.length;
+            if (factorization.lu != null) {
+                bytes += 8L * factorization.lu.length + 4L * factorization.pivot.length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * The in place LU decomposition of a kriging system, with null arrays if the system is
+     * singular.
+     */
+    private static class Factorization {
+        private final double[] lu;
+        private final int[] pivot;
+
+        private Factorization( double[] lu, int[] pivot ) {
+            this.lu = lu;
+            this.pivot = pivot;
+        }
+    }
+
+    /**
+     * The sorted ids of the stations of a system.
+     */
+    private static class SystemKey {
+        private final int[] ids;
+        private int n;
+        private int hash;
+
+        private SystemKey( int[] ids, int n ) {
+            this.ids = ids;
+            set(n);
+        }
+
+        private void set( int n ) {
+            this.n = n;
+            int h = n;
+            for( int i = 0; i < n; i++ ) {
+                h = 31 * h + ids[i];
+            }
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals( Object obj ) {
+            if (!(obj instanceof SystemKey)) {
+                return false;
+            }
+            SystemKey other = (SystemKey) obj;
+            if (other.n != n || other.hash != hash) {
+                return false;
+            }
+            for( int i = 0; i < n; i++ ) {
+                if (ids[i] != other.ids[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -32,9 +32,14 @@ import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
@@ -55,8 +60,6 @@ import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
-import eu.hydrologis.jgrass.models.h.kriging.jama.Matrix;
-import eu.hydrologis.jgrass.models.h.kriging.sextante.Point3D;
 import eu.hydrologis.jgrass.models.h.kriging.sextante.PtAndDistance;
 import eu.hydrologis.jgrass.models.h.kriging.sextante.RTreeJsi;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
@@ -83,6 +86,7 @@ public class h_kriging extends ModelsBackbone {
     public static final String RANGE = "range"; //$NON-NLS-1$
     public static final String DOVARIANCE = "dovariance"; //$NON-NLS-1$
     public static final String SEARCHRADIUS = "searchradius"; //$NON-NLS-1$
+    public static final String THREADS = "threads"; //$NON-NLS-1$
 
     public static final String IDFIELD = "idfield"; //$NON-NLS-1$
     public static final String IDFIELDINTERPOLATED = "idfieldinterpolated"; //$NON-NLS-1$
@@ -107,15 +111,10 @@ public class h_kriging extends ModelsBackbone {
     private int model;
     private double nugget;
     private double sill;
-    private double scale;
     private double range;
     private double searchRadius;
     private boolean createVarianceLayer;
-    private double[][] weights;
-    private double[] gammas;
-    private Matrix weightMatrix;
-    private RTreeJsi m_SearchEngine;
-    private PtAndDistance[] m_NearestPoints;
+    private int threads;
     private String idField = null;
     private String idFieldinterpolated = null;
 
@@ -124,6 +123,14 @@ public class h_kriging extends ModelsBackbone {
     private HashMap<Integer, Coordinate> interpolatedId2CoordinatesMap;
     private String locationPath;
 
+    /* the rows processed by a thread at a time */
+    private static final int ROWS_PER_BLOCK = 8;
+
+    /* the share of the heap the kriging systems cached by all the solvers may take */
+    private static final int CACHE_HEAP_FRACTION = 8;
+
+    private KrigingSolver.FactorizationCache factorizationCache;
+
     public h_kriging() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -147,10 +154,10 @@ public class h_kriging extends ModelsBackbone {
         model = -1;
         nugget = -1.0;
         sill = -1.0;
-        scale = sill - nugget;
         range = -1;
         createVarianceLayer = true;
         searchRadius = Double.MAX_VALUE;
+        threads = Runtime.getRuntime().availableProcessors();
 
         /*
          * arguments needed for the initialization
@@ -221,6 +228,12 @@ public class h_kriging extends ModelsBackbone {
                 } catch (Exception e) {
                 }
             }
+            if (key.compareTo(THREADS) == 0) {
+                try {
+                    threads = Math.max(1, new Integer(argument.getValue()));
+                } catch (Exception e) {
+                }
+            }
         }
 
         if (maxPoints == -1 || minPoints == -1 || model == -1 || nugget == -1.0 || sill == -1.0
@@ -255,15 +268,19 @@ public class h_kriging extends ModelsBackbone {
                             + msg);
         }
 
-        weights = new double[maxPoints + 1][maxPoints + 1];
-        gammas = new double[maxPoints + 1];
-        weightMatrix = new Matrix(weights);
-
         locationPath = grassDb + File.separator + location;
         String activeRegionPath = locationPath + File.separator + mapset
                 + File.separator + JGrassConstants.WIND;
         activeRegion = new JGrassRegion(activeRegionPath);
 
+        /*
+         * the systems depend only on the positions of the stations, so they are cached for the
+         * whole run, in a cache shared by all the threads
+         */
+        factorizationCache = new KrigingSolver.FactorizationCache(Runtime.getRuntime()
+                .maxMemory()
+                / CACHE_HEAP_FRACTION);
+
         valuesInputEI = ModelsConstants.createFeatureCollectionInputExchangeItem(this, null);
         positionsInputEI = ModelsConstants.createFeatureCollectionInputExchangeItem(this, null);
         interpolatedPositionsInputEI = ModelsConstants.createFeatureCollectionInputExchangeItem(
@@ -342,17 +359,22 @@ public class h_kriging extends ModelsBackbone {
             ScalarSet interpolatedValuesScalarSet = new ScalarSet();
             interpolatedValuesScalarSet.add(interpPosSize * 2.0);
 
-            m_SearchEngine = new RTreeJsi(id2valueMap, id2CoordinatesMap);
+            RTreeJsi searchEngine = new RTreeJsi(id2valueMap, id2CoordinatesMap);
+            KrigingSolver solver = createSolver();
+            double[] result = new double[2];
             Set<Integer> interpolatedIdSet = interpolatedId2CoordinatesMap.keySet();
             int index = 0;
             for( Integer interpolatedId : interpolatedIdSet ) {
                 Coordinate coordinate = interpolatedId2CoordinatesMap.get(interpolatedId);
-                m_NearestPoints = m_SearchEngine.getClosestPoints(coordinate.x, coordinate.y,
-                        searchRadius, maxPoints, true);
+                PtAndDistance[] nearestPoints = searchEngine.getClosestPoints(coordinate.x,
+                        coordinate.y, searchRadius, maxPoints, true);
 
                 interpolatedValuesScalarSet.add(interpolatedId.doubleValue());
-                double interpolatedInPoints = interpolateInPoints(coordinate.x, coordinate.y,
-                        index, varianceArray);
+                solver.interpolate(nearestPoints, result);
+                if (createVarianceLayer) {
+                    varianceArray[index] = result[1];
+                }
+                double interpolatedInPoints = result[0];
                 if (interpolatedInPoints >= 0.0) {
                     interpolatedValuesScalarSet.add(interpolatedInPoints);
                 } else {
@@ -449,34 +471,119 @@ public class h_kriging extends ModelsBackbone {
 
     /**
      * The kriging in the case in which the interpolation is performed on a grid.
+     * <p>
+     * The rows are processed in blocks by a pool of threads. Every block takes a search engine and
+     * a solver from a pool, since both keep state while working on a cell, and gives them back
+     * when done, so that the cached factorizations are reused by the following blocks.
+     * </p>
      */
-    private void processGridAlgorithm( WritableRaster interpolatedValuesImage, double[][] varianceRaster ) {
-        m_SearchEngine = new RTreeJsi(id2valueMap, id2CoordinatesMap);
-
-        int rows = activeRegion.getRows();
-        int cols = activeRegion.getCols();
-
-        WritableRandomIter interpIterator = RandomIterFactory.createWritable(interpolatedValuesImage, null);
+    private void processGridAlgorithm( final WritableRaster interpolatedValuesImage,
+            final double[][] varianceRaster ) throws Exception {
+        final int rows = activeRegion.getRows();
+        final int cols = activeRegion.getCols();
+        final ConcurrentLinkedQueue<GridWorker> workers = new ConcurrentLinkedQueue<GridWorker>();
 
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask("Processing Kriging...", rows);
-        for( int i = 0; i < rows; i++ ) {
-            for( int j = 0; j < cols; j++ ) {
-                Coordinate worldCoordinates = JGrassUtilities.rowColToCenterCoordinates(activeRegion, i, j);
-
-                m_NearestPoints = m_SearchEngine.getClosestPoints(worldCoordinates.x, worldCoordinates.y, searchRadius,
-                        maxPoints, true);
+        if (threads == 1) {
+            GridWorker worker = new GridWorker(cols);
+            for( int i = 0; i < rows; i++ ) {
+                worker.processRow(i, interpolatedValuesImage, varianceRaster);
+                pm.worked(1);
+            }
+            pm.done();
+            return;
+        }
 
-                double interpolatedOnGrid = interpolateOnGrid(worldCoordinates.x, worldCoordinates.y, varianceRaster);
-                interpIterator.setSample(j, i, 0, interpolatedOnGrid);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread(r, "h_kriging worker"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
             }
-            pm.worked(1);
+        });
+        try {
+            CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(
+                    executor);
+            int blocks = 0;
+            for( int first = 0; first < rows; first += ROWS_PER_BLOCK ) {
+                final int firstRow = first;
+                final int lastRow = Math.min(first + ROWS_PER_BLOCK, rows);
+                completionService.submit(new Callable<Integer>(){
+                    public Integer call() throws Exception {
+                        GridWorker worker = workers.poll();
+                        if (worker == null) {
+                            worker = new GridWorker(cols);
+                        }
+                        for( int i = firstRow; i < lastRow; i++ ) {
+                            worker.processRow(i, interpolatedValuesImage, varianceRaster);
+                        }
+                        workers.offer(worker);
+                        return lastRow - firstRow;
+                    }
+                });
+                blocks++;
+            }
+            for( int i = 0; i < blocks; i++ ) {
+                try {
+                    pm.worked(completionService.take().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
         }
         pm.done();
 
         // createCrossValidationTable();
     }
 
+    /**
+     * Creates a solver that shares the factorization cache with all the other solvers of the
+     * run, so that the memory they take doesn't grow with the number of threads.
+     */
+    private KrigingSolver createSolver() {
+        return new KrigingSolver(model, nugget, sill, range, maxPoints, minPoints,
+                factorizationCache);
+    }
+
+    /**
+     * The state needed to interpolate the cells of a row, used by one thread at a time.
+     */
+    private class GridWorker {
+        private final RTreeJsi searchEngine = new RTreeJsi(id2valueMap, id2CoordinatesMap);
+        private final KrigingSolver solver = createSolver();
+        private final double[] result = new double[2];
+        private final double[] rowValues;
+
+        private GridWorker( int cols ) {
+            rowValues = new double[cols];
+        }
+
+        private void processRow( int row, WritableRaster interpolatedValuesImage,
+                double[][] varianceRaster ) {
+            for( int j = 0; j < rowValues.length; j++ ) {
+                Coordinate worldCoordinates = JGrassUtilities.rowColToCenterCoordinates(
+                        activeRegion, row, j);
+                PtAndDistance[] nearestPoints = searchEngine.getClosestPoints(worldCoordinates.x,
+                        worldCoordinates.y, searchRadius, maxPoints, true);
+                solver.interpolate(nearestPoints, result);
+                rowValues[j] = result[0];
+                if (createVarianceLayer) {
+                    varianceRaster[row][j] = result[1];
+                }
+            }
+            synchronized (interpolatedValuesImage) {
+                interpolatedValuesImage.setSamples(0, row, rowValues.length, 1, 0, rowValues);
+            }
+        }
+    }
+
     // protected void createCrossValidationTable() {
     //
     // int i;
@@ -532,160 +639,4 @@ public class h_kriging extends ModelsBackbone {
     //
     // }
 
-    private double interpolateOnGrid( double x, double y, double[][] varianceRaster ) {
-
-        int i, j, nPoints;
-        double dLambda, dValue, dVariance;
-        Point3D pt;
-
-        if ((nPoints = getWeights(x, y)) >= minPoints) {
-            for( i = 0; i < nPoints; i++ ) {
-                gammas[i] = getWeight(m_NearestPoints[i].getDist());
-            }
-
-            gammas[nPoints] = 1.0;
-
-            for( i = 0, dValue = 0.0, dVariance = 0.0; i < nPoints; i++ ) {
-                pt = m_NearestPoints[i].getPt();
-                for( j = 0, dLambda = 0.0; j <= nPoints; j++ ) {
-                    dLambda += weights[i][j] * gammas[j];
-                }
-
-                dValue += dLambda * pt.getZ();
-
-                if (createVarianceLayer) {
-                    dVariance += dLambda * gammas[i];
-                }
-            }
-
-            if (createVarianceLayer) {
-                int[] rowCol = JGrassUtilities.coordinateToNearestRowCol(activeRegion,
-                        new Coordinate(x, y));
-                varianceRaster[rowCol[0]][rowCol[1]] = dVariance;
-            }
-
-            return dValue;
-        }
-
-        if (createVarianceLayer) {
-            int[] rowCol = JGrassUtilities.coordinateToNearestRowCol(activeRegion, new Coordinate(
-                    x, y));
-            varianceRaster[rowCol[0]][rowCol[1]] = JGrassConstants.doubleNovalue;
-        }
-
-        return JGrassConstants.doubleNovalue;
-    }
-
-    private double interpolateInPoints( double x, double y, int index, double[] varianceVector ) {
-
-        int i, j, nPoints;
-        double dLambda, dValue, dVariance;
-        Point3D pt;
-
-        if ((nPoints = getWeights(x, y)) >= minPoints) {
-            for( i = 0; i < nPoints; i++ ) {
-                gammas[i] = getWeight(m_NearestPoints[i].getDist());
-            }
-
-            gammas[nPoints] = 1.0;
-
-            for( i = 0, dValue = 0.0, dVariance = 0.0; i < nPoints; i++ ) {
-                pt = m_NearestPoints[i].getPt();
-                for( j = 0, dLambda = 0.0; j <= nPoints; j++ ) {
-                    dLambda += weights[i][j] * gammas[j];
-                }
-
-                dValue += dLambda * pt.getZ();
-
-                if (createVarianceLayer) {
-                    dVariance += dLambda * gammas[i];
-                }
-            }
-
-            if (createVarianceLayer) {
-                varianceVector[index] = dVariance;
-            }
-
-            return dValue;
-        }
-
-        if (createVarianceLayer) {
-            varianceVector[index] = JGrassConstants.doubleNovalue;
-        }
-
-        return JGrassConstants.doubleNovalue;
-    }
-
-    private double getWeight( double d ) {
-
-        if (d == 0.0) {
-            d = 0.0001;
-        }
-        scale = sill - nugget;
-        switch( model ) {
-        case 0: // Spherical Model
-            if (d >= range) {
-                d = nugget + scale;
-            } else {
-                d = nugget + scale
-                        * (3 * d / (2 * range) - d * d * d / (2 * range * range * range));
-            }
-            break;
-        case 1: // Exponential Model
-            d = nugget + scale * (1 - Math.exp(-3 * d / range));
-            break;
-        case 2: // Gaussian Model
-        // d = 1 - Math.exp(-3 * d / (range * range));
-        // d = nugget + scale * d * d;
-            d = nugget + scale * (1 - Math.exp(-3 * Math.pow(d, 2)) / (range * range));
-            break;
-        case 3: // Sillian Model
-            d = 1 - Math.exp(-3 * d / (range * range));
-            d = nugget + scale * d * d;
-            break;
-        }
-
-        return d;
-    }
-
-    private int getWeights( double x, double y ) {
-        int i, j, n;
-        double dx, dy;
-        Point3D pt, pt2;
-
-        double[][] m_dWeights = weightMatrix.getArray();
-
-        if ((n = Math.min(m_NearestPoints.length, maxPoints)) >= minPoints) {
-            n = Math.min(n, maxPoints);
-            for( i = 0; i < n; i++ ) {
-                pt = (Point3D) m_NearestPoints[i].getPt();
-                m_dWeights[i][i] = 0.0;
-                m_dWeights[i][n] = m_dWeights[n][i] = 1.0;
-                for( j = i + 1; j < n; j++ ) {
-                    pt2 = (Point3D) m_NearestPoints[j].getPt();
-                    dx = pt.getX() - pt2.getX();
-                    dy = pt.getY() - pt2.getY();
-                    m_dWeights[i][j] = m_dWeights[j][i] = getWeight(Math.sqrt(dx * dx + dy * dy));
-                }
-            }
-
-            m_dWeights[n][n] = 0.0;
-
-            Matrix subMatrix = weightMatrix.getMatrix(0, n, 0, n);
-
-            try {
-                Matrix inverse = subMatrix.inverse();
-                weightMatrix.setMatrix(0, n, 0, n, inverse);
-            } catch (RuntimeException e) {
-                return 0;
-            }
-
-            // m_dWeights = inverse.getArray();
-
-        }
-
-        return n;
-
-    }
-
 }
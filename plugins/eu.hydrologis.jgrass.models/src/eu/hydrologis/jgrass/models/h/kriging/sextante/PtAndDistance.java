@@ -4,6 +4,7 @@ public class PtAndDistance implements Comparable{
 	
 	private Point3D m_Pt;
 	private double m_dDist;
+	private int m_iID = -1;
 	
 	public PtAndDistance (Point3D pt, double dDistance){
 		
@@ -12,6 +13,22 @@ public class PtAndDistance implements Comparable{
 		
 	}
 
+	public PtAndDistance (Point3D pt, double dDistance, int iID){
+		
+		this(pt, dDistance);
+		m_iID = iID;
+		
+	}
+
+	/**
+	 * @return the index of the point in the search engine, -1 if unknown.
+	 */
+	public int getID() {
+
+		return m_iID;
+
+	}
+
 	public double getDist() {
 
 		return m_dDist;
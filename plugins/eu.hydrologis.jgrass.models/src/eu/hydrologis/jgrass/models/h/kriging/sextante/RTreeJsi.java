@@ -73,6 +73,7 @@ public class RTreeJsi {
     private double m_dX[];
     private double m_dY[];
     private double m_dZ[];
+    private int m_iIds[];
 
     /**
      * @param id2valueMap the map containing the starting positions ids 
@@ -91,6 +92,7 @@ public class RTreeJsi {
         m_dX = new double[m_iPoints];
         m_dY = new double[m_iPoints];
         m_dZ = new double[m_iPoints];
+        m_iIds = new int[m_iPoints];
 
         Set<Integer> idsSet = id2valueMap.keySet();
         int index = 0;
@@ -102,12 +104,16 @@ public class RTreeJsi {
             m_dX[index] = coordinate.x;
             m_dY[index] = coordinate.y;
             m_dZ[index] = id2valueMap.get(id);
+            m_iIds[index] = id;
             index++;
         }
 
     }
 
     /**
+     * The id of the returned points is the id of the station, not its position in the tree, so
+     * that it doesn't change when the stations with a value change.
+     * 
      * @param x the x coordinate, i.e. easting
      * @param y the y coordinate, i.e. northing
      * @param dDistance
@@ -132,7 +138,8 @@ public class RTreeJsi {
             idAndDist = arrayPts.get(i);
             iID = idAndDist.getID();
             dDist = idAndDist.getDist();
-            pts[i] = new PtAndDistance(new Point3D(m_dX[iID], m_dY[iID], m_dZ[iID]), dDist);
+            pts[i] = new PtAndDistance(new Point3D(m_dX[iID], m_dY[iID], m_dZ[iID]), dDist,
+                    m_iIds[iID]);
         }
 
         Arrays.sort(pts);
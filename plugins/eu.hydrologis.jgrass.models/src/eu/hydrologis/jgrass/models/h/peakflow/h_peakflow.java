@@ -19,6 +19,7 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -258,7 +259,7 @@ public class h_peakflow extends ModelsBackbone {
                 amplitudeSuperficialValueSet = widthSupLink.getSourceComponent().getValues(time,
                         widthSupLink.getID());
                 if (amplitudeSuperficialValueSet != null
-                        && amplitudeSuperficialValueSet instanceof ScalarSet) {
+                        && amplitudeSuperficialValueSet instanceof IScalarSet) {
                     setSuperficialAmplitude();
                 }
             }
@@ -271,7 +272,7 @@ public class h_peakflow extends ModelsBackbone {
                 amplitudeSubSuperficialValueSet = widthSubLink.getSourceComponent().getValues(time,
                         widthSubLink.getID());
                 if (amplitudeSubSuperficialValueSet != null
-                        && amplitudeSubSuperficialValueSet instanceof ScalarSet) {
+                        && amplitudeSubSuperficialValueSet instanceof IScalarSet) {
                     setSubSuperficialAmplitude();
                 }
             }
@@ -478,7 +479,7 @@ public class h_peakflow extends ModelsBackbone {
     }
 
     private void setSuperficialAmplitude() {
-        ScalarSet scalarSet = (ScalarSet) amplitudeSuperficialValueSet;
+        IScalarSet scalarSet = (IScalarSet) amplitudeSuperficialValueSet;
         int widthFunctionLength = (scalarSet.getCount() - 1) / 2;
 
         widthFunctionSuperficial = new double[widthFunctionLength][3];
@@ -488,8 +489,8 @@ public class h_peakflow extends ModelsBackbone {
         pixelSupArray = new double[widthFunctionLength];
         int index = 0;
         for( int i = 1; i < amplitudeSuperficialValueSet.getCount(); i++ ) {
-            timeSupArray[index] = scalarSet.get(i);
-            pixelSupArray[index] = scalarSet.get(i + 1);
+            timeSupArray[index] = scalarSet.getScalar(i);
+            pixelSupArray[index] = scalarSet.getScalar(i + 1);
             i++;
 
             pixelTotalSup = pixelTotalSup + pixelSupArray[index];
@@ -513,7 +514,7 @@ public class h_peakflow extends ModelsBackbone {
     }
 
     private void setSubSuperficialAmplitude() {
-        ScalarSet scalarSet = (ScalarSet) amplitudeSubSuperficialValueSet;
+        IScalarSet scalarSet = (IScalarSet) amplitudeSubSuperficialValueSet;
         int widthFunctionLength = (scalarSet.getCount() - 1) / 2;
 
         widthFunctionSubSuperficial = new double[widthFunctionLength][3];
@@ -524,8 +525,8 @@ public class h_peakflow extends ModelsBackbone {
         pixelSubArray = new double[widthFunctionLength];
         int index = 0;
         for( int i = 1; i < amplitudeSubSuperficialValueSet.getCount(); i++ ) {
-            timeSubArray[index] = scalarSet.get(i);
-            pixelSubArray[index] = scalarSet.get(i + 1);
+            timeSubArray[index] = scalarSet.getScalar(i);
+            pixelSubArray[index] = scalarSet.getScalar(i + 1);
             i++;
 
             pixelTotalSub = pixelTotalSub + pixelSubArray[index];
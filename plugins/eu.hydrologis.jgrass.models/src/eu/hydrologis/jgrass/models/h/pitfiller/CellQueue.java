@@ -0,0 +1,140 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.pitfiller;
+
+/**
+ * The queue of the cells to visit in the priority flood.
+ * 
+ * <p>
+ * Cells that are higher than the cell they are reached from go into a binary heap, ordered by
+ * elevation. Cells that are raised to the elevation of the cell they are reached from can't be
+ * lower than any cell still in the heap, so they go into a plain fifo queue, the pit queue, which
+ * is emptied first. This avoids the logarithmic cost of the heap on the cells of depressions and
+ * flats, which are most of the cells of a pitted dem.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+final class CellQueue {
+
+    private double[] heapElevations;
+    private int[] heapCells;
+    private int heapSize = 0;
+
+    private int[] pitCells;
+    private int pitHead = 0;
+    private int pitSize = 0;
+
+    CellQueue( int capacity ) {
+        capacity = Math.max(16, capacity);
+        heapElevations = new double[capacity];
+        heapCells = new int[capacity];
+        pitCells = new int[capacity];
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0 && pitSize == 0;
+    }
+
+    void clear() {
+        heapSize = 0;
+        pitHead = 0;
+        pitSize = 0;
+    }
+
+    /**
+     * Adds a cell to the heap.
+     */
+    void push( double elevation, int cell ) {
+        if (heapSize == heapCells.length) {
+            int capacity = heapCells.length * 2;
+            double[] elevations = new double[capacity];
+            int[] cells = new int[capacity];
+            System.arraycopy(heapElevations, 0, elevations, 0, heapSize);
+            System.arraycopy(heapCells, 0, cells, 0, heapSize);
+            heapElevations = elevations;
+            heapCells = cells;
+        }
+        int i = heapSize++;
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            if (heapElevations[parent] <= elevation) {
+                break;
+            }
+            heapElevations[i] = heapElevations[parent];
+            heapCells[i] = heapCells[parent];
+            i = parent;
+        }
+        heapElevations[i] = elevation;
+        heapCells[i] = cell;
+    }
+
+    /**
+     * Adds a cell to the pit queue.
+     */
+    void pushPit( int cell ) {
+        if (pitSize == pitCells.length) {
+            int[] cells = new int[pitCells.length * 2];
+            for( int i = 0; i < pitSize; i++ ) {
+                cells[i] = pitCells[(pitHead + i) % pitCells.length];
+            }
+            pitCells = cells;
+            pitHead = 0;
+        }
+        pitCells[(pitHead + pitSize) % pitCells.length] = cell;
+        pitSize++;
+    }
+
+    /**
+     * Removes the next cell to visit: the first of the pit queue, unless the lowest cell of the
+     * heap is as low as it.
+     * 
+     * @param data the elevations, to compare the pit cells with the heap.
+     * @return the cell.
+     */
+    int pop( double[] data ) {
+        if (pitSize > 0 && (heapSize == 0 || heapElevations[0] != data[pitCells[pitHead]])) {
+            int cell = pitCells[pitHead];
+            pitHead = (pitHead + 1) % pitCells.length;
+            pitSize--;
+            return cell;
+        }
+        int cell = heapCells[0];
+        heapSize--;
+        double elevation = heapElevations[heapSize];
+        int last = heapCells[heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while( i < half ) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapElevations[child + 1] < heapElevations[child]) {
+                child++;
+            }
+            if (elevation <= heapElevations[child]) {
+                break;
+            }
+            heapElevations[i] = heapElevations[child];
+            heapCells[i] = heapCells[child];
+            i = child;
+        }
+        heapElevations[i] = elevation;
+        heapCells[i] = last;
+        return cell;
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.pitfiller;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.utils.GridDouble;
+
+/**
+ * <p>
+ * Fills the depressions of a digital elevation model with the priority flood algorithm.
+ * </p>
+ * <p>
+ * The cells on the border of the model are the outlets. Starting from them, the cells are visited
+ * in order of elevation, always from the lowest cell reached so far: a cell that is lower than the
+ * cell it is reached from is in a depression and is raised to the elevation of that cell. Every
+ * cell is visited once, so the filling is O(n log n), without the repeated passes over the flats
+ * of the iterative flooding.
+ * </p>
+ * <p>
+ * As in the pitfiller of TARDEM, novalues are handled as the lowest possible elevation. Novalue
+ * areas that touch the border of the model drain out of it and stay novalues, while the cells
+ * around them drain into them. Novalue holes inside of the model are depressions like any other,
+ * and are filled to the elevation they spill at.
+ * </p>
+ * <p>
+ * With a positive epsilon, every raised cell is made epsilon higher than the cell it is reached
+ * from, so that the filled depressions and the flats drain towards their outlet instead of being
+ * flat.
+ * </p>
+ * <p>
+ * See: R. Barnes, C. Lehman, D. Mulla, Priority-flood: An optimal depression-filling and
+ * watershed-labeling algorithm for digital elevation models, Computers & Geosciences 62 (2014)
+ * 117-127.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class PriorityFlood {
+
+    /**
+     * The row and column offsets of the 8 neighbours of a cell.
+     */
+    static final int[] DROW = {-1, -1, -1, 0, 0, 1, 1, 1};
+    static final int[] DCOL = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private final double epsilon;
+
+    /**
+     * @param epsilon the increment given to every raised cell, 0 to leave the filled areas flat.
+     */
+    public PriorityFlood( double epsilon ) {
+        if (epsilon < 0 || JGrassConstants.isNovalue(epsilon)) {
+            throw new IllegalArgumentException("The epsilon can't be negative.");
+        }
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Fills the depressions of a model.
+     * 
+     * @param elevation the elevation model, which is filled in place.
+     */
+    public void fill( GridDouble elevation ) {
+        fill(elevation.getData(), elevation.getCols(), elevation.getRows());
+    }
+
+    /**
+     * Fills the depressions of a model.
+     * 
+     * @param data the elevations row after row, which are filled in place.
+     * @param cols the number of columns.
+     * @param rows the number of rows.
+     */
+    public void fill( double[] data, int cols, int rows ) {
+        boolean[] closed = new boolean[data.length];
+        CellQueue queue = new CellQueue(2 * (cols + rows));
+        toLowest(data, data.length);
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                if (row == 0 || col == 0 || row == rows - 1 || col == cols - 1) {
+                    int cell = row * cols + col;
+                    closed[cell] = true;
+                    queue.push(data[cell], cell);
+                }
+            }
+        }
+
+        while( !queue.isEmpty() ) {
+            int cell = queue.pop(data);
+            int row = cell / cols;
+            int col = cell - row * cols;
+            double elevation = data[cell];
+            for( int k = 0; k < 8; k++ ) {
+                int nRow = row + DROW[k];
+                int nCol = col + DCOL[k];
+                if (nRow < 0 || nRow >= rows || nCol < 0 || nCol >= cols) {
+                    continue;
+                }
+                int neighbour = nRow * cols + nCol;
+                if (closed[neighbour]) {
+                    continue;
+                }
+                closed[neighbour] = true;
+                if (data[neighbour] <= elevation) {
+                    data[neighbour] = elevation + epsilon;
+                    queue.pushPit(neighbour);
+                } else {
+                    queue.push(data[neighbour], neighbour);
+                }
+            }
+        }
+        toNovalues(data, data.length);
+    }
+
+    /**
+     * Turns the novalues into the lowest elevation.
+     */
+    static void toLowest( double[] data, int length ) {
+        for( int i = 0; i < length; i++ ) {
+            if (JGrassConstants.isNovalue(data[i])) {
+                data[i] = Double.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * Turns the cells left at the lowest elevation back into novalues.
+     */
+    static void toNovalues( double[] data, int length ) {
+        for( int i = 0; i < length; i++ ) {
+            if (data[i] == Double.NEGATIVE_INFINITY) {
+                data[i] = JGrassConstants.doubleNovalue;
+            }
+        }
+    }
+
+}
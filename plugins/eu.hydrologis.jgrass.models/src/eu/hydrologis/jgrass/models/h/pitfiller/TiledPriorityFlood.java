@@ -0,0 +1,394 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.pitfiller;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * <p>
+ * Fills the depressions of a digital elevation model that doesn't fit in memory, one tile at the
+ * time, giving the same result as the {@link PriorityFlood} with no epsilon.
+ * </p>
+ * <p>
+ * Every tile is filled on its own, taking all the cells of its border as outlets. Every border
+ * cell gives a label to the cells that are flooded from it, the cells flooded from the border of
+ * the whole model having the label of the outside. The novalues are handled as the lowest
+ * elevation, as by the {@link PriorityFlood}. Where two labels meet, the
+ * lowest elevation they meet at is kept. Joining the borders of the neighbour tiles gives a graph
+ * of the labels, which is small, as it only grows with the border of the tiles. Flooding the graph
+ * from the outside gives the elevation every label has to be filled to in the whole model.
+ * Finally every tile is filled again and its cells are raised to the elevation of their label.
+ * </p>
+ * <p>
+ * Only one tile and the borders of the tiles are kept in memory. Every tile is read twice and
+ * written once.
+ * </p>
+ * <p>
+ * See: R. Barnes, Parallel priority-flood depression filling for trillion cell digital elevation
+ * models on desktops or clusters, Computers & Geosciences 96 (2016) 56-68.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class TiledPriorityFlood {
+
+    /**
+     * The storage of the model, read and written by tiles.
+     */
+    public interface TileStore {
+        public int getCols();
+
+        public int getRows();
+
+        /**
+         * Reads a tile of the model, row after row.
+         */
+        public void read( int firstCol, int firstRow, int cols, int rows, double[] tile )
+                throws IOException;
+
+        /**
+         * Writes a tile of the model, row after row.
+         */
+        public void write( int firstCol, int firstRow, int cols, int rows, double[] tile )
+                throws IOException;
+    }
+
+    /**
+     * The label of the cells not reached yet.
+     */
+    private static final int NOLABEL = 0;
+
+    /**
+     * The label of the cells that drain outside of the model.
+     */
+    private static final int OUTSIDE = 1;
+
+    private final int tileCols;
+    private final int tileRows;
+
+    private int tilesCols;
+    private int tilesRows;
+    private int cols;
+    private int rows;
+
+    /**
+     * The first label given to the border cells of every tile.
+     */
+    private int[] firstLabels;
+
+    /**
+     * The filled elevations and the labels of the border of every tile, the top row, the bottom
+     * row, the left column and the right column.
+     */
+    private double[][][] borderElevations;
+    private int[][][] borderLabels;
+
+    /**
+     * The lowest elevation every couple of labels meets at.
+     */
+    private Map<Long, Double> edges;
+
+    private int labelsNum;
+
+    /**
+     * @param tileCols the columns of the tiles.
+     * @param tileRows the rows of the tiles.
+     */
+    public TiledPriorityFlood( int tileCols, int tileRows ) {
+        if (tileCols < 2 || tileRows < 2) {
+            throw new IllegalArgumentException("The tiles need at least two rows and columns.");
+        }
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+    }
+
+    /**
+     * Fills the depressions of the model.
+     * 
+     * @param store the storage of the model, which is filled in place.
+     * @param monitor the monitor.
+     * @throws IOException
+     */
+    public void fill( TileStore store, IProgressMonitorJGrass monitor ) throws IOException {
+        cols = store.getCols();
+        rows = store.getRows();
+        tilesCols = (cols + tileCols - 1) / tileCols;
+        tilesRows = (rows + tileRows - 1) / tileRows;
+        int tilesNum = tilesCols * tilesRows;
+        firstLabels = new int[tilesNum];
+        borderElevations = new double[tilesNum][][];
+        borderLabels = new int[tilesNum][][];
+        edges = new HashMap<Long, Double>();
+        labelsNum = OUTSIDE + 1;
+
+        double[] data = new double[tileCols * tileRows];
+        int[] labels = new int[tileCols * tileRows];
+        boolean[] closed = new boolean[tileCols * tileRows];
+        CellQueue queue = new CellQueue(2 * (tileCols + tileRows));
+
+        monitor.beginTask("Filling the tiles", 2 * tilesNum); //$NON-NLS-1$
+        for( int t = 0; t < tilesNum; t++ ) {
+            int tileCol = (t % tilesCols) * tileCols;
+            int tileRow = (t / tilesCols) * tileRows;
+            int c = Math.min(tileCols, cols - tileCol);
+            int r = Math.min(tileRows, rows - tileRow);
+            store.read(tileCol, tileRow, c, r, data);
+            PriorityFlood.toLowest(data, c * r);
+            firstLabels[t] = labelsNum;
+            labelsNum = flood(data, labels, closed, queue, c, r, tileCol, tileRow, labelsNum, true);
+            keepBorder(t, data, labels, c, r);
+            monitor.worked(1);
+        }
+
+        double[] spill = spillElevations();
+        borderElevations = null;
+        borderLabels = null;
+        edges = null;
+
+        for( int t = 0; t < tilesNum; t++ ) {
+            int tileCol = (t % tilesCols) * tileCols;
+            int tileRow = (t / tilesCols) * tileRows;
+            int c = Math.min(tileCols, cols - tileCol);
+            int r = Math.min(tileRows, rows - tileRow);
+            store.read(tileCol, tileRow, c, r, data);
+            PriorityFlood.toLowest(data, c * r);
+            flood(data, labels, closed, queue, c, r, tileCol, tileRow, firstLabels[t], false);
+            for( int i = 0; i < c * r; i++ ) {
+                if (labels[i] != NOLABEL && data[i] < spill[labels[i]]) {
+                    data[i] = spill[labels[i]];
+                }
+            }
+            PriorityFlood.toNovalues(data, c * r);
+            store.write(tileCol, tileRow, c, r, data);
+            monitor.worked(1);
+        }
+        monitor.done();
+    }
+
+    /**
+     * Fills a tile from its border, labelling the cells with the border cell they are flooded
+     * from.
+     * 
+     * @return the next free label.
+     */
+    private int flood( double[] data, int[] labels, boolean[] closed, CellQueue queue, int c,
+            int r, int tileCol, int tileRow, int nextLabel, boolean keepEdges ) {
+        queue.clear();
+        for( int row = 0; row < r; row++ ) {
+            for( int col = 0; col < c; col++ ) {
+                int cell = row * c + col;
+                closed[cell] = false;
+                labels[cell] = NOLABEL;
+                boolean tileBorder = row == 0 || col == 0 || row == r - 1 || col == c - 1;
+                boolean outside = tileRow + row == 0 || tileCol + col == 0
+                        || tileRow + row == rows - 1 || tileCol + col == cols - 1;
+                if (outside) {
+                    labels[cell] = OUTSIDE;
+                } else if (tileBorder) {
+                    labels[cell] = nextLabel++;
+                } else {
+                    continue;
+                }
+                closed[cell] = true;
+                queue.push(data[cell], cell);
+            }
+        }
+
+        while( !queue.isEmpty() ) {
+            int cell = queue.pop(data);
+            int row = cell / c;
+            int col = cell - row * c;
+            double elevation = data[cell];
+            int label = labels[cell];
+            for( int k = 0; k < 8; k++ ) {
+                int nRow = row + PriorityFlood.DROW[k];
+                int nCol = col + PriorityFlood.DCOL[k];
+                if (nRow < 0 || nRow >= r || nCol < 0 || nCol >= c) {
+                    continue;
+                }
+                int neighbour = nRow * c + nCol;
+                if (closed[neighbour]) {
+                    if (keepEdges && labels[neighbour] != label && labels[neighbour] != NOLABEL) {
+                        addEdge(label, labels[neighbour], Math.max(elevation, data[neighbour]));
+                    }
+                    continue;
+                }
+                closed[neighbour] = true;
+                labels[neighbour] = label;
+                if (data[neighbour] <= elevation) {
+                    data[neighbour] = elevation;
+                    queue.pushPit(neighbour);
+                } else {
+                    queue.push(data[neighbour], neighbour);
+                }
+            }
+        }
+        return nextLabel;
+    }
+
+    private void keepBorder( int t, double[] data, int[] labels, int c, int r ) {
+        double[][] elevations = new double[4][];
+        int[][] borderLabel = new int[4][];
+        elevations[0] = new double[c];
+        elevations[1] = new double[c];
+        borderLabel[0] = new int[c];
+        borderLabel[1] = new int[c];
+        for( int col = 0; col < c; col++ ) {
+            elevations[0][col] = data[col];
+            borderLabel[0][col] = labels[col];
+            elevations[1][col] = data[(r - 1) * c + col];
+            borderLabel[1][col] = labels[(r - 1) * c + col];
+        }
+        elevations[2] = new double[r];
+        elevations[3] = new double[r];
+        borderLabel[2] = new int[r];
+        borderLabel[3] = new int[r];
+        for( int row = 0; row < r; row++ ) {
+            elevations[2][row] = data[row * c];
+            borderLabel[2][row] = labels[row * c];
+            elevations[3][row] = data[row * c + c - 1];
+            borderLabel[3][row] = labels[row * c + c - 1];
+        }
+        borderElevations[t] = elevations;
+        borderLabels[t] = borderLabel;
+    }
+
+    private void addEdge( int label1, int label2, double elevation ) {
+        Long key = label1 < label2 ? ((long) label1 << 32) | label2 : ((long) label2 << 32)
+                | label1;
+        Double previous = edges.get(key);
+        if (previous == null || elevation < previous) {
+            edges.put(key, elevation);
+        }
+    }
+
+    /**
+     * Joins two cells on the borders of neighbour tiles.
+     */
+    private void join( double elevation1, int label1, double elevation2, int label2 ) {
+        if (label1 != label2) {
+            addEdge(label1, label2, Math.max(elevation1, elevation2));
+        }
+    }
+
+    /**
+     * Joins the borders of the tiles and floods the graph of the labels from the outside.
+     * 
+     * @return the elevation every label has to be filled to.
+     */
+    private double[] spillElevations() {
+        for( int tr = 0; tr < tilesRows; tr++ ) {
+            for( int tc = 0; tc < tilesCols; tc++ ) {
+                int t = tr * tilesCols + tc;
+                double[][] elevations = borderElevations[t];
+                int[][] labels = borderLabels[t];
+                if (tc + 1 < tilesCols) {
+                    // right column against the left column of the tile on the right
+                    int right = t + 1;
+                    joinLines(elevations[3], labels[3], borderElevations[right][2],
+                            borderLabels[right][2]);
+                }
+                if (tr + 1 < tilesRows) {
+                    // bottom row against the top row of the tile below
+                    int below = t + tilesCols;
+                    joinLines(elevations[1], labels[1], borderElevations[below][0],
+                            borderLabels[below][0]);
+                    if (tc + 1 < tilesCols) {
+                        int last = elevations[1].length - 1;
+                        join(elevations[1][last], labels[1][last], borderElevations[below + 1][0][0],
+                                borderLabels[below + 1][0][0]);
+                    }
+                    if (tc > 0) {
+                        int last = borderElevations[below - 1][0].length - 1;
+                        join(elevations[1][0], labels[1][0], borderElevations[below - 1][0][last],
+                                borderLabels[below - 1][0][last]);
+                    }
+                }
+            }
+        }
+
+        // the graph of the labels, as adjacency arrays
+        int[] degree = new int[labelsNum + 1];
+        for( Long key : edges.keySet() ) {
+            degree[(int) (key >>> 32) + 1]++;
+            degree[(int) (key & 0xFFFFFFFFL) + 1]++;
+        }
+        for( int i = 0; i < labelsNum; i++ ) {
+            degree[i + 1] += degree[i];
+        }
+        int[] adjacent = new int[degree[labelsNum]];
+        double[] adjacentElevation = new double[degree[labelsNum]];
+        int[] position = new int[labelsNum];
+        System.arraycopy(degree, 0, position, 0, labelsNum);
+        for( Map.Entry<Long, Double> edge : edges.entrySet() ) {
+            int label1 = (int) (edge.getKey() >>> 32);
+            int label2 = (int) (edge.getKey() & 0xFFFFFFFFL);
+            adjacent[position[label1]] = label2;
+            adjacentElevation[position[label1]++] = edge.getValue();
+            adjacent[position[label2]] = label1;
+            adjacentElevation[position[label2]++] = edge.getValue();
+        }
+
+        double[] spill = new double[labelsNum];
+        boolean[] done = new boolean[labelsNum];
+        for( int i = 0; i < labelsNum; i++ ) {
+            spill[i] = Double.POSITIVE_INFINITY;
+        }
+        spill[OUTSIDE] = Double.NEGATIVE_INFINITY;
+        CellQueue queue = new CellQueue(labelsNum);
+        queue.push(spill[OUTSIDE], OUTSIDE);
+        while( !queue.isEmpty() ) {
+            int label = queue.pop(spill);
+            if (done[label]) {
+                continue;
+            }
+            done[label] = true;
+            for( int i = degree[label]; i < degree[label + 1]; i++ ) {
+                int other = adjacent[i];
+                double elevation = Math.max(spill[label], adjacentElevation[i]);
+                if (!done[other] && elevation < spill[other]) {
+                    spill[other] = elevation;
+                    queue.push(elevation, other);
+                }
+            }
+        }
+        for( int i = 0; i < labelsNum; i++ ) {
+            if (!done[i]) {
+                spill[i] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        return spill;
+    }
+
+    /**
+     * Joins the cells of two facing borders, every cell with the three cells it touches.
+     */
+    private void joinLines( double[] elevations1, int[] labels1, double[] elevations2,
+            int[] labels2 ) {
+        for( int i = 0; i < elevations1.length; i++ ) {
+            for( int j = Math.max(0, i - 1); j <= Math.min(elevations2.length - 1, i + 1); j++ ) {
+                join(elevations1[i], labels1[i], elevations2[j], labels2[j]);
+            }
+        }
+    }
+
+}
@@ -23,8 +23,7 @@ import java.io.PrintStream;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.jgrasstools.gears.libs.monitor.PrintStreamProgressMonitor;
-import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.Pitfiller;
+import org.geotools.coverage.grid.ViewType;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
@@ -36,9 +35,12 @@ import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
+import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
 /**
  * <p>
@@ -47,6 +49,12 @@ import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
  * <p>
  * Translated to java and adapted to be opemi based.
  * </p>
+ * <p>
+ * The depressions are filled with the {@link PriorityFlood priority flood}, taking the border of
+ * the region as outlet. As in TARDEM, the novalues inside of the region are filled like the other
+ * depressions. With a positive <b>epsilon</b> (default 0) the filled areas get a small slope
+ * towards their outlet instead of being flat.
+ * </p>
  * 
  * @author David Tarboton - http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs
  * @author Andrea Antonello - www.hydrologis.com
@@ -61,6 +69,8 @@ public class h_pitfiller extends ModelsBackbone {
 
     public final static String pitID = "pit";
 
+    private static final String EPSILON = "epsilon"; //$NON-NLS-1$
+
     private final static String modelParameters = eu.hydrologis.libs.messages.help.Messages
             .getString("h_pitfiller.usage");
 
@@ -80,6 +90,7 @@ public class h_pitfiller extends ModelsBackbone {
 
     static final double FLOW_NO_VALUE = FluidConstants.flownovalue;
     private String locationPath;
+    private double epsilon = 0.0;
     WritableRandomIter fileRandomIter = null;
 
     public h_pitfiller() {
@@ -111,6 +122,17 @@ public class h_pitfiller extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo(EPSILON) == 0) {
+                    try {
+                        epsilon = Double.parseDouble(argument.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        epsilon = -1.0;
+                    }
+                    if (!(epsilon >= 0.0)) {
+                        throw new ModelsIllegalargumentException(
+                                "The epsilon parameter has to be a positive number or 0.", this);
+                    }
+                }
             }
         }
 
@@ -140,14 +162,13 @@ public class h_pitfiller extends ModelsBackbone {
             }
             
             GridCoverage2D elevData = ModelsConstants.getGridCoverage2DFromLink(elevLink, time, out);
-            PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out, err);
-            Pitfiller pitfiller = new Pitfiller();
-            pitfiller.inDem = elevData;
-            pitfiller.pm = pm;
-            pitfiller.process();
-            GridCoverage2D pitfillerCoverage = pitfiller.outPit;
-            
-            jgrValueSet = new JGrassGridCoverageValueSet(pitfillerCoverage);
+            GridDouble elevation = GridDouble.fromRenderedImage(elevData.view(
+                    ViewType.GEOPHYSICS).getRenderedImage());
+            out.println("Working on pitfiller...");
+            new PriorityFlood(epsilon).fill(elevation);
+
+            jgrValueSet = new JGrassGridCoverageValueSet(elevation.toWritableRaster(),
+                    activeRegion, JGrassCatalogUtilities.getLocationCrs(locationPath));
             return jgrValueSet;
         }
         return null;
@@ -36,6 +36,7 @@ import org.openmi.standard.IValueSet;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.libs.utils.LinearAlgebra;
 
@@ -1090,7 +1091,7 @@ public class h_saintgeo extends ModelsBackbone {
              * Chiamo la funzione ris_sistema. Da questo punto in poi nel vettore tirante[] sono
              * memorizzati i valori del tirante al tempo n+1
              */
-            linearAlgebra.ris_sistema(D, DS, DI, B, tirante, imax - 1);
+            ris_sistema(D, DS, DI, B, tirante, imax - 1);
 
             /*
              * Controllo sul tirante: se durante le iterazioni la quota del tirante scende al di
@@ -1160,7 +1161,7 @@ public class h_saintgeo extends ModelsBackbone {
              * Chiamo la funzione ris_sistema. Da questo punto in poi nel vettore tirante[] sono
              * memorizzati i valori del tirante al tempo n+1
              */
-            linearAlgebra.ris_sistema(D, DS, DI, B, tirante, imax);
+            ris_sistema(D, DS, DI, B, tirante, imax);
             /* Calcolo le portate e le velocita' al tempo n+1. inizio */
             for( int i = 0; i < imax - 1; i++ ) {
                 Q[i] = F_Q[i] / (1.0 + (DELT * GAM[i])) - (G * DELT * geomid[i][0])
@@ -1222,7 +1223,7 @@ public class h_saintgeo extends ModelsBackbone {
              */
             // FIXME check the last parameter in all ris_sistema calls, I guess it needs to be one
             // less
-            linearAlgebra.ris_sistema(D, DS, DI, B, tirante, imax - 1);
+            ris_sistema(D, DS, DI, B, tirante, imax - 1);
             /* Calcolo le portate e le velocita' al tempo n+1. inizio */
             Q[0] = qin;
             for( int i = 1; i < imax - 2; i++ ) {
@@ -1409,7 +1410,7 @@ public class h_saintgeo extends ModelsBackbone {
              * Chiamo la funzione ris_sistema. Da questo punto in poi nel vettore tirante[] sono
              * memorizzati i valori del tirante al tempo n+1
              */
-            linearAlgebra.ris_sistema(D, DS, DI, B, tirante, imax);
+            ris_sistema(D, DS, DI, B, tirante, imax);
             /* Calcolo le portate e le velocita' al tempo n+1. inizio */
             /* Q[1]=qin; */
             for( int i = 0; i < imax - 1; i++ ) {
@@ -1451,6 +1452,19 @@ public class h_saintgeo extends ModelsBackbone {
      * @param qin
      * @param qout
      */
+    /**
+     * Solves the tridiagonal system of the water levels.
+     * 
+     * @throws ModelsIllegalargumentException if the system is singular, in which case the
+     *         water levels can't be calculated.
+     */
+    private void ris_sistema( double d[], double ds[], double di[], double b[], double x[], int n ) {
+        if (!linearAlgebra.ris_sistema(d, ds, di, b, x, n)) {
+            throw new ModelsIllegalargumentException("The system of the water levels is singular, "
+                    + "check the geometry of the sections.", this);
+        }
+    }
+
     private void FQ( double[] F_Q, double[] Q, double[] U_I, double[] U, double[][] idrgeo,
             List<Section> sez, double delta_T, double qin, double qout ) {
         double coeff;
@@ -0,0 +1,239 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.skyview;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toRadians;
+
+import java.util.Arrays;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.utils.GridDouble;
+
+/**
+ * The skyview factor calculated by tracing the shadows of the sun, after Corripio (2003).
+ * <p>
+ * For every azimuth, from north to 340 degrees every 10 degrees, the sun is lowered a degree at
+ * the time from the steepest slope of the map to the horizon, and the rays are traced from the
+ * border of the map on the side of the sun. The horizon of a pixel is the lowest elevation of the
+ * sun at which the pixel is lit and faces the sun, and the skyview factor is the sum of its
+ * squared cosine, every azimuth weighting 10/360. The novalues are taken as -9999 and the pixels
+ * that are novalue and the two pixels along the border are novalue in the result.
+ * </p>
+ * <p>
+ * This is the algorithm that {@link h_skyviewfactor} ran on the images, on primitive arrays. The
+ * exact horizons of {@link eu.hydrologis.libs.utils.HorizonAngles} are not rounded to the degree,
+ * are not limited by the slope nor by the normal of the pixels, and give a different skyview
+ * factor.
+ * </p>
+ *
+ * @author <a href="mailto:daniele.andreis@>Daniele Andreis</a>, Riccardo Rigon,
+ */
+public class SkyviewRayTracer {
+
+    private static final double NOVALUE = -9999.0;
+
+    private final int cols;
+    private final int rows;
+    private final double res;
+    private final double[] pit;
+    private double[] normal;
+    private double maxslope;
+
+    /**
+     * @param elevation the elevation model.
+     * @param res the resolution of the model, pixels have to be square.
+     */
+    public SkyviewRayTracer( GridDouble elevation, double res ) {
+        this.cols = elevation.getCols();
+        this.rows = elevation.getRows();
+        this.res = res;
+        double[] data = elevation.getData();
+        pit = new double[data.length];
+        for( int i = 0; i < data.length; i++ ) {
+            pit[i] = JGrassConstants.isNovalue(data[i]) ? NOVALUE : data[i];
+        }
+    }
+
+    /**
+     * Calculate the sky view factor.
+     *
+     * @return the map of sky view factor.
+     */
+    public GridDouble skyviewfactor() {
+        createNormalizedNormal();
+        double[] skyviewFactor = new double[pit.length];
+        double[] skyview = new double[pit.length];
+        for( int i = 0; i < 360 - 10; i = i + 10 ) {
+            double azimuth = toRadians(i * 1.0);
+            Arrays.fill(skyview, toRadians(maxslope));
+            for( int j = (int) maxslope; j >= 0; j-- ) {
+                double elevation = toRadians(j * 1.0);
+                calculateFactor(azimuth, elevation, skyview);
+            }
+            for( int k = 0; k < skyview.length; k++ ) {
+                double tmp = skyview[k];
+                skyviewFactor[k] = skyviewFactor[k] + cos(tmp) * cos(tmp) * 10.0 / 360.0;
+            }
+        }
+        for( int y = 0; y < rows; y++ ) {
+            for( int x = 0; x < cols; x++ ) {
+                int index = y * cols + x;
+                if (y < 2 || y >= rows - 2 || x < 2 || x >= cols - 2 || pit[index] == NOVALUE) {
+                    skyviewFactor[index] = JGrassConstants.doubleNovalue;
+                }
+            }
+        }
+        return new GridDouble(cols, rows, skyviewFactor);
+    }
+
+    /**
+     * Evalutate a component of the skyview factor (the components depends of the elevation and
+     * azimuth).
+     *
+     * @param az the azimuth.
+     * @param el the elevation.
+     * @param skyview the horizons to update.
+     */
+    private void calculateFactor( double az, double el, double[] skyview ) {
+        /*
+         * calculate the sun vector.
+         */
+        double sunVector[] = new double[]{sin(az) * cos(el), -cos(az) * cos(el), sin(el)};
+        double solVector[] = new double[3];
+        double den = Math.max(Math.abs(sin(az) * cos(el)), Math.abs(-cos(az) * cos(el)));
+        for( int i = 0; i < solVector.length; i++ ) {
+            solVector[i] = -sunVector[i] / den;
+        }
+
+        double normalSunVector[] = new double[3];
+        normalSunVector[2] = Math.sqrt(sunVector[0] * sunVector[0] + sunVector[1] * sunVector[1]);
+        normalSunVector[0] = -sunVector[0] * sunVector[2] / normalSunVector[2];
+        normalSunVector[1] = -sunVector[1] * sunVector[2] / normalSunVector[2];
+
+        int f_i = 1e6 * sunVector[0] <= 0 ? 0 : cols - 1;
+        int f_j = 1e6 * sunVector[1] <= 0 ? 0 : rows - 1;
+        for( int i = 0; i < cols; i++ ) {
+            shadow(el, i, f_j, solVector, normalSunVector, sunVector, skyview);
+        }
+        for( int k = 0; k < rows; k++ ) {
+            shadow(el, f_i, k, solVector, normalSunVector, sunVector, skyview);
+        }
+    }
+
+    /**
+     * Trace a ray from a pixel of the border, away from the sun.
+     *
+     * @param elev elevation in radians.
+     * @param i the x index.
+     * @param j the y index.
+     * @param solVector
+     * @param normalSunVector
+     * @param sunVector
+     * @param skyview the horizons to update.
+     */
+    private void shadow( double elev, int i, int j, double[] solVector, double[] normalSunVector,
+            double[] sunVector, double[] skyview ) {
+        int n = 0;
+        double zcompare = -Double.MAX_VALUE;
+        double dx = 0;
+        double dy = 0;
+        int idx = i;
+        int jdy = j;
+        while( idx >= 0 && idx <= cols - 1 && jdy >= 0 && jdy <= rows - 1 ) {
+            double z = (pit[jdy * cols + idx] + pit[(int) (j + dy) * cols + (int) (i + dx)]) / 2;
+            double zprojection = dx * res * normalSunVector[0] + dy * res * normalSunVector[1] + z
+                    * normalSunVector[2];
+            int p = 3 * (jdy * cols + idx);
+            double cosinc = sunVector[0] * normal[p] + sunVector[1] * normal[p + 1]
+                    + sunVector[2] * normal[p + 2];
+            if ((cosinc >= 0) && (zprojection > zcompare)) {
+                skyview[jdy * cols + idx] = elev;
+                zcompare = zprojection;
+            }
+            n = n + 1;
+            dy = (solVector[1] * n);
+            dx = (solVector[0] * n);
+            idx = (int) Math.round(i + dx);
+            jdy = (int) Math.round(j + dy);
+        }
+    }
+
+    /**
+     * Calculate the normal vector to the surface.
+     * <p>
+     * It is calculated in the central point of each cell and then it is moved to the node with a
+     * mean. The steepest slope of the map is kept in degrees.
+     * </p>
+     */
+    private void createNormalizedNormal() {
+        /*
+         * apply the corripio's formula (is the formula (3) in the article)
+         */
+        double[] tmpNormal = new double[3 * pit.length];
+        for( int j = 0; j < rows - 1; j++ ) {
+            for( int i = 0; i < cols - 1; i++ ) {
+                int index = j * cols + i;
+                double zij = pit[index];
+                double zidxj = pit[index + 1];
+                double zijdy = pit[index + cols];
+                double zidxjdy = pit[index + cols + 1];
+                tmpNormal[3 * index] = 0.5 * res * (zij - zidxj + zijdy - zidxjdy);
+                tmpNormal[3 * index + 1] = 0.5 * res * (zij + zidxj - zijdy - zidxjdy);
+                tmpNormal[3 * index + 2] = res * res;
+            }
+        }
+
+        /*
+         * Evalutate the value of the normal vector at the node as the mean of the four value
+         * around, and normalize it.
+         */
+        normal = new double[3 * pit.length];
+        maxslope = 3.13 / 2.0;
+        for( int j = 0; j < rows; j++ ) {
+            for( int i = 0; i < cols; i++ ) {
+                int index = j * cols + i;
+                double area = 0;
+                double mean[] = new double[3];
+                for( int k = 0; k < 3; k++ ) {
+                    double g00 = 1;
+                    double g10 = 1;
+                    double g01 = 1;
+                    double g11 = 1;
+                    if (j > 0 && i > 0) {
+                        g00 = tmpNormal[3 * (index - cols - 1) + k];
+                        g10 = tmpNormal[3 * (index - cols) + k];
+                        g01 = tmpNormal[3 * (index - 1) + k];
+                        g11 = tmpNormal[3 * index + k];
+                    }
+                    mean[k] = 1. / 4. * (g00 + g01 + g10 + g11);
+                    area = area + mean[k] * mean[k];
+                }
+                area = Math.sqrt(area);
+                for( int k = 0; k < 3; k++ ) {
+                    normal[3 * index + k] = mean[k] / area;
+                }
+                if (i > 0 && i < cols - 2 && j > 0 && j < rows - 2 && mean[2] / area < maxslope) {
+                    maxslope = mean[2] / area;
+                }
+            }
+        }
+        maxslope = (int) (Math.acos(maxslope) * 180.0 / Math.PI);
+    }
+
+}
@@ -17,23 +17,11 @@
 
 package eu.hydrologis.jgrass.models.h.skyview;
 
-import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
-import static java.lang.Math.cos;
-import static java.lang.Math.sin;
-import static java.lang.Math.toRadians;
-import jaitools.tiledimage.DiskMemImage;
-
-import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
-import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -44,14 +32,13 @@ import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
-import com.sun.media.jai.codecimpl.util.RasterFactory;
-
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
-import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
+import eu.hydrologis.libs.utils.HorizonAngles;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -63,6 +50,13 @@ import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
  * sun for solar radiation modelling in mountainous terrain, International Journal of Geographical
  * Information Science 17(1), 1–23.
  * </p>
+ * <p>
+ * By default the horizons are found by tracing the shadows of the sun, see
+ * {@link SkyviewRayTracer}. With <b>exacthorizons</b> set to true the skyview factor is the mean of
+ * the squared cosine of the exact horizon angle over {@value #AZIMUTHS} azimuths, calculated by
+ * {@link HorizonAngles} with the azimuths swept in parallel on the number of <b>threads</b> given
+ * (default 1). A flat terrain then has a skyview factor of 1 and only the novalues are novalue.
+ * </p>
  * 
  * @author <a href="mailto:daniele.andreis@>Daniele Andreis</a>, Riccardo Rigon,
  */
@@ -77,7 +71,14 @@ public class h_skyviewfactor extends ModelsBackbone {
     private final static String modelParameters = eu.hydrologis.libs.messages.help.Messages
             .getString("h_skyviewfactor.usage");
 
-    private static final double NaN = JGrassConstants.doubleNovalue;
+    private static final String THREADS = "threads"; //$NON-NLS-1$
+
+    private static final String EXACTHORIZONS = "exacthorizons"; //$NON-NLS-1$
+
+    /**
+     * The number of azimuths the exact horizon is calculated in, one every 10 degrees.
+     */
+    private static final int AZIMUTHS = 36;
 
     private ILink pitLink = null;
 
@@ -95,15 +96,9 @@ public class h_skyviewfactor extends ModelsBackbone {
 
     private boolean doTile;
 
-    private double maxslope = 0;
-
-    private WritableRaster pitImage;
-
-    private double res;
+    private int threads = 1;
 
-    private WritableRandomIter normalRandomIter;
-
-    private final static double PI = Math.PI;
+    private boolean exactHorizons = false;
 
     public h_skyviewfactor() {
         super();
@@ -200,45 +195,10 @@ public class h_skyviewfactor extends ModelsBackbone {
                 throw new IOException(error);
             }
             GridCoverage2D view = pitGC.view(ViewType.GEOPHYSICS);
-            PlanarImage pitImageTmp = (PlanarImage) view.getRenderedImage();
-            pitImage = FluidUtils.createFromRenderedImage(pitImageTmp);
+            GridDouble elevation = GridDouble.fromRenderedImage(view.getRenderedImage());
             CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
-            RandomIter pitImageTmpRI = RandomIterFactory.create(pitImageTmp, null);
-
-            int height = pitImageTmp.getHeight();
-            int width = pitImageTmp.getWidth();
-            for( int y = 0; y < height; y++ ) {
-                for( int x = 0; x < width; x++ ) {
-                    if (isNovalue(pitImageTmpRI.getSampleDouble(x, y, 0))) {
-                        pitImage.setSample(x, y, 0, -9999.0);
-                    }
-                }
-            }
-            pitImageTmp = null;
-            WritableRaster skyImage = skyviewfactor(pitImage);
-            WritableRandomIter skyRI = RandomIterFactory.createWritable(skyImage, null);
-
-            for( int y = 2; y < height - 2; y++ ) {
-                for( int x = 2; x < width - 2; x++ ) {
-                    if (pitImage.getSampleDouble(x, y, 0) == -9999.0) {
-                        skyRI.setSample(x, y, 0, NaN);
-                    }
-                }
-            }
-            for( int y = 0; y < height; y++ ) {
-                skyRI.setSample(0, y, 0, NaN);
-                skyRI.setSample(1, y, 0, NaN);
-                skyRI.setSample(width - 2, y, 0, NaN);
-                skyRI.setSample(width - 1, y, 0, NaN);
-            }
 
-            for( int x = 2; x < width - 2; x++ ) {
-                skyRI.setSample(x, 0, 0, NaN);
-                skyRI.setSample(x, 1, 0, NaN);
-                skyRI.setSample(x, height - 2, 0, NaN);
-                skyRI.setSample(x, height - 1, 0, NaN);
-            }
-            skyRI.done();
+            WritableRaster skyImage = skyviewfactor(elevation);
             // the model
             if (skyImage == null) {
                 return null;
@@ -276,6 +236,12 @@ public class h_skyviewfactor extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.DOTILE) == 0) {
                     doTile = Boolean.getBoolean(argument.getValue());
                 }
+                if (key.compareTo(THREADS) == 0) {
+                    threads = Math.max(1, Integer.parseInt(argument.getValue()));
+                }
+                if (key.compareTo(EXACTHORIZONS) == 0) {
+                    exactHorizons = Boolean.parseBoolean(argument.getValue());
+                }
             }
         }
 
@@ -319,286 +285,22 @@ public class h_skyviewfactor extends ModelsBackbone {
     /**
      * Calculate the sky view factor.
      * 
-     * @param pitImage the dem ( the map of elevation).
+     * @param elevation the dem ( the map of elevation).
      * @return the map of sky view factor.
      */
-    private WritableRaster skyviewfactor( WritableRaster pitImage ) {
+    private WritableRaster skyviewfactor( GridDouble elevation ) {
         // get rows and cols from the active region
         double resX = activeRegion.getWEResolution();
         double resY = activeRegion.getNSResolution();
         if (resX != resY) {
             return null;
         }
-        res = resX;
-        /*
-         * evalutating the normal vector (in the center of the square compound of 4 pixel.
-         */
-        WritableRaster normalVectorImage = createNormalizedNormal(pitImage, res);
-
-        WritableRaster skyviewFactorImage = FluidUtils.createDoubleWritableRaster(pitImage
-                .getWidth(), pitImage.getHeight(), null, null, 0.0);
-        WritableRandomIter skvFactorRandomIter = RandomIterFactory.createWritable(
-                skyviewFactorImage, null);
-
-        for( int i = 0; i < 360 - 10; i = i + 10 ) {
-            double azimuth = toRadians(i * 1.0);
-            WritableRaster skyviewImage = FluidUtils.createDoubleWritableRaster(
-                    pitImage.getWidth(), pitImage.getHeight(), null, null, toRadians(maxslope));
-            WritableRandomIter skvRandomIter = RandomIterFactory.createWritable(skyviewImage, null);
-            for( int j = (int) maxslope; j >= 0; j-- ) {
-                double elevation = toRadians(j * 1.0);
-                calculateFactor(azimuth, elevation, skyviewImage);
-
-            }
-            for( int t = normalVectorImage.getMinY(); t < normalVectorImage.getMinY()
-                    + normalVectorImage.getHeight(); t++ ) {
-                for( int k = normalVectorImage.getMinX(); k < normalVectorImage.getMinX()
-                        + normalVectorImage.getWidth(); k++ ) {
-                    double tmp = skvRandomIter.getSampleDouble(k, t, 0);
-                    skvRandomIter.setSample(k, t, 0, Math.cos(tmp) * Math.cos(tmp) * 10.0 / 360.0);
-                }
-            }
-
-            for( int q = 0; q < skyviewFactorImage.getWidth(); q++ ) {
-                for( int k = 0; k < skyviewFactorImage.getHeight(); k++ ) {
-                    double tmp = skvFactorRandomIter.getSampleDouble(q, k, 0);
-                    skvFactorRandomIter.setSample(q, k, 0, tmp
-                            + skvRandomIter.getSampleDouble(q, k, 0));
-                }
-            }
-            skvFactorRandomIter.done();
-        }
-        skvFactorRandomIter.done();
-        return skyviewFactorImage;
-    }
-
-    /**
-     * Evalutate a component of the skyview factor (the components depends of the elevation and
-     * azimuth).
-     * 
-     * @param az the azimuth.
-     * @param el the elevation.
-     * @param skyview.
-     */
-    private void calculateFactor( double az, double el, WritableRaster skyview ) {
-
-        /*
-         * calculate the sun vector.
-         */
-        double SunVector[] = new double[]{sin(az) * cos(el), -cos(az) * cos(el), sin(el)};
-        double SolVector[] = new double[3];
-        double den = Math.max(Math.abs(sin(az) * cos(el)), Math.abs(-cos(az) * cos(el)));
-
-        for( int i = 0; i < SolVector.length; i++ ) {
-            SolVector[i] = -SunVector[i] / den;
-        }
-
-        double NormalSunVector[] = new double[3];
-        NormalSunVector[2] = Math.sqrt(SunVector[0] * SunVector[0] + SunVector[1] * SunVector[1]);
-        NormalSunVector[0] = -SunVector[0] * SunVector[2] / NormalSunVector[2];
-        NormalSunVector[1] = -SunVector[1] * SunVector[2] / NormalSunVector[2];
-
-        double casx = 1e6 * SunVector[0];
-        double casy = 1e6 * SunVector[1];
-        int f_i = 0;
-        int f_j = 0;
-
-        if (casx <= 0) {
-            f_i = 0;
-        } else {
-            f_i = skyview.getWidth() - 1;
-        }
-
-        if (casy <= 0) {
-            f_j = 0;
-        } else {
-            f_j = skyview.getHeight() - 1;
-        }
-
-        int j = f_j;
-        for( int i = 0; i < skyview.getWidth(); i++ ) {
-            shadow(el, i, j, SolVector, NormalSunVector, SunVector, skyview);
-        }
-        int i = f_i;
-        for( int k = 0; k < skyview.getHeight(); k++ ) {
-            shadow(el, i, k, SolVector, NormalSunVector, SunVector, skyview);
-        }
-    }
-
-    /**
-     * Calculate the angle.
-     * 
-     * @param elev, elevation in radians.
-     * @param i the x index.
-     * @param j the y index.
-     * @param SolVector
-     * @param normalSunVector
-     * @param sunVector
-     * @param skyRaster
-     */
-    private void shadow( double elev, int i, int j, double[] SolVector, double[] normalSunVector,
-            double[] sunVector, WritableRaster skyRaster ) {
-        int n = 0;
-        WritableRandomIter skyRandomIter = RandomIterFactory.createWritable(skyRaster, null);
-        double zcompare = -Double.MAX_VALUE;
-        double dx = (SolVector[0] * n);
-        double dy = (SolVector[1] * n);
-        int nCols = skyRaster.getWidth();
-        int nRows = skyRaster.getHeight();
-        int idx = (int) (i + dx);
-        int jdy = (int) (j + dy);
-        double vectorToOrigin[] = new double[3];
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-            vectorToOrigin[2] = (pitRandomIter.getSampleDouble(idx, jdy, 0) + pitRandomIter
-                    .getSampleDouble((int) (i + dx), (int) (j + dy), 0)) / 2;
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            double nGrad[] = normalRandomIter.getPixel(idx, jdy, new double[3]);
-            double cosinc = scalarProduct(sunVector, nGrad);
-            double elevRad = elev;
-            if ((cosinc >= 0) && (zprojection > zcompare)) {
-                skyRandomIter.setSample(idx, jdy, 0, elevRad);
-                zcompare = zprojection;
-            }
-            n = n + 1;
-            dy = (SolVector[1] * n);
-            dx = (SolVector[0] * n);
-            idx = (int) Math.round(i + dx);
-            jdy = (int) Math.round(j + dy);
-        }
-        skyRandomIter.done();
-        pitRandomIter.done();
-
-    }
-
-    /**
-     * Return the normal vector to the surface.
-     * <p>
-     * It was calculated in the central point of each cells and then it is moved to the node with a
-     * mean.
-     * <p>
-     * 
-     * @param pitImage the elevation map.
-     * @param res the resolution of the map.
-     * @return the map with the normal vector to the surface.
-     */
-
-    private WritableRaster createNormalizedNormal( WritableRaster pitImage, double res ) {
-        // the boundary
-        int minX = pitImage.getMinX();
-        int minY = pitImage.getMinY();
-        int rows = pitImage.getHeight();
-        int cols = pitImage.getWidth();
-
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        /*
-         * Initializa the Image of the normal vector in the central point of the cells, which have 3
-         * components so the Image have 3 bands..
-         */
-        SampleModel sm = RasterFactory.createBandedSampleModel(5, cols, rows, 3);
-        DiskMemImage tmpNormalVectorImage = new DiskMemImage(0, 0, pitImage.getWidth(), pitImage
-                .getHeight(), 0, 0, sm, null);
-        WritableRandomIter tmpNormalRandomIter = RandomIterFactory.createWritable(
-                tmpNormalVectorImage, null);
-        /*
-         * apply the corripio's formula (is the formula (3) in the article)
-         */
-        for( int j = minY; j < minX + rows - 1; j++ ) {
-            for( int i = minX; i < minX + cols - 1; i++ ) {
-                double zij = pitRandomIter.getSampleDouble(i, j, 0);
-                double zidxj = pitRandomIter.getSampleDouble(i + 1, j, 0);
-                double zijdy = pitRandomIter.getSampleDouble(i, j + 1, 0);
-                double zidxjdy = pitRandomIter.getSampleDouble(i + 1, j + 1, 0);
-                // if (!isNovalue(zij) && !isNovalue(zidxj) && !isNovalue(zijdy)
-                // && !isNovalue(zidxjdy)) {
-                double firstComponent = 0.5 * res * (zij - zidxj + zijdy - zidxjdy);
-                double secondComponent = 0.5 * res * (zij + zidxj - zijdy - zidxjdy);
-                double thirthComponent = res * res;
-                tmpNormalRandomIter.setPixel(i, j, new double[]{firstComponent, secondComponent,
-                        thirthComponent});
-                // } else {
-                // tmpNormalRandomIter.setPixel(i, j, new double[] { NaN, NaN,
-                // NaN });
-                // }
-            }
-        }
-        pitRandomIter.done();
-
-        /*
-         * Evalutate the value of the normal vector at the node as the mean of the four value
-         * around, and normalize it.
-         */
-        WritableRaster normalVectorImage = FluidUtils.createDoubleWritableRaster(pitImage
-                .getWidth(), pitImage.getHeight(), null, RasterFactory.createBandedSampleModel(5,
-                cols, rows, 3), NaN);
-        normalRandomIter = RandomIterFactory.createWritable(normalVectorImage, null);
-        maxslope = 3.13 / 2.0;
-        for( int t = normalVectorImage.getMinY(); t < normalVectorImage.getMinY()
-                + normalVectorImage.getHeight(); t++ ) {
-            for( int k = normalVectorImage.getMinX(); k < normalVectorImage.getMinX()
-                    + normalVectorImage.getWidth(); k++ ) {
-                normalRandomIter.setSample(k, t, 0, 1.0);
-                normalRandomIter.setSample(k, t, 1, 1.0);
-                normalRandomIter.setSample(k, t, 2, 1.0);
-
-            }
-            System.out.println();
-        }
-        for( int j = minY; j < minX + rows; j++ ) {
-            for( int i = minX; i < minX + cols; i++ ) {
-                double area = 0;
-                double mean[] = new double[3];
-                boolean isValidValue = true;
-                for( int k = 0; k < 3; k++ ) {
-                    double g00 = 1;
-                    double g10 = 1;
-                    double g01 = 1;
-                    double g11 = 1;
-                    if (j > 0 && i > 0) {
-                        g00 = tmpNormalRandomIter.getSampleDouble(i - 1, j - 1, k);
-
-                        g10 = tmpNormalRandomIter.getSampleDouble(i, j - 1, k);
-                        g01 = tmpNormalRandomIter.getSampleDouble(i - 1, j, k);
-                        g11 = tmpNormalRandomIter.getSampleDouble(i, j, k);
-                    }
-
-                    if (!isNovalue(g00) && !isNovalue(g01) && !isNovalue(g10) && !isNovalue(g11)) {
-                        mean[k] = 1. / 4. * (g00 + g01 + g10 + g11);
-                    } else {
-                        isValidValue = false;
-                        break;
-                    }
-                    area = area + mean[k] * mean[k];
-
-                }
-                if (isValidValue) {
-                    area = Math.sqrt(area);
-                    for( int k = 0; k < 3; k++ ) {
-                        normalRandomIter.setSample(i, j, k, mean[k] / area);
-                        if (i > minX && i < cols - 2 && j > minY && j < rows - 2 && k == 2) {
-                            if (mean[k] / area < maxslope)
-                                maxslope = mean[k] / area;
-                        }
-                    }
-
-                }
-            }
-        }
-
-        tmpNormalRandomIter.done();
-        maxslope = (int) (Math.acos(maxslope) * 180.0 / PI);
-
-        return normalVectorImage;
-    }
-
-    private double scalarProduct( double[] a, double[] b ) {
-        double c = 0;
-        for( int i = 0; i < a.length; i++ ) {
-            c = c + a[i] * b[i];
+        if (exactHorizons) {
+            HorizonAngles horizonAngles = new HorizonAngles(elevation, resX);
+            horizonAngles.setThreads(threads);
+            return horizonAngles.skyViewFactor(AZIMUTHS).toWritableRaster();
         }
-        return c;
+        return new SkyviewRayTracer(elevation, resX).skyviewfactor().toWritableRaster();
     }
 
 }
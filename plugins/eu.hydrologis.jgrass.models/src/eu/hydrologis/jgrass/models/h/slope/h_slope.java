@@ -22,6 +22,7 @@
  */
 package eu.hydrologis.jgrass.models.h.slope;
 
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.PrintStream;
 
@@ -43,6 +44,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.operations.jai.slope.HMSlopeDescriptor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
@@ -85,6 +87,8 @@ public class h_slope extends ModelsBackbone {
 
     public final static String slopeID = "slope";
 
+    private static final String THREADS = "threads"; //$NON-NLS-1$
+
     private final static String modelParameters = eu.hydrologis.libs.messages.help.Messages
             .getString("h_slope.usage");
 
@@ -109,6 +113,8 @@ public class h_slope extends ModelsBackbone {
     private JGrassGridCoverageValueSet jgrValueSet;
 
     private boolean doTile;
+
+    private int threads = 1;
     /** */
     public h_slope() {
         super();
@@ -210,6 +216,13 @@ public class h_slope extends ModelsBackbone {
             if (pitRaster != null && flowRaster != null) {
                 RenderedOp renderedOp = HMSlopeDescriptor.create(pitRaster, flowRaster, out, err, false, activeRegion
                         .getWEResolution(), activeRegion.getNSResolution());
+                if (threads > 1) {
+                    // computed by blocks in parallel, the border is set to noValue
+                    WritableRaster slopeRaster = FluidUtils.computeWithNovalueBorder(renderedOp, threads);
+                    CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
+                    jgrValueSet = new JGrassGridCoverageValueSet(slopeRaster, activeRegion, crs);
+                    return jgrValueSet;
+                }
                 RenderedOp slope = FluidUtils.setJaiNovalueBorder(renderedOp);
                 if (slope != null) {
                     CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
@@ -242,6 +255,17 @@ public class h_slope extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo(THREADS) == 0) {
+                    try {
+                        threads = Integer.parseInt(argument.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        throw new ModelsIllegalargumentException(
+                                "The threads parameter has to be a positive integer.", this);
+                    }
+                }
             }
 
         }
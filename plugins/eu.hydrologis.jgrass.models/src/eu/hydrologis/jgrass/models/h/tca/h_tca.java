@@ -21,7 +21,6 @@
  * Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
 package eu.hydrologis.jgrass.models.h.tca;
-import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -29,9 +28,6 @@ import java.io.PrintStream;
 import java.text.MessageFormat;
 
 import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -48,7 +44,10 @@ import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
+import eu.hydrologis.libs.utils.FlowAccumulator;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
+import eu.hydrologis.libs.utils.GridInt;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -107,9 +106,9 @@ public class h_tca extends ModelsBackbone {
 
     private String locationPath;
 
-    private WritableRandomIter tcaRandomIter;
+    private GridInt flowGrid;
 
-    private RandomIter fileRandomIter;
+    private WritableRaster tcaImage;
 
     /** */
     public h_tca() {
@@ -142,9 +141,9 @@ public class h_tca extends ModelsBackbone {
      * 
      */
     public void finish() {
-        tcaRandomIter = null;
+        tcaImage = null;
 
-        fileRandomIter = null;
+        flowGrid = null;
     }
 
     /**
@@ -204,10 +203,9 @@ public class h_tca extends ModelsBackbone {
             yRes = activeRegion.getNSResolution();
             CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
 
-            WritableRaster tcaImage = FluidUtils.createDoubleWritableRaster(flowImage.getWidth(), flowImage.getHeight(), null,
+            tcaImage = FluidUtils.createDoubleWritableRaster(flowImage.getWidth(), flowImage.getHeight(), null,
                     flowImage.getSampleModel(), null);
-            tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
-            fileRandomIter = RandomIterFactory.create(flowImage, null);
+            flowGrid = GridInt.fromRenderedImage(flowImage);
 
             if (!area()) {
                 return null;
@@ -284,10 +282,10 @@ public class h_tca extends ModelsBackbone {
     /**
      * Set the tca raster map.
      * <p>
-     * It loop on the rows and on the columns. In each iteration it start from the pixel (which
-     * correspond to the indexes) and move downstream, along the drainage direction, and add the
-     * value of the tca previous pixel value to the next. If the value of flow is 10 then it is the
-     * outlet of the basin.
+     * The drainage directions are read once and the pixels are then visited in topological order,
+     * from the sources down to the outlets, so that every pixel adds its tca to the next pixel
+     * along the drainage direction only once it has received the tca of all the pixels draining
+     * into it. If the value of flow is 10 then it is the outlet of the basin.
      * </p>
      * 
      * @return true if the tca matrix is filled, otherwise return false.
@@ -300,59 +298,38 @@ public class h_tca extends ModelsBackbone {
         int cols = activeRegion.getCols();
 
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
-        pm.beginTask("Working on tca...", rows);
-        // the drainage directions
-        int[][] dirs = ModelsConstants.DIR;
+        pm.beginTask("Working on tca...", rows + 1);
+        int[] flow = new int[rows * cols];
         for( int i = 0; i < rows; i++ ) {
             for( int j = 0; j < cols; j++ ) {
                 // get the girections of the current pixel.
-                int flowValue = (int) fileRandomIter.getSampleDouble(j, i, 0);
+                int flowValue = flowGrid.get(j, i);
                 /*
-                 * I have put flowValue == 0 because the cast to an int value of a NaN is 0, and 0
-                 * is an invalid value for the drainage direction.
+                 * NaN are already read as novalues, but 0 is an invalid value for the drainage
+                 * direction too.
                  */
-                if (isNovalue(flowValue) || flowValue == 0) {
-                    tcaRandomIter.setSample(j, i, 0, JGrassConstants.doubleNovalue);
-                } else {
-                    int rRow = i;
-                    int rCol = j;
-                    double tcaValue = tcaRandomIter.getSampleDouble(rCol, rRow, 0);
-                    while( flowValue < 9 && !isNovalue(flowValue) && flowValue != 0 ) {
-                        // it update the value of tca in the next pixel.
-                        tcaRandomIter.setSample(rCol, rRow, 0, tcaValue + 1);
-                        // it move to the next pixel.
-                        int newRow = rRow + dirs[flowValue][0];
-                        int newCol = rCol + dirs[flowValue][1];
-                        // get the new value of drainage direction.
-                        int nextFlow = (int) fileRandomIter.getSampleDouble(newCol, newRow, 0);
-                        /*
-                         * verify that the next pixel doesn't drain in the previous, otherwise there
-                         * is an infinite loop.
-                         */
-                        if (nextFlow < 9 && (!isNovalue(nextFlow) || nextFlow != 0)) {
-                            int r = newRow + dirs[nextFlow][0];
-                            int c = newCol + dirs[nextFlow][1];
-                            if (r == rRow && c == rCol) {
-                                throw new ModelsIOException(MessageFormat.format(
-                                        "Detected loop between rows/cols = {0}/{1} and {2}/{3}", rRow, rCol, newRow, newCol),
-                                        this);
-                            }
-                        }
-                        // update the indexes.
-                        rRow = newRow;
-                        rCol = newCol;
-                        // memorize the value of the pixel in order to add it to the new pixel.
-                        tcaValue = tcaRandomIter.getSampleDouble(rCol, rRow, 0);
-                        // extract the new value of drainage direction.
-                        flowValue = (int) fileRandomIter.getSampleDouble(rCol, rRow, 0);
-                    }
-                    if (flowValue == 10) {
-                        tcaRandomIter.setSample(rCol, rRow, 0, tcaValue + 1);
-                    }
+                if (flowValue == 0) {
+                    flowValue = JGrassConstants.intNovalue;
                 }
+                flow[i * cols + j] = flowValue;
             }
             pm.worked(1);
         }
+
+        FlowAccumulator accumulator = new FlowAccumulator(flow, cols, rows);
+        int[] loop = accumulator.getLoop();
+        if (loop != null) {
+            throw new ModelsIOException(MessageFormat.format("Detected loop between rows/cols = {0}/{1} and {2}/{3}",
+                    loop[0], loop[1], loop[2], loop[3]), this);
+        }
+        double[] tca = new double[rows * cols];
+        if (!accumulator.accumulate(null, true, tca)) {
+            int pixel = accumulator.getUnresolvedPixel();
+            throw new ModelsIOException(MessageFormat.format("Detected loop passing through row/col = {0}/{1}",
+                    pixel / cols, pixel % cols), this);
+        }
+        new GridDouble(cols, rows, tca).toWritableRaster(tcaImage);
+        pm.worked(1);
         pm.done();
         return true;
     }
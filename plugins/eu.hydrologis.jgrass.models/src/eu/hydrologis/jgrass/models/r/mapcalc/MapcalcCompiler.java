@@ -0,0 +1,626 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.mapcalc;
+
+import jaitools.numeric.DoubleComparison;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Binary;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Conditional;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Constant;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Kernel;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.MapValue;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Position;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Unary;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram.Variable;
+
+/**
+ * Compiles a mapcalc function into a {@link MapcalcProgram}.
+ *
+ * <p>
+ * The function is made of statements, separated by semicolons or new lines, that assign
+ * expressions to variables. The input maps are wrapped between <b>$</b> (ex. <code>$dem$</code>)
+ * and the output map between <b>@</b> (ex. <code>@out@ = $dem$ * 2</code>). A map can be followed
+ * by the offset of a neighbour cell, in rows and columns: <code>$dem$[-1,0]</code> is the cell
+ * above. The expressions support:
+ * <ul>
+ * <li>the operators <code>^</code>, <code>- !</code> (unary), <code>* / %</code>,
+ * <code>+ -</code>, <code>&lt; &lt;= &gt; &gt;=</code>, <code>== !=</code>, <code>&amp;&amp;</code>,
+ * <code>||</code> and <code>?:</code>, from the highest to the lowest precedence;</li>
+ * <li>the functions <code>if</code> (with 1 to 4 arguments, as in r.mapcalc), <code>null</code>,
+ * <code>isnull</code>, <code>abs</code>, <code>sqrt</code>, <code>exp</code>, <code>log</code>
+ * (with an optional base), <code>log10</code>, <code>sin</code>, <code>cos</code>,
+ * <code>tan</code>, <code>asin</code>, <code>acos</code>, <code>atan</code> (atan(x,y) is the arc
+ * tangent of y/x), <code>floor</code>, <code>ceil</code>, <code>round</code>, <code>pow</code>,
+ * <code>min</code>, <code>max</code> and the position of the cell <code>row()</code>,
+ * <code>col()</code>, <code>x()</code> and <code>y()</code>.</li>
+ * </ul>
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MapcalcCompiler {
+
+    private static final int END = 0;
+    private static final int NUMBER = 1;
+    private static final int NAME = 2;
+    private static final int INMAP = 3;
+    private static final int OUTMAP = 4;
+    private static final int SYMBOL = 5;
+    private static final int SEPARATOR = 6;
+
+    private static final Map<String, Integer> UNARY_FUNCTIONS = new HashMap<String, Integer>();
+    static {
+        UNARY_FUNCTIONS.put("abs", MapcalcProgram.ABS);
+        UNARY_FUNCTIONS.put("sqrt", MapcalcProgram.SQRT);
+        UNARY_FUNCTIONS.put("exp", MapcalcProgram.EXP);
+        UNARY_FUNCTIONS.put("log10", MapcalcProgram.LOG10);
+        UNARY_FUNCTIONS.put("sin", MapcalcProgram.SIN);
+        UNARY_FUNCTIONS.put("cos", MapcalcProgram.COS);
+        UNARY_FUNCTIONS.put("tan", MapcalcProgram.TAN);
+        UNARY_FUNCTIONS.put("asin", MapcalcProgram.ASIN);
+        UNARY_FUNCTIONS.put("acos", MapcalcProgram.ACOS);
+        UNARY_FUNCTIONS.put("floor", MapcalcProgram.FLOOR);
+        UNARY_FUNCTIONS.put("ceil", MapcalcProgram.CEIL);
+        UNARY_FUNCTIONS.put("round", MapcalcProgram.ROUND);
+        UNARY_FUNCTIONS.put("isnull", MapcalcProgram.ISNULL);
+    }
+
+    private final String function;
+    private final String result;
+
+    private int[] types;
+    private String[] texts;
+    private int[] positions;
+    private int index;
+
+    private String outputName;
+    private final List<String> maps = new ArrayList<String>();
+    private final List<Kernel> statements = new ArrayList<Kernel>();
+    private final Map<String, Integer> variables = new HashMap<String, Integer>();
+    private int kernels = 0;
+    private int minRowOffset = 0;
+    private int maxRowOffset = 0;
+    private int maxColOffset = 0;
+
+    private MapcalcCompiler( String function, String result ) {
+        this.function = function;
+        this.result = result;
+        outputName = result;
+    }
+
+    /**
+     * Compiles a mapcalc function.
+     *
+     * @param function the function.
+     * @param result the name of the output map, or <code>null</code> if the output map is wrapped
+     *        between <b>@</b> in the function. If the name is given and the function doesn't
+     *        assign it, the function is the expression of the output map.
+     * @return the compiled function.
+     * @throws ParseException if the function is not valid, with the position of the error.
+     */
+    public static MapcalcProgram compile( String function, String result ) throws ParseException {
+        return new MapcalcCompiler(function, result).compile();
+    }
+
+    private MapcalcProgram compile() throws ParseException {
+        tokenize();
+        int output = -1;
+        boolean lastIsExpression = false;
+        while( types[index] != END ) {
+            if (types[index] == SEPARATOR) {
+                index++;
+                continue;
+            }
+            String assigned = null;
+            if ((types[index] == NAME || types[index] == OUTMAP) && isSymbol(index + 1, "=")) {
+                assigned = types[index] == OUTMAP ? outputName(index) : texts[index];
+                index += 2;
+            }
+            Kernel kernel = expression();
+            if (types[index] != SEPARATOR && types[index] != END) {
+                throw error("Unexpected " + texts[index], index);
+            }
+            statements.add(kernel);
+            if (assigned != null) {
+                variables.put(assigned, statements.size() - 1);
+                if (assigned.equals(outputName)) {
+                    output = statements.size() - 1;
+                }
+            }
+            lastIsExpression = assigned == null;
+        }
+        if (outputName == null) {
+            throw new ParseException(
+                    "An output map has to be supplied and it has to be wrapped between @ (example: @outmap@)",
+                    0);
+        }
+        if (output == -1) {
+            if (!lastIsExpression || result == null) {
+                throw new ParseException("The output map " + outputName + " is never assigned.", 0);
+            }
+            output = statements.size() - 1;
+        }
+        return new MapcalcProgram(outputName, maps.toArray(new String[maps.size()]), statements
+                .toArray(new Kernel[statements.size()]), output, kernels, minRowOffset,
+                maxRowOffset, maxColOffset);
+    }
+
+    /*
+     * the parsing, by precedence climbing from the conditional down to the primary expressions
+     */
+
+    private Kernel expression() throws ParseException {
+        Kernel condition = or();
+        if (!isSymbol(index, "?")) {
+            return condition;
+        }
+        index++;
+        Kernel yes = expression();
+        expect(":");
+        Kernel no = expression();
+        return conditional(condition, new Kernel[]{yes, no});
+    }
+
+    private Kernel or() throws ParseException {
+        Kernel kernel = and();
+        while( isSymbol(index, "||") ) {
+            index++;
+            kernel = binary(MapcalcProgram.OR, kernel, and());
+        }
+        return kernel;
+    }
+
+    private Kernel and() throws ParseException {
+        Kernel kernel = equality();
+        while( isSymbol(index, "&&") ) {
+            index++;
+            kernel = binary(MapcalcProgram.AND, kernel, equality());
+        }
+        return kernel;
+    }
+
+    private Kernel equality() throws ParseException {
+        Kernel kernel = relational();
+        while( true ) {
+            if (isSymbol(index, "==")) {
+                index++;
+                kernel = binary(MapcalcProgram.EQ, kernel, relational());
+            } else if (isSymbol(index, "!=")) {
+                index++;
+                kernel = binary(MapcalcProgram.NE, kernel, relational());
+            } else {
+                return kernel;
+            }
+        }
+    }
+
+    private Kernel relational() throws ParseException {
+        Kernel kernel = additive();
+        while( true ) {
+            if (isSymbol(index, "<")) {
+                index++;
+                kernel = binary(MapcalcProgram.LT, kernel, additive());
+            } else if (isSymbol(index, "<=")) {
+                index++;
+                kernel = binary(MapcalcProgram.LE, kernel, additive());
+            } else if (isSymbol(index, ">")) {
+                index++;
+                kernel = binary(MapcalcProgram.GT, kernel, additive());
+            } else if (isSymbol(index, ">=")) {
+                index++;
+                kernel = binary(MapcalcProgram.GE, kernel, additive());
+            } else {
+                return kernel;
+            }
+        }
+    }
+
+    private Kernel additive() throws ParseException {
+        Kernel kernel = multiplicative();
+        while( true ) {
+            if (isSymbol(index, "+")) {
+                index++;
+                kernel = binary(MapcalcProgram.ADD, kernel, multiplicative());
+            } else if (isSymbol(index, "-")) {
+                index++;
+                kernel = binary(MapcalcProgram.SUB, kernel, multiplicative());
+            } else {
+                return kernel;
+            }
+        }
+    }
+
+    private Kernel multiplicative() throws ParseException {
+        Kernel kernel = unary();
+        while( true ) {
+            if (isSymbol(index, "*")) {
+                index++;
+                kernel = binary(MapcalcProgram.MUL, kernel, unary());
+            } else if (isSymbol(index, "/")) {
+                index++;
+                kernel = binary(MapcalcProgram.DIV, kernel, unary());
+            } else if (isSymbol(index, "%")) {
+                index++;
+                kernel = binary(MapcalcProgram.MOD, kernel, unary());
+            } else {
+                return kernel;
+            }
+        }
+    }
+
+    private Kernel unary() throws ParseException {
+        if (isSymbol(index, "-")) {
+            index++;
+            return unary(MapcalcProgram.NEG, unary());
+        }
+        if (isSymbol(index, "!")) {
+            index++;
+            return unary(MapcalcProgram.NOT, unary());
+        }
+        if (isSymbol(index, "+")) {
+            index++;
+            return unary();
+        }
+        return power();
+    }
+
+    private Kernel power() throws ParseException {
+        Kernel base = primary();
+        if (!isSymbol(index, "^")) {
+            return base;
+        }
+        index++;
+        // right associative, and the exponent can have a sign
+        return binary(MapcalcProgram.POW, base, unary());
+    }
+
+    private Kernel primary() throws ParseException {
+        int token = index;
+        switch( types[token] ) {
+        case NUMBER:
+            index++;
+            return constant(Double.parseDouble(texts[token]));
+        case INMAP:
+            index++;
+            return mapValue(token);
+        case OUTMAP:
+            index++;
+            return variable(outputName(token), token);
+        case NAME:
+            index++;
+            if (isSymbol(index, "(")) {
+                return function(token);
+            }
+            return variable(texts[token], token);
+        default:
+            if (isSymbol(token, "(")) {
+                index++;
+                Kernel kernel = expression();
+                expect(")");
+                return kernel;
+            }
+            throw error(types[token] == END ? "Unexpected end of the function" : "Unexpected "
+                    + texts[token], token);
+        }
+    }
+
+    private Kernel function( int token ) throws ParseException {
+        String name = texts[token];
+        expect("(");
+        List<Kernel> args = new ArrayList<Kernel>();
+        if (!isSymbol(index, ")")) {
+            args.add(expression());
+            while( isSymbol(index, ",") ) {
+                index++;
+                args.add(expression());
+            }
+        }
+        expect(")");
+        int n = args.size();
+
+        Integer unaryOp = UNARY_FUNCTIONS.get(name);
+        if (unaryOp != null) {
+            checkArguments(name, n, 1, 1, token);
+            return unary(unaryOp, args.get(0));
+        }
+        if (name.equals("if")) {
+            checkArguments(name, n, 1, 4, token);
+            switch( n ) {
+            case 1:
+                return unary(MapcalcProgram.BOOL, args.get(0));
+            case 2:
+                return conditional(args.get(0), new Kernel[]{args.get(1), constant(0.0)});
+            case 3:
+                return conditional(args.get(0), new Kernel[]{args.get(1), args.get(2)});
+            default:
+                return conditional(args.get(0), new Kernel[]{args.get(1), args.get(2),
+                        args.get(3)});
+            }
+        }
+        if (name.equals("log")) {
+            checkArguments(name, n, 1, 2, token);
+            return n == 1 ? unary(MapcalcProgram.LOG, args.get(0)) : binary(
+                    MapcalcProgram.LOGBASE, args.get(0), args.get(1));
+        }
+        if (name.equals("atan")) {
+            checkArguments(name, n, 1, 2, token);
+            return n == 1 ? unary(MapcalcProgram.ATAN, args.get(0)) : binary(
+                    MapcalcProgram.ATAN2, args.get(0), args.get(1));
+        }
+        if (name.equals("pow")) {
+            checkArguments(name, n, 2, 2, token);
+            return binary(MapcalcProgram.POW, args.get(0), args.get(1));
+        }
+        if (name.equals("min") || name.equals("max")) {
+            checkArguments(name, n, 1, Integer.MAX_VALUE, token);
+            int op = name.equals("min") ? MapcalcProgram.MIN : MapcalcProgram.MAX;
+            Kernel kernel = args.get(0);
+            for( int i = 1; i < n; i++ ) {
+                kernel = binary(op, kernel, args.get(i));
+            }
+            return kernel;
+        }
+        if (name.equals("null")) {
+            checkArguments(name, n, 0, 0, token);
+            return constant(Double.NaN);
+        }
+        int position = name.equals("row") ? MapcalcProgram.ROW : name.equals("col")
+                ? MapcalcProgram.COL
+                : name.equals("x") ? MapcalcProgram.X : name.equals("y") ? MapcalcProgram.Y : -1;
+        if (position != -1) {
+            checkArguments(name, n, 0, 0, token);
+            return new Position(position, kernels++);
+        }
+        throw error("Unknown function " + name, token);
+    }
+
+    private Kernel mapValue( int token ) throws ParseException {
+        String name = texts[token];
+        int map = maps.indexOf(name);
+        if (map == -1) {
+            maps.add(name);
+            map = maps.size() - 1;
+        }
+        int rowOffset = 0;
+        int colOffset = 0;
+        if (isSymbol(index, "[")) {
+            index++;
+            rowOffset = offset();
+            expect(",");
+            colOffset = offset();
+            expect("]");
+        }
+        minRowOffset = Math.min(minRowOffset, rowOffset);
+        maxRowOffset = Math.max(maxRowOffset, rowOffset);
+        maxColOffset = Math.max(maxColOffset, Math.abs(colOffset));
+        return new MapValue(map, rowOffset, colOffset, kernels++);
+    }
+
+    private int offset() throws ParseException {
+        boolean negative = false;
+        if (isSymbol(index, "-") || isSymbol(index, "+")) {
+            negative = texts[index].equals("-");
+            index++;
+        }
+        if (types[index] != NUMBER || !texts[index].matches("[0-9]+")) {
+            throw error("The neighbour offsets have to be integer numbers", index);
+        }
+        int value = Integer.parseInt(texts[index++]);
+        return negative ? -value : value;
+    }
+
+    private Kernel variable( String name, int token ) throws ParseException {
+        Integer statement = variables.get(name);
+        if (statement == null) {
+            throw error("The variable " + name + " is used before being assigned", token);
+        }
+        Kernel kernel = statements.get(statement);
+        // constants are used as such, so that the operations on them are specialized
+        return kernel instanceof Constant ? kernel : new Variable(statement);
+    }
+
+    /*
+     * the kernels, folding the constants
+     */
+
+    private Kernel constant( double value ) {
+        return new Constant(value, kernels++);
+    }
+
+    private Kernel unary( int op, Kernel a ) {
+        if (a instanceof Constant) {
+            return constant(MapcalcProgram.apply(op, ((Constant) a).value));
+        }
+        return new Unary(op, a, kernels++);
+    }
+
+    private Kernel binary( int op, Kernel a, Kernel b ) {
+        if (a instanceof Constant && b instanceof Constant) {
+            return constant(MapcalcProgram.apply(op, ((Constant) a).value, ((Constant) b).value));
+        }
+        return new Binary(op, a, b, kernels++);
+    }
+
+    private Kernel conditional( Kernel condition, Kernel[] branches ) {
+        if (condition instanceof Constant) {
+            double value = ((Constant) condition).value;
+            if (Double.isNaN(value)) {
+                return constant(Double.NaN);
+            }
+            if (branches.length == 2) {
+                return DoubleComparison.dzero(value) ? branches[1] : branches[0];
+            }
+            return DoubleComparison.dzero(value) ? branches[1] : value > 0.0
+                    ? branches[0]
+                    : branches[2];
+        }
+        return new Conditional(condition, branches, kernels++);
+    }
+
+    /*
+     * the tokens
+     */
+
+    private void tokenize() throws ParseException {
+        List<Integer> typesList = new ArrayList<Integer>();
+        List<String> textsList = new ArrayList<String>();
+        List<Integer> positionsList = new ArrayList<Integer>();
+        int depth = 0;
+        int i = 0;
+        int length = function.length();
+        while( i < length ) {
+            char c = function.charAt(i);
+            int start = i;
+            int type;
+            String text;
+            if (c == '\n' || c == ';') {
+                i++;
+                if (depth > 0) {
+                    // new lines inside of brackets only continue the expression
+                    if (c == '\n') {
+                        continue;
+                    }
+                    throw new ParseException("Unbalanced brackets at position " + start, start);
+                }
+                type = SEPARATOR;
+                text = String.valueOf(c);
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character
+                    .isDigit(function.charAt(i + 1)))) {
+                while( i < length && (Character.isDigit(function.charAt(i)) || function.charAt(i) == '.') ) {
+                    i++;
+                }
+                if (i < length && (function.charAt(i) == 'e' || function.charAt(i) == 'E')) {
+                    int exponent = i + 1;
+                    if (exponent < length
+                            && (function.charAt(exponent) == '+' || function.charAt(exponent) == '-')) {
+                        exponent++;
+                    }
+                    if (exponent < length && Character.isDigit(function.charAt(exponent))) {
+                        i = exponent;
+                        while( i < length && Character.isDigit(function.charAt(i)) ) {
+                            i++;
+                        }
+                    }
+                }
+                type = NUMBER;
+                text = function.substring(start, i);
+                try {
+                    Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid number " + text + " at position " + start,
+                            start);
+                }
+            } else if (Character.isLetter(c) || c == '_') {
+                while( i < length
+                        && (Character.isLetterOrDigit(function.charAt(i))
+                                || function.charAt(i) == '_' || function.charAt(i) == '.') ) {
+                    i++;
+                }
+                type = NAME;
+                text = function.substring(start, i);
+            } else if (c == '$' || c == '@') {
+                int end = function.indexOf(c, i + 1);
+                if (end == -1 || end == i + 1) {
+                    throw new ParseException("The map name at position " + start
+                            + " has to be wrapped between " + c, start);
+                }
+                type = c == '$' ? INMAP : OUTMAP;
+                text = function.substring(i + 1, end);
+                i = end + 1;
+            } else {
+                String two = i + 1 < length ? function.substring(i, i + 2) : "";
+                if (two.equals("==") || two.equals("!=") || two.equals("<=")
+                        || two.equals(">=") || two.equals("&&") || two.equals("||")) {
+                    text = two;
+                } else if ("+-*/%^!<>=?:,()[]".indexOf(c) != -1) {
+                    text = String.valueOf(c);
+                } else {
+                    throw new ParseException("Unexpected character " + c + " at position "
+                            + start, start);
+                }
+                if (c == '(' || c == '[') {
+                    depth++;
+                } else if (c == ')' || c == ']') {
+                    depth = Math.max(0, depth - 1);
+                }
+                type = SYMBOL;
+                i += text.length();
+            }
+            typesList.add(type);
+            textsList.add(text);
+            positionsList.add(start);
+        }
+        typesList.add(END);
+        textsList.add("");
+        positionsList.add(length);
+
+        int n = typesList.size();
+        types = new int[n];
+        texts = textsList.toArray(new String[n]);
+        positions = new int[n];
+        for( int k = 0; k < n; k++ ) {
+            types[k] = typesList.get(k);
+            positions[k] = positionsList.get(k);
+        }
+        index = 0;
+    }
+
+    private String outputName( int token ) throws ParseException {
+        String name = texts[token];
+        if (outputName == null) {
+            outputName = name;
+        } else if (result == null && !outputName.equals(name)) {
+            throw error("Only one output map can be created, found " + outputName + " and "
+                    + name, token);
+        }
+        return name;
+    }
+
+    private boolean isSymbol( int token, String symbol ) {
+        return types[token] == SYMBOL && texts[token].equals(symbol);
+    }
+
+    private void expect( String symbol ) throws ParseException {
+        if (!isSymbol(index, symbol)) {
+            throw error("Expected " + symbol, index);
+        }
+        index++;
+    }
+
+    private void checkArguments( String name, int n, int min, int max, int token )
+            throws ParseException {
+        if (n < min || n > max) {
+            throw error("Wrong number of arguments for the function " + name, token);
+        }
+    }
+
+    private ParseException error( String message, int token ) {
+        return new ParseException(message + " at position " + positions[token], positions[token]);
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.mapcalc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * Runs a {@link MapcalcProgram} over a region, streaming the rows from the input maps to the
+ * output map.
+ *
+ * <p>
+ * The maps are read by blocks of rows, each block with the rows above and below it that are
+ * needed by the neighbourhood references of the function, so besides the blocks in flight
+ * nothing of the maps is kept in memory. The rows shared by two consecutive blocks are copied
+ * from the previous block and not read again. The blocks are read in order by the calling
+ * thread, computed on a pool of threads and written in order as soon as they are ready, at most
+ * two blocks per thread being in flight. The result doesn't depend on the number of threads.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MapcalcEngine {
+
+    /**
+     * An input map.
+     */
+    public interface Source {
+        /**
+         * Reads rows of the map on the region of the calculation.
+         *
+         * @param firstRow the first row to read, always inside of the region.
+         * @param rows the matrix to fill, every row is as long as the region columns.
+         * @param count the number of rows to read.
+         * @throws IOException
+         */
+        public void readRows( int firstRow, double[][] rows, int count ) throws IOException;
+    }
+
+    /**
+     * The output map.
+     */
+    public interface Sink {
+        /**
+         * Writes the next row of the map.
+         *
+         * @param row the values of the row, the array is reused once the method returns.
+         * @throws IOException
+         */
+        public void writeRow( double[] row ) throws IOException;
+    }
+
+    private final MapcalcProgram program;
+    private final JGrassRegion region;
+    private final int rows;
+    private final int cols;
+    private final int top;
+    private final int halo;
+    private final int pad;
+    private int threads = 1;
+    private int blockRows = 64;
+
+    /**
+     * @param program the compiled function.
+     * @param region the region of the calculation, the one of the input and output maps.
+     */
+    public MapcalcEngine( MapcalcProgram program, JGrassRegion region ) {
+        this.program = program;
+        this.region = region;
+        rows = region.getRows();
+        cols = region.getCols();
+        top = -program.getMinRowOffset();
+        halo = top + program.getMaxRowOffset();
+        pad = program.getMaxColOffset();
+    }
+
+    /**
+     * Sets the number of threads used to compute the rows, default is 1.
+     *
+     * @param threads the number of threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the number of rows computed by a task, default is 64.
+     *
+     * @param blockRows the number of rows.
+     */
+    public void setBlockRows( int blockRows ) {
+        this.blockRows = Math.max(1, blockRows);
+    }
+
+    /**
+     * Computes the output map.
+     *
+     * @param sources the input maps, in the order of {@link MapcalcProgram#getMaps()}.
+     * @param sink the output map.
+     * @param monitor the monitor.
+     * @throws IOException
+     */
+    public void run( Source[] sources, Sink sink, IProgressMonitorJGrass monitor )
+            throws IOException {
+        if (sources.length != program.getMaps().length) {
+            throw new IllegalArgumentException("The function needs " + program.getMaps().length
+                    + " input maps, " + sources.length + " supplied.");
+        }
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "MapcalcEngine worker"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        int inFlight = 2 * threads;
+        LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+        List<Block> free = new ArrayList<Block>();
+        double[][] readBuffer = pad > 0 ? new double[blockRows + halo][cols] : null;
+        Block previous = null;
+
+        monitor.beginTask("Calculating the map", rows); //$NON-NLS-1$
+        try {
+            for( int firstRow = 0; firstRow < rows; firstRow += blockRows ) {
+                final Block block = free.isEmpty() ? new Block() : free.remove(free.size() - 1);
+                block.firstRow = firstRow;
+                block.count = Math.min(blockRows, rows - firstRow);
+                read(sources, block, previous, readBuffer);
+                previous = block;
+
+                Callable<Block> task = new Callable<Block>(){
+                    public Block call() {
+                        block.compute();
+                        return block;
+                    }
+                };
+                if (executor == null) {
+                    FutureTask<Block> future = new FutureTask<Block>(task);
+                    future.run();
+                    pending.add(future);
+                } else {
+                    pending.add(executor.submit(task));
+                }
+
+                /*
+                 * write the blocks that are ready, waiting for the oldest only when too many are
+                 * in flight. The newest is never written here, since the next block copies the
+                 * rows it shares with it.
+                 */
+                while( pending.size() > 1
+                        && (pending.size() >= inFlight || pending.getFirst().isDone()) ) {
+                    Block done = pending.removeFirst().get();
+                    write(done, sink, monitor);
+                    free.add(done);
+                }
+            }
+            while( !pending.isEmpty() ) {
+                write(pending.removeFirst().get(), sink, monitor);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while calculating the map.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getLocalizedMessage());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * Fills the rows of a block, the halo included. Rows outside of the region are novalues.
+     */
+    private void read( Source[] sources, Block block, Block previous, double[][] readBuffer )
+            throws IOException {
+        int first = block.firstRow - top;
+        int total = block.count + halo;
+        // the rows shared with the previous block
+        int kept = 0;
+        if (previous != null) {
+            kept = halo;
+            for( int m = 0; m < sources.length; m++ ) {
+                for( int i = 0; i < kept; i++ ) {
+                    System.arraycopy(previous.maps[m][previous.count + i], 0, block.maps[m][i], 0,
+                            cols + 2 * pad);
+                }
+            }
+        }
+        for( int m = 0; m < sources.length; m++ ) {
+            double[][] target = block.maps[m];
+            int i = kept;
+            while( i < total ) {
+                int row = first + i;
+                if (row < 0 || row >= rows) {
+                    Arrays.fill(target[i], Double.NaN);
+                    i++;
+                    continue;
+                }
+                int count = Math.min(total - i, rows - row);
+                if (pad == 0) {
+                    if (i == 0) {
+                        sources[m].readRows(row, target, count);
+                    } else {
+                        double[][] view = new double[count][];
+                        System.arraycopy(target, i, view, 0, count);
+                        sources[m].readRows(row, view, count);
+                    }
+                } else {
+                    sources[m].readRows(row, readBuffer, count);
+                    for( int k = 0; k < count; k++ ) {
+                        // the padding columns are never written, so they stay novalues
+                        System.arraycopy(readBuffer[k], 0, target[i + k], pad, cols);
+                    }
+                }
+                i += count;
+            }
+        }
+    }
+
+    private void write( Block block, Sink sink, IProgressMonitorJGrass monitor )
+            throws IOException {
+        for( int i = 0; i < block.count; i++ ) {
+            sink.writeRow(block.result[i]);
+        }
+        monitor.worked(block.count);
+    }
+
+    /**
+     * A block of rows, with the rows of the input maps it needs and its result.
+     */
+    private class Block {
+        private final double[][][] maps;
+        private final double[][] result;
+        private final MapcalcProgram.Context context;
+        private int firstRow;
+        private int count;
+
+        private Block() {
+            int mapsNum = program.getMaps().length;
+            maps = new double[mapsNum][blockRows + halo][cols + 2 * pad];
+            if (pad > 0) {
+                for( double[][] map : maps ) {
+                    for( double[] row : map ) {
+                        Arrays.fill(row, Double.NaN);
+                    }
+                }
+            }
+            result = new double[blockRows][cols];
+            context = program.createContext(region);
+            context.block = maps;
+        }
+
+        private void compute() {
+            for( int i = 0; i < count; i++ ) {
+                context.center = top + i;
+                context.row = firstRow + i;
+                System.arraycopy(program.evalRow(context), 0, result[i], 0, cols);
+            }
+        }
+    }
+
+}
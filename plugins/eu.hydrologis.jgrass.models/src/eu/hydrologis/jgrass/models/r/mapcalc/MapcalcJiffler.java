@@ -14,6 +14,8 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -25,10 +27,14 @@ import net.refractions.udig.project.ui.ApplicationGIS;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 
+import eu.hydrologis.JGrassModelsPlugin;
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReadParam;
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
 import eu.hydrologis.jgrass.libs.iodrivers.imageio.GrassBinaryImageWriter;
 import eu.hydrologis.jgrass.libs.iodrivers.imageio.spi.GrassBinaryImageWriterSpi;
+import eu.hydrologis.jgrass.libs.io.RasterWritingFailureException;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapWriter;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
@@ -58,6 +64,8 @@ public class MapcalcJiffler {
 
     private String errorMessage = null;
 
+    private int threads = 1;
+
     /**
      * Constructor. Creates an instance of {@link jaitools.jiffle.runtime.JiffleInterpeter}
      * and sets up interpreter event handlers.
@@ -76,7 +84,135 @@ public class MapcalcJiffler {
 
     }
 
+    /**
+     * Sets the number of threads used to compute the map, to decompress the rows of the input maps
+     * and to compress the rows of the result, default is 1.
+     * 
+     * @param threads the number of threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Computes the map. The function is compiled and the map is computed row by row by the
+     * {@link MapcalcEngine}, reading and writing the maps by blocks of rows. Functions that the
+     * {@link MapcalcCompiler} doesn't support are left to jiffle.
+     * 
+     * @return the error message, or <code>null</code> if everything went well.
+     */
     public String exec() {
+        MapcalcProgram program;
+        try {
+            program = MapcalcCompiler.compile(function, result);
+        } catch (ParseException e) {
+            out.println("The function can't be compiled (" + e.getLocalizedMessage()
+                    + "), using jiffle.");
+            return execJiffle();
+        }
+
+        String[] maps = program.getMaps();
+        for( String mapName : maps ) {
+            if (!Arrays.asList(mapsArray).contains(mapName)) {
+                errorMessage = "The map " + mapName + " doesn't exist in the mapset.";
+                return errorMessage;
+            }
+        }
+
+        IProgressMonitorJGrass pm = new PrintStreamProgressMonitor(out);
+        final JGrassRasterMapReader[] readers = new JGrassRasterMapReader[maps.length];
+        MapcalcEngine.Source[] sources = new MapcalcEngine.Source[maps.length];
+        JGrassRasterMapWriter writer = null;
+        try {
+            for( int i = 0; i < maps.length; i++ ) {
+                String mapPath = new File(cellFolderFile, maps[i]).getAbsolutePath();
+                readers[i] = new JGrassRasterMapReader.BuilderFromMapPath(jgRegion, mapPath)
+                        .maptype(JGrassConstants.GRASSBINARYRASTERMAP).threads(threads).build();
+                if (!readers[i].open()) {
+                    errorMessage = "An error occurred while reading the input maps.";
+                    return errorMessage;
+                }
+                final JGrassRasterMapReader reader = readers[i];
+                sources[i] = new MapcalcEngine.Source(){
+                    public void readRows( int firstRow, double[][] rows, int count )
+                            throws IOException {
+                        reader.getReader().readRows(firstRow, rows, 0, count);
+                    }
+                };
+            }
+
+            File mapsetFile = cellFolderFile.getParentFile();
+            writer = new JGrassRasterMapWriter(jgRegion, program.getOutputName(), mapsetFile
+                    .getName(), mapsetFile.getParent(), pm);
+            writer.setThreads(threads);
+            if (!writer.open()) {
+                errorMessage = "An error occurred while creating the output map.";
+                return errorMessage;
+            }
+            writer.startRows();
+            final JGrassRasterMapWriter rowsWriter = writer;
+            MapcalcEngine.Sink sink = new MapcalcEngine.Sink(){
+                public void writeRow( double[] row ) throws IOException {
+                    try {
+                        rowsWriter.writeRow(row);
+                    } catch (RasterWritingFailureException e) {
+                        throw new IOException(e.getLocalizedMessage());
+                    }
+                }
+            };
+
+            MapcalcEngine engine = new MapcalcEngine(program, jgRegion);
+            engine.setThreads(threads);
+            engine.run(sources, sink, pm);
+            if (!writer.finishRows()) {
+                errorMessage = "An error occurred while completing the output map.";
+                return errorMessage;
+            }
+        } catch (IOException e) {
+            JGrassModelsPlugin.log(
+                    "JGrassModelsPlugin problem: eu.hydrologis.jgrass.models.r.mapcalc#MapcalcJiffler#exec", e); //$NON-NLS-1$
+            errorMessage = "An error occurred during the map calculation: "
+                    + e.getLocalizedMessage();
+            return errorMessage;
+        } catch (RasterWritingFailureException e) {
+            JGrassModelsPlugin.log(
+                    "JGrassModelsPlugin problem: eu.hydrologis.jgrass.models.r.mapcalc#MapcalcJiffler#exec", e); //$NON-NLS-1$
+            errorMessage = "An error occurred while writing the output map: "
+                    + e.getLocalizedMessage();
+            return errorMessage;
+        } finally {
+            for( JGrassRasterMapReader reader : readers ) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        addToCatalog(program.getOutputName());
+        return errorMessage;
+    }
+
+    private void addToCatalog( String mapName ) {
+        if (JGrassPlugin.getDefault() != null) {
+            File mapsetFile = cellFolderFile.getParentFile();
+            JGrassMapGeoResource addedMap = JGrassCatalogUtilities.addMapToCatalog(mapsetFile
+                    .getParent(), mapsetFile.getName(), mapName,
+                    JGrassConstants.GRASSBINARYRASTERMAP);
+            if (addedMap != null) {
+                IMap activeMap = ApplicationGIS.getActiveMap();
+                ApplicationGIS.addLayersToMap(activeMap, Collections
+                        .singletonList((IGeoResource) addedMap), activeMap.getMapLayers().size());
+            }
+        }
+    }
+
+    /**
+     * Computes the map with the jiffle interpreter, on the whole images of the maps.
+     */
+    private String execJiffle() {
 
         final IProgressMonitorJGrass pm = new PrintStreamProgressMonitor(out);
 
@@ -163,18 +299,7 @@ public class MapcalcJiffler {
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                if (JGrassPlugin.getDefault() != null) {
-                    File mapsetFile = cellFolderFile.getParentFile();
-                    JGrassMapGeoResource addedMap = JGrassCatalogUtilities.addMapToCatalog(
-                            mapsetFile.getParent(), mapsetFile.getName(), result,
-                            JGrassConstants.GRASSBINARYRASTERMAP);
-                    if (addedMap != null) {
-                        IMap activeMap = ApplicationGIS.getActiveMap();
-                        ApplicationGIS.addLayersToMap(activeMap, Collections
-                                .singletonList((IGeoResource) addedMap), activeMap.getMapLayers()
-                                .size());
-                    }
-                }
+                addToCatalog(result);
                 pm.done();
             }
 
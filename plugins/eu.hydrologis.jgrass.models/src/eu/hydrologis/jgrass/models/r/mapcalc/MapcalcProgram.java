@@ -0,0 +1,639 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.mapcalc;
+
+import jaitools.numeric.DoubleComparison;
+
+import java.util.Arrays;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+
+/**
+ * A mapcalc function compiled by the {@link MapcalcCompiler}.
+ *
+ * <p>
+ * Every node of the expressions is a kernel that computes a whole row at the time, looping over
+ * primitive arrays, with the choice of the operation taken once per row and not once per cell.
+ * Constant subexpressions are folded at compile time and the most used operations have loops
+ * specialized for a constant operand. Every kernel writes in its own row of scratch, so the
+ * result of a statement stays valid while the following statements of the same row are computed.
+ * </p>
+ *
+ * <p>
+ * The values follow the rules of r.mapcalc for the novalues: any operation involving a novalue
+ * gives a novalue, comparisons and logical operations included, and divisions by zero give a
+ * novalue. The functions {@link MapcalcCompiler supported} work in radians.
+ * </p>
+ *
+ * <p>
+ * Comparisons, logical operations and conditions use the tolerance of jiffle, as in
+ * {@link DoubleComparison}: two values closer than 1e-8 are equal and a value closer than 1e-8 to
+ * zero is false, so the compiled function gives the results of the jiffle interpreter.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MapcalcProgram {
+
+    static final int ADD = 0;
+    static final int SUB = 1;
+    static final int MUL = 2;
+    static final int DIV = 3;
+    static final int MOD = 4;
+    static final int POW = 5;
+    static final int MIN = 6;
+    static final int MAX = 7;
+    static final int EQ = 8;
+    static final int NE = 9;
+    static final int LT = 10;
+    static final int LE = 11;
+    static final int GT = 12;
+    static final int GE = 13;
+    static final int AND = 14;
+    static final int OR = 15;
+    static final int ATAN2 = 16;
+    static final int LOGBASE = 17;
+
+    static final int NEG = 0;
+    static final int NOT = 1;
+    static final int ABS = 2;
+    static final int SQRT = 3;
+    static final int EXP = 4;
+    static final int LOG = 5;
+    static final int LOG10 = 6;
+    static final int SIN = 7;
+    static final int COS = 8;
+    static final int TAN = 9;
+    static final int ASIN = 10;
+    static final int ACOS = 11;
+    static final int ATAN = 12;
+    static final int FLOOR = 13;
+    static final int CEIL = 14;
+    static final int ROUND = 15;
+    static final int ISNULL = 16;
+    static final int BOOL = 17;
+
+    static final int ROW = 0;
+    static final int COL = 1;
+    static final int X = 2;
+    static final int Y = 3;
+
+    private final String outputName;
+    private final String[] maps;
+    private final Kernel[] statements;
+    private final int output;
+    private final int kernels;
+    private final int minRowOffset;
+    private final int maxRowOffset;
+    private final int maxColOffset;
+
+    MapcalcProgram( String outputName, String[] maps, Kernel[] statements, int output,
+            int kernels, int minRowOffset, int maxRowOffset, int maxColOffset ) {
+        this.outputName = outputName;
+        this.maps = maps;
+        this.statements = statements;
+        this.output = output;
+        this.kernels = kernels;
+        this.minRowOffset = minRowOffset;
+        this.maxRowOffset = maxRowOffset;
+        this.maxColOffset = maxColOffset;
+    }
+
+    /**
+     * @return the name of the map to create.
+     */
+    public String getOutputName() {
+        return outputName;
+    }
+
+    /**
+     * @return the names of the maps read by the function, in the order in which the rows have to
+     *         be supplied.
+     */
+    public String[] getMaps() {
+        return maps.clone();
+    }
+
+    /**
+     * @return the most negative row offset of the neighbourhood references, 0 if none.
+     */
+    public int getMinRowOffset() {
+        return minRowOffset;
+    }
+
+    /**
+     * @return the most positive row offset of the neighbourhood references, 0 if none.
+     */
+    public int getMaxRowOffset() {
+        return maxRowOffset;
+    }
+
+    /**
+     * @return the largest column offset, in absolute value, of the neighbourhood references.
+     */
+    public int getMaxColOffset() {
+        return maxColOffset;
+    }
+
+    Context createContext( JGrassRegion region ) {
+        return new Context(region, kernels, statements.length, maxColOffset);
+    }
+
+    /**
+     * Computes a row of the output map.
+     *
+     * @param ctx the context, with the rows of the maps around the row to compute.
+     * @return the row, which can be one of the rows of scratch or of the maps, so it is only valid
+     *         until the next call and mustn't be changed.
+     */
+    double[] evalRow( Context ctx ) {
+        for( int i = 0; i < statements.length; i++ ) {
+            ctx.slots[i] = statements[i].eval(ctx);
+        }
+        return ctx.slots[output];
+    }
+
+    /**
+     * The state of the computation of a row, used by one thread at the time.
+     */
+    static final class Context {
+        final int cols;
+        final int pad;
+        final double west;
+        final double north;
+        final double ewres;
+        final double nsres;
+        final double[][] scratch;
+        final boolean[] filled;
+        final double[][] slots;
+
+        /*
+         * the rows of the maps, as [map][row][pad + col], and the index of the row being computed
+         */
+        double[][][] block;
+        int center;
+        int row;
+
+        Context( JGrassRegion region, int kernels, int statements, int pad ) {
+            cols = region.getCols();
+            this.pad = pad;
+            west = region.getWest();
+            north = region.getNorth();
+            ewres = region.getWEResolution();
+            nsres = region.getNSResolution();
+            scratch = new double[kernels][cols];
+            filled = new boolean[kernels];
+            slots = new double[statements][];
+        }
+    }
+
+    static abstract class Kernel {
+        /**
+         * @return the values of the kernel for the row of the context, not to be changed.
+         */
+        abstract double[] eval( Context ctx );
+    }
+
+    static final class Constant extends Kernel {
+        final double value;
+        private final int slot;
+
+        Constant( double value, int slot ) {
+            this.value = value;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] out = ctx.scratch[slot];
+            if (!ctx.filled[slot]) {
+                Arrays.fill(out, value);
+                ctx.filled[slot] = true;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * The value of a variable, computed by an earlier statement of the row.
+     */
+    static final class Variable extends Kernel {
+        private final int statement;
+
+        Variable( int statement ) {
+            this.statement = statement;
+        }
+
+        double[] eval( Context ctx ) {
+            return ctx.slots[statement];
+        }
+    }
+
+    static final class MapValue extends Kernel {
+        private final int map;
+        private final int rowOffset;
+        private final int colOffset;
+        private final int slot;
+
+        MapValue( int map, int rowOffset, int colOffset, int slot ) {
+            this.map = map;
+            this.rowOffset = rowOffset;
+            this.colOffset = colOffset;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] row = ctx.block[map][ctx.center + rowOffset];
+            if (ctx.pad == 0) {
+                return row;
+            }
+            double[] out = ctx.scratch[slot];
+            System.arraycopy(row, ctx.pad + colOffset, out, 0, ctx.cols);
+            return out;
+        }
+    }
+
+    static final class Position extends Kernel {
+        private final int kind;
+        private final int slot;
+
+        Position( int kind, int slot ) {
+            this.kind = kind;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] out = ctx.scratch[slot];
+            int n = ctx.cols;
+            switch( kind ) {
+            case ROW:
+                Arrays.fill(out, ctx.row + 1);
+                break;
+            case Y:
+                Arrays.fill(out, ctx.north - (ctx.row + 0.5) * ctx.nsres);
+                break;
+            case COL:
+                // the same for every row
+                if (!ctx.filled[slot]) {
+                    for( int i = 0; i < n; i++ ) {
+                        out[i] = i + 1;
+                    }
+                    ctx.filled[slot] = true;
+                }
+                break;
+            default:
+                if (!ctx.filled[slot]) {
+                    for( int i = 0; i < n; i++ ) {
+                        out[i] = ctx.west + (i + 0.5) * ctx.ewres;
+                    }
+                    ctx.filled[slot] = true;
+                }
+                break;
+            }
+            return out;
+        }
+    }
+
+    static final class Unary extends Kernel {
+        private final int op;
+        private final Kernel a;
+        private final int slot;
+
+        Unary( int op, Kernel a, int slot ) {
+            this.op = op;
+            this.a = a;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] x = a.eval(ctx);
+            double[] out = ctx.scratch[slot];
+            int n = ctx.cols;
+            switch( op ) {
+            case NEG:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = -x[i];
+                }
+                break;
+            case ABS:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.abs(x[i]);
+                }
+                break;
+            case SQRT:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.sqrt(x[i]);
+                }
+                break;
+            case EXP:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.exp(x[i]);
+                }
+                break;
+            case LOG:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.log(x[i]);
+                }
+                break;
+            case ISNULL:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Double.isNaN(x[i]) ? 1.0 : 0.0;
+                }
+                break;
+            default:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = apply(op, x[i]);
+                }
+                break;
+            }
+            return out;
+        }
+    }
+
+    static final class Binary extends Kernel {
+        private final int op;
+        private final Kernel a;
+        private final Kernel b;
+        private final int slot;
+
+        Binary( int op, Kernel a, Kernel b, int slot ) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] out = ctx.scratch[slot];
+            if (a instanceof Constant) {
+                evalConstantLeft(((Constant) a).value, b.eval(ctx), out, ctx.cols);
+            } else if (b instanceof Constant) {
+                evalConstantRight(a.eval(ctx), ((Constant) b).value, out, ctx.cols);
+            } else {
+                evalRows(a.eval(ctx), b.eval(ctx), out, ctx.cols);
+            }
+            return out;
+        }
+
+        private void evalRows( double[] x, double[] y, double[] out, int n ) {
+            switch( op ) {
+            case ADD:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] + y[i];
+                }
+                break;
+            case SUB:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] - y[i];
+                }
+                break;
+            case MUL:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] * y[i];
+                }
+                break;
+            case DIV:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = y[i] == 0.0 ? Double.NaN : x[i] / y[i];
+                }
+                break;
+            case MIN:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.min(x[i], y[i]);
+                }
+                break;
+            case MAX:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = Math.max(x[i], y[i]);
+                }
+                break;
+            default:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = apply(op, x[i], y[i]);
+                }
+                break;
+            }
+        }
+
+        private void evalConstantLeft( double x, double[] y, double[] out, int n ) {
+            switch( op ) {
+            case ADD:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x + y[i];
+                }
+                break;
+            case SUB:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x - y[i];
+                }
+                break;
+            case MUL:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x * y[i];
+                }
+                break;
+            default:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = apply(op, x, y[i]);
+                }
+                break;
+            }
+        }
+
+        private void evalConstantRight( double[] x, double y, double[] out, int n ) {
+            switch( op ) {
+            case ADD:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] + y;
+                }
+                break;
+            case SUB:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] - y;
+                }
+                break;
+            case MUL:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = x[i] * y;
+                }
+                break;
+            case DIV:
+                if (y == 0.0) {
+                    Arrays.fill(out, 0, n, Double.NaN);
+                } else {
+                    for( int i = 0; i < n; i++ ) {
+                        out[i] = x[i] / y;
+                    }
+                }
+                break;
+            case GT:
+                for( int i = 0; i < n; i++ ) {
+                    double v = x[i];
+                    out[i] = v != v || y != y ? Double.NaN : (DoubleComparison.dcomp(v, y) > 0
+                            ? 1.0
+                            : 0.0);
+                }
+                break;
+            case LT:
+                for( int i = 0; i < n; i++ ) {
+                    double v = x[i];
+                    out[i] = v != v || y != y ? Double.NaN : (DoubleComparison.dcomp(v, y) < 0
+                            ? 1.0
+                            : 0.0);
+                }
+                break;
+            default:
+                for( int i = 0; i < n; i++ ) {
+                    out[i] = apply(op, x[i], y);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * The conditional: with two branches the first if the condition is not zero and the second
+     * otherwise, with three branches the first if the condition is positive, the second if it is
+     * zero and the third if it is negative. Zero is within the tolerance of jiffle.
+     */
+    static final class Conditional extends Kernel {
+        private final Kernel condition;
+        private final Kernel[] branches;
+        private final int slot;
+
+        Conditional( Kernel condition, Kernel[] branches, int slot ) {
+            this.condition = condition;
+            this.branches = branches;
+            this.slot = slot;
+        }
+
+        double[] eval( Context ctx ) {
+            double[] c = condition.eval(ctx);
+            double[] out = ctx.scratch[slot];
+            int n = ctx.cols;
+            if (branches.length == 2) {
+                double[] yes = branches[0].eval(ctx);
+                double[] no = branches[1].eval(ctx);
+                for( int i = 0; i < n; i++ ) {
+                    double v = c[i];
+                    out[i] = v != v ? Double.NaN : (DoubleComparison.dzero(v) ? no[i] : yes[i]);
+                }
+            } else {
+                double[] positive = branches[0].eval(ctx);
+                double[] zero = branches[1].eval(ctx);
+                double[] negative = branches[2].eval(ctx);
+                for( int i = 0; i < n; i++ ) {
+                    double v = c[i];
+                    out[i] = v != v ? Double.NaN : (DoubleComparison.dzero(v) ? zero[i] : (v > 0.0
+                            ? positive[i]
+                            : negative[i]));
+                }
+            }
+            return out;
+        }
+    }
+
+    static double apply( int op, double x ) {
+        switch( op ) {
+        case NEG:
+            return -x;
+        case NOT:
+            return x != x ? Double.NaN : (DoubleComparison.dzero(x) ? 1.0 : 0.0);
+        case ABS:
+            return Math.abs(x);
+        case SQRT:
+            return Math.sqrt(x);
+        case EXP:
+            return Math.exp(x);
+        case LOG:
+            return Math.log(x);
+        case LOG10:
+            return Math.log10(x);
+        case SIN:
+            return Math.sin(x);
+        case COS:
+            return Math.cos(x);
+        case TAN:
+            return Math.tan(x);
+        case ASIN:
+            return Math.asin(x);
+        case ACOS:
+            return Math.acos(x);
+        case ATAN:
+            return Math.atan(x);
+        case FLOOR:
+            return Math.floor(x);
+        case CEIL:
+            return Math.ceil(x);
+        case ROUND:
+            return Math.floor(x + 0.5);
+        case ISNULL:
+            return x != x ? 1.0 : 0.0;
+        default:
+            return x != x ? Double.NaN : (DoubleComparison.dzero(x) ? 0.0 : 1.0);
+        }
+    }
+
+    static double apply( int op, double x, double y ) {
+        switch( op ) {
+        case ADD:
+            return x + y;
+        case SUB:
+            return x - y;
+        case MUL:
+            return x * y;
+        case DIV:
+            return y == 0.0 ? Double.NaN : x / y;
+        case MOD:
+            return y == 0.0 ? Double.NaN : x % y;
+        case POW:
+            return Math.pow(x, y);
+        case MIN:
+            return Math.min(x, y);
+        case MAX:
+            return Math.max(x, y);
+        case ATAN2:
+            return Math.atan2(y, x);
+        case LOGBASE:
+            return Math.log(x) / Math.log(y);
+        default:
+            break;
+        }
+        if (x != x || y != y) {
+            return Double.NaN;
+        }
+        switch( op ) {
+        case EQ:
+            return DoubleComparison.dcomp(x, y) == 0 ? 1.0 : 0.0;
+        case NE:
+            return DoubleComparison.dcomp(x, y) != 0 ? 1.0 : 0.0;
+        case LT:
+            return DoubleComparison.dcomp(x, y) < 0 ? 1.0 : 0.0;
+        case LE:
+            return DoubleComparison.dcomp(x, y) <= 0 ? 1.0 : 0.0;
+        case GT:
+            return DoubleComparison.dcomp(x, y) > 0 ? 1.0 : 0.0;
+        case GE:
+            return DoubleComparison.dcomp(x, y) >= 0 ? 1.0 : 0.0;
+        case AND:
+            return !DoubleComparison.dzero(x) && !DoubleComparison.dzero(y) ? 1.0 : 0.0;
+        default:
+            return !DoubleComparison.dzero(x) || !DoubleComparison.dzero(y) ? 1.0 : 0.0;
+        }
+    }
+
+}
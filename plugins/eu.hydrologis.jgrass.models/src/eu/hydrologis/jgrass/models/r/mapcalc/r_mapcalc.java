@@ -17,12 +17,15 @@ import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.openmi.OneInOneOutModelsBackbone;
 import eu.hydrologis.openmi.JGrassRasterValueSet;
 
 public class r_mapcalc extends OneInOneOutModelsBackbone {
 
+    private static final String THREADS = "threads"; //$NON-NLS-1$
+
     private JGrassRegion activeRegion;
     private String mapset;
 
@@ -30,6 +33,7 @@ public class r_mapcalc extends OneInOneOutModelsBackbone {
     private String function;
     private String[] mapsArray;
     private File cellPathFile;
+    private int threads = 1;
 
     public r_mapcalc() {
         super();
@@ -60,6 +64,17 @@ public class r_mapcalc extends OneInOneOutModelsBackbone {
                 if (key.compareTo("function") == 0) {
                     function = argument.getValue();
                 }
+                if (key.equals(THREADS)) {
+                    try {
+                        threads = Integer.parseInt(argument.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        throw new ModelsIllegalargumentException(
+                                "The threads parameter has to be a positive integer.", this);
+                    }
+                }
             }
 
         }
@@ -97,9 +112,10 @@ public class r_mapcalc extends OneInOneOutModelsBackbone {
 
         MapcalcJiffler jiffler = new MapcalcJiffler(function, null, mapsArray, activeRegion,
                 cellPathFile.getAbsolutePath(), out);
+        jiffler.setThreads(threads);
         String exec = jiffler.exec();
         if (exec != null) {
-            err.println(exec);
+            throw new ModelsIOException(exec, this);
         }
 
         return null;
@@ -0,0 +1,441 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.mosaic;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * Patches a set of raster tiles into a single raster.
+ * 
+ * <p>
+ * The mosaic is built by blocks of rows, which are passed in order to a {@link Sink} as soon as
+ * they are ready, so that neither the tiles nor the mosaic are ever held whole in memory. For
+ * every block the rows of the tiles that cross it are read and copied as contiguous spans, in the
+ * order of the tiles. The blocks are independent and are computed concurrently, a few at the
+ * time, so the result doesn't depend on the number of threads used.
+ * </p>
+ * 
+ * <p>
+ * Where tiles overlap, the value is chosen by the overlap policy: {@link #OVERLAP_FIRST} keeps the
+ * value of the first tile in the list, {@link #OVERLAP_LAST} the value of the last one and
+ * {@link #OVERLAP_MEAN} the mean of the values. Novalues never replace a value.
+ * </p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RasterMosaic {
+
+    public static final int OVERLAP_FIRST = 0;
+    public static final int OVERLAP_LAST = 1;
+    public static final int OVERLAP_MEAN = 2;
+
+    /**
+     * The tolerance used when snapping the bounds of a region to the grid of the mosaic, in cells.
+     */
+    private static final double EPSILON = 1E-6;
+
+    /**
+     * A tile of the mosaic.
+     */
+    public interface Tile {
+        /**
+         * @return the region of the tile, which has to lay on the grid of the mosaic (see
+         *         {@link RasterMosaic#snap(JGrassRegion)}).
+         */
+        public JGrassRegion getRegion();
+
+        /**
+         * Reads rows of the tile.
+         * 
+         * @param firstRow the first row of the tile region to read.
+         * @param rows the matrix to fill, every row is at least as long as the tile columns.
+         * @param count the number of rows to read.
+         * @throws IOException
+         */
+        public void readRows( int firstRow, double[][] rows, int count ) throws IOException;
+
+        /**
+         * Releases the resources of the tile, once all the needed rows have been read. It can be
+         * called more than once.
+         */
+        public void close();
+    }
+
+    /**
+     * The output of the mosaic.
+     */
+    public interface Sink {
+        /**
+         * Writes the next row of the mosaic.
+         * 
+         * @param row the values of the row, the array is reused once the method returns.
+         * @throws IOException
+         */
+        public void writeRow( double[] row ) throws IOException;
+    }
+
+    private final JGrassRegion region;
+    private final int rows;
+    private final int cols;
+    private final int overlap;
+    private int threads = 1;
+    private int blockRows = 64;
+
+    /**
+     * @param region the region of the mosaic (see {@link #mosaicRegion(List)}).
+     * @param overlap the overlap policy, one of {@link #OVERLAP_FIRST}, {@link #OVERLAP_LAST} and
+     *        {@link #OVERLAP_MEAN}.
+     */
+    public RasterMosaic( JGrassRegion region, int overlap ) {
+        if (overlap != OVERLAP_FIRST && overlap != OVERLAP_LAST && overlap != OVERLAP_MEAN) {
+            throw new IllegalArgumentException("Unknown overlap policy: " + overlap);
+        }
+        this.region = region;
+        this.overlap = overlap;
+        rows = region.getRows();
+        cols = region.getCols();
+    }
+
+    /**
+     * Sets the number of threads used to build the blocks of the mosaic, default is 1.
+     * 
+     * @param threads the number of threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the number of rows of the mosaic built at once, default is 64.
+     * 
+     * @param blockRows the number of rows.
+     */
+    public void setBlockRows( int blockRows ) {
+        this.blockRows = Math.max(1, blockRows);
+    }
+
+    /**
+     * Calculates the region that covers all the given regions, on the grid of the first one.
+     * 
+     * @param regions the regions of the tiles.
+     * @return the region of the mosaic.
+     */
+    public static JGrassRegion mosaicRegion( List<JGrassRegion> regions ) {
+        JGrassRegion reference = regions.get(0);
+        double west = reference.getWest();
+        double north = reference.getNorth();
+        double weres = reference.getWEResolution();
+        double nsres = reference.getNSResolution();
+        int minCol = Integer.MAX_VALUE;
+        int maxCol = Integer.MIN_VALUE;
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        for( JGrassRegion tileRegion : regions ) {
+            minCol = Math.min(minCol, floor((tileRegion.getWest() - west) / weres));
+            maxCol = Math.max(maxCol, ceil((tileRegion.getEast() - west) / weres));
+            minRow = Math.min(minRow, floor((north - tileRegion.getNorth()) / nsres));
+            maxRow = Math.max(maxRow, ceil((north - tileRegion.getSouth()) / nsres));
+        }
+        return new JGrassRegion(west + minCol * weres, west + maxCol * weres, north - maxRow
+                * nsres, north - minRow * nsres, maxRow - minRow, maxCol - minCol);
+    }
+
+    /**
+     * Snaps a region to the grid of the mosaic, enlarging it to the cells it touches.
+     * 
+     * <p>
+     * Tiles of a different resolution are read on the snapped region, which resamples them to the
+     * resolution of the mosaic.
+     * </p>
+     * 
+     * @param tileRegion the region to snap.
+     * @return the region on the grid of the mosaic.
+     */
+    public JGrassRegion snap( JGrassRegion tileRegion ) {
+        double west = region.getWest();
+        double north = region.getNorth();
+        double weres = region.getWEResolution();
+        double nsres = region.getNSResolution();
+        int minCol = floor((tileRegion.getWest() - west) / weres);
+        int maxCol = ceil((tileRegion.getEast() - west) / weres);
+        int minRow = floor((north - tileRegion.getNorth()) / nsres);
+        int maxRow = ceil((north - tileRegion.getSouth()) / nsres);
+        return new JGrassRegion(west + minCol * weres, west + maxCol * weres, north - maxRow
+                * nsres, north - minRow * nsres, maxRow - minRow, maxCol - minCol);
+    }
+
+    /**
+     * Patches the tiles into a mosaic held in memory, for small mosaics.
+     * 
+     * @param tiles the tiles, in the order used by the overlap policy.
+     * @param monitor the monitor.
+     * @return the mosaic, as rows of values, novalues where no tile has a value.
+     * @throws IOException
+     */
+    public double[][] mosaic( List<Tile> tiles, IProgressMonitorJGrass monitor ) throws IOException {
+        final double[][] mosaic = new double[rows][];
+        mosaic(tiles, new Sink(){
+            private int row = 0;
+
+            public void writeRow( double[] values ) throws IOException {
+                mosaic[row++] = values.clone();
+            }
+        }, monitor);
+        return mosaic;
+    }
+
+    /**
+     * Patches the tiles into the mosaic, passing the rows of the mosaic in order to the sink.
+     * 
+     * @param tiles the tiles, in the order used by the overlap policy.
+     * @param sink the output of the mosaic, which gets novalues where no tile has a value.
+     * @param monitor the monitor.
+     * @throws IOException
+     */
+    public void mosaic( List<Tile> tiles, Sink sink, IProgressMonitorJGrass monitor )
+            throws IOException {
+        /*
+         * the cells of every tile in the mosaic, and the number of blocks it crosses, after which
+         * the tile is closed
+         */
+        final int n = tiles.size();
+        final Tile[] tileArray = tiles.toArray(new Tile[n]);
+        final int[][] bounds = new int[n][];
+        final int[] blocksLeft = new int[n];
+        int maxTileCols = 0;
+        for( int i = 0; i < n; i++ ) {
+            bounds[i] = cellBounds(tileArray[i].getRegion());
+            int firstRow = Math.max(0, bounds[i][0]);
+            int lastRow = Math.min(rows, bounds[i][1]);
+            if (firstRow < lastRow && bounds[i][2] < cols && bounds[i][3] > 0) {
+                blocksLeft[i] = (lastRow - 1) / blockRows - firstRow / blockRows + 1;
+                maxTileCols = Math.max(maxTileCols, bounds[i][3] - bounds[i][2]);
+            }
+        }
+
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "RasterMosaic worker"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        int inFlight = 2 * threads;
+        LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+        LinkedList<Block> free = new LinkedList<Block>();
+
+        monitor.beginTask("Patching tiles", rows); //$NON-NLS-1$
+        try {
+            for( int firstRow = 0; firstRow < rows; firstRow += blockRows ) {
+                final Block block = free.isEmpty() ? new Block(maxTileCols) : free.removeFirst();
+                block.firstRow = firstRow;
+                block.count = Math.min(blockRows, rows - firstRow);
+                Callable<Block> task = new Callable<Block>(){
+                    public Block call() throws Exception {
+                        block.patch(tileArray, bounds, blocksLeft);
+                        return block;
+                    }
+                };
+                if (executor == null) {
+                    FutureTask<Block> future = new FutureTask<Block>(task);
+                    future.run();
+                    pending.add(future);
+                } else {
+                    pending.add(executor.submit(task));
+                }
+
+                // write the blocks that are ready, waiting only when too many are in flight
+                while( !pending.isEmpty()
+                        && (pending.size() >= inFlight || pending.getFirst().isDone()) ) {
+                    Block done = pending.removeFirst().get();
+                    done.write(sink, monitor);
+                    free.add(done);
+                }
+            }
+            while( !pending.isEmpty() ) {
+                pending.removeFirst().get().write(sink, monitor);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while patching the tiles.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getLocalizedMessage());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            // the tiles left open by a failure
+            for( Tile tile : tileArray ) {
+                synchronized (tile) {
+                    tile.close();
+                }
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * A block of rows of the mosaic, with the buffers needed to build it.
+     */
+    private class Block {
+        private final double[][] values = new double[blockRows][cols];
+        private final int[][] counts = overlap == OVERLAP_MEAN ? new int[blockRows][cols] : null;
+        private final double[][] tileRows;
+        private int firstRow;
+        private int count;
+
+        private Block( int maxTileCols ) {
+            tileRows = new double[blockRows][maxTileCols];
+        }
+
+        /**
+         * Copies the rows of the tiles that cross the block, in the order of the tiles, closing
+         * the tiles that are not needed by any other block.
+         */
+        private void patch( Tile[] tiles, int[][] bounds, int[] blocksLeft ) throws IOException {
+            for( int i = 0; i < count; i++ ) {
+                Arrays.fill(values[i], JGrassConstants.doubleNovalue);
+                if (counts != null) {
+                    Arrays.fill(counts[i], 0);
+                }
+            }
+            int lastRow = firstRow + count;
+            for( int t = 0; t < tiles.length; t++ ) {
+                int[] tileBounds = bounds[t];
+                int first = Math.max(firstRow, tileBounds[0]);
+                int last = Math.min(lastRow, tileBounds[1]);
+                int srcCol = Math.max(0, -tileBounds[2]);
+                int dstCol = Math.max(0, tileBounds[2]);
+                int length = Math.min(tileBounds[3], cols) - dstCol;
+                if (first >= last || length <= 0) {
+                    continue;
+                }
+                Tile tile = tiles[t];
+                // a tile is read by one block at the time
+                synchronized (tile) {
+                    tile.readRows(first - tileBounds[0], tileRows, last - first);
+                    if (--blocksLeft[t] == 0) {
+                        tile.close();
+                    }
+                }
+                for( int r = first; r < last; r++ ) {
+                    copySpan(tileRows[r - first], srcCol, values[r - firstRow], counts == null
+                            ? null
+                            : counts[r - firstRow], dstCol, length);
+                }
+            }
+            if (counts != null) {
+                for( int i = 0; i < count; i++ ) {
+                    double[] row = values[i];
+                    int[] countRow = counts[i];
+                    for( int c = 0; c < cols; c++ ) {
+                        if (countRow[c] > 1) {
+                            row[c] = row[c] / countRow[c];
+                        }
+                    }
+                }
+            }
+        }
+
+        private void write( Sink sink, IProgressMonitorJGrass monitor ) throws IOException {
+            for( int i = 0; i < count; i++ ) {
+                sink.writeRow(values[i]);
+            }
+            monitor.worked(count);
+        }
+    }
+
+    private void copySpan( double[] src, int srcPos, double[] dst, int[] count, int dstPos,
+            int length ) {
+        switch( overlap ) {
+        case OVERLAP_FIRST:
+            for( int k = 0; k < length; k++ ) {
+                double value = src[srcPos + k];
+                if (!JGrassConstants.isNovalue(value)
+                        && JGrassConstants.isNovalue(dst[dstPos + k])) {
+                    dst[dstPos + k] = value;
+                }
+            }
+            break;
+        case OVERLAP_LAST:
+            for( int k = 0; k < length; k++ ) {
+                double value = src[srcPos + k];
+                if (!JGrassConstants.isNovalue(value)) {
+                    dst[dstPos + k] = value;
+                }
+            }
+            break;
+        default:
+            for( int k = 0; k < length; k++ ) {
+                double value = src[srcPos + k];
+                if (JGrassConstants.isNovalue(value)) {
+                    continue;
+                }
+                if (count[dstPos + k] == 0) {
+                    dst[dstPos + k] = value;
+                } else {
+                    dst[dstPos + k] = dst[dstPos + k] + value;
+                }
+                count[dstPos + k]++;
+            }
+            break;
+        }
+    }
+
+    /**
+     * @return the first and last (exclusive) row and the first and last (exclusive) column of the
+     *         region in the mosaic, which can be outside of it.
+     */
+    private int[] cellBounds( JGrassRegion tileRegion ) {
+        double weres = region.getWEResolution();
+        double nsres = region.getNSResolution();
+        int firstRow = (int) Math.round((region.getNorth() - tileRegion.getNorth()) / nsres);
+        int firstCol = (int) Math.round((tileRegion.getWest() - region.getWest()) / weres);
+        return new int[]{firstRow, firstRow + tileRegion.getRows(), firstCol,
+                firstCol + tileRegion.getCols()};
+    }
+
+    private static int floor( double cells ) {
+        return (int) Math.floor(cells + EPSILON);
+    }
+
+    private static int ceil( double cells ) {
+        return (int) Math.ceil(cells - EPSILON);
+    }
+
+}
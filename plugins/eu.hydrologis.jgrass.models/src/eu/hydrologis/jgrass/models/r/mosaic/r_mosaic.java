@@ -17,39 +17,24 @@
  */
 package eu.hydrologis.jgrass.models.r.mosaic;
 
-import java.awt.image.RenderedImage;
-import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import net.refractions.udig.catalog.IGeoResource;
 import net.refractions.udig.project.IMap;
 import net.refractions.udig.project.ui.ApplicationGIS;
 
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridEnvelope2D;
-import org.geotools.coverage.grid.GridGeometry2D;
-import org.geotools.coverage.grid.ViewType;
-import org.geotools.geometry.Envelope2D;
-import org.geotools.referencing.CRS;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.datum.PixelInCell;
-import org.opengis.referencing.operation.MathTransform;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
-import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
-import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageWriter;
-import eu.hydrologis.jgrass.libs.iodrivers.geotools.JGrassGridCoverage2D;
-import eu.hydrologis.jgrass.libs.iodrivers.geotools.JGrassGridCoverage2D.WritableGridCoverageBuilder;
+import eu.hydrologis.jgrass.libs.io.RasterWritingFailureException;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapWriter;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
@@ -63,20 +48,34 @@ import eu.udig.catalog.jgrass.core.JGrassMapGeoResource;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
 /**
+ * Patches a set of raster maps of the mapset into a new map.
+ * 
+ * <p>
+ * The new map has the resolution of the first map and covers all the maps. The maps are streamed
+ * into it by blocks of rows, see {@link RasterMosaic}. Where maps overlap, the <b>overlap</b>
+ * parameter decides which value is kept: <b>first</b>, <b>last</b> (default) or <b>mean</b>.
+ * Non overlapping maps are patched in parallel, and the rows of the maps decompressed and
+ * compressed, on the number of <b>threads</b> given (default 1).
+ * </p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  * @author Silvia Franceschi (www.hydrologis.com)
  */
 public class r_mosaic extends OneInOneOutModelsBackbone {
 
+    private static final String OVERLAP = "overlap"; //$NON-NLS-1$
+    private static final String THREADS = "threads"; //$NON-NLS-1$
+
     private String input = null;
     private String output = null;;
 
     private final static String modelParameters = "...Usage";
     private String cellFolderPath;
-    private CoordinateReferenceSystem crs;
-    private JGrassRegion activeRegion;
+    private String cellhdFolderPath;
     private String locationPath;
     private String mapset;
+    private int overlap = RasterMosaic.OVERLAP_LAST;
+    private int threads = 1;
 
     public r_mosaic() {
         super();
@@ -113,15 +112,33 @@ public class r_mosaic extends OneInOneOutModelsBackbone {
                 if (key.equals("input")) {
                     input = argument.getValue();
                 }
+                if (key.equals(OVERLAP)) {
+                    String value = argument.getValue().trim();
+                    if (value.equals("first")) { //$NON-NLS-1$
+                        overlap = RasterMosaic.OVERLAP_FIRST;
+                    } else if (value.equals("last")) { //$NON-NLS-1$
+                        overlap = RasterMosaic.OVERLAP_LAST;
+                    } else if (value.equals("mean")) { //$NON-NLS-1$
+                        overlap = RasterMosaic.OVERLAP_MEAN;
+                    } else {
+                        throw new ModelsIllegalargumentException(
+                                "The overlap parameter has to be one of first, last or mean.", this);
+                    }
+                }
+                if (key.equals(THREADS)) {
+                    try {
+                        threads = Math.max(1, Integer.parseInt(argument.getValue().trim()));
+                    } catch (NumberFormatException e) {
+                        throw new ModelsIllegalargumentException(
+                                "The threads parameter has to be an integer number.", this);
+                    }
+                }
             }
         }
 
         locationPath = grassDb + File.separator + location;
         cellFolderPath = locationPath + File.separator + mapset + File.separator + JGrassConstants.CELL;
-        crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
-
-        String activeRegionPath = locationPath + File.separator + mapset + File.separator + JGrassConstants.WIND;
-        activeRegion = new JGrassRegion(activeRegionPath);
+        cellhdFolderPath = locationPath + File.separator + mapset + File.separator + JGrassConstants.CELLHD;
 
         if (output == null || input == null) {
             throw new ModelsIllegalargumentException("The input and output parameters are mandatory. Check your syntax.", this);
@@ -136,133 +153,63 @@ public class r_mosaic extends OneInOneOutModelsBackbone {
         PrintStreamProgressMonitor monitor = new PrintStreamProgressMonitor(out);
         String[] mapsSplit = input.split(","); //$NON-NLS-1$
         File cellFolderFile = new File(cellFolderPath);
-        GridGeometry2D referenceGridGeometry = null;
 
-        double n = Double.MIN_VALUE;
-        double s = Double.MAX_VALUE;
-        double e = Double.MIN_VALUE;
-        double w = Double.MAX_VALUE;
-        int np = Integer.MIN_VALUE;
-        int sp = Integer.MAX_VALUE;
-        int ep = Integer.MIN_VALUE;
-        int wp = Integer.MAX_VALUE;
-
-        List<GridCoverage2D> coveragesList = new ArrayList<GridCoverage2D>();
+        /*
+         * the extent of the mosaic is known from the headers, no map data are read here
+         */
+        List<String> mapPaths = new ArrayList<String>();
+        List<JGrassRegion> mapRegions = new ArrayList<JGrassRegion>();
         for( String mapName : mapsSplit ) {
             mapName = mapName.trim();
             File mapFile = new File(cellFolderFile, mapName);
             if (mapFile.exists()) {
-                GrassCoverageReader coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER, null, true, false, monitor);
-                coverageReader.setInput(mapFile);
-                GridCoverage2D coverage = coverageReader.read(null);
-                coverage = coverage.view(ViewType.GEOPHYSICS);
-
-                CoordinateReferenceSystem tmpCrs = coverage.getCoordinateReferenceSystem();
-                MathTransform transform = CRS.findMathTransform(crs, tmpCrs);
-                if (!transform.isIdentity()) {
-                    err.println("Ignoring map of different coordinate system: " + mapName);
-                    continue;
-                }
-
-                if (referenceGridGeometry == null) {
-                    // take the first as reference
-                    referenceGridGeometry = coverage.getGridGeometry();
-                }
-
-                Envelope2D worldEnv = coverage.getEnvelope2D();
-                GridEnvelope2D pixelEnv = referenceGridGeometry.worldToGrid(worldEnv);
-
-                int minPX = (int) pixelEnv.getMinX();
-                int minPY = (int) pixelEnv.getMinY();
-                int maxPX = (int) pixelEnv.getMaxX();
-                int maxPY = (int) pixelEnv.getMaxY();
-                if (minPX < wp)
-                    wp = minPX;
-                if (minPY < sp)
-                    sp = minPY;
-                if (maxPX > ep)
-                    ep = maxPX;
-                if (maxPY > np)
-                    np = maxPY;
-
-                double minWX = worldEnv.getMinX();
-                double minWY = worldEnv.getMinY();
-                double maxWX = worldEnv.getMaxX();
-                double maxWY = worldEnv.getMaxY();
-                if (minWX < w)
-                    w = minWX;
-                if (minWY < s)
-                    s = minWY;
-                if (maxWX > e)
-                    e = maxWX;
-                if (maxWY > n)
-                    n = maxWY;
-
-                coveragesList.add(coverage);
+                mapPaths.add(mapFile.getAbsolutePath());
+                mapRegions.add(new JGrassRegion(cellhdFolderPath + File.separator + mapName));
             } else {
                 err.println("Ignoring non existing map: " + mapName);
             }
         }
+        if (mapRegions.size() == 0) {
+            throw new ModelsIllegalargumentException("None of the input maps exists.", this);
+        }
 
-        int endWidth = ep - wp;
-        int endHeight = np - sp;
-        WritableRaster outRaster = FluidUtils.createDoubleWritableRaster(endWidth, endHeight, null, null,
-                JGrassConstants.doubleNovalue);
-        WritableRandomIter outIter = RandomIterFactory.createWritable(outRaster, null);
-
-        int offestX = Math.abs(wp);
-        int offestY = Math.abs(sp);
-        int index = 1;
-        for( GridCoverage2D coverage : coveragesList ) {
-            RenderedImage renderedImage = coverage.getRenderedImage();
-            RandomIter randomIter = RandomIterFactory.create(renderedImage, null);
-
-            Envelope2D env = coverage.getEnvelope2D();
-
-            GridEnvelope2D repEnv = referenceGridGeometry.worldToGrid(env);
-
-            GridGeometry2D tmpGG = coverage.getGridGeometry();
-            GridEnvelope2D tmpEnv = tmpGG.worldToGrid(env);
-
-            int startX = (int) (repEnv.getMinX() + offestX);
-            int startY = (int) (repEnv.getMinY() + offestY);
-
-            System.out.println();
+        JGrassRegion writeRegion = RasterMosaic.mosaicRegion(mapRegions);
+        RasterMosaic rasterMosaic = new RasterMosaic(writeRegion, overlap);
+        rasterMosaic.setThreads(threads);
+        List<RasterMosaic.Tile> tiles = new ArrayList<RasterMosaic.Tile>();
+        for( int i = 0; i < mapPaths.size(); i++ ) {
+            tiles.add(new GrassMapTile(rasterMosaic.snap(mapRegions.get(i)), mapPaths.get(i),
+                    threads));
+        }
 
-            double tmpW = tmpEnv.getWidth();
-            monitor.beginTask("Patch map " + index++, (int) tmpW); //$NON-NLS-1$
-            for( int x = 0; x < tmpW; x++ ) {
-                for( int y = 0; y < tmpEnv.getHeight(); y++ ) {
-                    double value = randomIter.getSampleDouble(x, y, 0);
-                    outIter.setSample(x + startX, y + startY, 0, value);
+        /*
+         * the rows of the mosaic are written as soon as they are patched
+         */
+        out.println("Writing map: " + output); //$NON-NLS-1$
+        final JGrassRasterMapWriter writer = new JGrassRasterMapWriter(writeRegion, output, mapset,
+                locationPath, monitor);
+        writer.setThreads(threads);
+        if (!writer.open()) {
+            throw new IOException("Could not open the output map: " + output);
+        }
+        try {
+            writer.startRows();
+            rasterMosaic.mosaic(tiles, new RasterMosaic.Sink(){
+                public void writeRow( double[] row ) throws IOException {
+                    try {
+                        writer.writeRow(row);
+                    } catch (RasterWritingFailureException e) {
+                        throw new IOException(e.getLocalizedMessage());
+                    }
                 }
-                monitor.worked(1);
+            }, monitor);
+            if (!writer.finishRows()) {
+                throw new IOException("An error occurred while writing the map: " + output);
             }
-            monitor.done();
-
-            randomIter.done();
+        } finally {
+            writer.close();
         }
 
-        JGrassRegion writeRegion = new JGrassRegion(w, e, s, n, activeRegion.getWEResolution(), activeRegion.getNSResolution());
-        WritableGridCoverageBuilder gridCoverageBuilder = new JGrassGridCoverage2D.WritableGridCoverageBuilder(outRaster);
-        JGrassGridCoverage2D jgrassGridCoverage2D = gridCoverageBuilder.writeRegion(writeRegion).crs(crs).dataRange(
-                new double[]{0.0, 4000.0}).build();
-        GridCoverage2D gridCoverage2D = jgrassGridCoverage2D.getGridCoverage2D();
-
-        String rasterMapPath = cellFolderPath + File.separator + output;
-        File file = new File(rasterMapPath);
-        GrassCoverageWriter writer = new GrassCoverageWriter(file, monitor);
-        writer.write(gridCoverage2D);
-
-        //        out.println("Writing map: " + output); //$NON-NLS-1$
-        // GrassBinaryImageWriterSpi writerSpi = new GrassBinaryImageWriterSpi();
-        // GrassBinaryImageWriter writer = (GrassBinaryImageWriter)
-        // writerSpi.createWriterInstance();
-        // RenderedImage renderedImage =
-        // gridCoverage2D.view(ViewType.GEOPHYSICS).getRenderedImage();
-        // writer.setOutput(file);
-        // writer.write(renderedImage);
-
         if (JGrassPlugin.getDefault() != null) {
             JGrassMapGeoResource addedMap = JGrassCatalogUtilities.addMapToCatalog(locationPath, mapset, output,
                     JGrassConstants.GRASSBINARYRASTERMAP);
@@ -278,4 +225,43 @@ public class r_mosaic extends OneInOneOutModelsBackbone {
 
         return cutRasterValueSet;
     }
+
+    /**
+     * A map of the mapset, read on its region snapped to the grid of the mosaic. The map is opened
+     * at the first read, so that only the maps that are being patched keep their files open.
+     */
+    private static class GrassMapTile implements RasterMosaic.Tile {
+        private final JGrassRegion region;
+        private final String mapPath;
+        private final int threads;
+        private JGrassRasterMapReader reader;
+
+        public GrassMapTile( JGrassRegion region, String mapPath, int threads ) {
+            this.region = region;
+            this.mapPath = mapPath;
+            this.threads = threads;
+        }
+
+        public JGrassRegion getRegion() {
+            return region;
+        }
+
+        public void readRows( int firstRow, double[][] rows, int count ) throws IOException {
+            if (reader == null) {
+                reader = new JGrassRasterMapReader.BuilderFromMapPath(region, mapPath).maptype(
+                        JGrassConstants.GRASSBINARYRASTERMAP).threads(threads).build();
+                if (!reader.open()) {
+                    throw new IOException("Could not open the map: " + mapPath);
+                }
+            }
+            reader.getReader().readRows(firstRow, rows, 0, count);
+        }
+
+        public void close() {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
 }
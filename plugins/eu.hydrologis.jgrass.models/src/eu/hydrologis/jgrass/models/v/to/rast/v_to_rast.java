@@ -22,11 +22,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.MessageFormat;
+import java.util.Arrays;
 
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureIterator;
@@ -51,6 +51,7 @@ import com.vividsolutions.jts.geom.LineSegment;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
@@ -204,7 +205,10 @@ public class v_to_rast extends ModelsBackbone {
             } else if (type.matches(".*[Ll][Ii][Nn][Ee].*")) {
                 rasterizeLine(newCollection, outIter);
             } else if (type.matches(".*[Pp][Oo][Ll][Yy][Gg][Oo][Nn].*")) {
-                rasterizepolygon(newCollection, outIter);
+                double[] outBuffer = new double[cols * rows];
+                Arrays.fill(outBuffer, JGrassConstants.doubleNovalue);
+                rasterizepolygon(newCollection, outBuffer);
+                outRaster.setSamples(0, 0, cols, rows, 0, outBuffer);
             } else {
                 throw new ModelsIllegalargumentException("Couldn't recognize the geometry type of the file.", this);
             }
@@ -302,8 +306,9 @@ public class v_to_rast extends ModelsBackbone {
         featureCollection.close(featureIterator);
     }
 
-    private void rasterizepolygon( FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection, WritableRandomIter outIter ) throws IOException {
+    private void rasterizepolygon( FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection, double[] outBuffer ) throws IOException {
         int num = featureCollection.size();
+        PolygonRasterizer rasterizer = new PolygonRasterizer(activeRegion);
         Envelope envelope = activeRegion.getEnvelope();
         FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
         int index = 1;
@@ -331,7 +336,7 @@ public class v_to_rast extends ModelsBackbone {
             } catch (NumberFormatException e) {
                 throw new IOException("A problem occurred while choosing the value with which to fill in the raster.");
             }
-            JGrassUtilities.rasterizePolygonGeometry(activeRegion, geometry, outIter, null, fillValue, new NullProgressMonitor());
+            rasterizer.fill(geometry, outBuffer, fillValue);
         }
         featureCollection.close(featureIterator);
     }
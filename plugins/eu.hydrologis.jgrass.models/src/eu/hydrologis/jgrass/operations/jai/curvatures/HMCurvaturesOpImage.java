@@ -18,7 +18,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 /**
@@ -88,6 +88,14 @@ public class HMCurvaturesOpImage extends JGrassAreaOpImage {
         curvatures(source.getData(), dest, region);
     }
 
+    /*
+     * every cell needs only its neighbours, which are in the padding
+     */
+    @Override
+    protected boolean isBlockSafe() {
+        return true;
+    }
+
     @Override
     protected void computeRect( Raster[] sources, WritableRaster dest, Rectangle destRect ) {
         curvatures(sources[0], dest, destRect);
@@ -125,7 +133,7 @@ public class HMCurvaturesOpImage extends JGrassAreaOpImage {
 
         /*------------------------------------first derivative ----------------------------------------------*/
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = getTileMonitor();
         pm.beginTask("Calculating first derivates...", maxNCols - xOrigin);
         // calculate the firs order derivative
         for( int x = xOrigin; x < maxNCols; x++ ) {
@@ -31,7 +31,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.messages.Messages;
 import  static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
@@ -96,6 +96,14 @@ public class HMGradientOperation extends JGrassAreaOpImage {
 
     }
 
+    /*
+     * every cell needs only its neighbours, which are in the padding
+     */
+    @Override
+    protected boolean isBlockSafe() {
+        return true;
+    }
+
     protected void computeRect( Raster[] sources, WritableRaster dest, Rectangle destRect ) {
         gradient(sources[0], dest, destRect);
 
@@ -121,7 +129,7 @@ public class HMGradientOperation extends JGrassAreaOpImage {
         int maxNRows = yOrigin + nrows;
         int maxNCols = xOrigin + ncols;
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = getTileMonitor();
         pm.beginTask(MessageHelper.WORKING_ON + "h.gradients...", maxNRows - yOrigin);
         for( int y = yOrigin; y < maxNRows; y++ ) {
             for( int x = xOrigin; x < maxNCols; x++ ) {
@@ -15,7 +15,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 
@@ -67,6 +67,14 @@ public class HMSlopeOpImage extends JGrassAreaOpImage {
         slope(sources[0].getData(), dest, region);
     }
 
+    /*
+     * every cell needs only its neighbours, which are in the padding
+     */
+    @Override
+    protected boolean isBlockSafe() {
+        return true;
+    }
+
     @Override
     protected void computeRect( Raster[] sources, WritableRaster dest, Rectangle destRect ) {
         slope(sources[0], dest, destRect);
@@ -104,7 +112,7 @@ public class HMSlopeOpImage extends JGrassAreaOpImage {
         int maxNRows = xOrigin + destRect.width;
         int maxNCols = yOrigin + destRect.height;
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = getTileMonitor();
         pm.beginTask(MessageHelper.WORKING_ON + "h.slope...", maxNRows - xOrigin);
         for( int i = xOrigin; i < maxNRows; i++ ) {
             for( int j = yOrigin; j < maxNCols; j++ ) {
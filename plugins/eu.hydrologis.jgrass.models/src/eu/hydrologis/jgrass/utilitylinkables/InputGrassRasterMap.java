@@ -36,6 +36,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassElementset;
 import eu.hydrologis.openmi.JGrassRasterValueSet;
@@ -54,6 +55,10 @@ import eu.hydrologis.openmi.JGrassRasterValueSet;
  * </ul>
  * </p>
  * <p>
+ * The rows of the binary maps are decompressed, and the values of the ascii maps parsed, on the
+ * number of <b>threads</b> given (default 1).
+ * </p>
+ * <p>
  * <b>NOTE: this object gives the possibility to have more output exchange items, but internally
  * always the same data is returned.</b>
  * </p>
@@ -80,6 +85,8 @@ public class InputGrassRasterMap extends ModelsBackbone {
 
     private String mapType = JGrassConstants.GRASSBINARYRASTERMAP;
 
+    private int threads = 1;
+
     public InputGrassRasterMap() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -156,6 +163,17 @@ public class InputGrassRasterMap extends ModelsBackbone {
             if (key.compareTo("mapset") == 0) {
                 mapset = argument.getValue();
             }
+            if (key.equals("threads")) {
+                try {
+                    threads = Integer.parseInt(argument.getValue().trim());
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    throw new ModelsIllegalargumentException(
+                            "The threads parameter has to be a positive integer.", this);
+                }
+            }
 
         }
 
@@ -201,7 +219,7 @@ public class InputGrassRasterMap extends ModelsBackbone {
              */
             jgrassMapReader = new JGrassRasterMapReader.BuilderFromPathAndNames(requestedWindow,
                     rasterMapName, mapset, locationPath).maptype(mapType).monitor(
-                    new PrintStreamProgressMonitor(out)).build();
+                    new PrintStreamProgressMonitor(out)).threads(threads).build();
             if (!jgrassMapReader.open()) {
                 err.println("An error occurred while reading the map: " + rasterMapName);
                 return null;
@@ -24,7 +24,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import nl.alterra.openmi.sdk.backbone.LinkableComponent;
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
@@ -45,14 +45,14 @@ import eu.hydrologis.libs.utils.FluidUtils;
  * <p>
  * This component is time aware, as instead its brother
  * {@link InputScalarReader} is. This means that the data in the file 
- * are read in a block, but passed line by line as {@link ScalarSet} for
+ * are read in a block, but passed line by line as {@link DoubleScalarSet} for
  * every timestep.
  * </p>
  * 
  * <p>NOTES: 
  * <ul>
  * <li>the scalar values are supposed to be whitespace separated</li>
- * <li>the first value of the resulting {@link ScalarSet} is the number of 
+ * <li>the first value of the resulting {@link DoubleScalarSet} is the number of 
  * columns found in the file, which is useful for formatting or data
  * matrix creation in the following modules. In this case that value is 
  * also the number of the data passed</li> 
@@ -115,23 +115,20 @@ public class InputScalarTimeReader extends ModelsBackbone {
     }
 
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
-        ScalarSet valueSet = new ScalarSet();
         if (time == null) {
             throw new ModelsIllegalargumentException("This reader is supposed to work with time. "
                     + "Maybe you want to use --iscalar instead of --itscalar?", this);
         }
 
         // if time is in the game, read the whole of it but pass one line per timestep
-        boolean isFirst = true;
+        DoubleScalarSet valueSet;
         String line;
         if ((line = fileReader.readLine()) != null) {
             String[] splitLine = line.split("\\s+"); //$NON-NLS-1$
-            if (isFirst) {
-                valueSet.add((double) splitLine.length);
-                isFirst = false;
-            }
+            valueSet = new DoubleScalarSet(splitLine.length + 1);
+            valueSet.add((double) splitLine.length);
             for( String numStr : splitLine ) {
-                valueSet.add(new Double(numStr));
+                valueSet.add(Double.parseDouble(numStr));
             }
         } else {
             throw new ModelsIOException("No more data available in the given file.", this);
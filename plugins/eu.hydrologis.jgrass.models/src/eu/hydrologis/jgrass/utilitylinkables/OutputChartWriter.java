@@ -24,7 +24,6 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridLayout;
@@ -196,10 +195,10 @@ public class OutputChartWriter extends ModelsBackbone {
          */
         IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
 
-        if (valueSet instanceof ScalarSet && time == null && !chartType.equals(DISCHARGERAIN)) {
+        if (valueSet instanceof IScalarSet && time == null && !chartType.equals(DISCHARGERAIN)) {
             // NO TIME DEPENDENCY
-            ScalarSet values = (ScalarSet) valueSet;
-            int columns = values.get(0).intValue();
+            IScalarSet values = (IScalarSet) valueSet;
+            int columns = (int) values.getScalar(0);
             int rows = (values.getCount() - 1) / columns;
 
             /*
@@ -325,10 +324,10 @@ public class OutputChartWriter extends ModelsBackbone {
                 }
             });
 
-        } else if (valueSet instanceof ScalarSet && time != null
+        } else if (valueSet instanceof IScalarSet && time != null
                 && !chartType.equals(DISCHARGERAIN)) {
             // chart is timedependent but not a rainchart
-            ScalarSet values = (ScalarSet) valueSet;
+            IScalarSet values = (IScalarSet) valueSet;
             Date date = (Date) time;
 
             if (creator == null) {
@@ -356,7 +355,7 @@ public class OutputChartWriter extends ModelsBackbone {
                 // y label
                 tab.chartYLabels.add(yTitle);
 
-                int columns = values.get(0).intValue();
+                int columns = (int) values.getScalar(0);
                 int seriesNum = columns;
                 int sIndex = 0;
                 // if not all series names were supplied, add some default name
@@ -469,9 +468,10 @@ public class OutputChartWriter extends ModelsBackbone {
                     }
                 });
             }
-        } else if (valueSet instanceof ScalarSet && time != null && chartType.equals(DISCHARGERAIN)) {
+        } else if (valueSet instanceof IScalarSet && time != null
+                && chartType.equals(DISCHARGERAIN)) {
 
-            ScalarSet values = (ScalarSet) valueSet;
+            IScalarSet values = (IScalarSet) valueSet;
             Date date = (Date) time;
             if (creator == null) {
 
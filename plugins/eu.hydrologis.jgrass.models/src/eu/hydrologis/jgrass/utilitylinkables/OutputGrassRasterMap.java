@@ -46,6 +46,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassRasterValueSet;
 import eu.udig.catalog.jgrass.JGrassPlugin;
@@ -56,6 +57,9 @@ import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
  * <p>
  * A linkable data object that is able to take raster data and write them to disk
  * </p>
+ * <p>
+ * The rows of the map are compressed on the number of <b>threads</b> given (default 1).
+ * </p>
  * 
  * @author moovida
  */
@@ -75,6 +79,8 @@ public class OutputGrassRasterMap extends ModelsBackbone {
 
     private String mapsetName;
 
+    private int threads = 1;
+
     public OutputGrassRasterMap() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -146,6 +152,17 @@ public class OutputGrassRasterMap extends ModelsBackbone {
             if (key.compareTo("mapset") == 0) {
                 mapset = argument.getValue();
             }
+            if (key.equals("threads")) {
+                try {
+                    threads = Integer.parseInt(argument.getValue().trim());
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    throw new ModelsIllegalargumentException(
+                            "The threads parameter has to be a positive integer.", this);
+                }
+            }
 
         }
 
@@ -190,6 +207,7 @@ public class OutputGrassRasterMap extends ModelsBackbone {
         String newMapName = rasterMapName.replaceAll("DATE", dateStr);
         JGrassRasterMapWriter jgrassMapWriter = new JGrassRasterMapWriter(activeRegion, newMapName,
                 mapsetName, locationPath, mapType, new PrintStreamProgressMonitor(out));
+        jgrassMapWriter.setThreads(threads);
         String mapName = new File(jgrassMapWriter.getFullMapPath()).getName();
         out.println("Writing map: " + mapName); //$NON-NLS-1$
         if (!jgrassMapWriter.open())
@@ -22,13 +22,13 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import nl.alterra.openmi.sdk.backbone.LinkableComponent;
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.ILinkableComponent;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -37,7 +37,7 @@ import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
 
 /**
- * A {@link LinkableComponent} that writes {@link ScalarSet}s to an output stream.
+ * A {@link LinkableComponent} that writes {@link IScalarSet}s to an output stream.
  * 
  * <p>
  * <b>Cases:</b>
@@ -110,15 +110,15 @@ public class OutputScalarWriter extends ModelsBackbone {
             }
         }
 
-        if (valueSet instanceof ScalarSet) {
-            ScalarSet sS = (ScalarSet) valueSet;
+        if (valueSet instanceof IScalarSet) {
+            IScalarSet sS = (IScalarSet) valueSet;
             if (time == null) {
                 // follow formatting due to first value
-                Double columnsNum = sS.get(0);
+                double columnsNum = sS.getScalar(0);
                 int i = 1;
                 while( i < sS.getCount() ) {
                     for( int j = 0; j < columnsNum; j++ ) {
-                        outStream.print(sS.get(i));
+                        outStream.print(sS.getScalar(i));
                         outStream.print("\t"); //$NON-NLS-1$
                         i++;
                     }
@@ -127,7 +127,7 @@ public class OutputScalarWriter extends ModelsBackbone {
             } else {
                 int i = 1;
                 while( i < sS.getCount() ) {
-                    outStream.print(sS.get(i));
+                    outStream.print(sS.getScalar(i));
                     outStream.print("\t"); //$NON-NLS-1$
                     i++;
                 }
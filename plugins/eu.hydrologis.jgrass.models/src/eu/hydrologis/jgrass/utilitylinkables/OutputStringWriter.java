@@ -21,12 +21,11 @@ import java.io.File;
 import java.io.PrintStream;
 import java.text.MessageFormat;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
-
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -99,14 +98,14 @@ public class OutputStringWriter extends ModelsBackbone {
             for( String entry : sS ) {
                 out.print(entry);
             }
-        } else if (valueSet instanceof ScalarSet) {
+        } else if (valueSet instanceof IScalarSet) {
             // scalarsets carry the first value as column number
-            ScalarSet sS = (ScalarSet) valueSet;
-            int columns = sS.get(0).intValue();
-            int size = sS.size();
+            IScalarSet sS = (IScalarSet) valueSet;
+            int columns = (int) sS.getScalar(0);
+            int size = sS.getCount();
 
             for( int i = 1; i < size; i++ ) {
-                Double v = sS.get(i);
+                double v = sS.getScalar(i);
                 out.print(v);
                 if (i % columns == 0) {
                     out.print("\n");
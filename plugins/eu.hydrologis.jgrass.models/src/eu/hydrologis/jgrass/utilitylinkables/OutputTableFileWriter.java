@@ -23,6 +23,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
 import nl.alterra.openmi.sdk.backbone.ValueSet;
 
 import org.eclipse.jface.viewers.ArrayContentProvider;
@@ -45,6 +46,7 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -128,6 +130,10 @@ public class OutputTableFileWriter extends ModelsBackbone {
          * trigger the linked model
          */
         IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        if (valueSet instanceof IScalarSet && !(valueSet instanceof ValueSet)) {
+            // scalars not kept in a list, as the DoubleScalarSet
+            valueSet = new ScalarSet((IScalarSet) valueSet);
+        }
 
         if (valueSet instanceof ValueSet) {
 
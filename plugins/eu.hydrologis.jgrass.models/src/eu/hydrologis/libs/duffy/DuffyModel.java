@@ -32,11 +32,16 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.adige.DischargeContributor;
 import eu.hydrologis.libs.adige.HillSlope;
-import eu.hydrologis.libs.adige.PfafstetterNumber;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 
 /**
@@ -51,12 +56,8 @@ import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
  */
 public class DuffyModel implements IBasicFunction {
     private Calendar myCalendar = Calendar.getInstance();
-    private double qd, qs, Q_trib, Qs_trib, K_Q;
-    private double flowdepth, hydrad, mannings_n;
     // public double pcoe;
 
-    private double satsurf, mst, qdh, qds, inf, re, qe1, qe2;
-
     private double THRESHOLD_AREA = 500000; // 0.1Km2
     /*
      * HydroloGIS addons
@@ -66,7 +67,6 @@ public class DuffyModel implements IBasicFunction {
     public static final int ROUTING_MANNING = 4;
     private static final double MSTMAX = 1;
     private int routingType = ROUTING_CHEZY;
-    private List<HillSlope> orderedHillslopes = null;
     private boolean doLog = false;
     private final PrintStream out;
 
@@ -75,9 +75,57 @@ public class DuffyModel implements IBasicFunction {
     private HashMap<Integer, DischargeDistributor> hillslopeId2DischargeDistributor;
     private final double deltaTinMinutes;
 
+    /*
+     * The network compiled into arrays, so that an evaluation doesn't have to walk the hillslope
+     * objects. The links draining into link i are upstreamIndexes[upstreamStart[i]] to
+     * upstreamIndexes[upstreamStart[i + 1] - 1].
+     */
+    private final int linksNum;
+    private final HillSlope[] hillslopes;
+    private final int[] upstreamStart;
+    private final int[] upstreamIndexes;
+    private final String[] pfafstetterNumbers;
+    private final double[] areas;
+    private final boolean[] hasVegetation;
+    private final double[] minSupDischarges;
+    private final double[] minSubDischarges;
+    private final double[] s1residuals;
+    private final double[] s2residuals;
+    private final double[] s2Params;
+    private final double[] s2maxs;
+    private final double[] kss;
+    private final double[] eTrates;
+    private final double[] mstExps;
+    private final double[] recParams;
+    /*
+     * the powers of the link properties used by the routing
+     */
+    private final double[] linkWidths;
+    private final double[] linkWidthFactors;
+    private final double[] linkLengthFactors;
+    private final double[] linkSlopeFactors;
+    private final double[] linkChezyFactors;
+
+    /*
+     * The links grouped by dependency level: the links of a level depend only on links of the
+     * previous levels, so they can be evaluated concurrently. The links of level l are
+     * levelLinks[levelStart[l]] to levelLinks[levelStart[l + 1] - 1].
+     */
+    private final int[] levelStart;
+    private final int[] levelLinks;
+    /* the minimum number of links handed to a thread */
+    private static final int LINKS_PER_TASK = 32;
+    private int threads = 1;
+    private ExecutorService executor = null;
+
     /**
      * Duffy model function.
      * 
+     * <p>
+     * The network topology and the parameters of the hillslopes are read once here, so the
+     * hillslopes have to be connected and their parameters set before the model is created.
+     * </p>
+     * 
      * @param linksList
      *            the list of all the network links, expressed through their
      *            Pfafstetter numbers
@@ -91,12 +139,174 @@ public class DuffyModel implements IBasicFunction {
      */
     public DuffyModel( List<HillSlope> orderedHillslopes, int routingType, PrintStream out,
             double deltaTinMinutes, boolean doLog ) {
-        this.orderedHillslopes = orderedHillslopes;
         this.routingType = routingType;
         this.out = out;
         this.deltaTinMinutes = deltaTinMinutes;
         this.doLog = doLog;
 
+        linksNum = orderedHillslopes.size();
+        hillslopes = orderedHillslopes.toArray(new HillSlope[linksNum]);
+        HashMap<HillSlope, Integer> hillslope2Index = new HashMap<HillSlope, Integer>();
+        for( int i = 0; i < linksNum; i++ ) {
+            hillslope2Index.put(hillslopes[i], i);
+        }
+
+        upstreamStart = new int[linksNum + 1];
+        int[] indexes = new int[linksNum];
+        int count = 0;
+        pfafstetterNumbers = new String[linksNum];
+        areas = new double[linksNum];
+        hasVegetation = new boolean[linksNum];
+        minSupDischarges = new double[linksNum];
+        minSubDischarges = new double[linksNum];
+        s1residuals = new double[linksNum];
+        s2residuals = new double[linksNum];
+        s2Params = new double[linksNum];
+        s2maxs = new double[linksNum];
+        kss = new double[linksNum];
+        eTrates = new double[linksNum];
+        mstExps = new double[linksNum];
+        recParams = new double[linksNum];
+        linkWidths = new double[linksNum];
+        linkWidthFactors = new double[linksNum];
+        linkLengthFactors = new double[linksNum];
+        linkSlopeFactors = new double[linksNum];
+        linkChezyFactors = new double[linksNum];
+
+        double chezLawExpon = -1. / 3.;
+        double chezLawCoeff = 200. / Math.pow(0.000357911, chezLawExpon);
+        for( int i = 0; i < linksNum; i++ ) {
+            HillSlope hillslope = hillslopes[i];
+            upstreamStart[i] = count;
+            List<HillSlope> upstreamHillslopes = hillslope.getConnectedUpstreamElements();
+            if (upstreamHillslopes != null) {
+                for( HillSlope upstreamHillslope : upstreamHillslopes ) {
+                    Integer index = hillslope2Index.get(upstreamHillslope);
+                    if (index == null) {
+                        throw new ModelsIllegalargumentException("The hillslope "
+                                + upstreamHillslope.getHillslopeId()
+                                + " is not part of the analyzed network.", this);
+                    }
+                    if (count == indexes.length) {
+                        int[] tmp = new int[2 * count];
+                        System.arraycopy(indexes, 0, tmp, 0, count);
+                        indexes = tmp;
+                    }
+                    indexes[count++] = index;
+                }
+            }
+
+            HillSlope.Parameters parameters = hillslope.parameters;
+            pfafstetterNumbers[i] = hillslope.getPfafstetterNumber().toString();
+            areas[i] = hillslope.getHillslopeArea();
+            hasVegetation[i] = hillslope.hasVegetation();
+            minSupDischarges[i] = parameters.getqqsupmin() * hillslope.getUpstreamArea(null) / 1E6;
+            minSubDischarges[i] = parameters.getqqsubmin() * hillslope.getUpstreamArea(null) / 1E6;
+            s1residuals[i] = parameters.getS1residual();
+            s2residuals[i] = parameters.getS2residual();
+            s2Params[i] = parameters.getS2Param();
+            s2maxs[i] = parameters.getS2max();
+            kss[i] = parameters.getKs();
+            eTrates[i] = parameters.getETrate();
+            mstExps[i] = parameters.getMstExp();
+            recParams[i] = parameters.getRecParam();
+
+            double linkWidth = hillslope.getLinkWidth(8.66, 0.6, 0.0);
+            double linkLength = hillslope.getLinkLength();
+            double linkSlope = hillslope.getLinkSlope();
+            double linkChezy = hillslope.getLinkChezi(chezLawCoeff, chezLawExpon);
+            linkWidths[i] = linkWidth;
+            linkWidthFactors[i] = Math.pow(linkWidth, -1. / 3.);
+            linkLengthFactors[i] = Math.pow(linkLength, -1);
+            linkChezyFactors[i] = Math.pow(linkChezy, 2. / 3.);
+            switch( routingType ) {
+            case ROUTING_CHEZY_NONEXPL:
+                linkSlopeFactors[i] = Math.pow(linkSlope, 2 / 9.);
+                break;
+            case ROUTING_CHEZY:
+                linkSlopeFactors[i] = Math.pow(linkSlope, 1. / 3.);
+                break;
+            case ROUTING_MANNING:
+                linkSlopeFactors[i] = Math.pow(linkSlope, 1 / 2.);
+                break;
+            }
+        }
+        upstreamStart[linksNum] = count;
+        upstreamIndexes = new int[count];
+        System.arraycopy(indexes, 0, upstreamIndexes, 0, count);
+
+        /*
+         * The sequential evaluation goes from the last link to the first. A link that reads the
+         * states of an upstream link with a higher index has to come after it, since the upstream
+         * evaluation resets the states to their minimum values. One with a lower index has to come
+         * before it, to read the states as they were.
+         */
+        int[] levels = new int[linksNum];
+        int levelsNum = 0;
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            for( int j = upstreamStart[i]; j < upstreamStart[i + 1]; j++ ) {
+                int index = upstreamIndexes[j];
+                if (index > i) {
+                    levels[i] = Math.max(levels[i], levels[index] + 1);
+                }
+            }
+            for( int j = upstreamStart[i]; j < upstreamStart[i + 1]; j++ ) {
+                int index = upstreamIndexes[j];
+                if (index < i) {
+                    levels[index] = Math.max(levels[index], levels[i] + 1);
+                }
+            }
+            levelsNum = Math.max(levelsNum, levels[i] + 1);
+        }
+        levelStart = new int[levelsNum + 1];
+        for( int i = 0; i < linksNum; i++ ) {
+            levelStart[levels[i] + 1]++;
+        }
+        for( int l = 0; l < levelsNum; l++ ) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        levelLinks = new int[linksNum];
+        int[] position = new int[levelsNum];
+        System.arraycopy(levelStart, 0, position, 0, levelsNum);
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            levelLinks[position[levels[i]]++] = i;
+        }
+    }
+
+    /**
+     * Sets the number of threads used to evaluate the links.
+     * 
+     * <p>
+     * The links of the network are evaluated level by level, from the sources to the outlet, and
+     * the links of a level are split among the threads. The results are the same of the
+     * sequential evaluation. With more than one thread {@link #dispose()} has to be called once
+     * the model is no longer used.
+     * </p>
+     * 
+     * @param threads the number of threads, 1 for the sequential evaluation.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (this.threads > 1) {
+            executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "DuffyModel worker"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the threads of the parallel evaluation.
+     */
+    public void dispose() {
+        setThreads(1);
     }
 
     /**
@@ -136,6 +346,29 @@ public class DuffyModel implements IBasicFunction {
             double[] radiationArray, double[] netshortArray, double[] temperatureArray,
             double[] humidityArray, double[] windspeedArray, double[] pressureArray,
             double[] snowWaterEquivalentArray, boolean isAtFinalSubtimestep ) {
+        double[] output = new double[input.length];
+        eval(currentTimeInMinutes, input, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, isAtFinalSubtimestep, output);
+        return output;
+    }
+
+    /**
+     * Duffy function evaluation into the given output array.
+     * 
+     * <p>
+     * The network topology and the hillslope parameters are read from the arrays compiled at
+     * construction, so the evaluation doesn't allocate.
+     * </p>
+     * 
+     * @param output the array of length input.length to fill with the derivatives.
+     * @see #eval(double, double[], double[], double[], double[], double[], double[], double[],
+     *      double[], double[], boolean)
+     */
+    public void eval( double currentTimeInMinutes, double[] input, double[] rainArray,
+            double[] radiationArray, double[] netshortArray, double[] temperatureArray,
+            double[] humidityArray, double[] windspeedArray, double[] pressureArray,
+            double[] snowWaterEquivalentArray, boolean isAtFinalSubtimestep, double[] output ) {
         // the input's length is twice the number of links... the first half
         // corresponds to links
         // discharge and the second to hillslopes storage
@@ -146,330 +379,397 @@ public class DuffyModel implements IBasicFunction {
         myCalendar.setTimeInMillis(currentTimeInMillis);
         int currentMonth = myCalendar.get(Calendar.MONTH) + 1; // jan=1, dec=12
 
-        int linksNum = orderedHillslopes.size(); // linksConectionStruct.headsArray.length;
         // double mstold = 0.0;
 
-        double[] output = new double[input.length];
-
-        for( int i = linksNum - 1; i >= 0; i-- ) {
-            // start from the last pieces
-            HillSlope currentHillslope = orderedHillslopes.get(i);
-            /*
-             * NOTE: Initial conditions are ... input[i] for link discharge
-             * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
-             * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
-             * is updated for each time step in DiffEqSolver.RKF .
-             */
-
-            double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
-
-            double area_m2 = currentHillslope.getHillslopeArea();
-            // automatically in m2 from the features
-            /*
-             * Added some check for phisic consistency of the parameters
-             */
-            if (input[i + 3 * linksNum] != input[i + 3 * linksNum]) {
-                System.out.println();
-            }
-            double minsupdischarge = currentHillslope.parameters.getqqsupmin()
-                    * currentHillslope.getUpstreamArea(null) / 1E6;
-            if (input[i] < minsupdischarge) {
-                input[i] = minsupdischarge;
-                // System.out
-                // .println(
-                // "Current superficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-            double minsubdischarge = currentHillslope.parameters.getqqsubmin()
-                    * currentHillslope.getUpstreamArea(null) / 1E6;
-            if (input[i + linksNum] < minsubdischarge) {
-                input[i + linksNum] = minsubdischarge;
-                // System.out
-                // .println(
-                // "Current subsuperficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-            if (input[i + 2 * linksNum] < currentHillslope.parameters.getS1residual()) {
-                input[i + 2 * linksNum] = currentHillslope.parameters.getS1residual();
-                // System.out
-                // .println(
-                // "Current S1 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-            if (input[i + 3 * linksNum] < currentHillslope.parameters.getS2residual()) {
-                input[i + 3 * linksNum] = currentHillslope.parameters.getS2residual();
-                // System.out
-                // .println(
-                // "Current S2 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-
-            /* HILLSLOPE FLUX CONDITIONS */
-            satsurf = currentHillslope.parameters.getS2Param() * (input[i + 3 * linksNum]); // dimless
-            // double areasat = satsurf * area_m2;
-            mst = (input[i + 2 * linksNum])
-                    / (currentHillslope.parameters.getS2max() - (input[i + 3 * linksNum])); // dimless
-            if (Double.isInfinite(mst)) {
-                mst = MSTMAX;
-            }
-
-            // if ((mst - mstold) > 0.01) {
-            // System.out.println("mst " + mst + "mstold " + mstold);
-            // mstold = mst;
-            // }
-            // Ku = hillSlopesInfo.Ks(currentHillslope)
-            // * (Math.pow(mst, hillSlopesInfo.MstExp(currentHillslope))); //
-            // mphr
-
-            /* HILLSLOPE S1-SURFACE FLUX VALUES */
-            if (prec_mphr < currentHillslope.parameters.getKs()) {
-                inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
-                qdh = 0.0; // m3phr
-            } else {
-                inf = (1.0 - satsurf) * area_m2 * currentHillslope.parameters.getKs(); // m3phr
-                qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - currentHillslope.parameters.getKs()); // m3phr
+        if (threads == 1 || isAtFinalSubtimestep) {
+            // sequential, also to keep the order of the printed fluxes
+            for( int i = linksNum - 1; i >= 0; i-- ) {
+                // start from the last pieces
+                evalLink(i, currentTimeInMinutes, currentTimeInMillis, currentMonth, input,
+                        rainArray, radiationArray, netshortArray, temperatureArray,
+                        humidityArray, windspeedArray, pressureArray, snowWaterEquivalentArray,
+                        isAtFinalSubtimestep, output);
             }
+        } else {
+            evalLevels(currentTimeInMinutes, currentTimeInMillis, currentMonth, input, rainArray,
+                    radiationArray, netshortArray, temperatureArray, humidityArray,
+                    windspeedArray, pressureArray, snowWaterEquivalentArray, output);
+        }
+        doPrint = false;
+    }
 
-            if (currentHillslope.hasVegetation()) {
-                qe1 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
-                        radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
-                        humidityArray[i], windspeedArray[i], input[i + 2 * linksNum],
-                        snowWaterEquivalentArray[i]);
-            } else {
-                if (input[i + 2 * linksNum] > currentHillslope.parameters.getS1residual()) {
-                    qe1 = currentHillslope.parameters.getETrate() * area_m2 * (1.0 - satsurf) * mst; // m3phr
-                } else {
-                    qe1 = 0.0;
+    /**
+     * Evaluates the links level by level, splitting the levels with enough links among the
+     * threads.
+     */
+    private void evalLevels( final double currentTimeInMinutes, final long currentTimeInMillis,
+            final int currentMonth, final double[] input, final double[] rainArray,
+            final double[] radiationArray, final double[] netshortArray,
+            final double[] temperatureArray, final double[] humidityArray,
+            final double[] windspeedArray, final double[] pressureArray,
+            final double[] snowWaterEquivalentArray, final double[] output ) {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threads);
+        for( int l = 0; l < levelStart.length - 1; l++ ) {
+            int first = levelStart[l];
+            int last = levelStart[l + 1];
+            int tasksNum = Math.min(threads, (last - first) / LINKS_PER_TASK);
+            if (tasksNum <= 1) {
+                for( int j = first; j < last; j++ ) {
+                    evalLink(levelLinks[j], currentTimeInMinutes, currentTimeInMillis,
+                            currentMonth, input, rainArray, radiationArray, netshortArray,
+                            temperatureArray, humidityArray, windspeedArray, pressureArray,
+                            snowWaterEquivalentArray, false, output);
                 }
+                continue;
             }
 
-            /* HILLSLOPE S1-S2 FLUX VALUE */
-            // re = 1100.0
-            // * (input[i + 2 * linksNum] / currentHillslope.parameters.getS2max())
-            // + 300.0
-            // * ((input[i + 2 * linksNum] / currentHillslope.parameters.getS2max()) + 5)
-            // * Math.pow((input[i + 3 * linksNum] / currentHillslope.parameters.getS2max()),
-            // 2.0);
-            re = currentHillslope.parameters.getKs() * area_m2 * (1.0 - satsurf)
-                    * (Math.pow(mst, currentHillslope.parameters.getMstExp())); // m3phr
-
-            /* HILLSLOPE S2-SURFACE FLUX VALUES */
-            qds = satsurf * area_m2 * prec_mphr; // m3phr
-
-            if (currentHillslope.hasVegetation()) {
-                qe2 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
-                        radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
-                        humidityArray[i], windspeedArray[i], input[i + 3 * linksNum],
-                        snowWaterEquivalentArray[i]);
-            } else {
-                qe2 = currentHillslope.parameters.getETrate() * area_m2 * satsurf; // m3phr,
+            tasks.clear();
+            for( int t = 0; t < tasksNum; t++ ) {
+                final int taskFirst = first + (int) ((long) (last - first) * t / tasksNum);
+                final int taskLast = first + (int) ((long) (last - first) * (t + 1) / tasksNum);
+                tasks.add(new Callable<Object>(){
+                    public Object call() throws Exception {
+                        for( int j = taskFirst; j < taskLast; j++ ) {
+                            evalLink(levelLinks[j], currentTimeInMinutes, currentTimeInMillis,
+                                    currentMonth, input, rainArray, radiationArray,
+                                    netshortArray, temperatureArray, humidityArray,
+                                    windspeedArray, pressureArray, snowWaterEquivalentArray,
+                                    false, output);
+                        }
+                        return null;
+                    }
+                });
             }
-
-            qs = currentHillslope.parameters.getRecParam() * (input[i + 3 * linksNum]); // m3phr
-
-            /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
-            // System.out.println("qdh = " + qdh);
-            // System.out.println("qds = " + qds);
-            qd = qdh + qds; // m3phr
-
-            if (qs != qs || qd != qd) {
-                if (qs != qs) {
-                    throw new ModelsIllegalargumentException(
-                            "Subsuperficial discharge for the hillslope "
-                                    + currentHillslope.getHillslopeId() + " " + i + " is NaN", this);
-                } else {
-                    throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
-                            + "Superficial discharge for the hillslope "
-                            + currentHillslope.getHillslopeId() + " " + i + " is NaN"
-                            + "\nValue of qdh " + qdh + "\nValue of qds " + qds
-                            + "\nPrecipitation " + prec_mphr + "\nSatsurf " + satsurf, this); //$NON-NLS-1$ //$NON-NLS-2$
+            try {
+                List<Future<Object>> results = executor.invokeAll(tasks);
+                for( Future<Object> result : results ) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                throw new ModelsIllegalargumentException(
+                        "Interrupted while evaluating the duffy model.", this);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
                 }
+                throw new ModelsIllegalargumentException(cause.getLocalizedMessage(), this);
             }
+        }
+    }
 
-            if (isAtFinalSubtimestep) {
-                System.out
-                        .println("timeinmin = " + currentTimeInMinutes + "\tbacino: " + i
-                                + "\tqdh = " + qdh + "\tqds = " + qds + "\tre = " + re + "\tqs = "
-                                + qs + "\tmst = " + mst + "\tinf = " + inf + "\tqe1 = " + qe1
-                                + "\tqe2 = " + qe2);
-            }
-            /*
-             * if the area is > 0.1 km2, we consider the delay effect
-             * of the hillslope.
-             */
-            if (area_m2 > THRESHOLD_AREA) {
-                // distribute the discharge
-                int hillslopeId = currentHillslope.getHillslopeId();
-                DischargeDistributor dischargeDistributor = hillslopeId2DischargeDistributor
-                        .get(hillslopeId);
-                qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf,
-                        currentTimeInMillis);
-                qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf,
-                        currentTimeInMillis);
-            }
+    /**
+     * Evaluates the derivatives of a single link.
+     * 
+     * <p>
+     * Only the states of the link itself are modified and only the states of the link and of its
+     * upstream links are read, so links that don't depend on each other can be evaluated
+     * concurrently.
+     * </p>
+     */
+    private void evalLink( int i, double currentTimeInMinutes, long currentTimeInMillis,
+            int currentMonth, double[] input, double[] rainArray, double[] radiationArray,
+            double[] netshortArray, double[] temperatureArray, double[] humidityArray,
+            double[] windspeedArray, double[] pressureArray, double[] snowWaterEquivalentArray,
+            boolean isAtFinalSubtimestep, double[] output ) {
+        double qd, qs, Q_trib, Qs_trib, K_Q = 0.0;
+        double flowdepth, hydrad, mannings_n;
+        double satsurf, mst, qdh, qds, inf, re, qe1, qe2;
+
+        HillSlope currentHillslope = hillslopes[i];
+        /*
+         * NOTE: Initial conditions are ... input[i] for link discharge
+         * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
+         * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
+         * is updated for each time step in DiffEqSolver.RKF .
+         */
+
+        double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
+
+        double area_m2 = areas[i];
+        // automatically in m2 from the features
+        /*
+         * Added some check for phisic consistency of the parameters
+         */
+        if (input[i + 3 * linksNum] != input[i + 3 * linksNum]) {
+            System.out.println();
+        }
+        double minsupdischarge = minSupDischarges[i];
+        if (input[i] < minsupdischarge) {
+            input[i] = minsupdischarge;
+            // System.out
+            // .println(
+            // "Current superficial discharge is less than the minimum value, setted to it for the basin "
+            // + currentHillslope.getHillslopeId());
+        }
+        double minsubdischarge = minSubDischarges[i];
+        if (input[i + linksNum] < minsubdischarge) {
+            input[i + linksNum] = minsubdischarge;
+            // System.out
+            // .println(
+            // "Current subsuperficial discharge is less than the minimum value, setted to it for the basin "
+            // + currentHillslope.getHillslopeId());
+        }
+        if (input[i + 2 * linksNum] < s1residuals[i]) {
+            input[i + 2 * linksNum] = s1residuals[i];
+            // System.out
+            // .println(
+            // "Current S1 parameter is less than the minimum value, setted to it for the basin "
+            // + currentHillslope.getHillslopeId());
+        }
+        if (input[i + 3 * linksNum] < s2residuals[i]) {
+            input[i + 3 * linksNum] = s2residuals[i];
+            // System.out
+            // .println(
+            // "Current S2 parameter is less than the minimum value, setted to it for the basin "
+            // + currentHillslope.getHillslopeId());
+        }
 
-            /* LINK FLUX ( Q ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            /* LINK FLUX ( Q SUBSURFACE, BASE FLOW ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            Q_trib = 0.0D;
-            Qs_trib = 0.0D;
-
-            List<HillSlope> connectedUpstreamHillSlopes = currentHillslope
-                    .getConnectedUpstreamElements();
-
-            if (connectedUpstreamHillSlopes != null) {
-                for( HillSlope hillSlope : connectedUpstreamHillSlopes ) {
-                    PfafstetterNumber pNum = hillSlope.getPfafstetterNumber();
-                    int index = orderedHillslopes.indexOf(hillSlope);
-                    boolean doCalculate = true;
-                    for( DischargeContributor dContributor : dischargeContributorList ) {
-                        Double contributedDischarge = dContributor.getDischarge(pNum.toString(),
-                                input[index]);
-                        if (!isNovalue(contributedDischarge)) {
-                            if (doLog && doPrint) {
-                                out.println("----> For hillslope "
-                                        + currentHillslope.getPfafstetterNumber()
-                                        + " using hydrometer/dams data in pfafstetter: "
-                                        + pNum.toString() + "(meaning added "
-                                        + contributedDischarge + " instead of " + input[index]
-                                        + ")");
-                            }
-                            double dischargeRatio = 0.3;// input[index] / (input[index] +
-                            // input[index + linksNum]);
-                            Q_trib = dischargeRatio * contributedDischarge; // units m^3/s
-                            Qs_trib = contributedDischarge - Q_trib; // units m^3/s
-                            doCalculate = false;
-                        }
-                    }
-                    if (doCalculate) {
-                        // at the same position we can query the input array
-                        Q_trib += input[index]; // units m^3/s
-                        Qs_trib += input[index + linksNum]; // units m^3/s
-                    }
-                }
+        /* HILLSLOPE FLUX CONDITIONS */
+        satsurf = s2Params[i] * (input[i + 3 * linksNum]); // dimless
+        // double areasat = satsurf * area_m2;
+        mst = (input[i + 2 * linksNum])
+                / (s2maxs[i] - (input[i + 3 * linksNum])); // dimless
+        if (Double.isInfinite(mst)) {
+            mst = MSTMAX;
+        }
 
-            }
+        // if ((mst - mstold) > 0.01) {
+        // System.out.println("mst " + mst + "mstold " + mstold);
+        // mstold = mst;
+        // }
+        // Ku = hillSlopesInfo.Ks(currentHillslope)
+        // * (Math.pow(mst, hillSlopesInfo.MstExp(currentHillslope))); //
+        // mphr
+
+        /* HILLSLOPE S1-SURFACE FLUX VALUES */
+        if (prec_mphr < kss[i]) {
+            inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
+            qdh = 0.0; // m3phr
+        } else {
+            inf = (1.0 - satsurf) * area_m2 * kss[i]; // m3phr
+            qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - kss[i]); // m3phr
+        }
 
-            double linkWidth = currentHillslope.getLinkWidth(8.66, 0.6, 0.0);
-            double linkLength = currentHillslope.getLinkLength();
-            double linkSlope = currentHillslope.getLinkSlope();
-            double chezLawExpon = -1. / 3.;
-            double chezLawCoeff = 200. / Math.pow(0.000357911, chezLawExpon);
-            double linkChezy = currentHillslope.getLinkChezi(chezLawCoeff, chezLawExpon);
+        if (hasVegetation[i]) {
+            qe1 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
+                    radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
+                    humidityArray[i], windspeedArray[i], input[i + 2 * linksNum],
+                    snowWaterEquivalentArray[i]);
+        } else {
+            if (input[i + 2 * linksNum] > s1residuals[i]) {
+                qe1 = eTrates[i] * area_m2 * (1.0 - satsurf) * mst; // m3phr
+            } else {
+                qe1 = 0.0;
+            }
+        }
 
-            /* ROUTING RATE (K_Q) and CHANNEL VELOCITY (vc) */
-            // System.out.println(routingtype);
-            switch( routingType ) {
-            case 2: /* No Chezi explicitly */
-                K_Q = 8.796 * Math.pow(input[i], 1 / 3.) * Math.pow(linkWidth, -1 / 3.)
-                        * Math.pow(linkLength, -1) * Math.pow(linkSlope, 2 / 9.); // units
-                // 1/s*/
-                break;
+        /* HILLSLOPE S1-S2 FLUX VALUE */
+        // re = 1100.0
+        // * (input[i + 2 * linksNum] / currentHillslope.parameters.getS2max())
+        // + 300.0
+        // * ((input[i + 2 * linksNum] / currentHillslope.parameters.getS2max()) + 5)
+        // * Math.pow((input[i + 3 * linksNum] / currentHillslope.parameters.getS2max()),
+        // 2.0);
+        re = kss[i] * area_m2 * (1.0 - satsurf) * (Math.pow(mst, mstExps[i])); // m3phr
+
+        /* HILLSLOPE S2-SURFACE FLUX VALUES */
+        qds = satsurf * area_m2 * prec_mphr; // m3phr
+
+        if (hasVegetation[i]) {
+            qe2 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
+                    radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
+                    humidityArray[i], windspeedArray[i], input[i + 3 * linksNum],
+                    snowWaterEquivalentArray[i]);
+        } else {
+            qe2 = eTrates[i] * area_m2 * satsurf; // m3phr,
+        }
 
-            case 3: /* Chezi explicit */
-                // System.out.println("Chezy");
-                K_Q = 3 / 2. * Math.pow(input[i], 1. / 3.) * Math.pow(linkChezy, 2. / 3.)
-                        * Math.pow(linkWidth, -1. / 3.) * Math.pow(linkLength, -1)
-                        * Math.pow(linkSlope, 1. / 3.); // units 1/s
-                break;
+        qs = recParams[i] * (input[i + 3 * linksNum]); // m3phr
 
-            case 4: /* Mannings equation */
-                flowdepth = (1. / 3.) * Math.pow(input[i], 1. / 3.); // depth
-                // m,
-                // input m^3/s;
-                // general
-                // observed
-                // relation for
-                // gc from
-                // molnar and
-                // ramirez 1998
-                hydrad = (flowdepth * linkWidth) / (2.f * flowdepth + linkWidth); // m
-                mannings_n = 1; // 0.030f; // mannings n suggested by Jason via his
-                // observations at
-                // Whitewater for high flows. Low flows will have higher
-                // n ... up to 2x more.
-                K_Q = (Math.pow(hydrad, 2. / 3.) * Math.pow(linkSlope, 1 / 2.) / mannings_n) // m/s
-                        // ;
-                        // this
-                        // term
-                        // is v
-                        // from
-                        // mannings
-                        // eqn
-                        * Math.pow(linkLength, -1); // 1/s
-                break;
+        /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
+        // System.out.println("qdh = " + qdh);
+        // System.out.println("qds = " + qds);
+        qd = qdh + qds; // m3phr
 
+        if (qs != qs || qd != qd) {
+            if (qs != qs) {
+                throw new ModelsIllegalargumentException(
+                        "Subsuperficial discharge for the hillslope "
+                                + currentHillslope.getHillslopeId() + " " + i + " is NaN", this);
+            } else {
+                throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
+                        + "Superficial discharge for the hillslope "
+                        + currentHillslope.getHillslopeId() + " " + i + " is NaN"
+                        + "\nValue of qdh " + qdh + "\nValue of qds " + qds
+                        + "\nPrecipitation " + prec_mphr + "\nSatsurf " + satsurf, this); //$NON-NLS-1$ //$NON-NLS-2$
             }
+        }
 
-            /*
-             * if (i == 62) { System.out.println(" WD ratio ="+
-             * linksHydraulicInfo.Width(i)/flowdepth); System.out.println("
-             * Mannings v (m/s) =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n) );
-             * System.out.println(" K_Q =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n)
-             * *Math.pow(linksHydraulicInfo.Length(i),-1) ); }
-             */
-            if (input[i] == 0.0D)
-                K_Q = 1e-10;
-
-            if (qs != qs || qd != qd) {
-                System.out
-                        .println("Problems in basin: " + currentHillslope.getHillslopeId() + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
-                if (area_m2 < THRESHOLD_AREA) {
-                    qd = 0.0;
-                    qs = 0.0;
-                    inf = 0.0;
-                    qe1 = 0.0;
-                    qe2 = 0.0;
-                    re = 0.0;
-                    System.out.println("All the contributes are setted to zero.");
-                }
-            }
+        if (isAtFinalSubtimestep) {
+            System.out
+                    .println("timeinmin = " + currentTimeInMinutes + "\tbacino: " + i
+                            + "\tqdh = " + qdh + "\tqds = " + qds + "\tre = " + re + "\tqs = "
+                            + qs + "\tmst = " + mst + "\tinf = " + inf + "\tqe1 = " + qe1
+                            + "\tqe2 = " + qe2);
+        }
+        /*
+         * if the area is > 0.1 km2, we consider the delay effect
+         * of the hillslope.
+         */
+        if (area_m2 > THRESHOLD_AREA) {
+            // distribute the discharge
+            int hillslopeId = currentHillslope.getHillslopeId();
+            DischargeDistributor dischargeDistributor = hillslopeId2DischargeDistributor
+                    .get(hillslopeId);
+            qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf,
+                    currentTimeInMillis);
+            qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf,
+                    currentTimeInMillis);
+        }
 
-            /* OUTPUT */
-            if (area_m2 > THRESHOLD_AREA) {
-                // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                // 60.0 * K_Q * (Q_trib - input[i]) + (1.0 / 3600.0) * qd / deltaTinMinutes;
-                // LINK dQs/dt -> (m^3/s)/min
-                output[i + linksNum] = 60.0 * K_Q * (Qs_trib - input[i + linksNum]) + 60.0 * K_Q
-                        * (1.0 / 3600.) * (qs);
-                // HILLSLOPE dS1/dt -> m3/min
-                output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
-                // HILLSLOPE dS2/dt -> m3/min
-                output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
-            } else {
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                output[i + linksNum] = 60.0D * K_Q
-                        * ((1.0D / 3600.) * (qs) + Qs_trib - input[i + linksNum]);
-                output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
-                if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)]
-                        || output[i + (2 * linksNum)] == 0.0) {
-                    throw new ModelsIllegalargumentException(
-                            "Invalid value of S1, please check the parameters."
-                                    + output[i + (2 * linksNum)], this);
+        /* LINK FLUX ( Q ) */
+        /*
+         * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
+         * connecting link
+         */
+        /* LINK FLUX ( Q SUBSURFACE, BASE FLOW ) */
+        /*
+         * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
+         * connecting link
+         */
+        Q_trib = 0.0D;
+        Qs_trib = 0.0D;
+
+        for( int j = upstreamStart[i]; j < upstreamStart[i + 1]; j++ ) {
+            int index = upstreamIndexes[j];
+            boolean doCalculate = true;
+            for( int k = 0; k < dischargeContributorList.size(); k++ ) {
+                Double contributedDischarge = dischargeContributorList.get(k).getDischarge(
+                        pfafstetterNumbers[index], input[index]);
+                if (!isNovalue(contributedDischarge)) {
+                    if (doLog && doPrint) {
+                        out.println("----> For hillslope " + pfafstetterNumbers[i]
+                                + " using hydrometer/dams data in pfafstetter: "
+                                + pfafstetterNumbers[index] + "(meaning added "
+                                + contributedDischarge + " instead of " + input[index] + ")");
+                    }
+                    double dischargeRatio = 0.3;// input[index] / (input[index] +
+                    // input[index + linksNum]);
+                    Q_trib = dischargeRatio * contributedDischarge; // units m^3/s
+                    Qs_trib = contributedDischarge - Q_trib; // units m^3/s
+                    doCalculate = false;
                 }
-                output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
             }
-            if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)]
-                    || output[i + (2 * linksNum)] == 0.) {
-                throw new ModelsIllegalargumentException(
-                        "Invalid value of S2, please check the parameters.", this);
+            if (doCalculate) {
+                // at the same position we can query the input array
+                Q_trib += input[index]; // units m^3/s
+                Qs_trib += input[index + linksNum]; // units m^3/s
             }
+        }
+
+        /* ROUTING RATE (K_Q) and CHANNEL VELOCITY (vc) */
+        // System.out.println(routingtype);
+        switch( routingType ) {
+        case 2: /* No Chezi explicitly */
+            K_Q = 8.796 * Math.pow(input[i], 1 / 3.) * linkWidthFactors[i]
+                    * linkLengthFactors[i] * linkSlopeFactors[i]; // units
+            // 1/s*/
+            break;
+
+        case 3: /* Chezi explicit */
+            // System.out.println("Chezy");
+            K_Q = 3 / 2. * Math.pow(input[i], 1. / 3.) * linkChezyFactors[i]
+                    * linkWidthFactors[i] * linkLengthFactors[i] * linkSlopeFactors[i]; // units
+            // 1/s
+            break;
+
+        case 4: /* Mannings equation */
+            flowdepth = (1. / 3.) * Math.pow(input[i], 1. / 3.); // depth
+            // m,
+            // input m^3/s;
+            // general
+            // observed
+            // relation for
+            // gc from
+            // molnar and
+            // ramirez 1998
+            hydrad = (flowdepth * linkWidths[i]) / (2.f * flowdepth + linkWidths[i]); // m
+            mannings_n = 1; // 0.030f; // mannings n suggested by Jason via his
+            // observations at
+            // Whitewater for high flows. Low flows will have higher
+            // n ... up to 2x more.
+            K_Q = (Math.pow(hydrad, 2. / 3.) * linkSlopeFactors[i] / mannings_n) // m/s
+                    // ;
+                    // this
+                    // term
+                    // is v
+                    // from
+                    // mannings
+                    // eqn
+                    * linkLengthFactors[i]; // 1/s
+            break;
 
         }
-        doPrint = false;
 
-        return output;
+        /*
+         * if (i == 62) { System.out.println(" WD ratio ="+
+         * linksHydraulicInfo.Width(i)/flowdepth); System.out.println("
+         * Mannings v (m/s) =" +
+         * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n) );
+         * System.out.println(" K_Q =" +
+         * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n)
+         * *Math.pow(linksHydraulicInfo.Length(i),-1) ); }
+         */
+        if (input[i] == 0.0D)
+            K_Q = 1e-10;
+
+        if (qs != qs || qd != qd) {
+            System.out
+                    .println("Problems in basin: " + currentHillslope.getHillslopeId() + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
+            if (area_m2 < THRESHOLD_AREA) {
+                qd = 0.0;
+                qs = 0.0;
+                inf = 0.0;
+                qe1 = 0.0;
+                qe2 = 0.0;
+                re = 0.0;
+                System.out.println("All the contributes are setted to zero.");
+            }
+        }
+
+        /* OUTPUT */
+        if (area_m2 > THRESHOLD_AREA) {
+            // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
+            // 60.0 * K_Q * (Q_trib - input[i]) + (1.0 / 3600.0) * qd / deltaTinMinutes;
+            // LINK dQs/dt -> (m^3/s)/min
+            output[i + linksNum] = 60.0 * K_Q * (Qs_trib - input[i + linksNum]) + 60.0 * K_Q
+                    * (1.0 / 3600.) * (qs);
+            // HILLSLOPE dS1/dt -> m3/min
+            output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
+            // HILLSLOPE dS2/dt -> m3/min
+            output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
+        } else {
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
+            output[i + linksNum] = 60.0D * K_Q
+                    * ((1.0D / 3600.) * (qs) + Qs_trib - input[i + linksNum]);
+            output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
+            if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)]
+                    || output[i + (2 * linksNum)] == 0.0) {
+                throw new ModelsIllegalargumentException(
+                        "Invalid value of S1, please check the parameters."
+                                + output[i + (2 * linksNum)], this);
+            }
+            output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
+        }
+        if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)]
+                || output[i + (2 * linksNum)] == 0.) {
+            throw new ModelsIllegalargumentException(
+                    "Invalid value of S2, please check the parameters.", this);
+        }
     }
+
     public void addDischargeContributor( DischargeContributor dischargeContributor ) {
         dischargeContributorList.add(dischargeContributor);
     }
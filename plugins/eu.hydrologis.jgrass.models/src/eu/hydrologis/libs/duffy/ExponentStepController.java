@@ -0,0 +1,44 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+/**
+ * The step control historically used by the {@link RungeKuttaFelberg}: the step is scaled by the
+ * ratio between the allowed and the estimated error, raised to 0.15 if the step can grow and to
+ * 0.25 if it has to shrink.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ExponentStepController implements IStepController {
+
+    public double newTimeStep( double timeStepInMinutes, double error, double epsilon ) {
+        double factor;
+        if (error != 0.0) {
+            factor = epsilon / error;
+            if (factor >= 1)
+                return timeStepInMinutes * Math.pow(factor, 0.15);
+            return timeStepInMinutes * Math.pow(factor, 0.25);
+        }
+        factor = 1e8;
+        return timeStepInMinutes * Math.pow(factor, 0.15);
+    }
+
+    public void reset() {
+    }
+
+}
@@ -4,4 +4,12 @@ public interface IBasicFunction {
     public double[] eval( double currentTimeInMinutes, double[] input, double[] precipitation,
             double[] radiationArray, double[] netshortArray, double[] temperatureArray,
             double[] humidityArray, double[] windspeedArray, double[] pressureArray, double[] snowWaterEquivalentArray, boolean isMainTimeStep );
+
+    /**
+     * Evaluates the function into the given array, to avoid an allocation at every evaluation.
+     */
+    public void eval( double currentTimeInMinutes, double[] input, double[] precipitation,
+            double[] radiationArray, double[] netshortArray, double[] temperatureArray,
+            double[] humidityArray, double[] windspeedArray, double[] pressureArray,
+            double[] snowWaterEquivalentArray, boolean isMainTimeStep, double[] output );
 }
@@ -0,0 +1,36 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+/**
+ * The norm used by the {@link RungeKuttaFelberg} to estimate the error of a step from the two
+ * solutions of the embedded method.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IErrorNorm {
+
+    /**
+     * @param y the solution of the higher order method.
+     * @param yStar the solution of the lower order method.
+     * @param n the number of values to consider.
+     * @return the error of the step, compared by the step controller against the tolerance.
+     */
+    public double norm( double[] y, double[] yStar, int n );
+
+}
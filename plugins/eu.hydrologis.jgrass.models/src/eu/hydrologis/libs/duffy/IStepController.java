@@ -0,0 +1,40 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+/**
+ * Chooses the time step of the {@link RungeKuttaFelberg} from the error of a trial step.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IStepController {
+
+    /**
+     * @param timeStepInMinutes the time step of the trial step.
+     * @param error the error of the trial step, as given by the {@link IErrorNorm}.
+     * @param epsilon the allowed error.
+     * @return the time step to use for the step.
+     */
+    public double newTimeStep( double timeStepInMinutes, double error, double epsilon );
+
+    /**
+     * Forgets the history of the previous steps.
+     */
+    public void reset();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+/**
+ * A proportional-integral step control, which also looks at the error of the previous step. This
+ * damps the oscillations of the step size that the pure error ratio gives when the problem gets
+ * stiff.
+ * 
+ * <p>
+ * The new step is h * safety * (epsilon / err)<sup>alpha</sup> * (errPrevious /
+ * epsilon)<sup>beta</sup>, limited between minFactor * h and maxFactor * h.
+ * </p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PIStepController implements IStepController {
+
+    private final double alpha;
+    private final double beta;
+    private final double safety;
+    private final double minFactor;
+    private final double maxFactor;
+    private double previousError = -1;
+
+    /**
+     * A controller with the usual parameters for a method of order 4.
+     */
+    public PIStepController() {
+        this(0.7 / 5.0, 0.4 / 5.0, 0.9, 0.2, 10.0);
+    }
+
+    /**
+     * @param alpha the exponent of the current error.
+     * @param beta the exponent of the previous error, 0 for a pure integral control.
+     * @param safety the safety factor applied to the new step.
+     * @param minFactor the maximum reduction of the step.
+     * @param maxFactor the maximum growth of the step.
+     */
+    public PIStepController( double alpha, double beta, double safety, double minFactor,
+            double maxFactor ) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.safety = safety;
+        this.minFactor = minFactor;
+        this.maxFactor = maxFactor;
+    }
+
+    public double newTimeStep( double timeStepInMinutes, double error, double epsilon ) {
+        double factor;
+        if (error == 0.0) {
+            factor = maxFactor;
+        } else {
+            factor = safety * Math.pow(epsilon / error, alpha);
+            if (previousError > 0.0) {
+                factor = factor * Math.pow(previousError / epsilon, beta);
+            }
+            factor = Math.min(maxFactor, Math.max(minFactor, factor));
+        }
+        if (error <= epsilon) {
+            // only accepted errors make the history
+            previousError = Math.max(error, 1E-4 * epsilon);
+        }
+        return timeStepInMinutes * factor;
+    }
+
+    public void reset() {
+        previousError = -1;
+    }
+
+}
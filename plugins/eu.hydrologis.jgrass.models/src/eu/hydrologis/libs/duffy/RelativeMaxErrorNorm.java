@@ -0,0 +1,37 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+/**
+ * The maximum over the state of the relative difference between the two solutions, the norm
+ * historically used by the {@link RungeKuttaFelberg}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RelativeMaxErrorNorm implements IErrorNorm {
+
+    public double norm( double[] y, double[] yStar, int n ) {
+        double delta = 0;
+        for( int i = 0; i < n; i++ ) {
+            if ((y[i] + yStar[i]) > 0)
+                delta = Math.max(delta, Math.abs(2 * (y[i] - yStar[i]) / (y[i] + yStar[i])));
+        }
+        return delta;
+    }
+
+}
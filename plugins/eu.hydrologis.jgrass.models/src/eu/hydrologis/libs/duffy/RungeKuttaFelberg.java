@@ -64,6 +64,22 @@ public class RungeKuttaFelberg {
     
     private boolean isAtFinalSubtimestep = true;
 
+    private IErrorNorm errorNorm = new RelativeMaxErrorNorm();
+    private IStepController stepController = new ExponentStepController();
+
+    /*
+     * the stage vectors, the intermediate state and the solutions, kept between the steps
+     */
+    private double[][] k;
+    private double[] carrier;
+    private double[] newYstar;
+    private double[] solutionA;
+    private double[] solutionB;
+
+    private long acceptedSteps = 0;
+    private long rejectedSteps = 0;
+    private long evaluations = 0;
+
     /**
      * Creates new RKF
      * 
@@ -84,6 +100,13 @@ public class RungeKuttaFelberg {
     /**
      * Returns the value of the function described by differential equations in the next time step
      * 
+     * <p>
+     * A step that is not final estimates the error of the given time step and is then repeated
+     * with the time step chosen by the {@link IStepController}. The stage vectors and the
+     * solutions live in preallocated arrays, the solution is written in the one of the two
+     * solution arrays that doesn't hold the initial conditions.
+     * </p>
+     * 
      * @param currentTimeInMinutes The current time
      * @param initialConditions The value of the initial condition
      * @param timeStepInMinutes The desired step size
@@ -96,102 +119,99 @@ public class RungeKuttaFelberg {
             double[] rainArray, double[] radiationArray, double[] netshortArray,
             double[] temperatureArray, double[] humidityArray, double[] windspeedArray,
             double[] pressureArray, double[] snowWaterEquivalentArray ) {
-
-        double[] carrier = new double[initialConditions.length];
-
-        double[] k0 = theFunction.eval(currentTimeInMinutes, initialConditions, rainArray,
-                radiationArray, netshortArray, temperatureArray, humidityArray, windspeedArray,
-                pressureArray, snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
-            carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes * b[1][0] * k0[i]);
-
-        double[] k1 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
-                netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
-            carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
-                    * (b[2][0] * k0[i] + b[2][1] * k1[i]));
-
-        double[] k2 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
-                netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
-            carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
-                    * (b[3][0] * k0[i] + b[3][1] * k1[i] + b[3][2] * k2[i]));
-
-        double[] k3 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
-                netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
-            carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
-                    * (b[4][0] * k0[i] + b[4][1] * k1[i] + b[4][2] * k2[i] + b[4][3] * k3[i]));
-
-        double[] k4 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
-                netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
-            carrier[i] = Math.max(0,
-                    initialConditions[i]
-                            + timeStepInMinutes
-                            * (b[5][0] * k0[i] + b[5][1] * k1[i] + b[5][2] * k2[i] + b[5][3]
-                                    * k3[i] + b[5][4] * k4[i]));
-
-        double[] k5 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        int n = initialConditions.length;
+        if (carrier == null || carrier.length != n) {
+            k = new double[6][n];
+            carrier = new double[n];
+            newYstar = new double[n];
+            solutionA = new double[n];
+            solutionB = new double[n];
+        }
+        double[] k0 = k[0];
+        double[] k1 = k[1];
+        double[] k2 = k[2];
+        double[] k3 = k[3];
+        double[] k4 = k[4];
+        double[] k5 = k[5];
+        double[] newY = initialConditions == solutionA ? solutionB : solutionA;
+        double dt = timeStepInMinutes;
+
+        theFunction.eval(currentTimeInMinutes, initialConditions, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, isAtFinalSubtimestep);
-
-        double[] newY = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
-            newY[i] = initialConditions[i]
-                    + timeStepInMinutes
-                    * (c[0] * k0[i] + c[1] * k1[i] + c[2] * k2[i] + c[3] * k3[i] + c[4] * k4[i] + c[5]
-                            * k5[i]);
-            newY[i] = Math.max(0, newY[i]);
-            if (Double.isInfinite(newY[i]) || newY[i] != newY[i]) {
+                snowWaterEquivalentArray, false, k0);
+        double b10 = dt * b[1][0];
+        for( int i = 0; i < n; i++ )
+            carrier[i] = Math.max(0, initialConditions[i] + b10 * k0[i]);
+
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, false, k1);
+        double b20 = b[2][0], b21 = b[2][1];
+        for( int i = 0; i < n; i++ )
+            carrier[i] = Math.max(0, initialConditions[i] + dt * (b20 * k0[i] + b21 * k1[i]));
+
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, false, k2);
+        double b30 = b[3][0], b31 = b[3][1], b32 = b[3][2];
+        for( int i = 0; i < n; i++ )
+            carrier[i] = Math.max(0, initialConditions[i] + dt
+                    * (b30 * k0[i] + b31 * k1[i] + b32 * k2[i]));
+
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, false, k3);
+        double b40 = b[4][0], b41 = b[4][1], b42 = b[4][2], b43 = b[4][3];
+        for( int i = 0; i < n; i++ )
+            carrier[i] = Math.max(0, initialConditions[i] + dt
+                    * (b40 * k0[i] + b41 * k1[i] + b42 * k2[i] + b43 * k3[i]));
+
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, false, k4);
+        double b50 = b[5][0], b51 = b[5][1], b52 = b[5][2], b53 = b[5][3], b54 = b[5][4];
+        for( int i = 0; i < n; i++ )
+            carrier[i] = Math.max(0, initialConditions[i] + dt
+                    * (b50 * k0[i] + b51 * k1[i] + b52 * k2[i] + b53 * k3[i] + b54 * k4[i]));
+
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, isAtFinalSubtimestep, k5);
+        evaluations += 6;
+
+        /*
+         * both solutions in one pass, the lower order one only if the error is needed
+         */
+        double c0 = c[0], c1 = c[1], c2 = c[2], c3 = c[3], c4 = c[4], c5 = c[5];
+        double cs0 = cStar[0], cs1 = cStar[1], cs2 = cStar[2];
+        double cs3 = cStar[3], cs4 = cStar[4], cs5 = cStar[5];
+        for( int i = 0; i < n; i++ ) {
+            double y = Math.max(0, initialConditions[i] + dt
+                    * (c0 * k0[i] + c1 * k1[i] + c2 * k2[i] + c3 * k3[i] + c4 * k4[i] + c5
+                            * k5[i]));
+            if (Double.isInfinite(y) || y != y) {
                 throw new ModelsIllegalargumentException(
                         "Problems occure during the integration procedure.", this);
             }
-        }
-
-        double[] newYstar = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
-            newYstar[i] = initialConditions[i]
-                    + timeStepInMinutes
-                    * (cStar[0] * k0[i] + cStar[1] * k1[i] + cStar[2] * k2[i] + cStar[3] * k3[i]
-                            + cStar[4] * k4[i] + cStar[5] * k5[i]);
-            newYstar[i] = Math.max(0, newYstar[i]);
-            if (Double.isInfinite(newYstar[i]) || newYstar[i] != newYstar[i]) {
-                throw new ModelsIllegalargumentException(
-                        "Problems occure during the integration procedure.", this);
+            newY[i] = y;
+            if (!finalize) {
+                newYstar[i] = Math.max(0, initialConditions[i] + dt
+                        * (cs0 * k0[i] + cs1 * k1[i] + cs2 * k2[i] + cs3 * k3[i] + cs4 * k4[i] + cs5
+                                * k5[i]));
             }
         }
 
-        double delta = 0;
-        for( int i = 0; i < initialConditions.length; i++ ) {
-            if ((newY[i] + newYstar[i]) > 0)
-                delta = Math.max(delta, Math.abs(2 * (newY[i] - newYstar[i])
-                        / (newY[i] + newYstar[i])));
-        }
-
-        double newTimeStepInMinutes = timeStepInMinutes;
-
         if (finalize) {
-            currentSolution.newTimeStepInMinutes = newTimeStepInMinutes;
+            currentSolution.newTimeStepInMinutes = timeStepInMinutes;
             currentSolution.solution = newY;
+            acceptedSteps++;
         } else {
-            double factor;
-            if (delta != 0.0) {
-                factor = epsilon / delta;
-
-                if (factor >= 1)
-                    newTimeStepInMinutes = timeStepInMinutes * Math.pow(factor, 0.15);
-                else
-                    newTimeStepInMinutes = timeStepInMinutes * Math.pow(factor, 0.25);
-            } else {
-                factor = 1e8;
-                newTimeStepInMinutes = timeStepInMinutes * Math.pow(factor, 0.15);
-                finalize = true;
+            double delta = errorNorm.norm(newY, newYstar, n);
+            if (delta > epsilon) {
+                rejectedSteps++;
             }
+            double newTimeStepInMinutes = stepController.newTimeStep(timeStepInMinutes, delta,
+                    epsilon);
 
             // System.out.println(" --> "+timeStep+" "+epsilon+" "+Delta+" "+factor+"
             // "+newTimeStep+" ("+java.util.Calendar.getInstance().getTime()+")");
@@ -229,6 +249,7 @@ public class RungeKuttaFelberg {
             double[] humidityArray, double[] windspeedArray, double[] pressureArray,
             double[] snowWaterEquivalentArray ) throws IOException {
         isAtFinalSubtimestep = false;
+        stepController.reset();
 
         // the running time inside the interval
         double currentTimeInMinutes = intervalStartTimeInMinutes;
@@ -260,12 +281,6 @@ public class RungeKuttaFelberg {
                 currentTimeInMinutes += basicTimeStepInMinutes;
                 currentSolution.newTimeStepInMinutes = currentTimeInMinutes;
                 initialConditions = currentSolution.solution;
-                for( int i = 0; i < initialConditions.length; i++ ) {
-                    if (initialConditions[i] != initialConditions[i]) {
-                        throw new ModelsIllegalargumentException(
-                                "Problems occure during the integration procedure.", this);
-                    }
-                }
             }
 
             if (targetTimeInMinutes == intervalEndTimeInMinutes) {
@@ -290,12 +305,6 @@ public class RungeKuttaFelberg {
             currentTimeInMinutes += basicTimeStepInMinutes;
             currentSolution.newTimeStepInMinutes = currentTimeInMinutes;
             initialConditions = currentSolution.solution;
-            for( int i = 0; i < initialConditions.length; i++ ) {
-                if (initialConditions[i] != initialConditions[i]) {
-                    throw new ModelsIllegalargumentException(
-                            "Problems occure during the integration procedure.", this);
-                }
-            }
 
             thisDate.setTime((long) (currentTimeInMinutes * 60.0 * 1000.0));
             if (doLog)
@@ -336,12 +345,6 @@ public class RungeKuttaFelberg {
             currentTimeInMinutes += basicTimeStepInMinutes;
             currentSolution.newTimeStepInMinutes = currentTimeInMinutes;
             initialConditions = currentSolution.solution;
-            for( int i = 0; i < initialConditions.length; i++ ) {
-                if (initialConditions[i] != initialConditions[i]) {
-                    throw new ModelsIllegalargumentException(
-                            "Problems occure during the integration procedure.", this);
-                }
-            }
 
             thisDate.setTime((long) (currentTimeInMinutes * 60.0 * 1000.0));
             double sum = 0;
@@ -360,7 +363,8 @@ public class RungeKuttaFelberg {
             outputStream.println("WARNING, UNEXPECTED");
         }
 
-        finalCond = initialConditions;
+        // the solution arrays are reused by the next interval
+        finalCond = initialConditions.clone();
 
     }
     /**
@@ -376,4 +380,44 @@ public class RungeKuttaFelberg {
         return finalCond;
     }
 
+    /**
+     * Sets the norm used to estimate the error of a step, by default a
+     * {@link RelativeMaxErrorNorm}.
+     * 
+     * @param errorNorm the norm to use.
+     */
+    public void setErrorNorm( IErrorNorm errorNorm ) {
+        this.errorNorm = errorNorm;
+    }
+
+    /**
+     * Sets the control of the step size, by default an {@link ExponentStepController}.
+     * 
+     * @param stepController the controller to use.
+     */
+    public void setStepController( IStepController stepController ) {
+        this.stepController = stepController;
+    }
+
+    /**
+     * @return the number of steps that advanced the solution.
+     */
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    /**
+     * @return the number of trial steps whose error exceeded the allowed error.
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    /**
+     * @return the number of evaluations of the function.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
 }
@@ -29,7 +29,7 @@ import java.util.List;
 import javax.measure.unit.SI;
 
 import nl.alterra.openmi.sdk.backbone.ElementSet;
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 import nl.alterra.openmi.sdk.backbone.SpatialReference;
 
 import org.geotools.feature.FeatureCollection;
@@ -40,6 +40,7 @@ import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
 import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.IQuantity;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -359,17 +360,17 @@ public class HSnowCalculator extends ModelsBackbone {
         IValueSet areaValueSet = basinPositionInputLink.getSourceComponent()
                 .getValues(time, linkID);
         for( int i = 0; i < areaValueSet.getCount(); i++ ) {
-            area.setitem(i, ((ScalarSet) areaValueSet).getScalar(i));
+            area.setitem(i, ((IScalarSet) areaValueSet).getScalar(i));
         }
         // get the rain
         IValueSet rainValueSet = rainInputLink.getSourceComponent().getValues(time, linkID);
         for( int i = 0; i < rainValueSet.getCount(); i++ ) {
-            rain.setitem(i, ((ScalarSet) rainValueSet).getScalar(i));
+            rain.setitem(i, ((IScalarSet) rainValueSet).getScalar(i));
         }
         // get the rain
         IValueSet tempValueSet = temperatureInputLink.getSourceComponent().getValues(time, linkID);
         for( int i = 0; i < tempValueSet.getCount(); i++ ) {
-            tbac.setitem(i, ((ScalarSet) tempValueSet).getScalar(i));
+            tbac.setitem(i, ((IScalarSet) tempValueSet).getScalar(i));
         }
 
         snow.cstige_neve(params.cast(), area.cast(), z0.cast(), rain.cast(), tbac.cast(), hsnowprec
@@ -381,7 +382,7 @@ public class HSnowCalculator extends ModelsBackbone {
             snowOutArray[i] = peff.getitem(i);
         }
         System.out.println();
-        return new ScalarSet(snowOutArray);
+        return new DoubleScalarSet(snowOutArray);
     }
 
     public void removeLink( String linkID ) {
@@ -26,7 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nl.alterra.openmi.sdk.backbone.ElementSet;
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 import nl.alterra.openmi.sdk.backbone.SpatialReference;
 import nl.alterra.openmi.sdk.backbone.TimeSpan;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
@@ -44,6 +44,7 @@ import org.openmi.standard.ILinkableComponent;
 import org.openmi.standard.IListener;
 import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.IQuantity;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.ITimeSpan;
 import org.openmi.standard.ITimeStamp;
@@ -320,7 +321,7 @@ public class Kriging implements ILinkableComponent {
          */
         IValueSet rawRainValueSet = rawRainfallInputLink.getSourceComponent().getValues(time,
                 rawRainfallInputLink.getID());
-        int rainnum = ((ScalarSet) rawRainValueSet).size();
+        int rainnum = rawRainValueSet.getCount();
         if (rainnum != inputX.length) {
             System.out.println("Stations number and rain columns are not the same, but should!");
             return null;
@@ -331,7 +332,7 @@ public class Kriging implements ILinkableComponent {
         double[] rawRainArray = new double[rainnum];
         for( int i = 0; i < rawRainArray.length; i++ ) {
             // we pass the rain intensity (divide rain by dt)
-            rawRainArray[i] = ((ScalarSet) rawRainValueSet).getScalar(i) / dtseconds;
+            rawRainArray[i] = ((IScalarSet) rawRainValueSet).getScalar(i) / dtseconds;
         }
 
         /*
@@ -344,7 +345,7 @@ public class Kriging implements ILinkableComponent {
          */
         doKriging(rawRainArray, interpolatedRainArray);
 
-        return new ScalarSet(interpolatedRainArray);
+        return new DoubleScalarSet(interpolatedRainArray);
     }
 
     /**
@@ -25,7 +25,7 @@ package eu.hydrologis.libs.newage;
 import java.util.ArrayList;
 import java.util.List;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 import nl.alterra.openmi.sdk.backbone.SpatialReference;
 import nl.alterra.openmi.sdk.backbone.TimeSpan;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
@@ -42,6 +42,7 @@ import org.openmi.standard.ILinkableComponent;
 import org.openmi.standard.IListener;
 import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.IQuantity;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.ITimeSpan;
 import org.openmi.standard.ITimeStamp;
@@ -334,7 +335,7 @@ public class TemperatureInterpolator implements ILinkableComponent {
          */
         IValueSet temperatureValueSet = temperatureInputLink.getSourceComponent().getValues(time,
                 temperatureInputLink.getID());
-        int temperaturenum = ((ScalarSet) temperatureValueSet).size();
+        int temperaturenum = temperatureValueSet.getCount();
         if (temperaturenum != stationsNum)
             throw new RuntimeException(
                     "Stations number and temperature columns are not the same, but should!");
@@ -343,7 +344,7 @@ public class TemperatureInterpolator implements ILinkableComponent {
          * fill the temperatures array
          */
         for( int i = 0; i < stationsNum; i++ ) {
-            tempArray.setitem(i, ((ScalarSet) temperatureValueSet).getScalar(i));
+            tempArray.setitem(i, ((IScalarSet) temperatureValueSet).getScalar(i));
         }
         /*
          * print some debug info
@@ -363,7 +364,7 @@ public class TemperatureInterpolator implements ILinkableComponent {
         for( int i = 0; i < interpolatedTemperaturesArray.length; i++ ) {
             interpolatedTemperaturesArray[i] = interpTempArray.getitem(i);
         }
-        return new ScalarSet(interpolatedTemperaturesArray);
+        return new DoubleScalarSet(interpolatedTemperaturesArray);
     }
 
     public void removeLink( String linkID ) {
@@ -23,6 +23,7 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -37,6 +38,7 @@ import org.openmi.standard.ILink;
 import org.openmi.standard.ILinkableComponent;
 import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.IQuantity;
+import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
@@ -397,6 +399,8 @@ public class ModelsConstants {
         ScalarSet valueScalars = null;
         if (valueSet instanceof ScalarSet) {
             valueScalars = (ScalarSet) valueSet;
+        } else if (valueSet instanceof IScalarSet) {
+            valueScalars = new ScalarSet((IScalarSet) valueSet);
         } else {
             String msg = MessageFormat.format(
                     "An error occurred while connecting to link: {0} to read the data.", link
@@ -406,6 +410,32 @@ public class ModelsConstants {
         }
         return valueScalars;
     }
+
+    /**
+     * Facility that returns the {@link DoubleScalarSet} from a {@link ILink link}.
+     * <p>
+     * As {@link #getScalarSetFromLink(ILink, ITime, PrintStream)}, but the values are not boxed,
+     * which is what the models that read scalars at every timestep should use.
+     * </p>
+     * 
+     * @param link the link from which to retrieve the data.
+     * @param time the time for which to retrieve the data.
+     * @param err the console {@link PrintStream error stream} to which to log.
+     * @return the read {@link DoubleScalarSet}
+     * @throws IOException thrown if some linkage or read error occurred.
+     */
+    public static DoubleScalarSet getDoubleScalarSetFromLink( ILink link, ITime time,
+            PrintStream err ) throws IOException {
+        IValueSet valueSet = link.getSourceComponent().getValues(time, link.getID());
+        if (!(valueSet instanceof IScalarSet)) {
+            String msg = MessageFormat.format(
+                    "An error occurred while connecting to link: {0} to read the data.", link
+                            .getID());
+            err.println(msg);
+            throw new IOException(msg);
+        }
+        return DoubleScalarSet.valueOf((IScalarSet) valueSet);
+    }
     /**
      * Calculate the drainage direction factor (is used in some horton machine like pitfiller,
      * flow,...)
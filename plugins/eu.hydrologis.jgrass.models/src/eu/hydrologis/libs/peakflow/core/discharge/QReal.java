@@ -53,13 +53,12 @@ import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
-import org.joda.time.Interval;
 
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.peakflow.core.iuh.IUHCalculator;
 import eu.hydrologis.libs.peakflow.core.jeff.RealJeff;
 import eu.hydrologis.libs.peakflow.utils.ParameterBox;
-import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.WidthFunction;
 
 /**
  * @author moovida
@@ -130,9 +129,8 @@ public class QReal implements DischargeCalculator {
         double tcorr = ampi[ampi.length - 1][0];
         tpmax = (double) raintimestep;
         int rainLength = jeff.size();
-        double[][] totalQshiftMatrix = new double[rainLength][(int) (Math.floor((tcorr + tpmax)
-                / timestep) + 1 + rainLength * raintimestep / timestep)];
-        double[][] Q = new double[(int) Math.floor((tcorr + tpmax) / timestep) + 1][3];
+        int qtotLength = (int) (Math.floor((tcorr + tpmax) / timestep) + 1 + rainLength
+                * raintimestep / timestep);
 
         if (area_sub != -9999.0) {
             area_tot = area_sub + area_super;
@@ -140,106 +138,68 @@ public class QReal implements DischargeCalculator {
             area_tot = area_super;
         }
 
+        /*
+         * The discharge of every rain value is the same width function response, scaled by the
+         * rain and shifted to the rain time. The response to a unit rain is calculated once and the
+         * scaled responses are added up into the total discharge as they are produced, instead of
+         * keeping a shifted row for every rain value.
+         */
+        WidthFunction widthFunction = new WidthFunction(ampi);
+        double[] unitQ = new double[(int) Math.floor((tcorr + tpmax) / timestep) + 1];
+        /*
+         * calculate the discharge for t < tcorr
+         */
+        int j = 0;
+        for( int t = 1; t < tcorr; t += timestep ) {
+            j = (int) Math.floor((t) / timestep);
+
+            if (t <= tpmax) {
+                unitQ[j] = widthFunction.cumulated(t);
+            } else {
+                unitQ[j] = widthFunction.cumulated(t) - widthFunction.cumulated(t - tpmax);
+            }
+        }
+        /*
+         * calculate the discharge for t > tcorr
+         */
+        for( double t = tcorr; t < (tcorr + tpmax); t += timestep ) {
+            j = (int) Math.floor(((int) t) / timestep);
+            unitQ[j] = ampi[ampi.length - 1][2] - widthFunction.cumulated(t - tpmax);
+        }
+
+        double[] qSum = new double[qtotLength];
         Set<DateTime> dates = jeff.keySet();
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask("Calculating discharge...", dates.size());
-        int i = 0;
         for( DateTime dateTime : dates ) {
             double J = jeff.get(dateTime);
-            /*
-             * calculate the discharge for t < tcorr
-             */
-            int j = 0;
-            for( int t = 1; t < tcorr; t += timestep ) {
-                j = (int) Math.floor((t) / timestep);
-
-                if (t <= tpmax) {
-                    Q[j][0] = t;
-                    double widthInterpolate = FluidUtils.width_interpolate(ampi, t, 0, 2);
-                    Q[j][1] = (double) (J * area_tot * widthInterpolate);
-                    Q[j][2] = Q[j - 1][2] + Q[j][1];
-                } else {
-                    Q[j][0] = t;
-                    Q[j][1] = (double) (J * area_tot * (FluidUtils.width_interpolate(ampi, t, 0, 2) - FluidUtils
-                            .width_interpolate(ampi, t - tpmax, 0, 2)));
-                    Q[j][2] = Q[j - 1][2] + Q[j][1];
-                }
-            }
-
-            /*
-             * calculate the discharge for t > tcorr
-             */
-
-            for( double t = tcorr; t < (tcorr + tpmax); t += timestep ) {
-                j = (int) Math.floor(((int) t) / timestep);
-                Q[j][0] = t;
-                Q[j][1] = (double) (J * area_tot * (ampi[ampi.length - 1][2] - FluidUtils
-                        .width_interpolate(ampi, t - tpmax, 0, 2)));
-                Q[j][2] = Q[j - 1][2] + Q[j][1];
-            }
+            double scale = J * area_tot;
 
             /*
-             * calculate the volumes
-             */
-            double vol = Q[Q.length - 2][2] * timestep;
-            double vol2 = (double) (area_tot * J * raintimestep);
-
-            /*
-             * calculate zero padding before first value Note that jeff contains already the
+             * calculate the shift from the first value. Note that jeff contains already the
              * progressive time of the rainfile.
              */
-            int totalshiftmatrixindex = 0;
-            int initalshiftmatrixindex = 0;
             // FIXME time in ???
             Duration duration = new Duration(firstDate, dateTime);
             long intervalSeconds = duration.getStandardSeconds();
-
             int paddingnumber = (int) (intervalSeconds / timestep);
-            for( int m = 0; m < paddingnumber; m++ ) {
-                totalQshiftMatrix[i][m] = 0;
-                totalshiftmatrixindex++;
-            }
-            initalshiftmatrixindex = totalshiftmatrixindex;
-            for( int k = initalshiftmatrixindex; k < Q.length + initalshiftmatrixindex; k++ ) {
-                totalQshiftMatrix[i][k] = Q[k - initalshiftmatrixindex][1];
-                totalshiftmatrixindex++;
-            }
-            for( int k = Q.length + totalshiftmatrixindex; k < totalQshiftMatrix[0].length; k++ ) {
-                totalQshiftMatrix[i][k] = 0;
+
+            for( int k = 0; k < unitQ.length; k++ ) {
+                qSum[paddingnumber + k] = qSum[paddingnumber + k] + scale * unitQ[k];
             }
-            i++;
             pm.worked(1);
         }
         pm.done();
 
-        /*
-         * sum the discharge contributes
-         */
-        Qtot = new double[totalQshiftMatrix[0].length][2];
+        Qtot = new double[qtotLength][2];
         double tottime = 0f;
         for( int k = 0; k < Qtot.length; k++ ) {
-            double sum = 0f;
-            for( int j = 0; j < totalQshiftMatrix.length; j++ ) {
-                sum = sum + totalQshiftMatrix[j][k];
-            }
-
             tottime = tottime + timestep;
 
-            Qtot[k][1] = sum;
+            Qtot[k][1] = qSum[k];
             Qtot[k][0] = tottime;
         }
 
-        double total_vol = 0f;
-        for( int k = 0; k < Qtot.length; k++ ) {
-            total_vol = total_vol + Qtot[k][1];
-        }
-        double total_rain = 0.0;
-        for( DateTime dateTime : dates ) {
-            double J = jeff.get(dateTime);
-            total_rain = total_rain + J;
-        }
-        total_rain = total_rain * area_tot * raintimestep;
-
         return Qtot;
     }
 
@@ -53,7 +53,7 @@ import eu.hydrologis.jgrass.libs.utils.monitor.PrintstreamProgress;
 import eu.hydrologis.libs.peakflow.core.iuh.IUHCalculator;
 import eu.hydrologis.libs.peakflow.core.jeff.StatisticJeff;
 import eu.hydrologis.libs.peakflow.utils.ParameterBox;
-import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.WidthFunction;
 
 /**
  * @author moovida
@@ -74,6 +74,8 @@ public class QStatistic implements DischargeCalculator {
 
     private double[][] ampidiff = null;
 
+    private WidthFunction widthFunction = null;
+
     private double diffusionparameter = 0f;
 
     private final PrintStream out;
@@ -100,6 +102,7 @@ public class QStatistic implements DischargeCalculator {
         tpmax = iuhC.getTpMax();
 
         ampidiff = iuhC.calculateIUH();
+        widthFunction = new WidthFunction(ampidiff);
     }
 
     /*
@@ -119,9 +122,8 @@ public class QStatistic implements DischargeCalculator {
             area_tot = area_super;
         }
 
-        double qmax = (double) (J * area_tot * (FluidUtils.width_interpolate(ampidiff, iuhC
-                .getTstarMax(), 0, 2) - FluidUtils.width_interpolate(ampidiff, iuhC.getTstarMax()
-                - tpmax, 0, 2)));
+        double qmax = (double) (J * area_tot * (widthFunction.cumulated(iuhC.getTstarMax())
+                - widthFunction.cumulated(iuhC.getTstarMax() - tpmax)));
 
         return qmax;
     }
@@ -157,13 +159,13 @@ public class QStatistic implements DischargeCalculator {
 
             if (t <= tpmax) {
                 Q[j][0] = t;
-                Q[j][1] = (double) (J * area_tot * FluidUtils.width_interpolate(ampidiff, t, 0, 2));
+                Q[j][1] = (double) (J * area_tot * widthFunction.cumulated(t));
                 Q[j][2] = Q[j - 1][2] + Q[j][1];
                 Q[j][3] = h;
             } else {
                 Q[j][0] = t;
-                Q[j][1] = (double) (J * area_tot * (FluidUtils.width_interpolate(ampidiff, t, 0, 2) - FluidUtils
-                        .width_interpolate(ampidiff, t - tpmax, 0, 2)));
+                Q[j][1] = (double) (J * area_tot * (widthFunction.cumulated(t) - widthFunction
+                        .cumulated(t - tpmax)));
                 Q[j][2] = Q[j - 1][2] + Q[j][1];
                 Q[j][3] = 0.0;
             }
@@ -176,8 +178,8 @@ public class QStatistic implements DischargeCalculator {
         for( double t = tcorr; t < (tcorr + tpmax); t += timestep ) {
             j = (int) Math.floor(((int) t) / timestep);
             Q[j][0] = t;
-            Q[j][1] = (double) (J * area_tot * (ampidiff[ampidiff.length - 1][2] - FluidUtils
-                    .width_interpolate(ampidiff, t - tpmax, 0, 2)));
+            Q[j][1] = (double) (J * area_tot * (ampidiff[ampidiff.length - 1][2] - widthFunction
+                    .cumulated(t - tpmax)));
             Q[j][2] = Q[j - 1][2] + Q[j][1];
             Q[j][3] = 0.0;
         }
@@ -26,7 +26,7 @@ import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintstreamProgress;
 import eu.hydrologis.libs.peakflow.utils.EffectsBox;
 import eu.hydrologis.libs.peakflow.utils.ParameterBox;
-import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.WidthFunction;
 
 /**
  * @author Andrea Antonello - www.hydrologis.com
@@ -107,6 +107,7 @@ public class IUHDiffusion implements IUHCalculator {
         int threshold = (int) (tcorr / 100);
         PrintstreamProgress p = new PrintstreamProgress(1, (int) tcorr, out);
         out.println("IUH Diffusion...");
+        WidthFunction widthFunction = new WidthFunction(totalampidiffusion);
         for( int tp = 1; tp <= tcorr; tp += timestep ) {
             p.printPercent(tp);
 
@@ -116,16 +117,13 @@ public class IUHDiffusion implements IUHCalculator {
                 index++;
             }
 
-            dt = FluidUtils.henderson(totalampidiffusion, tp);
+            dt = widthFunction.henderson(tp);
             tstar = tp + dt;
             if (tstar < tcorr) {
                 prov = n_idf
                         - 1
-                        + (tp
-                                * (double) FluidUtils.width_interpolate(totalampidiffusion, tstar,
-                                        0, 1) / (area_tot * ((double) FluidUtils.width_interpolate(
-                                totalampidiffusion, tstar, 0, 2) - (double) FluidUtils
-                                .width_interpolate(totalampidiffusion, dt, 0, 2))));
+                        + (tp * widthFunction.width(tstar) / (area_tot * (widthFunction
+                                .cumulated(tstar) - widthFunction.cumulated(dt))));
 
                 if (Math.abs(prov) < error) {
                     tpmax = tp;
@@ -175,10 +173,10 @@ public class IUHDiffusion implements IUHCalculator {
             double intsup = 0f;
             double volsub = 0f;
             double volsup = 0f;
+            WidthFunction subWidthFunction = new WidthFunction(ampisubsurface);
             for( int i = 0; i < ampidiffsurface.length; i++ ) {
                 totaldiff[i][0] = ampidiffsurface[i][0];
-                intsub = (double) FluidUtils.width_interpolate(ampisubsurface,
-                        ampidiffsurface[i][0], 0, 1);
+                intsub = subWidthFunction.width(ampidiffsurface[i][0]);
                 intsup = ampidiffsurface[i][1];
                 if (isNovalue(intsub)) {
                     out
@@ -22,7 +22,7 @@ import java.io.PrintStream;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintstreamProgress;
 import eu.hydrologis.libs.peakflow.utils.EffectsBox;
 import eu.hydrologis.libs.peakflow.utils.ParameterBox;
-import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.WidthFunction;
 
 /**
  * @author Andrea Antonello - www.hydrologis.com
@@ -112,6 +112,7 @@ public class IUHKinematic implements IUHCalculator {
         int threshold = (int) (tcorr / 100);
         out.println("IUH kinematic..."); //$NON-NLS-1$
         PrintstreamProgress p = new PrintstreamProgress(1, (int) tcorr, out);
+        WidthFunction widthFunction = new WidthFunction(totalampikinematic);
         for( int tp = 1; tp <= tcorr; tp += timestep ) {
             p.printPercent(tp);
 
@@ -120,16 +121,13 @@ public class IUHKinematic implements IUHCalculator {
             } else {
                 index++;
             }
-            dt = FluidUtils.henderson(totalampikinematic, tp);
+            dt = widthFunction.henderson(tp);
             tstar = tp + dt;
             if (tstar < tcorr) {
                 prov = n_idf
                         - 1
-                        + (tp
-                                * (double) FluidUtils.width_interpolate(totalampikinematic, tstar,
-                                        0, 1) / (area * ((double) FluidUtils.width_interpolate(
-                                totalampikinematic, tstar, 0, 2) - (double) FluidUtils
-                                .width_interpolate(totalampikinematic, dt, 0, 2))));
+                        + (tp * widthFunction.width(tstar) / (area * (widthFunction
+                                .cumulated(tstar) - widthFunction.cumulated(dt))));
 
                 if (Math.abs(prov) < error) {
                     tpmax = tp;
@@ -182,10 +180,10 @@ public class IUHKinematic implements IUHCalculator {
 
             double intsub = 0f;
             double intsup = 0f;
+            WidthFunction subWidthFunction = new WidthFunction(ampisubsurface);
             for( int i = 0; i < ampikinesurface.length; i++ ) {
                 totalKinematic[i][0] = ampikinesurface[i][0];
-                intsub = (double) FluidUtils.width_interpolate(ampisubsurface,
-                        ampikinesurface[i][0], 0, 1);
+                intsub = subWidthFunction.width(ampikinesurface[i][0]);
                 intsup = ampikinesurface[i][1];
 
                 totalKinematic[i][1] = intsup + intsub;
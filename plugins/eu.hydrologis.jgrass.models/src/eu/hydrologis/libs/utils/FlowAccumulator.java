@@ -0,0 +1,208 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.openmi.ModelsConstants;
+
+/**
+ * <p>
+ * Accumulates values downstream along the drainage directions in linear time.
+ * </p>
+ * <p>
+ * Instead of walking from every pixel down to the outlet, which costs the length of the path for
+ * every pixel, the number of pixels draining into every pixel is counted once and the pixels are
+ * then processed in topological order (Kahn), from the sources down to the outlets. Every pixel is
+ * visited once and gives its accumulated value to the pixel downstream.
+ * </p>
+ * <p>
+ * The maps are handled as flat row major arrays, the value of the pixel at row <code>r</code> and
+ * col <code>c</code> being at <code>r * cols + c</code>.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FlowAccumulator {
+
+    private final int cols;
+
+    private final int rows;
+
+    private final int[] flow;
+
+    /* the index of the pixel downstream, -1 if the pixel doesn't drain into another one */
+    private final int[] downstream;
+
+    private int[] loop = null;
+
+    private int unresolvedPixel = -1;
+
+    /**
+     * @param flow the drainage directions (1 to 8, 10 for the outlets), with
+     *        {@link JGrassConstants#intNovalue} for the novalues.
+     * @param cols the number of columns of the map.
+     * @param rows the number of rows of the map.
+     */
+    public FlowAccumulator( int[] flow, int cols, int rows ) {
+        this.flow = flow;
+        this.cols = cols;
+        this.rows = rows;
+
+        int[][] dirs = ModelsConstants.DIR;
+        downstream = new int[flow.length];
+        for( int i = 0; i < flow.length; i++ ) {
+            downstream[i] = -1;
+            int f = flow[i];
+            if (f < 1 || f > 8) {
+                continue;
+            }
+            int r = i / cols + dirs[f][0];
+            int c = i % cols + dirs[f][1];
+            if (r < 0 || r >= rows || c < 0 || c >= cols) {
+                continue;
+            }
+            downstream[i] = r * cols + c;
+        }
+
+        /*
+         * verify that no pixel drains in the one it receives from, otherwise there is an infinite
+         * loop.
+         */
+        for( int i = 0; i < flow.length; i++ ) {
+            int d = downstream[i];
+            if (d != -1 && downstream[d] == i) {
+                loop = new int[]{i / cols, i % cols, d / cols, d % cols};
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the rows and cols of the two pixels draining into each other, in the form
+     *         <code>{row1, col1, row2, col2}</code>, or null if there is no such loop.
+     */
+    public int[] getLoop() {
+        return loop;
+    }
+
+    /**
+     * @return the index of a pixel that could not be reached during the last accumulation, which
+     *         means that it is part of a loop or drains from one. -1 if all pixels were resolved.
+     */
+    public int getUnresolvedPixel() {
+        return unresolvedPixel;
+    }
+
+    /**
+     * @return the index of the pixel downstream of every pixel, -1 where the pixel doesn't drain
+     *         into another one.
+     */
+    public int[] getDownstreamIndexes() {
+        return downstream;
+    }
+
+    /**
+     * Accumulates the values downstream.
+     * <p>
+     * Every valid pixel gets its own value plus the accumulated values of all the pixels draining
+     * into it. Novalue pixels get novalue and don't receive anything.
+     * </p>
+     *
+     * @param own the value every pixel contributes, if null every pixel contributes 1.
+     * @param outletsOnly if true, the pixels that are not a drainage direction (1 to 8) are
+     *        accumulated only if they are outlets (10). The others get 0 and don't receive
+     *        anything, as it is done in the total contributing area. If false every valid pixel
+     *        collects what drains into it.
+     * @param result the array to fill with the accumulated values.
+     * @return true if all the pixels were resolved, false if a loop was found.
+     */
+    public boolean accumulate( double[] own, boolean outletsOnly, double[] result ) {
+        int n = flow.length;
+        int[] inDegree = new int[n];
+        boolean[] collects = new boolean[n];
+        int valid = 0;
+        for( int i = 0; i < n; i++ ) {
+            int f = flow[i];
+            if (isNovalue(f)) {
+                result[i] = JGrassConstants.doubleNovalue;
+                continue;
+            }
+            valid++;
+            collects[i] = !outletsOnly || (f >= 1 && f <= 8) || f == 10;
+            if (collects[i]) {
+                result[i] = own == null ? 1.0 : own[i];
+            } else {
+                result[i] = 0.0;
+            }
+        }
+        for( int i = 0; i < n; i++ ) {
+            int d = downstream[i];
+            if (d != -1 && collects[d]) {
+                inDegree[d]++;
+            }
+        }
+
+        /* the sources, used as a queue for the topological visit */
+        int[] queue = new int[valid];
+        int head = 0;
+        int tail = 0;
+        for( int i = 0; i < n; i++ ) {
+            if (!isNovalue(flow[i]) && inDegree[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        while( head < tail ) {
+            int i = queue[head++];
+            int d = downstream[i];
+            if (d == -1 || !collects[d]) {
+                continue;
+            }
+            result[d] += result[i];
+            if (--inDegree[d] == 0) {
+                queue[tail++] = d;
+            }
+        }
+
+        unresolvedPixel = -1;
+        if (tail < valid) {
+            for( int i = 0; i < n; i++ ) {
+                if (inDegree[i] > 0) {
+                    unresolvedPixel = i;
+                    break;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+}
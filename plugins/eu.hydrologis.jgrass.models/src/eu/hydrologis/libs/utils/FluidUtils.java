@@ -63,6 +63,7 @@ import javax.vecmath.Point4d;
 
 import com.vividsolutions.jts.geom.Geometry;
 
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
@@ -231,6 +232,20 @@ public class FluidUtils {
         imageRandomIter.done();
     }
 
+    /**
+     * Computes an area operation by blocks on a pool of threads and creates a border of novalue,
+     * as {@link #setJaiNovalueBorder(RenderedOp)} does on the operation.
+     * 
+     * @param areaOp the {@link JGrassAreaOpImage area operation}.
+     * @param threads the number of threads.
+     * @return the computed raster.
+     */
+    public static WritableRaster computeWithNovalueBorder( RenderedOp areaOp, int threads ) {
+        WritableRaster raster = ((JGrassAreaOpImage) areaOp.getRendering()).computeTiles(threads);
+        setJAInoValueBorderIT(raster);
+        return raster;
+    }
+
     /**
      * Creates a border of novalue.
      * 
@@ -353,13 +368,13 @@ public class FluidUtils {
      * Moves one pixel upstream.
      * 
      * @param p
-     * @param m
-     * @param tca
-     * @param l
+     * @param flowGrid
+     * @param tcaGrid
+     * @param lGrid
      * @param param
      */
-    public static void go_upstream_a( int[] p, RandomIter flowRandomIter, RandomIter tcaRandomIter,
-            RandomIter lRandomIter, int[] param ) {
+    public static void go_upstream_a( int[] p, GridDouble flowGrid, GridDouble tcaGrid,
+            GridDouble lGrid, int[] param ) {
         double area = 0, lenght = 0;
         int[] point = new int[2];
         int kk = 0, count = 0;
@@ -369,30 +384,30 @@ public class FluidUtils {
         // check how many pixels are draining in the considered pixel and select
         // the pixel with maximun tca
         for( int k = 1; k <= 8; k++ ) {
-            if (flowRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1] + dirIn[k][1], 0) == dirIn[k][2]) {
+            int col = p[0] + dirIn[k][0];
+            int row = p[1] + dirIn[k][1];
+            if (flowGrid.get(col, row) == dirIn[k][2]) {
                 // counts how many pixels are draining in the considere
                 count++;
-                if (tcaRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1] + dirIn[k][1], 0) >= area) {
+                double tca = tcaGrid.get(col, row);
+                if (tca >= area) {
                     // if two pixels has the same tca select the pixel with the
                     // maximum vale of hacklength
-                    if (tcaRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1] + dirIn[k][1], 0) == area) {
-                        if (lRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1] + dirIn[k][1], 0) > lenght) {
+                    double l = lGrid.get(col, row);
+                    if (tca == area) {
+                        if (l > lenght) {
                             kk = k;
-                            area = tcaRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1]
-                                    + dirIn[k][1], 0);
-                            lenght = lRandomIter.getSampleDouble(p[0] + dirIn[k][0], p[1]
-                                    + dirIn[k][1], 0);
-                            point[0] = p[0] + dirIn[k][0];
-                            point[1] = p[1] + dirIn[k][1];
+                            area = tca;
+                            lenght = l;
+                            point[0] = col;
+                            point[1] = row;
                         }
                     } else {
                         kk = k;
-                        area = tcaRandomIter.getSampleDouble(p[0] + dirIn[k][0],
-                                p[1] + dirIn[k][1], 0);
-                        lenght = lRandomIter.getSampleDouble(p[0] + dirIn[k][0],
-                                p[1] + dirIn[k][1], 0);
-                        point[0] = p[0] + dirIn[k][0];
-                        point[1] = p[1] + dirIn[k][1];
+                        area = tca;
+                        lenght = l;
+                        point[0] = col;
+                        point[1] = row;
                     }
                 }
             }
@@ -471,6 +486,27 @@ public class FluidUtils {
         }
     }
 
+    /**
+     * Verifies if the point is a source pixel in the supplied flow grid.
+     * 
+     * @param flowGrid
+     * @param colRow the col and row of the point to check.
+     * @return
+     */
+    public static boolean sourcesq( GridDouble flowGrid, int[] colRow ) {
+        double direction = flowGrid.get(colRow[0], colRow[1]);
+        if (direction < 9.0 && direction > 0.0) {
+            for( int k = 1; k <= 8; k++ ) {
+                if (flowGrid.get(colRow[0] + dirIn[k][0], colRow[1] + dirIn[k][1]) == dirIn[k][2]) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     // /**
     // * SOURCESQ check if a pixel is a source
     // *
@@ -606,18 +642,16 @@ public class FluidUtils {
      * OUTLETDISTANCE calculates the distance of every pixel of the catchment basin from the outlet,
      * calculated along the drainage directions
      * 
-     * @param flowImage
-     * @param distToOutImage
+     * @param flowGrid the drainage directions, with novalues on the border.
+     * @param distToOutGrid the grid to fill with the distances, initially zero.
      * @param dx
      * @param dy
      * @param out
      */
-    public static void outletdistance( RandomIter fileRandomIter, WritableRaster distToOutImage,
-            double dx, double dy, PrintStream out ) {
-        WritableRandomIter distToOutRandomIter = RandomIterFactory.createWritable(distToOutImage,
-                null);
-        int activeCols = distToOutImage.getWidth();
-        int activeRows = distToOutImage.getHeight();
+    public static void outletdistance( GridDouble flowGrid, GridDouble distToOutGrid, double dx,
+            double dy, PrintStream out ) {
+        int activeCols = distToOutGrid.getCols();
+        int activeRows = distToOutGrid.getRows();
         int[] flow = new int[2];
         double oldir = 0.0;
         double[] grid = new double[11];
@@ -634,48 +668,44 @@ public class FluidUtils {
             for( int j = 0; j < activeCols; j++ ) {
                 flow[0] = j;
                 flow[1] = i;
-                if (isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))) {
-                    distToOutRandomIter.setSample(flow[0], flow[1], 0, doubleNovalue);
-                } else {
-                    if (FluidUtils.sourcesqJAI(fileRandomIter, flow)) {
-                        count = 0;
-                        oldir = fileRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                        FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                flow[1], 0));
-                        while( !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && fileRandomIter.getSampleDouble(flow[0], flow[1], 0) != 10.0
-                                && distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) <= 0 ) {
-                            count += grid[(int) oldir];
-                            oldir = fileRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                            FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                    flow[1], 0));
-                        }
-                        if (distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) > 0) {
-                            count += grid[(int) oldir]
-                                    + distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                            distToOutRandomIter.setSample(j, i, 0, count);
-                        } else if (fileRandomIter.getSampleDouble(flow[0], flow[1], 0) > 9) {
-                            distToOutRandomIter.setSample(flow[0], flow[1], 0, 0);
-                            count += grid[(int) oldir];
-                            distToOutRandomIter.setSample(j, i, 0, count);
-                        }
+                double direction = flowGrid.get(j, i);
+                if (isNovalue(direction)) {
+                    distToOutGrid.set(j, i, doubleNovalue);
+                } else if (sourcesq(flowGrid, flow)) {
+                    count = 0;
+                    oldir = direction;
+                    go_downstream(flow, direction);
+                    direction = flowGrid.get(flow[0], flow[1]);
+                    while( !isNovalue(direction) && direction != 10.0
+                            && distToOutGrid.get(flow[0], flow[1]) <= 0 ) {
+                        count += grid[(int) oldir];
+                        oldir = direction;
+                        go_downstream(flow, direction);
+                        direction = flowGrid.get(flow[0], flow[1]);
+                    }
+                    double downstreamDist = distToOutGrid.get(flow[0], flow[1]);
+                    if (downstreamDist > 0) {
+                        count += grid[(int) oldir] + downstreamDist;
+                        distToOutGrid.set(j, i, count);
+                    } else if (direction > 9) {
+                        distToOutGrid.set(flow[0], flow[1], 0);
+                        count += grid[(int) oldir];
+                        distToOutGrid.set(j, i, count);
+                    }
 
-                        flow[0] = j;
-                        flow[1] = i;
-                        oldir = fileRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                        FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                flow[1], 0));
-                        while( !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && fileRandomIter.getSampleDouble(flow[0], flow[1], 0) != 10.0
-                                && distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) <= 0 ) {
-                            count -= grid[(int) oldir];
-                            distToOutRandomIter.setSample(flow[0], flow[1], 0, count);
-                            oldir = fileRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                            FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                    flow[1], 0));
-                        }
+                    flow[0] = j;
+                    flow[1] = i;
+                    direction = flowGrid.get(j, i);
+                    oldir = direction;
+                    go_downstream(flow, direction);
+                    direction = flowGrid.get(flow[0], flow[1]);
+                    while( !isNovalue(direction) && direction != 10.0
+                            && distToOutGrid.get(flow[0], flow[1]) <= 0 ) {
+                        count -= grid[(int) oldir];
+                        distToOutGrid.set(flow[0], flow[1], count);
+                        oldir = direction;
+                        go_downstream(flow, direction);
+                        direction = flowGrid.get(flow[0], flow[1]);
                     }
                 }
             }
@@ -688,19 +718,17 @@ public class FluidUtils {
      * Calculates the distance of every pixel of the catchment basin from the outlet, calculated
      * along the drainage directions. It is topological disance.
      * 
-     * @param flowImage
-     * @param distToOutImage
+     * @param flowGrid the drainage directions, with novalues on the border.
+     * @param distToOutGrid the grid to fill with the distances, initially zero.
      * @param out
      */
-    public static void topological_outletdistance( RandomIter fileRandomIter,
-            WritableRaster distToOutImage, PrintStream out ) {
+    public static void topological_outletdistance( GridDouble flowGrid, GridDouble distToOutGrid,
+            PrintStream out ) {
 
         int[] flow = new int[2];
         double count = 0.0;
-        int activecols = distToOutImage.getWidth();
-        int activerows = distToOutImage.getHeight();
-        WritableRandomIter distToOutRandomIter = RandomIterFactory.createWritable(distToOutImage,
-                null);
+        int activecols = distToOutGrid.getCols();
+        int activerows = distToOutGrid.getRows();
 
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask("Calculating topological outlet distance...", activerows);
@@ -708,44 +736,39 @@ public class FluidUtils {
             for( int j = 0; j < activecols; j++ ) {
                 flow[0] = j;
                 flow[1] = i;
-                if (isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))) {
-                    distToOutRandomIter.setSample(flow[0], flow[1], 0, doubleNovalue);
+                double direction = flowGrid.get(j, i);
+                if (isNovalue(direction)) {
+                    distToOutGrid.set(j, i, doubleNovalue);
+                } else if (sourcesq(flowGrid, flow)) {
+                    count = 0;
+                    go_downstream(flow, direction);
+                    direction = flowGrid.get(flow[0], flow[1]);
+                    while( !isNovalue(direction) && direction != 10.0
+                            && distToOutGrid.get(flow[0], flow[1]) <= 0 ) {
+                        count += 1;
+                        go_downstream(flow, direction);
+                        direction = flowGrid.get(flow[0], flow[1]);
+                    }
+                    double downstreamDist = distToOutGrid.get(flow[0], flow[1]);
+                    if (downstreamDist > 0) {
+                        count += 1 + downstreamDist;
+                        distToOutGrid.set(j, i, count);
+                    } else if (direction > 9) {
+                        distToOutGrid.set(flow[0], flow[1], 0);
+                        count += 1;
+                        distToOutGrid.set(j, i, count);
+                    }
 
-                } else {
                     flow[0] = j;
                     flow[1] = i;
-                    if (FluidUtils.sourcesqJAI(fileRandomIter, flow)) {
-                        count = 0;
-                        FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                flow[1], 0));
-                        while( !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && fileRandomIter.getSampleDouble(flow[0], flow[1], 0) != 10.0
-                                && distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) <= 0 ) {
-                            count += 1;
-                            FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                    flow[1], 0));
-                        }
-                        if (distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) > 0) {
-                            count += 1 + distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0);
-                            distToOutRandomIter.setSample(j, i, 0, count);
-                        } else if (fileRandomIter.getSampleDouble(flow[0], flow[1], 0) > 9) {
-                            distToOutRandomIter.setSample(flow[0], flow[1], 0, 0);
-                            count += 1;
-                            distToOutRandomIter.setSample(j, i, 0, count);
-                        }
-
-                        flow[0] = j;
-                        flow[1] = i;
-                        FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                flow[1], 0));
-                        while( !isNovalue(fileRandomIter.getSampleDouble(flow[0], flow[1], 0))
-                                && fileRandomIter.getSampleDouble(flow[0], flow[1], 0) != 10.0
-                                && distToOutRandomIter.getSampleDouble(flow[0], flow[1], 0) <= 0 ) {
-                            count -= 1;
-                            distToOutRandomIter.setSample(flow[0], flow[1], 0, count);
-                            FluidUtils.go_downstream(flow, fileRandomIter.getSampleDouble(flow[0],
-                                    flow[1], 0));
-                        }
+                    go_downstream(flow, flowGrid.get(j, i));
+                    direction = flowGrid.get(flow[0], flow[1]);
+                    while( !isNovalue(direction) && direction != 10.0
+                            && distToOutGrid.get(flow[0], flow[1]) <= 0 ) {
+                        count -= 1;
+                        distToOutGrid.set(flow[0], flow[1], count);
+                        go_downstream(flow, direction);
+                        direction = flowGrid.get(flow[0], flow[1]);
                     }
                 }
             }
@@ -766,37 +789,41 @@ public class FluidUtils {
      */
     public static WritableRaster sum_downstream( RandomIter flowRandomIter,
             RandomIter netRandomIter, int width, int height, PrintStream out ) {
-        int[] punto = new int[2];
-        WritableRaster distImage = FluidUtils.createDoubleWritableRaster(width, height, null, null,
-                null);
-        WritableRandomIter distRandomIter = RandomIterFactory.createWritable(distImage, null);
-
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
-        pm.beginTask("Calculating downstream sum...", height);
+        pm.beginTask("Calculating downstream sum...", height + 1);
+        int[] flow = new int[width * height];
+        double[] net = new double[width * height];
         for( int j = 0; j < height; j++ ) {
             for( int i = 0; i < width; i++ ) {
-                if (!isNovalue(flowRandomIter.getSampleDouble(i, j, 0))) {
-                    punto[0] = i;
-                    punto[1] = j;
-                    while( flowRandomIter.getSampleDouble(punto[0], punto[1], 0) < 9
-                            && !isNovalue(flowRandomIter.getSampleDouble(punto[0], punto[1], 0)) ) {
-                        distRandomIter.setSample(punto[0], punto[1], 0, distRandomIter
-                                .getSampleDouble(punto[0], punto[1], 0)
-                                + netRandomIter.getSampleDouble(i, j, 0));
-                        if (!FluidUtils.go_downstream(punto, flowRandomIter.getSampleDouble(
-                                punto[0], punto[1], 0)))
-                            return null;
-                    }
-
-                    distRandomIter.setSample(punto[0], punto[1], 0, distRandomIter.getSampleDouble(
-                            punto[0], punto[1], 0)
-                            + netRandomIter.getSampleDouble(i, j, 0));
-                } else {
-                    distRandomIter.setSample(i, j, 0, JGrassConstants.doubleNovalue);
+                int index = j * width + i;
+                double flowValue = flowRandomIter.getSampleDouble(i, j, 0);
+                if (isNovalue(flowValue)) {
+                    flow[index] = intNovalue;
+                    continue;
                 }
+                flow[index] = (int) flowValue;
+                if (flow[index] < 1) {
+                    // invalid drainage direction
+                    return null;
+                }
+                net[index] = netRandomIter.getSampleDouble(i, j, 0);
             }
             pm.worked(1);
         }
+
+        /*
+         * every pixel gets its own value plus the sum of the values of all the pixels upstream,
+         * visiting the pixels from the sources to the outlets.
+         */
+        FlowAccumulator accumulator = new FlowAccumulator(flow, width, height);
+        double[] sum = new double[width * height];
+        if (accumulator.getLoop() != null || !accumulator.accumulate(net, false, sum)) {
+            return null;
+        }
+        WritableRaster distImage = FluidUtils.createDoubleWritableRaster(width, height, null, null,
+                null);
+        distImage.setSamples(0, 0, width, height, 0, sum);
+        pm.worked(1);
         pm.done();
 
         return distImage;
@@ -1254,56 +1281,10 @@ public class FluidUtils {
      * @param data
      * @param tp
      * @return
+     * @see WidthFunction#henderson(int)
      */
     public static double henderson( double[][] data, int tp ) {
-
-        int rows = data.length;
-
-        int j = 1, n = 0;
-        double dt = 0, muno, mdue, a, b, x, y, ydue, s_uno, s_due, smax = 0, tstar;
-
-        for( int i = 1; i < rows; i++ ) {
-
-            if (data[i][0] + tp <= data[(rows - 1)][0]) {
-                /**
-                 * ***trovo parametri geometrici del segmento di retta y=muno x+a******
-                 */
-
-                muno = (data[i][1] - data[(i - 1)][1]) / (data[i][0] - data[(i - 1)][0]);
-                a = data[i][1] - (data[i][0] + tp) * muno;
-
-                /**
-                 * ***trovo i valori di x per l'intersezione tra y=(muno x+tp)+a e y=mdue x+b ******
-                 */
-                for( j = 1; j <= (rows - 1); j++ ) {
-                    mdue = (data[j][1] - data[(j - 1)][1]) / (data[j][0] - data[(j - 1)][0]);
-
-                    b = data[j][1] - data[j][0] * mdue;
-                    x = (a - b) / (mdue - muno);
-                    y = muno * x + a;
-                    if (x >= data[(j - 1)][0] && x <= data[j][0] && x - tp >= data[(i - 1)][0]
-                            && x - tp <= data[i][0]) {
-
-                        ydue = width_interpolate(data, x - tp, 0, 1);
-                        n++;
-
-                        s_uno = width_interpolate(data, x - tp, 0, 2);
-
-                        s_due = width_interpolate(data, x, 0, 2);
-
-                        if (s_due - s_uno > smax) {
-                            smax = s_due - s_uno;
-                            dt = x - tp;
-                            tstar = x;
-
-                        }
-                    }
-                }
-
-            }
-        }
-        return dt;
-
+        return new WidthFunction(data).henderson(tp);
     }
 
     /**
@@ -0,0 +1,140 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * <p>
+ * A single band raster kept in a flat primitive array, row after row.
+ * </p>
+ * <p>
+ * The kernels that visit the neighbours of every pixel many times read and write the grid
+ * directly instead of going through a {@link javax.media.jai.iterator.RandomIter}, which has to
+ * look up the tile of the pixel at every access. The grids are filled once from the input images
+ * or coverages and converted back to rasters at the end.
+ * </p>
+ * <p>
+ * Reading a pixel outside the grid gives the novalue of the grid, so that the kernels can look
+ * at the neighbours of the border pixels without checking the bounds.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public abstract class Grid {
+
+    protected final int cols;
+    protected final int rows;
+
+    protected Grid( int cols, int rows ) {
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return true if the col and row are inside the grid.
+     */
+    public boolean isInside( int col, int row ) {
+        return col >= 0 && col < cols && row >= 0 && row < rows;
+    }
+
+    /**
+     * @return the index of the pixel in the flat array.
+     */
+    public int index( int col, int row ) {
+        return row * cols + col;
+    }
+
+    /**
+     * @return the value of the pixel as double, the novalue outside the grid.
+     */
+    public abstract double getDouble( int col, int row );
+
+    /**
+     * Sets the novalue on the first and last rows and columns.
+     */
+    public abstract void setNovalueBorder();
+
+    /**
+     * @return a new raster with the values of the grid, of the data type of the grid.
+     */
+    public abstract WritableRaster toWritableRaster();
+
+    /**
+     * Copies the values of the grid into an existing raster, whatever its data type.
+     * 
+     * @param raster the raster to fill, of the size of the grid.
+     */
+    public abstract void toWritableRaster( WritableRaster raster );
+
+    /**
+     * Copies the first band of an image into the grid.
+     */
+    protected void read( RenderedImage image ) {
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        Rectangle bounds = new Rectangle(minX, minY, cols, rows);
+        int minTileX = image.getMinTileX();
+        int minTileY = image.getMinTileY();
+        for( int tileY = minTileY; tileY < minTileY + image.getNumYTiles(); tileY++ ) {
+            for( int tileX = minTileX; tileX < minTileX + image.getNumXTiles(); tileX++ ) {
+                Raster tile = image.getTile(tileX, tileY);
+                Rectangle area = bounds.intersection(tile.getBounds());
+                if (area.isEmpty()) {
+                    continue;
+                }
+                for( int y = area.y; y < area.y + area.height; y++ ) {
+                    readRow(tile, area.x, y, area.width, index(area.x - minX, y - minY));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the first band of a raster into the grid.
+     */
+    protected void read( Raster raster ) {
+        int minX = raster.getMinX();
+        int minY = raster.getMinY();
+        for( int y = 0; y < rows; y++ ) {
+            readRow(raster, minX, minY + y, cols, index(0, y));
+        }
+    }
+
+    /**
+     * Copies a part of a row of the raster into the array, starting from the given index.
+     */
+    protected abstract void readRow( Raster raster, int x, int y, int width, int offset );
+
+}
@@ -0,0 +1,171 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+
+/**
+ * A {@link Grid} of float values, with NaN as novalue.
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class GridFloat extends Grid {
+
+    private final float[] data;
+    private float[] rowBuffer;
+
+    /**
+     * Creates a grid filled with zeros.
+     */
+    public GridFloat( int cols, int rows ) {
+        super(cols, rows);
+        data = new float[cols * rows];
+    }
+
+    /**
+     * Creates a grid filled with a value.
+     */
+    public GridFloat( int cols, int rows, float value ) {
+        this(cols, rows);
+        fill(value);
+    }
+
+    /**
+     * Creates a grid on an existing array, which is not copied.
+     */
+    public GridFloat( int cols, int rows, float[] data ) {
+        super(cols, rows);
+        if (data.length != cols * rows) {
+            throw new IllegalArgumentException("The array doesn't have the size of the grid.");
+        }
+        this.data = data;
+    }
+
+    /**
+     * @return a grid with the first band of the image.
+     */
+    public static GridFloat fromRenderedImage( RenderedImage image ) {
+        GridFloat grid = new GridFloat(image.getWidth(), image.getHeight());
+        grid.read(image);
+        return grid;
+    }
+
+    /**
+     * @return a grid with the first band of the raster.
+     */
+    public static GridFloat fromRaster( Raster raster ) {
+        GridFloat grid = new GridFloat(raster.getWidth(), raster.getHeight());
+        grid.read(raster);
+        return grid;
+    }
+
+    /**
+     * @return a grid with the first band of the coverage.
+     */
+    public static GridFloat fromCoverage( GridCoverage2D coverage ) {
+        return fromRenderedImage(coverage.getRenderedImage());
+    }
+
+    /**
+     * @return the array holding the values, row after row.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the value of the pixel, the novalue outside the grid.
+     */
+    public float get( int col, int row ) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return Float.NaN;
+        }
+        return data[row * cols + col];
+    }
+
+    /**
+     * @return the value at the index of the flat array.
+     */
+    public float get( int index ) {
+        return data[index];
+    }
+
+    /**
+     * Sets the value of a pixel, which has to be inside the grid.
+     */
+    public void set( int col, int row, float value ) {
+        data[row * cols + col] = value;
+    }
+
+    /**
+     * Sets the value at the index of the flat array.
+     */
+    public void set( int index, float value ) {
+        data[index] = value;
+    }
+
+    public void fill( float value ) {
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = value;
+        }
+    }
+
+    public double getDouble( int col, int row ) {
+        return get(col, row);
+    }
+
+    public void setNovalueBorder() {
+        float novalue = Float.NaN;
+        for( int col = 0; col < cols; col++ ) {
+            data[col] = novalue;
+            data[(rows - 1) * cols + col] = novalue;
+        }
+        for( int row = 0; row < rows; row++ ) {
+            data[row * cols] = novalue;
+            data[row * cols + cols - 1] = novalue;
+        }
+    }
+
+    public WritableRaster toWritableRaster() {
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(cols, rows, Float.class, null, null);
+        toWritableRaster(raster);
+        return raster;
+    }
+
+    public void toWritableRaster( WritableRaster raster ) {
+        raster.setSamples(raster.getMinX(), raster.getMinY(), cols, rows, 0, data);
+    }
+
+    protected void readRow( Raster raster, int x, int y, int width, int offset ) {
+        if (rowBuffer == null || rowBuffer.length < width) {
+            rowBuffer = new float[width];
+        }
+        raster.getSamples(x, y, width, 1, 0, rowBuffer);
+        System.arraycopy(rowBuffer, 0, data, offset, width);
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+
+/**
+ * A {@link Grid} of int values, with {@link JGrassConstants#intNovalue} as novalue. The
+ * novalues of the images read are converted to intNovalue, the other values are truncated.
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class GridInt extends Grid {
+
+    private final int[] data;
+    private double[] rowBuffer;
+
+    /**
+     * Creates a grid filled with zeros.
+     */
+    public GridInt( int cols, int rows ) {
+        super(cols, rows);
+        data = new int[cols * rows];
+    }
+
+    /**
+     * Creates a grid filled with a value.
+     */
+    public GridInt( int cols, int rows, int value ) {
+        this(cols, rows);
+        fill(value);
+    }
+
+    /**
+     * Creates a grid on an existing array, which is not copied.
+     */
+    public GridInt( int cols, int rows, int[] data ) {
+        super(cols, rows);
+        if (data.length != cols * rows) {
+            throw new IllegalArgumentException("The array doesn't have the size of the grid.");
+        }
+        this.data = data;
+    }
+
+    /**
+     * @return a grid with the first band of the image.
+     */
+    public static GridInt fromRenderedImage( RenderedImage image ) {
+        GridInt grid = new GridInt(image.getWidth(), image.getHeight());
+        grid.read(image);
+        return grid;
+    }
+
+    /**
+     * @return a grid with the first band of the raster.
+     */
+    public static GridInt fromRaster( Raster raster ) {
+        GridInt grid = new GridInt(raster.getWidth(), raster.getHeight());
+        grid.read(raster);
+        return grid;
+    }
+
+    /**
+     * @return a grid with the first band of the coverage.
+     */
+    public static GridInt fromCoverage( GridCoverage2D coverage ) {
+        return fromRenderedImage(coverage.getRenderedImage());
+    }
+
+    /**
+     * @return the array holding the values, row after row.
+     */
+    public int[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the value of the pixel, the novalue outside the grid.
+     */
+    public int get( int col, int row ) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return JGrassConstants.intNovalue;
+        }
+        return data[row * cols + col];
+    }
+
+    /**
+     * @return the value at the index of the flat array.
+     */
+    public int get( int index ) {
+        return data[index];
+    }
+
+    /**
+     * Sets the value of a pixel, which has to be inside the grid.
+     */
+    public void set( int col, int row, int value ) {
+        data[row * cols + col] = value;
+    }
+
+    /**
+     * Sets the value at the index of the flat array.
+     */
+    public void set( int index, int value ) {
+        data[index] = value;
+    }
+
+    public void fill( int value ) {
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = value;
+        }
+    }
+
+    public double getDouble( int col, int row ) {
+        int value = get(col, row);
+        return value == JGrassConstants.intNovalue ? JGrassConstants.doubleNovalue : value;
+    }
+
+    public void setNovalueBorder() {
+        int novalue = JGrassConstants.intNovalue;
+        for( int col = 0; col < cols; col++ ) {
+            data[col] = novalue;
+            data[(rows - 1) * cols + col] = novalue;
+        }
+        for( int row = 0; row < rows; row++ ) {
+            data[row * cols] = novalue;
+            data[row * cols + cols - 1] = novalue;
+        }
+    }
+
+    public WritableRaster toWritableRaster() {
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(cols, rows, Integer.class, null, null);
+        toWritableRaster(raster);
+        return raster;
+    }
+
+    /**
+     * Copies the values of the grid into an existing raster, whatever its data type. The
+     * novalues are written as {@link JGrassConstants#doubleNovalue} in floating point rasters.
+     */
+    public void toWritableRaster( WritableRaster raster ) {
+        int dataType = raster.getSampleModel().getDataType();
+        if (dataType != DataBuffer.TYPE_DOUBLE && dataType != DataBuffer.TYPE_FLOAT) {
+            raster.setSamples(raster.getMinX(), raster.getMinY(), cols, rows, 0, data);
+            return;
+        }
+        double[] row = new double[cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int value = data[r * cols + c];
+                row[c] = value == JGrassConstants.intNovalue ? JGrassConstants.doubleNovalue : value;
+            }
+            raster.setSamples(raster.getMinX(), raster.getMinY() + r, cols, 1, 0, row);
+        }
+    }
+
+    protected void readRow( Raster raster, int x, int y, int width, int offset ) {
+        if (rowBuffer == null || rowBuffer.length < width) {
+            rowBuffer = new double[width];
+        }
+        raster.getSamples(x, y, width, 1, 0, rowBuffer);
+        for( int i = 0; i < width; i++ ) {
+            double value = rowBuffer[i];
+            data[offset + i] = JGrassConstants.isNovalue(value) ? JGrassConstants.intNovalue : (int) value;
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+
+/**
+ * <p>
+ * Calculates the elevation angle of the horizon of every pixel of a digital elevation model, in
+ * a given azimuth.
+ * </p>
+ * <p>
+ * The pixels are visited along lines parallel to the azimuth, starting from the side of the map
+ * the azimuth points to. Along every line the upper convex hull of the profile already visited is
+ * kept on a stack: the horizon of a pixel is the tangent from the pixel to the hull, and the hull
+ * points that are below the tangent can never be the horizon of the pixels further back on the
+ * line, so they are removed. Every pixel is pushed and popped at most once, so the horizons of a
+ * whole azimuth are found in a single sweep, instead of tracing a ray from every pixel.
+ * </p>
+ * <p>
+ * The horizon is zero where the terrain ahead doesn't rise above the pixel, which is also the
+ * case on the border of the map, the terrain beyond being unknown. Novalues have a novalue
+ * horizon and don't hide anything.
+ * </p>
+ * <p>
+ * The azimuths are independent and are swept in parallel on the number of threads given. The
+ * horizons of all the azimuths can be kept for the insolation, see
+ * {@link #horizons(int)} and {@link #isShadowed(double[][], int, double, double)}.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class HorizonAngles {
+
+    private final double[] elevation;
+    private final int cols;
+    private final int rows;
+    private final double res;
+    private int threads = 1;
+
+    /**
+     * @param elevation the elevation model.
+     * @param res the resolution of the model, pixels have to be square.
+     */
+    public HorizonAngles( GridDouble elevation, double res ) {
+        this.elevation = elevation.getData();
+        this.cols = elevation.getCols();
+        this.rows = elevation.getRows();
+        this.res = res;
+    }
+
+    /**
+     * Sets the number of threads used to sweep the azimuths, default is 1.
+     * 
+     * @param threads the number of threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Calculates the horizon of every pixel in an azimuth.
+     * 
+     * @param azimuth the azimuth in radians, 0 north and clockwise.
+     * @return the elevation angles of the horizon in radians, row after row.
+     */
+    public double[] horizon( double azimuth ) {
+        /*
+         * the direction the horizon is looked for, in columns and rows. The sweep goes the
+         * opposite way, one step along the major axis at the time.
+         */
+        double dirCol = Math.sin(azimuth);
+        double dirRow = -Math.cos(azimuth);
+        boolean colMajor = Math.abs(dirCol) >= Math.abs(dirRow);
+        int majorSize = colMajor ? cols : rows;
+        int minorSize = colMajor ? rows : cols;
+        double major = colMajor ? dirCol : dirRow;
+        double minor = colMajor ? dirRow : dirCol;
+        int majorStart = major > 0 ? majorSize - 1 : 0;
+        int majorStep = major > 0 ? -1 : 1;
+        double slope = -minor / Math.abs(major);
+        double stepLength = res * Math.sqrt(1.0 + slope * slope);
+
+        // the offset of the minor index after every step, the same for all the lines
+        int[] offsets = new int[majorSize];
+        int minOffset = 0;
+        int maxOffset = 0;
+        for( int m = 0; m < majorSize; m++ ) {
+            offsets[m] = (int) Math.round(m * slope);
+            minOffset = Math.min(minOffset, offsets[m]);
+            maxOffset = Math.max(maxOffset, offsets[m]);
+        }
+
+        double[] horizon = new double[elevation.length];
+        double[] hullDistance = new double[majorSize];
+        double[] hullElevation = new double[majorSize];
+        for( int line = -maxOffset; line < minorSize - minOffset; line++ ) {
+            int hullSize = 0;
+            for( int m = 0; m < majorSize; m++ ) {
+                int minorIndex = line + offsets[m];
+                if (minorIndex < 0 || minorIndex >= minorSize) {
+                    continue;
+                }
+                int majorIndex = majorStart + m * majorStep;
+                int index = colMajor ? minorIndex * cols + majorIndex : majorIndex * cols
+                        + minorIndex;
+                double z = elevation[index];
+                if (JGrassConstants.isNovalue(z)) {
+                    horizon[index] = JGrassConstants.doubleNovalue;
+                    continue;
+                }
+                double distance = m * stepLength;
+                /*
+                 * remove the hull points below the tangent from this pixel, the one left on top
+                 * is the horizon
+                 */
+                while( hullSize > 1
+                        && (hullElevation[hullSize - 1] - z) * (distance - hullDistance[hullSize - 2]) <= (hullElevation[hullSize - 2] - z)
+                                * (distance - hullDistance[hullSize - 1]) ) {
+                    hullSize--;
+                }
+                double angle = 0.0;
+                if (hullSize > 0 && hullElevation[hullSize - 1] > z) {
+                    angle = Math.atan((hullElevation[hullSize - 1] - z)
+                            / (distance - hullDistance[hullSize - 1]));
+                }
+                horizon[index] = angle;
+                hullDistance[hullSize] = distance;
+                hullElevation[hullSize] = z;
+                hullSize++;
+            }
+        }
+        return horizon;
+    }
+
+    /**
+     * Calculates the horizons in a number of azimuths equally spaced around the pixels.
+     * 
+     * @param azimuths the number of azimuths, the first being north.
+     * @return the horizons of every azimuth, as returned by {@link #horizon(double)}.
+     */
+    public double[][] horizons( int azimuths ) {
+        final double[][] horizons = new double[azimuths][];
+        sweep(azimuths, new AzimuthHandler(){
+            public void handle( int index, double[] horizon ) {
+                horizons[index] = horizon;
+            }
+        });
+        return horizons;
+    }
+
+    /**
+     * Calculates the sky view factor, the fraction of the sky that is visible from every pixel:
+     * the mean of the squared cosine of the horizon over the azimuths.
+     * 
+     * <p>
+     * Only as many azimuths as threads are kept in memory at the same time.
+     * </p>
+     * 
+     * @param azimuths the number of azimuths.
+     * @return the sky view factor.
+     */
+    public GridDouble skyViewFactor( int azimuths ) {
+        final double[] sky = new double[elevation.length];
+        final double weight = 1.0 / azimuths;
+        sweep(azimuths, new AzimuthHandler(){
+            public void handle( int index, double[] horizon ) {
+                for( int i = 0; i < sky.length; i++ ) {
+                    double cos = Math.cos(horizon[i]);
+                    sky[i] = sky[i] + cos * cos * weight;
+                }
+            }
+        });
+        return new GridDouble(cols, rows, sky);
+    }
+
+    /**
+     * Checks if a pixel is in the shadow of the terrain, interpolating the horizons of the two
+     * azimuths around the sun.
+     * 
+     * @param horizons the horizons, as returned by {@link #horizons(int)}.
+     * @param index the index of the pixel, row after row.
+     * @param azimuth the azimuth of the sun in radians, 0 north and clockwise.
+     * @param elevation the elevation of the sun in radians.
+     * @return true if the sun is below the horizon of the pixel.
+     */
+    public static boolean isShadowed( double[][] horizons, int index, double azimuth,
+            double elevation ) {
+        int azimuths = horizons.length;
+        double position = azimuth / (2.0 * Math.PI) * azimuths;
+        position = position - Math.floor(position / azimuths) * azimuths;
+        int before = (int) position % azimuths;
+        int after = (before + 1) % azimuths;
+        double weight = position - (int) position;
+        double horizon = horizons[before][index] * (1.0 - weight) + horizons[after][index]
+                * weight;
+        return elevation < horizon;
+    }
+
+    /**
+     * Receives the horizons of the azimuths, always from the calling thread and in azimuth order.
+     */
+    private interface AzimuthHandler {
+        public void handle( int index, double[] horizon );
+    }
+
+    /**
+     * Sweeps the azimuths in groups of as many azimuths as threads.
+     */
+    private void sweep( int azimuths, AzimuthHandler handler ) {
+        if (threads == 1) {
+            for( int i = 0; i < azimuths; i++ ) {
+                handler.handle(i, horizon(2.0 * Math.PI * i / azimuths));
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread(r, "HorizonAngles worker"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for( int first = 0; first < azimuths; first += threads ) {
+                List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+                for( int i = first; i < Math.min(first + threads, azimuths); i++ ) {
+                    final double azimuth = 2.0 * Math.PI * i / azimuths;
+                    tasks.add(new Callable<double[]>(){
+                        public double[] call() throws Exception {
+                            return horizon(azimuth);
+                        }
+                    });
+                }
+                List<Future<double[]>> results = executor.invokeAll(tasks);
+                for( int i = 0; i < results.size(); i++ ) {
+                    handler.handle(first + i, results.get(i).get());
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while calculating the horizons.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause.getLocalizedMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
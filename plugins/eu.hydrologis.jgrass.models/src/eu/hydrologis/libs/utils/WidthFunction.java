@@ -0,0 +1,207 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+/**
+ * <p>
+ * A width function table, as used by the IUH and discharge calculators, with indexed lookups.
+ * </p>
+ * <p>
+ * The table has the time in its first column and the width and the cumulated width in the
+ * following ones. {@link FluidUtils#width_interpolate(double[][], double, int, int)} searches the
+ * whole table for every value; since the time column is sorted, the interval is found here with a
+ * binary search, which gives exactly the same values. If the time column is not sorted the table
+ * is searched linearly as before.
+ * </p>
+ * 
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class WidthFunction {
+
+    private final double[][] data;
+    private final int nx;
+    private final double[] x;
+    private final boolean sorted;
+
+    /**
+     * @param data the width function table, with the time in the first column.
+     */
+    public WidthFunction( double[][] data ) {
+        this(data, 0);
+    }
+
+    /**
+     * @param data the width function table.
+     * @param nx the column of data in which the x values are found.
+     */
+    public WidthFunction( double[][] data, int nx ) {
+        this.data = data;
+        this.nx = nx;
+        x = new double[data.length];
+        boolean isSorted = true;
+        for( int i = 0; i < data.length; i++ ) {
+            x[i] = data[i][nx];
+            // also false for novalues
+            if (i > 0 && !(x[i] >= x[i - 1])) {
+                isSorted = false;
+            }
+        }
+        sorted = isSorted;
+    }
+
+    /**
+     * @return the width function table.
+     */
+    public double[][] getData() {
+        return data;
+    }
+
+    /**
+     * Linear interpolation of a column of the table, with the same results as
+     * {@link FluidUtils#width_interpolate(double[][], double, int, int)}.
+     * 
+     * @param value the x value to interpolate.
+     * @param ny the column of the table in which the y values are found.
+     * @return the interpolated value.
+     */
+    public double interpolate( double value, int ny ) {
+        if (!sorted) {
+            return FluidUtils.width_interpolate(data, value, nx, ny);
+        }
+        int rows = x.length;
+        double xuno = 0, xdue = 0, yuno = 0, ydue = 0, y = 0;
+
+        // if 0, interpolate between 0 and the first value of data
+        if (value >= 0 && value < x[0]) {
+            xuno = 0;
+            xdue = x[0];
+            yuno = 0;
+            ydue = data[0][ny];
+            y = ((ydue - yuno) / (xdue - xuno)) * (value - xuno) + yuno;
+        }
+
+        // if it is less than 0 and bigger than the maximum, throw error
+        if (value > x[rows - 1] || value < 0) {
+            throw new RuntimeException("Error in the interpolation algorithm");
+        }
+
+        /*
+         * the interval with x[i] < value <= x[i + 1]: the first x not smaller than the value is
+         * its upper limit
+         */
+        int i = lowerBound(value) - 1;
+        if (i >= 0 && i < rows - 1) {
+            xuno = x[i];
+            xdue = x[i + 1];
+            yuno = data[i][ny];
+            ydue = data[i + 1][ny];
+            y = ((ydue - yuno) / (xdue - xuno)) * (value - xuno) + yuno;
+        }
+        return y;
+    }
+
+    /**
+     * @return the interpolated width.
+     */
+    public double width( double value ) {
+        return interpolate(value, 1);
+    }
+
+    /**
+     * @return the interpolated cumulated width.
+     */
+    public double cumulated( double value ) {
+        return interpolate(value, 2);
+    }
+
+    /**
+     * Solves the henderson equation W(dt) = W(dt + tp), with the same results as
+     * {@link FluidUtils#henderson(double[][], int)}.
+     * <p>
+     * For every segment of the width function only the segments that lie around it shifted by tp
+     * can intersect it, so the search of the intersections is limited to them.
+     * </p>
+     * 
+     * @param tp the rain time.
+     * @return the dt of the maximum cumulated width between dt and dt + tp.
+     */
+    public double henderson( int tp ) {
+        int rows = x.length;
+        double dt = 0, muno, mdue, a, b, xi, s_uno, s_due, smax = 0;
+
+        // an intersection is searched also slightly outside of the shifted segment, to be sure
+        double margin = sorted && rows > 0 ? 1E-6 * (Math.abs(x[0]) + Math.abs(x[rows - 1]) + tp + 1) : 0;
+        for( int i = 1; i < rows; i++ ) {
+
+            if (x[i] + tp <= x[rows - 1]) {
+                muno = (data[i][1] - data[i - 1][1]) / (x[i] - x[i - 1]);
+                a = data[i][1] - (x[i] + tp) * muno;
+
+                int first = 1;
+                double upper = 0;
+                if (sorted) {
+                    first = Math.max(1, lowerBound(x[i - 1] + tp - margin));
+                    upper = x[i] + tp + margin;
+                }
+                for( int j = first; j <= rows - 1; j++ ) {
+                    if (sorted && x[j - 1] > upper) {
+                        break;
+                    }
+                    mdue = (data[j][1] - data[j - 1][1]) / (x[j] - x[j - 1]);
+
+                    b = data[j][1] - x[j] * mdue;
+                    xi = (a - b) / (mdue - muno);
+                    if (xi >= x[j - 1] && xi <= x[j] && xi - tp >= x[i - 1] && xi - tp <= x[i]) {
+                        s_uno = interpolate(xi - tp, 2);
+                        s_due = interpolate(xi, 2);
+
+                        if (s_due - s_uno > smax) {
+                            smax = s_due - s_uno;
+                            dt = xi - tp;
+                        }
+                    }
+                }
+            }
+        }
+        return dt;
+    }
+
+    /**
+     * @return the index of the first x that is not smaller than the value, or the number of rows
+     *         if there is none.
+     */
+    private int lowerBound( double value ) {
+        int low = 0;
+        int high = x.length;
+        while( low < high ) {
+            int mid = (low + high) >>> 1;
+            if (x[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
@@ -84,6 +84,9 @@ public class NcFileWriter {
     private JGrassRegion activeRegion;
     private CoordinateReferenceSystem locationCrs;
     private LinkedHashMap<String, Object> globalAttributes;
+    private JGrassRegion latlongRegion;
+    private NcResamplingGrid resamplingGrid;
+    private int threads = 1;
 
     /**
      * Constructor for the writer.
@@ -260,6 +263,42 @@ public class NcFileWriter {
         return mapsetPath;
     }
 
+    /**
+     * Sets the number of threads used to read and resample the layers, default is 1.
+     * 
+     * @param threads the number of threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Getter for the lat/long grid on which the layers are resampled. It is created at the first
+     * request and then shared by all the layers, since they are all read on the active region.
+     * 
+     * @return the resampling grid.
+     * @throws IOException
+     */
+    public synchronized NcResamplingGrid getResamplingGrid() throws IOException {
+        if (resamplingGrid == null) {
+            try {
+                if (latlongRegion == null) {
+                    latlongRegion = activeRegion.reproject(locationCrs,
+                            DefaultGeographicCRS.WGS84, true);
+                }
+                resamplingGrid = new NcResamplingGrid(activeRegion, locationCrs, latlongRegion);
+            } catch (Exception e) {
+                throw new IOException("An error occurred while creating the lat/long grid: "
+                        + e.getLocalizedMessage());
+            }
+        }
+        return resamplingGrid;
+    }
+
     /**
      * Write the dataset to file.
      * 
@@ -273,7 +312,8 @@ public class NcFileWriter {
             // Create new netcdf-3 file with the given filename
             ncDataFile = NetcdfFileWriteable.createNew(outputNcPath, false);
 
-            JGrassRegion latlongJGrassRegion = activeRegion.reproject(locationCrs, DefaultGeographicCRS.WGS84, true);
+            latlongRegion = activeRegion.reproject(locationCrs, DefaultGeographicCRS.WGS84, true);
+            JGrassRegion latlongJGrassRegion = latlongRegion;
 
             /*
              * addd user global attributes and define default global 
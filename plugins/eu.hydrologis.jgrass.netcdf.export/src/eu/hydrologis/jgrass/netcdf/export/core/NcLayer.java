@@ -35,7 +35,9 @@ import org.opengis.referencing.operation.TransformException;
 
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReadParam;
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
 /**
@@ -102,6 +104,34 @@ public class NcLayer {
         return randomIter;
     }
 
+    /**
+     * Read data from a GRASS raster and resample them on the lat/long grid, without passing
+     * through a coverage and its reprojection. The values are sampled at the coordinates of the lat
+     * and lon variables, see {@link NcResamplingGrid} for how this differs from
+     * {@link #getData(IProgressMonitorJGrass, JGrassRegion, CoordinateReferenceSystem)}.
+     *
+     * @param grid the {@link NcResamplingGrid lat/long grid}, that also gives the region to read.
+     * @param target the array to fill with the values on the lat/long grid.
+     * @param offset the index of the first value of the target to fill.
+     * @throws IOException
+     */
+    public void readLatLongData( NcResamplingGrid grid, double[] target, int offset )
+            throws IOException {
+        JGrassRegion region = grid.getRegion();
+        JGrassRasterMapReader reader = new JGrassRasterMapReader.BuilderFromMapPath(region,
+                rasterPaths[0]).maptype(JGrassConstants.GRASSBINARYRASTERMAP).build();
+        if (!reader.open()) {
+            throw new IOException("Could not open the map: " + rasterPaths[0]);
+        }
+        try {
+            double[][] data = new double[region.getRows()][region.getCols()];
+            reader.getReader().readRows(0, data, 0, data.length);
+            grid.resample(data, target, offset);
+        } finally {
+            reader.close();
+        }
+    }
+
     public String[] getRasterPaths() {
         return rasterPaths;
     }
@@ -0,0 +1,143 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.netcdf.export.core;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+
+/**
+ * The lat/long grid of the netcdf variables resampled on the grid of the GRASS region.
+ *
+ * <p>
+ * For every point of the lat/long grid the cell of the region that contains it is found once,
+ * transforming the coordinates a row at the time. The layers read on the same region are then
+ * resampled, with the nearest neighbour, by a lookup of the cells, without transforming the
+ * coordinates again for every layer.
+ * </p>
+ *
+ * <p>
+ * The lat/long grid is the one of the lat and lon variables written by the {@link NcFileWriter}:
+ * the latlong region split in as many rows and columns as the active region, the lat and lon
+ * variables holding the north west corners of the cells. The values are taken at those same
+ * coordinates, so that every value lies at the lat and lon it is written with. Before this grid,
+ * the layers were resampled to WGS84 by geotools and the resampled image was read by pixel
+ * position, on a grid that geotools derived from the reprojected envelope and that doesn't match
+ * this one exactly. The exported values can therefore move by up to one cell with respect to the
+ * old export, mostly near the borders.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class NcResamplingGrid {
+
+    private final JGrassRegion region;
+    private final int latLength;
+    private final int lonLength;
+
+    /*
+     * the index of the cell of the region (row * cols + col) for every lat/long cell, -1 if
+     * outside of the region
+     */
+    private final int[] cells;
+
+    /**
+     * @param region the region on which the layers are read.
+     * @param regionCrs the {@link CoordinateReferenceSystem} of the region.
+     * @param latlongRegion the lat/long grid, in {@link DefaultGeographicCRS#WGS84}.
+     * @throws FactoryException
+     * @throws TransformException
+     */
+    public NcResamplingGrid( JGrassRegion region, CoordinateReferenceSystem regionCrs,
+            JGrassRegion latlongRegion ) throws FactoryException, TransformException {
+        this.region = region;
+        latLength = latlongRegion.getRows();
+        lonLength = latlongRegion.getCols();
+        int rows = region.getRows();
+        int cols = region.getCols();
+        double west = region.getWest();
+        double north = region.getNorth();
+        double weres = region.getWEResolution();
+        double nsres = region.getNSResolution();
+
+        MathTransform transform = CRS.findMathTransform(DefaultGeographicCRS.WGS84, regionCrs,
+                true);
+        double deltaLon = (latlongRegion.getEast() - latlongRegion.getWest()) / lonLength;
+        double deltaLat = (latlongRegion.getNorth() - latlongRegion.getSouth()) / latLength;
+        double[] points = new double[2 * lonLength];
+        cells = new int[latLength * lonLength];
+        // the coordinates are summed up as the writer does for the lat and lon variables
+        double y = latlongRegion.getNorth();
+        for( int lat = 0; lat < latLength; lat++ ) {
+            double x = latlongRegion.getWest();
+            for( int lon = 0; lon < lonLength; lon++ ) {
+                points[2 * lon] = x;
+                points[2 * lon + 1] = y;
+                x = x + deltaLon;
+            }
+            y = y - deltaLat;
+            transform.transform(points, 0, points, 0, lonLength);
+            for( int lon = 0; lon < lonLength; lon++ ) {
+                double col = Math.floor((points[2 * lon] - west) / weres);
+                double row = Math.floor((north - points[2 * lon + 1]) / nsres);
+                int cell = -1;
+                if (row >= 0 && row < rows && col >= 0 && col < cols) {
+                    cell = (int) row * cols + (int) col;
+                }
+                cells[lat * lonLength + lon] = cell;
+            }
+        }
+    }
+
+    /**
+     * @return the region on which the layers have to be read.
+     */
+    public JGrassRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * Resamples a layer on the lat/long grid.
+     *
+     * @param data the values of the layer on the region, as rows.
+     * @param target the array to fill with the values on the lat/long grid, lat by lat from the
+     *        north, at least as long as the cells of the grid.
+     * @param offset the index of the first value of the target to fill.
+     */
+    public void resample( double[][] data, double[] target, int offset ) {
+        int cols = region.getCols();
+        for( int i = 0; i < cells.length; i++ ) {
+            int cell = cells[i];
+            target[offset + i] = cell == -1 ? Double.NaN : data[cell / cols][cell % cols];
+        }
+    }
+
+    public int getLatLength() {
+        return latLength;
+    }
+
+    public int getLonLength() {
+        return lonLength;
+    }
+
+}
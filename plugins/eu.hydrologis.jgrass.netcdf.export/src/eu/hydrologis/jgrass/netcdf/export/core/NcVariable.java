@@ -21,24 +21,26 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-
-import javax.media.jai.iterator.RandomIter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
 
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.DataType;
-import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFileWriteable;
-import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
 /**
@@ -186,6 +188,13 @@ public class NcVariable {
     /**
      * Write all the defined data to a new netcdf dataset.
      * 
+     * <p>
+     * Every layer is written as a slab at its time and level, so only the layers in flight are
+     * kept in memory, whatever the number of timesteps and levels. The layers are read and
+     * resampled on the lat/long grid by the threads of the {@link NcFileWriter}, at most two
+     * layers per thread ahead of the writing, and written in order.
+     * </p>
+     * 
      * @throws IOException
      * @throws InvalidRangeException
      * @throws FactoryException
@@ -197,70 +206,123 @@ public class NcVariable {
             throw new IOException("Not ready to write. Did you call defineData first?");
         }
 
-        JGrassRegion activeRegion = parentNcFile.getActiveRegion();
-        CoordinateReferenceSystem locationCrs = parentNcFile.getLocationCrs();
-
-        int[] origin = null;
+        final NcResamplingGrid grid = parentNcFile.getResamplingGrid();
+        int threads = parentNcFile.getThreads();
         int latLength = latDim.getLength();
         int lonLength = lonDim.getLength();
-
-        ArrayDouble dataTemp = null;
-        if (timeDim == null && levelDim == null) {
-            dataTemp = new ArrayDouble.D2(latLength, lonLength);
-            origin = new int[2];
-        } else if (timeDim != null && levelDim == null) {
-            dataTemp = new ArrayDouble.D3(timeDim.getLength(), latLength, lonLength);
-            origin = new int[3];
-        } else if (timeDim == null && levelDim != null) {
-            dataTemp = new ArrayDouble.D3(levelDim.getLength(), latLength, lonLength);
-            origin = new int[3];
-        } else if (timeDim != null && levelDim != null) {
-            dataTemp = new ArrayDouble.D4(timeDim.getLength(), levelDim.getLength(), latLength,
-                    lonLength);
-            origin = new int[4];
+        if (grid.getLatLength() != latLength || grid.getLonLength() != lonLength) {
+            throw new IOException("The lat/long grid doesn't match the dimensions of the variable.");
         }
 
-        Index index = dataTemp.getIndex();
-        for( NcLayer layer : ncLayerList ) {
-            String time = layer.getTime();
-            Double level = layer.getLevel();
-            int timeIndex = time != null ? timestepList.indexOf(time) : -1;
-
-            int levelIndex = -1;
-            for( int j = 0; j < levelList.size(); j++ ) {
-                double l = levelList.get(j);
-                if (l == level) {
-                    levelIndex = j;
-                    break;
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "NcVariable worker"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
                 }
-            }
-
-            pm.beginTask("Writing variable: " + name + " layer: " + layer.getName(), latLength);
-
-            RandomIter dataIter = layer.getData(new DummyProgressMonitor(), activeRegion,
-                    locationCrs);
-            for( int lat = 0; lat < latLength; lat++ ) {
-                for( int lon = 0; lon < lonLength; lon++ ) {
-                    if (timeIndex == -1 && levelIndex == -1) {
-                        index.set(lat, lon);
-                    } else if (timeIndex != -1 && levelIndex == -1) {
-                        index.set(timeIndex, lat, lon);
-                    } else if (timeIndex == -1 && levelIndex != -1) {
-                        index.set(levelIndex, lat, lon);
-                    } else if (timeIndex != -1 && levelIndex != -1) {
-                        index.set(timeIndex, levelIndex, lat, lon);
+            });
+        }
+        int inFlight = 2 * threads;
+        LinkedList<Future<ArrayDouble>> pending = new LinkedList<Future<ArrayDouble>>();
+        LinkedList<int[]> pendingOrigins = new LinkedList<int[]>();
+        List<ArrayDouble> free = new ArrayList<ArrayDouble>();
+
+        pm.beginTask("Writing variable: " + name, ncLayerList.size());
+        try {
+            for( final NcLayer layer : ncLayerList ) {
+                int[] origin = getOrigin(layer);
+                final ArrayDouble slab = free.isEmpty() ? createSlab(latLength, lonLength) : free
+                        .remove(free.size() - 1);
+                Callable<ArrayDouble> task = new Callable<ArrayDouble>(){
+                    public ArrayDouble call() throws Exception {
+                        layer.readLatLongData(grid, (double[]) slab.getStorage(), 0);
+                        return slab;
                     }
-                    double sampleDouble = dataIter.getSampleDouble(lon, lat, 0);
-                    dataTemp.setDouble(index, sampleDouble);
+                };
+                if (executor == null) {
+                    FutureTask<ArrayDouble> future = new FutureTask<ArrayDouble>(task);
+                    future.run();
+                    pending.add(future);
+                } else {
+                    pending.add(executor.submit(task));
+                }
+                pendingOrigins.add(origin);
+
+                while( pending.size() >= inFlight
+                        || (!pending.isEmpty() && pending.getFirst().isDone()) ) {
+                    ArrayDouble done = pending.removeFirst().get();
+                    ncDataFile.write(name, pendingOrigins.removeFirst(), done);
+                    free.add(done);
+                    pm.worked(1);
                 }
+            }
+            while( !pending.isEmpty() ) {
+                ncDataFile.write(name, pendingOrigins.removeFirst(), pending.removeFirst().get());
                 pm.worked(1);
             }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while writing the variable " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getLocalizedMessage());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             pm.done();
         }
-        
-        ncDataFile.write(name, origin, dataTemp);
+    }
 
+    /**
+     * @return the position of the slab of the layer in the variable.
+     */
+    private int[] getOrigin( NcLayer layer ) throws IOException {
+        String time = layer.getTime();
+        Double level = layer.getLevel();
+        int timeIndex = time != null ? timestepList.indexOf(time) : -1;
+        int levelIndex = level != null ? levelList.indexOf(level) : -1;
+
+        List<Integer> origin = new ArrayList<Integer>();
+        if (timeDim != null) {
+            if (timeIndex == -1) {
+                throw new IOException("The layer " + layer.getName() + " has no time.");
+            }
+            origin.add(timeIndex);
+        }
+        if (levelDim != null) {
+            if (levelIndex == -1) {
+                throw new IOException("The layer " + layer.getName() + " has no level.");
+            }
+            origin.add(levelIndex);
+        }
+        int[] originArray = new int[origin.size() + 2];
+        for( int i = 0; i < origin.size(); i++ ) {
+            originArray[i] = origin.get(i);
+        }
+        return originArray;
     }
+
+    /**
+     * @return an array for the data of a layer, with the shape of a slab of the variable.
+     */
+    private ArrayDouble createSlab( int latLength, int lonLength ) {
+        if (timeDim == null && levelDim == null) {
+            return new ArrayDouble.D2(latLength, lonLength);
+        } else if (timeDim != null && levelDim != null) {
+            return new ArrayDouble.D4(1, 1, latLength, lonLength);
+        } else {
+            return new ArrayDouble.D3(1, latLength, lonLength);
+        }
+    }
+
     public String getName() {
         return name;
     }
@@ -55,6 +55,7 @@ public class NetcdfExportWizard extends Wizard implements IExportWizard {
         if (globalAttributesMap!=null) {
             ncFileWriter.addGlobalAttributes(globalAttributesMap);
         }
+        ncFileWriter.setThreads(Runtime.getRuntime().availableProcessors());
 
         IRunnableWithProgress operation = new IRunnableWithProgress(){
 
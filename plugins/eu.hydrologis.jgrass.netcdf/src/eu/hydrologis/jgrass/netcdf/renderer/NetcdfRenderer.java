@@ -30,9 +30,6 @@ import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.media.jai.InterpolationNearest;
 import javax.media.jai.JAI;
@@ -49,20 +46,14 @@ import net.refractions.udig.project.internal.render.impl.RendererImpl;
 import net.refractions.udig.project.render.IRenderContext;
 import net.refractions.udig.project.render.IViewportModel;
 import net.refractions.udig.project.render.RenderException;
-import net.refractions.udig.project.render.displayAdapter.IMapDisplay;
 import net.refractions.udig.style.sld.SLDContent;
 import net.refractions.udig.ui.graphics.SLDs;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridEnvelope2D;
-import org.geotools.coverage.grid.GridGeometry2D;
-import org.geotools.coverage.io.CoverageReadRequest;
-import org.geotools.coverage.io.impl.DefaultCoverageReadRequest;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
-import org.geotools.referencing.ReferencingFactoryFinder;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.styling.ColorMap;
@@ -73,18 +64,12 @@ import org.geotools.styling.SLD;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleBuilder;
 import org.geotools.styling.StyleFactory;
-import org.geotools.temporal.object.DefaultInstant;
-import org.geotools.temporal.object.DefaultPosition;
-import org.geotools.util.NumberRange;
 import org.joda.time.DateTime;
 import org.opengis.coverage.grid.GridCoverage;
-import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.filter.expression.Expression;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
-import org.opengis.temporal.TemporalGeometricPrimitive;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
@@ -126,7 +111,6 @@ public class NetcdfRenderer extends RendererImpl {
             Point bottomRight = currentContext.worldToPixel(new Coordinate(envelope.getMaxX(), envelope.getMinY()));
             Rectangle screenSize = new Rectangle(upperLeft);
             screenSize.add(bottomRight);
-            IMapDisplay mapDisplay = currentContext.getMapDisplay();
             CoordinateReferenceSystem destinationCRS = currentContext.getCRS();
             ReferencedEnvelope bounds = (ReferencedEnvelope) currentContext.getImageBounds();
             bounds = bounds.transform(destinationCRS, true);
@@ -136,35 +120,26 @@ public class NetcdfRenderer extends RendererImpl {
             List<DateTime> availableTimeSteps = geoResource.getAvailableTimeSteps();
             double[] availableElevationLevels = geoResource.getAvailableElevationLevels();
 
-            CoverageReadRequest readRequest = new DefaultCoverageReadRequest();
+            DateTime currentTimestepDate = null;
+            Double currentElevationDouble = null;
 
             IViewportModel viewportModel = getContext().getViewportModel();
             if (viewportModel instanceof ViewportModel) {
                 ViewportModel vpm = (ViewportModel) viewportModel;
-                DateTime currentTimestepDate = vpm.getCurrentTimestep();
-                Double currentElevationDouble = vpm.getCurrentElevation();
-
-                if (currentTimestepDate != null && availableTimeSteps.size() > 0) {
-                    SortedSet<TemporalGeometricPrimitive> temporalSubset = new TreeSet<TemporalGeometricPrimitive>();
-                    temporalSubset.add(new DefaultInstant(new DefaultPosition(currentTimestepDate.toDate())));
-                    readRequest.setTemporalSubset(temporalSubset);
+                if (availableTimeSteps.size() > 0) {
+                    currentTimestepDate = vpm.getCurrentTimestep();
                 }
-                if (currentElevationDouble != null && availableElevationLevels != null) {
-                    Set<NumberRange<Double>> verticalSubset = new TreeSet<NumberRange<Double>>();
-                    NumberRange<Double> vertical = new NumberRange<Double>(Double.class, currentElevationDouble, true,
-                            currentElevationDouble, true);
-                    verticalSubset.add(vertical);
-                    readRequest.setVerticalSubset(verticalSubset);
+                if (availableElevationLevels != null) {
+                    currentElevationDouble = vpm.getCurrentElevation();
                 }
             }
-            GridEnvelope range = new GridEnvelope2D(0, 0, mapDisplay.getWidth(), mapDisplay.getHeight());
-            MathTransform displayToLayer = currentContext.worldToScreenMathTransform().inverse();
-            ReferencingFactoryFinder.getMathTransformFactory(null).createConcatenatedTransform(displayToLayer,
-                    currentContext.getLayer().mapToLayerTransform());
-            GridGeometry2D geom = new GridGeometry2D(range, displayToLayer, destinationCRS);
-            readRequest.setDomainSubset(geom.getEnvelope2D());
-
-            GridCoverage2D coverage = geoResource.getGridCoverage(readRequest);
+
+            /*
+             * the slabs are cached by the resource, so changing the timestep back and forth doesn't
+             * read them again, and only the part in the view is read, decimated when zoomed out
+             */
+            GridCoverage2D coverage = geoResource.getSlab(currentTimestepDate, currentElevationDouble, envelope,
+                    screenSize.width);
 
             // CoordinateReferenceSystem destinationCRS = currentContext.getCRS();
             // ReferencedEnvelope bounds = (ReferencedEnvelope) currentContext.getImageBounds();
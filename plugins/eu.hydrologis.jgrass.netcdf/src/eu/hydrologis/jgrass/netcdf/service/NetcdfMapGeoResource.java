@@ -17,6 +17,9 @@
  */
 package eu.hydrologis.jgrass.netcdf.service;
 
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -25,10 +28,22 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.jai.TiledImage;
 
 import net.refractions.udig.catalog.IGeoResource;
 import net.refractions.udig.catalog.IGeoResourceInfo;
@@ -40,6 +55,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.io.CoverageAccess;
 import org.geotools.coverage.io.CoverageReadRequest;
 import org.geotools.coverage.io.CoverageResponse;
@@ -48,6 +64,7 @@ import org.geotools.coverage.io.CoverageAccess.AccessType;
 import org.geotools.coverage.io.domain.RasterDatasetDomainManager.HorizontalDomain;
 import org.geotools.coverage.io.domain.RasterDatasetDomainManager.TemporalDomain;
 import org.geotools.coverage.io.domain.RasterDatasetDomainManager.VerticalDomain;
+import org.geotools.coverage.io.domain.RasterLayout;
 import org.geotools.coverage.io.impl.DefaultCoverageReadRequest;
 import org.geotools.coverage.io.impl.range.DefaultRangeType;
 import org.geotools.coverage.io.range.FieldType;
@@ -55,6 +72,7 @@ import org.geotools.coverage.io.range.RangeType;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
 import org.geotools.styling.SLDParser;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleFactory;
@@ -70,19 +88,57 @@ import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.feature.type.Name;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 import org.opengis.temporal.TemporalGeometricPrimitive;
 
 import eu.hydrologis.jgrass.netcdf.NetcdfPlugin;
+import eu.hydrologis.jgrass.netcdf.service.NetcdfSlabCache.SlabKey;
 
 /**
  * The {@link IGeoResource resource} representing the netcdf variable.
  * 
+ * <p>
+ * The slabs read for the renderer are kept in a {@link NetcdfSlabCache} shared by all the
+ * variables, so that going back and forth through the timesteps doesn't read them again. Only the
+ * cells of the grid in the shown area are read and, for zoomed out views, they are read
+ * decimated, at the resolution level that is closest to the one of the screen. Once a slab is shown, the next and previous timesteps are read ahead in the
+ * background, so that they are already in the cache when the time is changed.
+ * </p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class NetcdfMapGeoResource extends IGeoResource {
 
     public static final String READERID = "eu.hydrologis.jgrass.netcdf.service.NetcdfMapGeoResource.readerid"; //$NON-NLS-1$
 
+    /**
+     * The number of following timesteps read ahead, one previous timestep is read too.
+     */
+    private static final int READ_AHEAD = 2;
+
+    /**
+     * The slabs of all the variables, by default in a quarter of the memory of the vm.
+     */
+    private static final NetcdfSlabCache SLAB_CACHE = new NetcdfSlabCache(Runtime.getRuntime()
+            .maxMemory() / 4);
+
+    /**
+     * The slabs being read ahead.
+     */
+    private static final Map<SlabKey, Future<GridCoverage2D>> READING_AHEAD = new HashMap<SlabKey, Future<GridCoverage2D>>();
+
+    private static final ExecutorService READ_AHEAD_EXECUTOR = Executors
+            .newSingleThreadExecutor(new ThreadFactory(){
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread(r, "NetcdfMapGeoResource read ahead"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
     private List<DateTime> availableTimeSteps = null;
     private double[] availableElevationLevels = null;
     
@@ -94,6 +150,13 @@ public class NetcdfMapGeoResource extends IGeoResource {
 
     private final String variableName;
 
+    /** the identifier of the variable in the slab cache */
+    private final String variableId;
+
+    /** the size of the grid at full resolution, -1 if unknown */
+    private int gridWidth = -1;
+    private int gridHeight = -1;
+
     private CoverageSource coverageSource;
 
     private static DateTimeFormatter ISO_DATE_TIME_FORMATTER = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
@@ -106,7 +169,8 @@ public class NetcdfMapGeoResource extends IGeoResource {
         this.variableName = name.getLocalPart();
         this.fieldType = fieldType;
         this.coverageSource = coverageSource;
-
+        URL identifier = getIdentifier();
+        variableId = identifier != null ? identifier.toString() : variableName;
     }
 
     public <T> boolean canResolve( Class<T> adaptee ) {
@@ -133,22 +197,17 @@ public class NetcdfMapGeoResource extends IGeoResource {
         }
 
         if (adaptee.isAssignableFrom(GridCoverage2D.class)) {
-            CoverageReadRequest readRequest = new DefaultCoverageReadRequest();
+            DateTime time = null;
             List<DateTime> availableTimeSteps = getAvailableTimeSteps();
             if (availableTimeSteps.size() > 0) {
-                SortedSet<TemporalGeometricPrimitive> temporalSubset = new TreeSet<TemporalGeometricPrimitive>();
-                temporalSubset.add(new DefaultInstant(new DefaultPosition(availableTimeSteps.get(0).toDate())));
-                readRequest.setTemporalSubset(temporalSubset);
+                time = availableTimeSteps.get(0);
             }
+            Double elevation = null;
             double[] availableElevationLevels = getAvailableElevationLevels();
             if (availableElevationLevels != null && availableElevationLevels.length > 0) {
-                Set<NumberRange<Double>> verticalSubset = new TreeSet<NumberRange<Double>>();
-                NumberRange<Double> vertical = new NumberRange<Double>(Double.class, availableElevationLevels[0], true,
-                        availableElevationLevels[0], true);
-                verticalSubset.add(vertical);
-                readRequest.setVerticalSubset(verticalSubset);
+                elevation = availableElevationLevels[0];
             }
-            GridCoverage2D gridCoverage = getGridCoverage(readRequest);
+            GridCoverage2D gridCoverage = getSlab(time, elevation, null, 0);
             return adaptee.cast(gridCoverage);
         }
 
@@ -267,6 +326,12 @@ public class NetcdfMapGeoResource extends IGeoResource {
                             bounds = new ReferencedEnvelope(bbox);
                             break;
                         }
+                        final Set< ? extends RasterLayout> rasterElements = horizontalDomain.getRasterElements(true, null);
+                        for( RasterLayout rasterLayout : rasterElements ) {
+                            gridWidth = rasterLayout.getWidth(null);
+                            gridHeight = rasterLayout.getHeight(null);
+                            break;
+                        }
                     }
                 } catch (MismatchedDimensionException e) {
                     e.printStackTrace();
@@ -437,6 +502,251 @@ public class NetcdfMapGeoResource extends IGeoResource {
         return coverageSource;
     }
 
+    /**
+     * Sets the memory the slabs of all the netcdf variables may take in the cache.
+     * 
+     * @param bytes the memory in bytes, 0 to disable the cache.
+     */
+    public static void setSlabCacheBudget( long bytes ) {
+        SLAB_CACHE.setBudget(bytes);
+    }
+
+    public static long getSlabCacheBudget() {
+        return SLAB_CACHE.getBudget();
+    }
+
+    /**
+     * Get the 2D slab of the variable at a timestep and elevation, from the cache if already read.
+     * 
+     * <p>
+     * The neighbouring timesteps are read ahead in the background.
+     * </p>
+     * 
+     * @param time the timestep, <code>null</code> if the variable has no time.
+     * @param elevation the elevation, <code>null</code> if the variable has no elevation.
+     * @param area the area that will be shown, <code>null</code> to read the whole variable at full
+     *        resolution.
+     * @param width the width in pixels on which the area will be shown.
+     * @return the slab covering the part of the variable in the area, decimated if the area is shown
+     *         at a coarser resolution than the one of the variable.
+     * @throws IOException
+     */
+    public GridCoverage2D getSlab( DateTime time, Double elevation, ReferencedEnvelope area, int width )
+            throws IOException {
+        Long millis = null;
+        if (time != null) {
+            millis = time.getMillis();
+        }
+        int level = 0;
+        Rectangle window = null;
+        ReferencedEnvelope gridArea = toGridCrs(area);
+        if (gridArea != null && width > 0) {
+            ReferencedEnvelope bounds = info.getBounds();
+            double cell = Math.min(bounds.getWidth() / gridWidth, bounds.getHeight() / gridHeight);
+            level = NetcdfSlabCache.getResolutionLevel(gridArea.getWidth() / width, cell, gridWidth,
+                    gridHeight);
+            window = getWindow(gridArea);
+        }
+        SlabKey key = new SlabKey(variableId, millis, elevation, level, window);
+
+        GridCoverage2D slab = SLAB_CACHE.get(key);
+        if (slab == null) {
+            Future<GridCoverage2D> reading;
+            synchronized (READING_AHEAD) {
+                reading = READING_AHEAD.get(key);
+            }
+            if (reading != null) {
+                try {
+                    slab = reading.get();
+                } catch (CancellationException e) {
+                    // read it below
+                } catch (ExecutionException e) {
+                    // read it below, to report the error
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while reading the slab.");
+                }
+            }
+            if (slab == null) {
+                slab = readSlab(key);
+                SLAB_CACHE.put(key, slab);
+            }
+        }
+        if (slab != null && millis != null) {
+            readAhead(key, NetcdfSlabCache.sizeOf(slab));
+        }
+        return slab;
+    }
+
+    /**
+     * @return the area in the crs of the grid, <code>null</code> if it is not given or the grid is
+     *         not known.
+     */
+    private ReferencedEnvelope toGridCrs( ReferencedEnvelope area ) throws IOException {
+        createInfo(null);
+        ReferencedEnvelope bounds = info.getBounds();
+        if (area == null || area.isNull() || bounds == null || gridWidth <= 0 || gridHeight <= 0) {
+            return null;
+        }
+        CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+        CoordinateReferenceSystem areaCrs = area.getCoordinateReferenceSystem();
+        if (crs != null && areaCrs != null && !CRS.equalsIgnoreMetadata(crs, areaCrs)) {
+            try {
+                return area.transform(crs, true);
+            } catch (TransformException e) {
+                return null;
+            } catch (FactoryException e) {
+                return null;
+            }
+        }
+        return area;
+    }
+
+    /**
+     * @return the cells of the grid that cover the area, <code>null</code> if they are the whole
+     *         grid or the area is outside of the grid.
+     */
+    private Rectangle getWindow( ReferencedEnvelope gridArea ) {
+        ReferencedEnvelope bounds = info.getBounds();
+        double cellWidth = bounds.getWidth() / gridWidth;
+        double cellHeight = bounds.getHeight() / gridHeight;
+        int minCol = (int) Math.max(0, Math.floor((gridArea.getMinX() - bounds.getMinX()) / cellWidth));
+        int maxCol = (int) Math.min(gridWidth, Math.ceil((gridArea.getMaxX() - bounds.getMinX()) / cellWidth));
+        int minRow = (int) Math.max(0, Math.floor((bounds.getMaxY() - gridArea.getMaxY()) / cellHeight));
+        int maxRow = (int) Math.min(gridHeight, Math.ceil((bounds.getMaxY() - gridArea.getMinY()) / cellHeight));
+        if (minCol >= maxCol || minRow >= maxRow) {
+            return null;
+        }
+        if (minCol == 0 && minRow == 0 && maxCol == gridWidth && maxRow == gridHeight) {
+            return null;
+        }
+        return new Rectangle(minCol, minRow, maxCol - minCol, maxRow - minRow);
+    }
+
+    /**
+     * Reads the window of a slab, decimated by 2^level, and loads its data in memory.
+     */
+    private GridCoverage2D readSlab( SlabKey key ) throws IOException {
+        CoverageReadRequest readRequest = new DefaultCoverageReadRequest();
+        if (key.getTime() != null) {
+            SortedSet<TemporalGeometricPrimitive> temporalSubset = new TreeSet<TemporalGeometricPrimitive>();
+            temporalSubset.add(new DefaultInstant(new DefaultPosition(new Date(key.getTime()))));
+            readRequest.setTemporalSubset(temporalSubset);
+        }
+        if (key.getElevation() != null) {
+            Set<NumberRange<Double>> verticalSubset = new TreeSet<NumberRange<Double>>();
+            NumberRange<Double> vertical = new NumberRange<Double>(Double.class, key.getElevation(), true,
+                    key.getElevation(), true);
+            verticalSubset.add(vertical);
+            readRequest.setVerticalSubset(verticalSubset);
+        }
+        int level = key.getLevel();
+        Rectangle window = key.getWindow();
+        if (level > 0 || window != null) {
+            /*
+             * the reader reads only the source region of the requested area and subsamples it by
+             * the ratio between the requested resolution and the one of the variable
+             * (Utilities.setReadParameters of the coverage io), so the size is rounded down to get
+             * a whole ratio
+             */
+            createInfo(null);
+            ReferencedEnvelope bounds = info.getBounds();
+            ReferencedEnvelope readArea = bounds;
+            if (window == null) {
+                window = new Rectangle(0, 0, gridWidth, gridHeight);
+            } else {
+                double cellWidth = bounds.getWidth() / gridWidth;
+                double cellHeight = bounds.getHeight() / gridHeight;
+                readArea = new ReferencedEnvelope(bounds.getMinX() + window.x * cellWidth, bounds.getMinX()
+                        + (window.x + window.width) * cellWidth, bounds.getMaxY() - (window.y + window.height)
+                        * cellHeight, bounds.getMaxY() - window.y * cellHeight, bounds.getCoordinateReferenceSystem());
+            }
+            Rectangle rasterArea = new Rectangle(0, 0, Math.max(1, window.width >> level), Math.max(1,
+                    window.height >> level));
+            readRequest.setDomainSubset(rasterArea, (BoundingBox) readArea);
+        }
+
+        // the netcdf file can't be read by two threads at the same time
+        synchronized (service) {
+            GridCoverage2D coverage = getGridCoverage(readRequest);
+            if (coverage == null) {
+                return null;
+            }
+            /*
+             * the image of the coverage reads its tiles from the file only when they are asked for,
+             * so the data are loaded here, to have them in the cache
+             */
+            RenderedImage image = coverage.getRenderedImage();
+            WritableRaster raster = image.copyData(null);
+            TiledImage loadedImage = new TiledImage(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster
+                    .getHeight(), raster.getMinX(), raster.getMinY(), raster.getSampleModel(), image.getColorModel());
+            loadedImage.setData(raster);
+            GridCoverageFactory factory = new GridCoverageFactory();
+            return factory.create(coverage.getName(), loadedImage, coverage.getGridGeometry(), coverage
+                    .getSampleDimensions(), null, coverage.getProperties());
+        }
+    }
+
+    /**
+     * Reads in the background the slabs of the timesteps around the one of the key, dropping the
+     * pending reads of this variable that are not around it any more.
+     */
+    private void readAhead( SlabKey key, long slabBytes ) {
+        // don't push out of the cache the slab being shown
+        if (SLAB_CACHE.getBudget() < (READ_AHEAD + 2) * slabBytes) {
+            return;
+        }
+        List<DateTime> timeSteps = getAvailableTimeSteps();
+        int index = -1;
+        for( int i = 0; i < timeSteps.size(); i++ ) {
+            if (timeSteps.get(i).getMillis() == key.getTime()) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return;
+        }
+        List<SlabKey> neighbours = new ArrayList<SlabKey>();
+        for( int i = index + 1; i <= index + READ_AHEAD && i < timeSteps.size(); i++ ) {
+            neighbours.add(new SlabKey(variableId, timeSteps.get(i).getMillis(), key.getElevation(), key.getLevel(),
+                    key.getWindow()));
+        }
+        if (index > 0) {
+            neighbours.add(new SlabKey(variableId, timeSteps.get(index - 1).getMillis(), key.getElevation(), key
+                    .getLevel(), key.getWindow()));
+        }
+
+        synchronized (READING_AHEAD) {
+            Iterator<Map.Entry<SlabKey, Future<GridCoverage2D>>> iterator = READING_AHEAD.entrySet().iterator();
+            while( iterator.hasNext() ) {
+                Map.Entry<SlabKey, Future<GridCoverage2D>> entry = iterator.next();
+                Future<GridCoverage2D> future = entry.getValue();
+                if (future.isDone()) {
+                    iterator.remove();
+                } else if (entry.getKey().getVariable().equals(variableId) && !neighbours.contains(entry.getKey())
+                        && future.cancel(false)) {
+                    iterator.remove();
+                }
+            }
+            for( final SlabKey neighbour : neighbours ) {
+                if (SLAB_CACHE.contains(neighbour) || READING_AHEAD.containsKey(neighbour)) {
+                    continue;
+                }
+                Future<GridCoverage2D> future = READ_AHEAD_EXECUTOR.submit(new Callable<GridCoverage2D>(){
+                    public GridCoverage2D call() throws Exception {
+                        GridCoverage2D slab = SLAB_CACHE.get(neighbour);
+                        if (slab == null) {
+                            slab = readSlab(neighbour);
+                            SLAB_CACHE.put(neighbour, slab);
+                        }
+                        return slab;
+                    }
+                });
+                READING_AHEAD.put(neighbour, future);
+            }
+        }
+    }
+
     public GridCoverage2D getGridCoverage( CoverageReadRequest readRequest ) throws IOException {
 
         Set<FieldType> fieldTypeSet = new TreeSet<FieldType>();
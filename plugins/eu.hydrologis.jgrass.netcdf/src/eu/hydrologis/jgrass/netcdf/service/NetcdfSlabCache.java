@@ -0,0 +1,262 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.netcdf.service;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+
+/**
+ * A least recently used cache of the 2D slabs read from the netcdf variables.
+ *
+ * <p>
+ * The cache is bounded by the memory taken by the slabs: when a new slab doesn't fit in the
+ * budget, the slabs not used for the longest time are dropped. A slab larger than the whole
+ * budget is not cached at all.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class NetcdfSlabCache {
+
+    /**
+     * The coarsest resolution level, a slab is decimated at most by 2^MAX_LEVEL.
+     */
+    public static final int MAX_LEVEL = 6;
+
+    /**
+     * The key of a slab: the variable, the timestep, the elevation, the resolution level and the
+     * part of the grid read.
+     */
+    public static final class SlabKey {
+        private final String variable;
+        private final Long time;
+        private final Double elevation;
+        private final int level;
+        private final Rectangle window;
+
+        /**
+         * @param variable the identifier of the variable.
+         * @param time the timestep in milliseconds, <code>null</code> if the variable has no time.
+         * @param elevation the elevation, <code>null</code> if the variable has no elevation.
+         * @param level the resolution level, 0 being the full resolution and every level halving
+         *        the resolution of the previous one.
+         */
+        public SlabKey( String variable, Long time, Double elevation, int level ) {
+            this(variable, time, elevation, level, null);
+        }
+
+        /**
+         * @param variable the identifier of the variable.
+         * @param time the timestep in milliseconds, <code>null</code> if the variable has no time.
+         * @param elevation the elevation, <code>null</code> if the variable has no elevation.
+         * @param level the resolution level, 0 being the full resolution and every level halving
+         *        the resolution of the previous one.
+         * @param window the cells of the grid read, in full resolution cells from the upper left
+         *        corner, <code>null</code> if the whole grid is read.
+         */
+        public SlabKey( String variable, Long time, Double elevation, int level, Rectangle window ) {
+            this.variable = variable;
+            this.time = time;
+            this.elevation = elevation;
+            this.level = level;
+            this.window = window != null ? new Rectangle(window) : null;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public Long getTime() {
+            return time;
+        }
+
+        public Double getElevation() {
+            return elevation;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public Rectangle getWindow() {
+            return window != null ? new Rectangle(window) : null;
+        }
+
+        public boolean equals( Object obj ) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SlabKey)) {
+                return false;
+            }
+            SlabKey other = (SlabKey) obj;
+            return level == other.level && variable.equals(other.variable)
+                    && (time == null ? other.time == null : time.equals(other.time))
+                    && (elevation == null ? other.elevation == null : elevation
+                            .equals(other.elevation))
+                    && (window == null ? other.window == null : window.equals(other.window));
+        }
+
+        public int hashCode() {
+            int hash = variable.hashCode();
+            hash = 31 * hash + (time == null ? 0 : time.hashCode());
+            hash = 31 * hash + (elevation == null ? 0 : elevation.hashCode());
+            hash = 31 * hash + (window == null ? 0 : window.hashCode());
+            return 31 * hash + level;
+        }
+    }
+
+    private static class Slab {
+        private final GridCoverage2D coverage;
+        private final long bytes;
+
+        private Slab( GridCoverage2D coverage, long bytes ) {
+            this.coverage = coverage;
+            this.bytes = bytes;
+        }
+    }
+
+    // in access order, the least recently used first
+    private final LinkedHashMap<SlabKey, Slab> slabs = new LinkedHashMap<SlabKey, Slab>(16, 0.75f,
+            true);
+    private long budget;
+    private long used = 0;
+
+    /**
+     * @param budget the memory in bytes the cached slabs may take.
+     */
+    public NetcdfSlabCache( long budget ) {
+        this.budget = budget;
+    }
+
+    /**
+     * @param key the key of the slab.
+     * @return the cached slab, or <code>null</code> if it is not in the cache.
+     */
+    public synchronized GridCoverage2D get( SlabKey key ) {
+        Slab slab = slabs.get(key);
+        return slab != null ? slab.coverage : null;
+    }
+
+    /**
+     * @param key the key of the slab.
+     * @return <code>true</code> if the slab is in the cache, without marking it as used.
+     */
+    public synchronized boolean contains( SlabKey key ) {
+        return slabs.containsKey(key);
+    }
+
+    /**
+     * Caches a slab, dropping the least recently used ones if needed.
+     *
+     * @param key the key of the slab.
+     * @param coverage the slab, with its data already loaded.
+     */
+    public synchronized void put( SlabKey key, GridCoverage2D coverage ) {
+        if (coverage == null) {
+            return;
+        }
+        long bytes = sizeOf(coverage);
+        Slab old = slabs.remove(key);
+        if (old != null) {
+            used -= old.bytes;
+        }
+        if (bytes > budget) {
+            return;
+        }
+        slabs.put(key, new Slab(coverage, bytes));
+        used += bytes;
+        evict();
+    }
+
+    /**
+     * Sets the memory the cached slabs may take, dropping the slabs that don't fit any more.
+     *
+     * @param budget the memory in bytes.
+     */
+    public synchronized void setBudget( long budget ) {
+        this.budget = Math.max(0, budget);
+        evict();
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the memory in bytes taken by the cached slabs.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return the number of cached slabs.
+     */
+    public synchronized int size() {
+        return slabs.size();
+    }
+
+    private void evict() {
+        Iterator<Slab> iterator = slabs.values().iterator();
+        while( used > budget && iterator.hasNext() ) {
+            used -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Finds the coarsest resolution level at which a cell of a grid is still not larger than a
+     * pixel of the screen.
+     *
+     * @param pixelSize the size of a pixel of the screen, in the units of the grid.
+     * @param cellSize the size of a cell of the grid at full resolution.
+     * @param gridWidth the columns of the grid at full resolution.
+     * @param gridHeight the rows of the grid at full resolution.
+     * @return the level, between 0 and {@link #MAX_LEVEL}, never decimating the grid to less than
+     *         a cell.
+     */
+    public static int getResolutionLevel( double pixelSize, double cellSize, int gridWidth,
+            int gridHeight ) {
+        int level = 0;
+        while( level < MAX_LEVEL && cellSize * (1 << (level + 1)) <= pixelSize
+                && (gridWidth >> (level + 1)) > 0 && (gridHeight >> (level + 1)) > 0 ) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @param coverage the slab.
+     * @return the memory in bytes taken by the data of the slab.
+     */
+    public static long sizeOf( GridCoverage2D coverage ) {
+        RenderedImage image = coverage.getRenderedImage();
+        SampleModel sampleModel = image.getSampleModel();
+        long bits = (long) image.getWidth() * image.getHeight() * sampleModel.getNumBands()
+                * DataBuffer.getDataTypeSize(sampleModel.getDataType());
+        return bits / 8;
+    }
+
+}
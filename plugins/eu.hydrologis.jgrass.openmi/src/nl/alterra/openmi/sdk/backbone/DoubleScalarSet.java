@@ -0,0 +1,306 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ *****************************************************************************
+ *
+ * @author Rob Knapen, Alterra B.V., The Netherlands
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.backbone;
+
+import java.io.Serializable;
+import org.openmi.standard.IScalarSet;
+
+/**
+ * The DoubleScalarSet contains a list of scalar values, stored in a growable
+ * array of primitive doubles instead of a list of Double objects as in the
+ * ScalarSet. Adding and reading values does not create any object, and the
+ * values can be copied in and out in bulk with setScalars and getScalars.
+ */
+public class DoubleScalarSet implements IScalarSet, Serializable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private double[] values;
+    private int count = 0;
+
+    /**
+     * Returns the specified IScalarSet as a DoubleScalarSet, the same
+     * instance if it already is one, else a copy of its values.
+     *
+     * @param values The scalar set to convert
+     * @return DoubleScalarSet with the values of the specified set
+     */
+    public static DoubleScalarSet valueOf(IScalarSet values) {
+        if (values instanceof DoubleScalarSet) {
+            return (DoubleScalarSet) values;
+        }
+        return new DoubleScalarSet(values);
+    }
+
+    /**
+     * Copies the values of the specified IScalarSet into the specified array,
+     * if it is large enough, else into a new array. DoubleScalarSets are
+     * copied in bulk, other sets value by value.
+     *
+     * @param values The scalar set to copy from
+     * @param dst The array to copy the values to, can be null
+     * @return double[] the array holding the values
+     */
+    public static double[] toArray(IScalarSet values, double[] dst) {
+        if (values instanceof DoubleScalarSet) {
+            return ((DoubleScalarSet) values).getScalars(dst);
+        }
+        int count = values.getCount();
+        if (dst == null || dst.length < count) {
+            dst = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            dst[i] = values.getScalar(i);
+        }
+        return dst;
+    }
+
+    /**
+     * Creates an empty instance.
+     */
+    public DoubleScalarSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty instance with room for the specified number of values.
+     *
+     * @param capacity The number of values that can be added without growing
+     */
+    public DoubleScalarSet(int capacity) {
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Creates an instance with a copy of the specified double values.
+     *
+     * @param values doubles to put in the set
+     */
+    public DoubleScalarSet(double... values) {
+        this(values.length);
+        setScalars(values, 0, values.length);
+    }
+
+    /**
+     * Creates an instance that is a copy of the specified IScalarSet.
+     *
+     * @param values The scalar set to copy from
+     */
+    public DoubleScalarSet(IScalarSet values) {
+        this(values == null ? 0 : values.getCount());
+        if (values instanceof DoubleScalarSet) {
+            DoubleScalarSet source = (DoubleScalarSet) values;
+            setScalars(source.values, 0, source.count);
+        } else if (values != null) {
+            for (int i = 0; i < values.getCount(); i++) {
+                add(values.getScalar(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return int the number of values
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Tests if the specified index can be accessed.
+     *
+     * @param elementIndex The index to test
+     * @return True if the index is valid, false when not
+     */
+    public boolean isValid(int elementIndex) {
+        return elementIndex >= 0 && elementIndex < count;
+    }
+
+    /**
+     * Gets the value for one of the elements in the set.
+     *
+     * @param elementIndex index in the scalar set
+     * @return double scalar value
+     */
+    public double getScalar(int elementIndex) {
+        checkIndex(elementIndex);
+        return values[elementIndex];
+    }
+
+    /**
+     * Sets the value of one of the elements in the set.
+     *
+     * @param elementIndex index in the scalar set
+     * @param value The new value
+     */
+    public void setScalar(int elementIndex, double value) {
+        checkIndex(elementIndex);
+        values[elementIndex] = value;
+    }
+
+    /**
+     * Adds a value at the end of the set.
+     *
+     * @param value The value to add
+     */
+    public void add(double value) {
+        ensureCapacity(count + 1);
+        values[count++] = value;
+    }
+
+    /**
+     * Inserts a value at the specified index, shifting the following values.
+     *
+     * @param elementIndex index at which to insert the value
+     * @param value The value to insert
+     */
+    public void add(int elementIndex, double value) {
+        if (elementIndex < 0 || elementIndex > count) {
+            throw new IndexOutOfBoundsException("Index: " + elementIndex + ", Count: " + count);
+        }
+        ensureCapacity(count + 1);
+        System.arraycopy(values, elementIndex, values, elementIndex + 1, count - elementIndex);
+        values[elementIndex] = value;
+        count++;
+    }
+
+    /**
+     * Adds the specified values at the end of the set.
+     *
+     * @param src The array holding the values to add
+     * @param offset The index of the first value in the array
+     * @param length The number of values to add
+     */
+    public void add(double[] src, int offset, int length) {
+        ensureCapacity(count + length);
+        System.arraycopy(src, offset, values, count, length);
+        count += length;
+    }
+
+    /**
+     * Replaces all the values of the set with the specified values.
+     *
+     * @param src The new values
+     */
+    public void setScalars(double[] src) {
+        setScalars(src, 0, src.length);
+    }
+
+    /**
+     * Replaces all the values of the set with the specified values.
+     *
+     * @param src The array holding the new values
+     * @param offset The index of the first value in the array
+     * @param length The number of values
+     */
+    public void setScalars(double[] src, int offset, int length) {
+        count = 0;
+        add(src, offset, length);
+    }
+
+    /**
+     * Copies the values of the set into the specified array, if it is large
+     * enough, else into a new array. As with the toArray of the collections,
+     * the returned array can be longer than the number of values.
+     *
+     * @param dst The array to copy the values to, can be null
+     * @return double[] the array holding the values
+     */
+    public double[] getScalars(double[] dst) {
+        if (dst == null || dst.length < count) {
+            dst = new double[count];
+        }
+        System.arraycopy(values, 0, dst, 0, count);
+        return dst;
+    }
+
+    /**
+     * Copies part of the values of the set into the specified array.
+     *
+     * @param from The index in the set of the first value to copy
+     * @param dst The array to copy the values to
+     * @param offset The index in the array of the first copied value
+     * @param length The number of values to copy
+     */
+    public void getScalars(int from, double[] dst, int offset, int length) {
+        if (from < 0 || length < 0 || from + length > count) {
+            throw new IndexOutOfBoundsException("From: " + from + ", Length: " + length
+                    + ", Count: " + count);
+        }
+        System.arraycopy(values, from, dst, offset, length);
+    }
+
+    /**
+     * Removes all the values, keeping the allocated array for reuse.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Makes sure the set can hold the specified number of values without
+     * growing.
+     *
+     * @param capacity The number of values
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            double[] grown = new double[Math.max(capacity, values.length * 2)];
+            System.arraycopy(values, 0, grown, 0, count);
+            values = grown;
+        }
+    }
+
+    private void checkIndex(int elementIndex) {
+        if (elementIndex < 0 || elementIndex >= count) {
+            throw new IndexOutOfBoundsException("Index: " + elementIndex + ", Count: " + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer str = new StringBuffer();
+
+        if (count == 0) {
+            str.append("Empty scalar");
+        } else {
+            str.append("Scalar: ");
+            for (int i = 0; (i < count) && (i < 10); i++) {
+                str.append(Double.valueOf(values[i]).toString()).append(" ");
+            }
+        }
+
+        return str.toString();
+    }
+
+}
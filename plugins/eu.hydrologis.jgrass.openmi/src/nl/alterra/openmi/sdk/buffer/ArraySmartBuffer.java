@@ -0,0 +1,993 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ *****************************************************************************
+ *
+ * The classes in the utilities package are mostly a direct translation from
+ * the C# version. They successfully pass the unit tests (which were also
+ * taken from the C# version), but so far no extensive time as been put into
+ * them.
+ *
+ * @author Rob Knapen, Alterra B.V., The Netherlands
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.buffer;
+
+import java.io.Serializable;
+import nl.alterra.openmi.sdk.backbone.*;
+import org.openmi.standard.*;
+
+/**
+ * The ArraySmartBuffer provides the same buffering, interpolation,
+ * extrapolation and aggregation as the SmartBuffer, storing the buffered
+ * data in primitive arrays instead of lists of time and value set objects.
+ * 
+ * The times are kept as modified julian days in double arrays, the values
+ * of every time in a double array slab, with the three components of the
+ * vectors of a VectorSet stored one after the other. Times and slabs live
+ * in a ring, so that adding values at the end and clearing them from the
+ * start, as done by the SmartOutputLink at every time step, reuses the
+ * slabs of the cleared times instead of allocating new ones.
+ * 
+ * Since the buffered times are increasing, the mappings look up the
+ * buffered times they need by binary search instead of scanning the whole
+ * buffer. The values can also be mapped into a caller supplied array
+ * (getValues(ITime, double[])) and the buffered values read without any
+ * copy (getValuesView), to avoid creating value sets on every request.
+ */
+public class ArraySmartBuffer implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* the start times, for time stamps the only times */
+    private double[] starts;
+    /* the end times, used only for time spans */
+    private double[] ends;
+    private double[][] slabs;
+    private int head = 0;
+    private int count = 0;
+
+    /* the time and value types, fixed by the first added values */
+    private boolean isTimeSpan;
+    private boolean isVectorSet;
+    /* number of values per time */
+    private int valuesCount;
+
+    double relaxationFactor; // Used for the extrapolation algorithm see also
+    // RelaxationFactor property
+
+    boolean doExtendedDataVerification;
+
+    // @@@@@@@ CONSTRUCTORS @@@@@@@
+
+
+    /**
+     * default constructor
+     */
+    public ArraySmartBuffer() {
+        starts = new double[INITIAL_CAPACITY];
+        ends = new double[INITIAL_CAPACITY];
+        slabs = new double[INITIAL_CAPACITY][];
+        doExtendedDataVerification = true;
+        relaxationFactor = 1.0;
+    }
+
+
+    /**
+     * Copy constructor
+     *
+     * @param smartBuffer the Buffered data to copy
+     */
+    public ArraySmartBuffer(ArraySmartBuffer smartBuffer) {
+        this();
+        isTimeSpan = smartBuffer.isTimeSpan;
+        isVectorSet = smartBuffer.isVectorSet;
+        valuesCount = smartBuffer.valuesCount;
+        for (int i = 0; i < smartBuffer.count; i++) {
+            int p = smartBuffer.physical(i);
+            double[] slab = append(smartBuffer.starts[p], smartBuffer.ends[p]);
+            System.arraycopy(smartBuffer.slabs[p], 0, slab, 0, slab.length);
+        }
+    }
+
+    // @@@@@@@ GETTERS AND SETTERS @@@@@@@
+
+
+    /**
+     * GETTER for number of times
+     *
+     * @return time size
+     */
+    public int getTimesCount() {
+        return count;
+    }
+
+
+    /**
+     * GETTER for number of values
+     *
+     * @return number of values
+     */
+    public int getValuesCount() {
+        if (count == 0) {
+            throw new IndexOutOfBoundsException("Buffer is empty");
+        }
+        return valuesCount;
+    }
+
+
+    /**
+     * GETTER for Relaxation Factor
+     *
+     * @return Relaxation Factor
+     */
+    public double getRelaxationFactor() {
+        return relaxationFactor;
+    }
+
+
+    /**
+     * SETTER for Relaxation Factor
+     *
+     * @param value the relaxation factor to set
+     * @throws Exception
+     */
+    public void setRelaxationFactor(double value) throws Exception {
+        relaxationFactor = value;
+        if (relaxationFactor < 0 || relaxationFactor > 1) {
+            throw new Exception("ReleaxationFactor is OutOfMemoryException of range");
+        }
+    }
+
+
+    /**
+     * GETTER for Read/Write property flag that indicates wheather or not to perform extended data checking.
+     *
+     * @return the boolean flag for data verification
+     */
+    public boolean getDoExtendedDataVerification() {
+        return doExtendedDataVerification;
+    }
+
+
+    /**
+     * SETTER for Read/Write property flag that indicates wheather or not to perform extended data checking.
+     *
+     * @param value boolean for data verification
+     */
+    public void setDoExtendedDataVerification(boolean value) {
+        doExtendedDataVerification = value;
+    }
+
+    // @@@@@@@ OTHERS @@@@@@@
+
+
+    /**
+     * Add corresponding values for time and values to the buffer. The
+     * values are copied into the buffer.
+     *
+     * @param time     Description of the time parameter
+     * @param valueSet Description of the values parameter
+     */
+    public void addValues(ITime time, IValueSet valueSet) {
+        boolean timeSpan;
+        double start;
+        double end;
+        if (time instanceof ITimeStamp) {
+            timeSpan = false;
+            start = end = ((ITimeStamp) time).getModifiedJulianDay();
+        } else if (time instanceof ITimeSpan) {
+            timeSpan = true;
+            start = ((ITimeSpan) time).getStart().getModifiedJulianDay();
+            end = ((ITimeSpan) time).getEnd().getModifiedJulianDay();
+        } else {
+            throw new RuntimeException("Invalid datatype used for time argument in method AddValues");
+        }
+
+        boolean vectorSet;
+        if (valueSet instanceof IScalarSet) {
+            vectorSet = false;
+        } else if (valueSet instanceof IVectorSet) {
+            vectorSet = true;
+        } else {
+            throw new RuntimeException("Invalid datatype used for values argument in method AddValues");
+        }
+
+        checkTypes(timeSpan, vectorSet, valueSet.getCount());
+        double[] slab = append(start, end);
+        if (vectorSet) {
+            IVectorSet vectors = (IVectorSet) valueSet;
+            for (int i = 0; i < valuesCount; i++) {
+                IVector vector = vectors.getVector(i);
+                slab[3 * i] = vector.getXComponent();
+                slab[3 * i + 1] = vector.getYComponent();
+                slab[3 * i + 2] = vector.getZComponent();
+            }
+        } else {
+            IScalarSet scalars = (IScalarSet) valueSet;
+            for (int i = 0; i < valuesCount; i++) {
+                slab[i] = scalars.getScalar(i);
+            }
+        }
+
+        if (this.doExtendedDataVerification) {
+            checkBuffer();
+        }
+    }
+
+
+    /**
+     * Add scalar values at a time stamp to the buffer. The values are
+     * copied into the buffer.
+     *
+     * @param modifiedJulianDay the time stamp
+     * @param scalars           the values
+     */
+    public void addValues(double modifiedJulianDay, double[] scalars) {
+        checkTypes(false, false, scalars.length);
+        double[] slab = append(modifiedJulianDay, modifiedJulianDay);
+        System.arraycopy(scalars, 0, slab, 0, scalars.length);
+
+        if (this.doExtendedDataVerification) {
+            checkBuffer();
+        }
+    }
+
+
+    /**
+     * Validates a given buffer. The check made is for (empty data,type of times,type of data,time sequentiality)
+     */
+    public void checkBuffer() {
+        if (count == 0) {
+            throw new RuntimeException("Buffer is empty");
+        }
+
+        if (isTimeSpan) {
+            for (int i = 0; i < count; i++) {
+                int p = physical(i);
+                if (starts[p] >= ends[p]) {
+                    throw new RuntimeException("BeginTime is larger than or equal to EndTime in TimeSpan");
+                }
+            }
+
+            for (int i = 1; i < count; i++) {
+                if (starts[physical(i)] != ends[physical(i - 1)]) {
+                    throw new RuntimeException("EndTime is not equal to StartTime for the following time step");
+                }
+            }
+        } else {
+            for (int i = 1; i < count; i++) {
+                if (starts[physical(i)] <= starts[physical(i - 1)]) {
+                    throw new RuntimeException("TimeStamps are not encreasing in buffer");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Validates a given time. The check made is for TimeSpan the starting time must be smaller
+     * than the end time. Throws exception if the time is not valid.
+     *
+     * @param time
+     * @throws Exception
+     */
+    private void checkTime(ITime time) throws Exception {
+        if (time instanceof ITimeSpan) {
+            if (((ITimeSpan) time).getStart().getModifiedJulianDay() >= ((ITimeSpan) time).getEnd().getModifiedJulianDay()) {
+                throw new Exception("BeginTime is larger than or equal to EndTime in TimeSpan");
+            }
+        }
+    }
+
+
+    /**
+     * Clears the buffer between start- and end- time of the time (TimeSpan)
+     *
+     * @param timeT timeSpan period to clear
+     */
+    public void clear(ITimeSpan timeT) {
+        double trb = timeT.getStart().getModifiedJulianDay();
+        double tre = timeT.getEnd().getModifiedJulianDay();
+        // as in the SmartBuffer, the record following a removed one is not checked
+        for (int i = 0; i < count; i++) {
+            int p = physical(i);
+            if (isTimeSpan) {
+                if (starts[p] > trb && ends[p] < tre) {
+                    removeAt(i);
+                }
+            } else if (starts[p] > trb && starts[p] < tre) {
+                removeAt(i);
+            }
+        }
+    }
+
+
+    /**
+     * Clear all times and values in the buffer at or later than the specified
+     * time If the specified time is type ITimeSpan the Start time is used.
+     *
+     * @param time the beginning period
+     */
+    public void clearAfter(ITime time) throws Exception {
+        double t;
+        if (time instanceof ITimeStamp) {
+            t = ((ITimeStamp) time).getModifiedJulianDay();
+        } else if (time instanceof ITimeSpan) {
+            t = ((ITimeSpan) time).getStart().getModifiedJulianDay();
+        } else {
+            throw new Exception("Wrong argument type for call to org.openmi.utilities.buffer.SmartBuffer.ClearAfter()");
+        }
+
+        while (count > 0 && starts[physical(count - 1)] >= t) {
+            count--;
+        }
+    }
+
+
+    /**
+     * Clear all records in the buffer assocaited to time that is earlier that the
+     * time specified in the argument list. However, one record associated to time
+     * before the time in the argument list is left in the buffer.
+     * The criteria when comparing TimeSpans is that they may not overlap in order
+     * to be regarded as before each other.
+     * (@see also org.openmi.utilities.buffer.Support.IsBefore(ITime ta, ITime tb)
+     *
+     * @param time endding time for clearing
+     */
+    public void clearBefore(ITimeStamp time) {
+        double t = time.getModifiedJulianDay();
+        int numberOfRecordsToRemove = 0;
+
+        for (int i = 0; i < count; i++) {
+            int p = physical(i);
+            if ((isTimeSpan ? ends[p] : starts[p]) < t) {
+                numberOfRecordsToRemove++;
+            }
+        }
+        numberOfRecordsToRemove--; // decrease index to ensure that one record before time is left back
+
+        if (numberOfRecordsToRemove > 0) {
+            head = physical(numberOfRecordsToRemove);
+            count -= numberOfRecordsToRemove;
+        }
+    }
+
+
+    /**
+     * Return the time at a given index
+     *
+     * @param TimeStep the time step index
+     * @return the true time
+     * @throws Exception
+     */
+    public ITime getTimeAt(int TimeStep) throws Exception {
+        if (this.doExtendedDataVerification) {
+            checkBuffer();
+        }
+        int p = physical(checkIndex(TimeStep));
+        if (isTimeSpan) {
+            return new TimeSpan(new TimeStamp(starts[p]), new TimeStamp(ends[p]));
+        }
+        return new TimeStamp(starts[p]);
+    }
+
+
+    /**
+     * Get the values at a given time
+     *
+     * @param requestedTime the requested time
+     * @return the valueSet
+     * @throws Exception
+     */
+    public IValueSet getValues(ITime requestedTime) throws Exception {
+        if (count == 0) {
+            if (this.doExtendedDataVerification) {
+                checkTime(requestedTime);
+                checkBuffer();
+            }
+            return new ScalarSet();
+        }
+        double[] xr = new double[slabs[head].length];
+        getValues(requestedTime, xr);
+        return toValueSet(xr);
+    }
+
+
+    /**
+     * Get the values at a given time into an array. For VectorSets the x, y
+     * and z components of every vector follow each other.
+     *
+     * @param requestedTime the requested time
+     * @param xr            the array to fill, at least getValuesCount() long
+     *                      for ScalarSets and three times that for VectorSets
+     * @throws Exception
+     */
+    public void getValues(ITime requestedTime, double[] xr) throws Exception {
+        if (this.doExtendedDataVerification) {
+            checkTime(requestedTime);
+            checkBuffer();
+        }
+
+        if (count == 0) {
+            return;
+        } else if (count == 1) {
+            System.arraycopy(slabs[head], 0, xr, 0, slabs[head].length);
+        } else if (requestedTime instanceof ITimeStamp && !isTimeSpan) {
+            mapFromTimeStampsToTimeStamp(((ITimeStamp) requestedTime).getModifiedJulianDay(), xr);
+        } else if (requestedTime instanceof ITimeSpan && isTimeSpan) {
+            mapFromTimeSpansToTimeSpan(((ITimeSpan) requestedTime).getStart().getModifiedJulianDay(),
+                    ((ITimeSpan) requestedTime).getEnd().getModifiedJulianDay(), xr);
+        } else if (requestedTime instanceof ITimeSpan && !isTimeSpan) {
+            mapFromTimeStampsToTimeSpan(((ITimeSpan) requestedTime).getStart().getModifiedJulianDay(),
+                    ((ITimeSpan) requestedTime).getEnd().getModifiedJulianDay(), xr);
+        } else if (requestedTime instanceof ITimeStamp && isTimeSpan) {
+            mapFromTimeSpansToTimeStamp(((ITimeStamp) requestedTime).getModifiedJulianDay(), xr);
+        } else {
+            throw new Exception("Requested TimeMapping not available in SmartWrapper Class");
+        }
+    }
+
+
+    /**
+     * Get the values at a given index
+     *
+     * @param TimeStep the time step index
+     * @return A copy of the requested values
+     * @throws Exception
+     */
+    public IValueSet getValuesAt(int TimeStep) throws Exception {
+        if (this.doExtendedDataVerification) {
+            checkBuffer();
+        }
+        return toValueSet(slabs[physical(checkIndex(TimeStep))].clone());
+    }
+
+
+    /**
+     * Get the buffered values at a given index without copying them. For
+     * VectorSets the x, y and z components of every vector follow each other.
+     * The array must not be modified and is only valid until the buffer is
+     * changed, since the slabs of cleared times are reused.
+     *
+     * @param TimeStep the time step index
+     * @return The buffered values
+     */
+    public double[] getValuesView(int TimeStep) {
+        return slabs[physical(checkIndex(TimeStep))];
+    }
+
+
+    /**
+     * @return true if the buffered times are TimeSpans, false for TimeStamps
+     */
+    public boolean isTimeSpan() {
+        return isTimeSpan;
+    }
+
+
+    /**
+     * @return true if the buffered values are VectorSets, false for ScalarSets
+     */
+    public boolean isVectorSet() {
+        return isVectorSet;
+    }
+
+
+    private int physical(int index) {
+        int p = head + index;
+        return p < slabs.length ? p : p - slabs.length;
+    }
+
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return index;
+    }
+
+
+    /**
+     * Fixes the types on the first values and checks that the following ones
+     * are of the same types.
+     */
+    private void checkTypes(boolean timeSpan, boolean vectorSet, int n) {
+        if (count == 0) {
+            isTimeSpan = timeSpan;
+            isVectorSet = vectorSet;
+            valuesCount = n;
+            return;
+        }
+        if (timeSpan != isTimeSpan) {
+            throw new RuntimeException("Illegal data type for time in buffer");
+        }
+        if (vectorSet != isVectorSet) {
+            throw new RuntimeException("Illegal data type for values in buffer");
+        }
+        if (n != valuesCount) {
+            throw new RuntimeException("Different numbers of values in the value sets of the buffer");
+        }
+    }
+
+
+    /**
+     * Appends a time to the ring, growing it if needed.
+     *
+     * @return the slab to fill with the values of the time
+     */
+    private double[] append(double start, double end) {
+        if (count == slabs.length) {
+            int capacity = slabs.length * 2;
+            double[] newStarts = new double[capacity];
+            double[] newEnds = new double[capacity];
+            double[][] newSlabs = new double[capacity][];
+            for (int i = 0; i < count; i++) {
+                int p = physical(i);
+                newStarts[i] = starts[p];
+                newEnds[i] = ends[p];
+                newSlabs[i] = slabs[p];
+            }
+            starts = newStarts;
+            ends = newEnds;
+            slabs = newSlabs;
+            head = 0;
+        }
+        int p = physical(count);
+        int length = isVectorSet ? 3 * valuesCount : valuesCount;
+        if (slabs[p] == null || slabs[p].length != length) {
+            slabs[p] = new double[length];
+        }
+        starts[p] = start;
+        ends[p] = end;
+        count++;
+        return slabs[p];
+    }
+
+
+    /**
+     * Removes a time, moving the following ones back. The removed slab is
+     * kept after the last time, to be reused.
+     */
+    private void removeAt(int index) {
+        int p = physical(index);
+        double[] removed = slabs[p];
+        for (int i = index; i < count - 1; i++) {
+            int q = physical(i + 1);
+            starts[p] = starts[q];
+            ends[p] = ends[q];
+            slabs[p] = slabs[q];
+            p = q;
+        }
+        slabs[p] = removed;
+        count--;
+    }
+
+
+    /**
+     * @return the index of the last time whose start is at or before t,
+     *         -1 if there is none
+     */
+    private int lastStartAtOrBefore(double t) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[physical(middle)] <= t) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+
+    /**
+     * @return the index of the first time whose end (for time stamps the
+     *         time itself) is at or after t, count if there is none
+     */
+    private int firstEndAtOrAfter(double t) {
+        double[] times = isTimeSpan ? ends : starts;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (times[physical(middle)] < t) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+
+    private IValueSet toValueSet(double[] xr) {
+        if (isVectorSet) {
+            Vector[] vectors = new Vector[valuesCount];
+            for (int i = 0; i < valuesCount; i++) {
+                vectors[i] = new Vector(xr[3 * i], xr[3 * i + 1], xr[3 * i + 2]);
+            }
+            return new VectorSet(vectors);
+        }
+        return new ScalarSet(xr);
+    }
+
+
+    /**
+     * do same mapping from TimeSpans To TimeSpan
+     */
+    private void mapFromTimeSpansToTimeSpan(double trb, double tre, double[] xr) {
+        int N = count; // Number of time steps in buffer
+        int length = slabs[head].length;
+
+        for (int j = 0; j < length; j++) {
+            xr[j] = 0;
+        }
+
+        // only the buffered time spans that touch the requested one can contribute
+        if (!Double.isNaN(trb) && !Double.isNaN(tre)) {
+            int first = firstEndAtOrAfter(Math.min(trb, tre));
+            int last = lastStartAtOrBefore(Math.max(trb, tre));
+            for (int n = first; n <= last; n++) {
+                int p = physical(n);
+                double tbbn = starts[p];
+                double tben = ends[p];
+                double[] sbn = slabs[p];
+
+                // ---------------------------------------------------------------------------
+                // B: <-------------------------->
+                // R: <------------------------------------->
+                // --------------------------------------------------------------------------
+                if (trb <= tbbn && tre >= tben) {// Buffered TimeSpan fully
+                    // included in requested
+                    // TimeSpan
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += sbn[j] * (tben - tbbn) / (tre - trb);
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (tbbn <= trb && tre <= tben) {// cover all
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += sbn[j];
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (tbbn < trb && trb < tben && tre > tben) {
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += sbn[j] * (tben - trb) / (tre - trb);
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (trb < tbbn && tre > tbbn && tre < tben) {
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += sbn[j] * (tre - tbbn) / (tre - trb);
+                    }
+                }
+            }
+        }
+
+        // --------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // ---------------------------------------------------------------------------
+        double tbb0 = starts[physical(0)];
+        double tbe0 = ends[physical(0)];
+        double tbe1 = ends[physical(1)];
+        double[] sb0 = slabs[physical(0)];
+        double[] sb1 = slabs[physical(1)];
+
+        if (trb < tbb0 && tre > tbb0) {
+            for (int j = 0; j < length; j++) {
+                xr[j] += ((tbb0 - trb) / (tre - trb)) * (sb0[j] - (1 - relaxationFactor) * ((tbb0 - trb) * (sb1[j] - sb0[j]) / (tbe1 - tbe0)));
+            }
+        }
+
+        // -------------------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // -------------------------------------------------------------------------------------
+
+        double tbeN_1 = ends[physical(N - 1)];
+        double tbbN_2 = starts[physical(N - 2)];
+        double[] sbN_1 = slabs[physical(N - 1)];
+        double[] sbN_2 = slabs[physical(N - 2)];
+
+        if (tre > tbeN_1 && trb < tbeN_1) {
+            double tbbN_1 = starts[physical(N - 1)];
+
+            for (int j = 0; j < length; j++) {
+                xr[j] += ((tre - tbeN_1) / (tre - trb)) * (sbN_1[j] + (1 - relaxationFactor) * ((tre - tbbN_1) * (sbN_1[j] - sbN_2[j]) / (tbeN_1 - tbbN_2)));
+            }
+        }
+        // -------------------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // -------------------------------------------------------------------------------------
+
+        if (trb >= tbeN_1) {
+            double tbeN_2 = ends[physical(N - 2)];
+            for (int j = 0; j < length; j++) {
+                // as in the SmartBuffer, both values are taken from the last time
+                double sbiN_1 = sbN_1[j];
+                double sbiN_2 = sbN_1[j];
+                xr[j] = sbiN_1 + (1 - relaxationFactor) * ((sbiN_1 - sbiN_2) / (tbeN_1 - tbbN_2)) * (trb + tre - tbeN_1 - tbeN_2);
+            }
+        }
+
+        // -------------------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // -------------------------------------------------------------------------------------
+
+        if (tre <= tbb0) {
+            for (int j = 0; j < length; j++) {
+                xr[j] = sb0[j] - (1 - relaxationFactor) * ((sb1[j] - sb0[j]) / (tbe1 - tbb0)) * (tbe0 + tbb0 - tre - trb);
+            }
+        }
+    }
+
+
+    /**
+     * do some mapping from Time Stamps To TimeSpan
+     */
+    private void mapFromTimeStampsToTimeSpan(double trb, double tre, double[] xr) {
+        int N = count; // Number of time steps in buffer
+        int length = slabs[head].length;
+
+        for (int j = 0; j < length; j++) {
+            xr[j] = 0;
+        }
+
+        // only the buffered intervals that touch the requested one can contribute
+        if (!Double.isNaN(trb) && !Double.isNaN(tre)) {
+            int first = Math.max(0, firstEndAtOrAfter(Math.min(trb, tre)) - 1);
+            int last = Math.min(N - 2, lastStartAtOrBefore(Math.max(trb, tre)));
+            for (int n = first; n <= last; n++) {
+                int p = physical(n);
+                int p1 = physical(n + 1);
+                double tbn = starts[p];
+                double tbnp1 = starts[p1];
+                double[] sbn = slabs[p];
+                double[] sbnp1 = slabs[p1];
+
+                // ---------------------------------------------------------------------------
+                // B: <-------------------------->
+                // R: <------------------------------------->
+                // --------------------------------------------------------------------------
+                if (trb <= tbn && tre >= tbnp1) {
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += 0.5 * (sbn[j] + sbnp1[j]) * (tbnp1 - tbn) / (tre - trb);
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (tbn <= trb && tre <= tbnp1) {// cover all
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += sbn[j] + ((sbnp1[j] - sbn[j]) / (tbnp1 - tbn)) * ((tre + trb) / 2 - tbn);
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (tbn < trb && trb < tbnp1 && tre > tbnp1) {
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += (sbnp1[j] - (sbnp1[j] - sbn[j]) / (tbnp1 - tbn) * ((tbnp1 - trb) / 2)) * (tbnp1 - trb) / (tre - trb);
+                    }
+                } // ---------------------------------------------------------------------------
+                // Times[i] Interval: t1|-----------------|t2
+                // Requested Interval: rt1|--------------|rt2
+                // --------------------------------------------------------------------------
+                else if (trb < tbn && tre > tbn && tre < tbnp1) {
+                    for (int j = 0; j < length; j++) {
+                        xr[j] += (sbn[j] + (sbnp1[j] - sbn[j]) / (tbnp1 - tbn) * ((tre - tbn) / 2)) * (tre - tbn) / (tre - trb);
+                    }
+                }
+            }
+        }
+
+        // --------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // ---------------------------------------------------------------------------
+        double tb0 = starts[physical(0)];
+        // as in the SmartBuffer, tb1 is the first time too
+        double tb1 = starts[physical(0)];
+        double tbN_1 = starts[physical(N - 1)];
+        double tbN_2 = starts[physical(N - 2)];
+        double[] sb0 = slabs[physical(0)];
+        double[] sb1 = slabs[physical(1)];
+        double[] sbN_1 = slabs[physical(N - 1)];
+        double[] sbN_2 = slabs[physical(N - 2)];
+
+        if (trb < tb0 && tre > tb0) {
+            for (int j = 0; j < length; j++) {
+                xr[j] += ((tb0 - trb) / (tre - trb)) * (sb0[j] - (1 - relaxationFactor) * 0.5 * ((tb0 - trb) * (sb1[j] - sb0[j]) / (tb1 - tb0)));
+            }
+        }
+
+        // -------------------------------------------------------------------------------------
+        // |--------|---------|--------| B
+        // |----------------| R
+        // -------------------------------------------------------------------------------------
+        if (tre > tbN_1 && trb < tbN_1) {
+            for (int j = 0; j < length; j++) {
+                xr[j] += ((tre - tbN_1) / (tre - trb)) * (sbN_1[j] + (1 - relaxationFactor) * 0.5 * ((tre - tbN_1) * (sbN_1[j] - sbN_2[j]) / (tbN_1 - tbN_2)));
+            }
+        }
+        // //-------------------------------------------------------------------------------------
+        // // |--------|---------|--------| B
+        // // |----------------| R
+        // //-------------------------------------------------------------------------------------
+        //
+        if (trb >= tbN_1) {
+            for (int j = 0; j < length; j++) {
+                // as in the SmartBuffer, both values are taken from the last time
+                double sbiN_1 = sbN_1[j];
+                double sbiN_2 = sbN_1[j];
+                xr[j] = sbiN_1 + (1 - relaxationFactor) * ((sbiN_1 - sbiN_2) / (tbN_1 - tbN_2)) * (0.5 * (trb + tre) - tbN_1);
+            }
+        }
+
+        // //-------------------------------------------------------------------------------------
+        // // |--------|---------|--------| B
+        // // |----------------| R
+        // //-------------------------------------------------------------------------------------
+
+        if (tre <= tb0) {
+            for (int j = 0; j < length; j++) {
+                xr[j] = sb0[j] - (1 - relaxationFactor) * ((sb1[j] - sb0[j]) / (tb1 - tb0)) * (tb0 - 0.5 * (trb + tre));
+            }
+        }
+    }
+
+
+    /**
+     * do some mapping from Time Stamps To TimeStamp
+     */
+    private void mapFromTimeStampsToTimeStamp(double tr, double[] xr) {
+        int N = count; // Number of time steps in buffer
+        int length = slabs[head].length;
+
+        // ---------------------------------------------------------------------------
+        // Buffered TimesStamps: | >tb0< >tb1< >tb2< >tbN<
+        // Requested TimeStamp: | >tr<
+        // -----------------------------------------> t
+        // --------------------------------------------------------------------------
+        if (tr <= starts[physical(0)]) {
+            double tb0 = starts[physical(0)];
+            double tb1 = starts[physical(1)];
+            double[] sb0 = slabs[physical(0)];
+            double[] sb1 = slabs[physical(1)];
+
+            for (int j = 0; j < length; j++) {
+                xr[j] = ((sb0[j] - sb1[j]) / (tb0 - tb1)) * (tr - tb0) * (1 - relaxationFactor) + sb0[j];
+            }
+        } // ---------------------------------------------------------------------------
+        // Buffered TimesStamps: | >tb0< >tb1< >tb2< >tbN_2< >tbN_1<
+        // Requested TimeStamp: | >tr<
+        // ---------------------------------------------------> t
+        // --------------------------------------------------------------------------
+        else if (tr > starts[physical(N - 1)]) {
+            double tbN_2 = starts[physical(N - 2)];
+            double tbN_1 = starts[physical(N - 1)];
+            double[] sbN_2 = slabs[physical(N - 2)];
+            double[] sbN_1 = slabs[physical(N - 1)];
+
+            for (int j = 0; j < length; j++) {
+                xr[j] = ((sbN_1[j] - sbN_2[j]) / (tbN_1 - tbN_2)) * (tr - tbN_1) * (1 - relaxationFactor) + sbN_1[j];
+            }
+        } // ---------------------------------------------------------------------------
+        // Availeble TimesStamps: | >tb0< >tb1< >tbna< >tnb< >tbN_1< >tbN_2<
+        // Requested TimeStamp: | >tr<
+        // -------------------------------------------------> t
+        // --------------------------------------------------------------------------
+        else {
+            // the last interval starting at or before the requested time
+            int n = Math.min(N - 2, lastStartAtOrBefore(tr));
+            if (n < 0) {
+                n = 0;
+            }
+            double tbn1 = starts[physical(n)];
+            double tbn2 = starts[physical(n + 1)];
+            if (tbn1 <= tr && tr <= tbn2) {
+                double[] sbn1 = slabs[physical(n)];
+                double[] sbn2 = slabs[physical(n + 1)];
+                for (int j = 0; j < length; j++) {
+                    xr[j] = ((sbn2[j] - sbn1[j]) / (tbn2 - tbn1)) * (tr - tbn1) + sbn1[j];
+                }
+            } else {
+                for (int j = 0; j < length; j++) {
+                    xr[j] = 0;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * do some mapping from Time Spans To TimeStamp
+     */
+    private void mapFromTimeSpansToTimeStamp(double tr, double[] xr) {
+        int N = count; // Number of time steps in buffer
+        int length = slabs[head].length;
+
+        // ---------------------------------------------------------------------------
+        // Buffered TimesSpans: | >tbb0< .......... >tbbN<
+        // Requested TimeStamp: | >tr<
+        // -----------------------------------------> t
+        // --------------------------------------------------------------------------
+        if (tr <= starts[physical(0)]) {
+            double tbb0 = starts[physical(0)];
+            double tbb1 = starts[physical(1)];
+            double[] sb0 = slabs[physical(0)];
+            double[] sb1 = slabs[physical(1)];
+
+            for (int j = 0; j < length; j++) {
+                xr[j] = ((sb0[j] - sb1[j]) / (tbb0 - tbb1)) * (tr - tbb0) * (1 - relaxationFactor) + sb0[j];
+            }
+        } // ---------------------------------------------------------------------------
+        // Buffered TimesSpans: | >tbb0< ................. >tbbN_1<
+        // Requested TimeStamp: | >tr<
+        // ---------------------------------------------------> t
+        // --------------------------------------------------------------------------
+        else if (tr >= ends[physical(N - 1)]) {
+            double tbeN_2 = ends[physical(N - 2)];
+            double tbeN_1 = ends[physical(N - 1)];
+            double[] sbN_2 = slabs[physical(N - 2)];
+            double[] sbN_1 = slabs[physical(N - 1)];
+
+            for (int j = 0; j < length; j++) {
+                xr[j] = ((sbN_1[j] - sbN_2[j]) / (tbeN_1 - tbeN_2)) * (tr - tbeN_1) * (1 - relaxationFactor) + sbN_1[j];
+            }
+        } // ---------------------------------------------------------------------------
+        // Availeble TimesSpans: | >tbb0< ...................... >tbbN_1<
+        // Requested TimeStamp: | >tr<
+        // -------------------------------------------------> t
+        // --------------------------------------------------------------------------
+        else {
+            // the time span starting at or before the requested time
+            int n = lastStartAtOrBefore(tr);
+            int p = n >= 0 ? physical(n) : -1;
+            if (p >= 0 && starts[p] <= tr && tr < ends[p]) {
+                System.arraycopy(slabs[p], 0, xr, 0, length);
+            } else {
+                for (int j = 0; j < length; j++) {
+                    xr[j] = 0;
+                }
+            }
+        }
+    }
+
+}
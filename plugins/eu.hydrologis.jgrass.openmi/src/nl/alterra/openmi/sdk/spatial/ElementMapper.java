@@ -122,25 +122,28 @@ public class ElementMapper {
             throw new Exception("Dimension mismatch between inputValues and mapping matrix");
         }
 
+        SparseMappingMatrix matrix = strategy.getSparseMatrix();
+
         if (inputValues instanceof IScalarSet) {
+            IScalarSet scalarSet = (IScalarSet) inputValues;
+            double[] inValues = new double[strategy.getNumberOfColumns()];
+            for (int n = 0; n < inValues.length; n++) {
+                inValues[n] = scalarSet.getScalar(n);
+            }
             double[] outValues = new double[strategy.getNumberOfRows()];
             // --- Multiply the Values vector with the MappingMatrix ---
-            for (int i = 0; i < strategy.getNumberOfRows(); i++) {
-                outValues[i] = 0;
-                for (int n = 0; n < strategy.getNumberOfColumns(); n++) {
-                    outValues[i] += getMappingValue(i, n) * ((IScalarSet) inputValues).getScalar(n);
-                }
-            }
+            matrix.multiply(inValues, outValues);
             return new ScalarSet(outValues);
         }
 
         if (inputValues instanceof IVectorSet) {
+            IVectorSet vectorSet = (IVectorSet) inputValues;
             Vector[] outValues = new Vector[strategy.getNumberOfRows()];
             // --- Multiply the Values vector with the MappingMatrix ---
             for (int i = 0; i < strategy.getNumberOfRows(); i++) {
-                outValues[i].set(0, 0, 0);
-                for (int n = 0; n < strategy.getNumberOfColumns(); n++) {
-                    outValues[i].addVector(getMappingValue(i, n), 0, ((IVectorSet) inputValues).getVector(n));
+                outValues[i] = new Vector();
+                for (int k = matrix.getRowStart(i); k < matrix.getRowEnd(i); k++) {
+                    outValues[i].addVector(matrix.getValue(k), 0, vectorSet.getVector(matrix.getColumn(k)));
                 }
             }
             return new VectorSet(outValues);
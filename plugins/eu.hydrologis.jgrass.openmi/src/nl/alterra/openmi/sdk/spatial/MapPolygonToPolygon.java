@@ -42,9 +42,18 @@ import org.openmi.standard.IElementSet;
  * MapPolygonToPolygon is an implementation of a MappingStrategy to be used by
  * the ElementMapper and maps XYPolygons from the source element set on
  * XYPolygons of the target element set.
+ * 
+ * The source polygons are created once and put in a bounding box index, so
+ * that the shared area is only calculated for the source polygons that may
+ * overlap a target polygon. The weights are stored in the sparse matrix.
  */
 public class MapPolygonToPolygon extends MappingStrategy {
 
+    @Override
+    protected boolean isSparse() {
+        return true;
+    }
+
     /**
      * Fill the mapping matrix with values according to the selected mapping
      * method and the source and target element sets.
@@ -55,39 +64,62 @@ public class MapPolygonToPolygon extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
+        if (method != ElementMappingMethod.POLYGON_TO_POLYGON_WEIGHTED_MEAN
+                && method != ElementMappingMethod.POLYGON_TO_POLYGON_WEIGHTED_SUM) {
+            throw new Exception("Method unknown for polygon to polygon mapping");
+        }
+
+        XYPolygon[] fromPolygons = new XYPolygon[numberOfColumns];
+        for (int j = 0; j < numberOfColumns; j++) {
+            fromPolygons[j] = XYGeometryTools.createXYPolygon(source, j);
+        }
+        XYPolylineIndex index = new XYPolylineIndex(fromPolygons);
+
+        SparseMappingMatrix matrix = new SparseMappingMatrix(numberOfRows, numberOfColumns);
+        int[] rowColumns = new int[numberOfColumns];
+        double[] rowValues = new double[numberOfColumns];
+        IntWrapper candidateCount = new IntWrapper(0);
+
         for (int i = 0; i < numberOfRows; i++) {
             XYPolygon toPolygon = XYGeometryTools.createXYPolygon(target, i);
             double area = toPolygon.getArea();
 
-            for (int j = 0; j < numberOfColumns; j++) {
-                XYPolygon fromPolygon = XYGeometryTools.createXYPolygon(source, j);
-                mappingMatrix[i][j] = XYGeometryTools.calculateSharedArea(toPolygon, fromPolygon);
+            int[] candidates = index.query(toPolygon, candidateCount);
+            int count = 0;
+            for (int k = 0; k < candidateCount.getValue(); k++) {
+                int j = candidates[k];
+                double sharedArea = XYGeometryTools.calculateSharedArea(toPolygon, fromPolygons[j]);
+                if (sharedArea != 0.0) {
+                    rowColumns[count] = j;
+                    rowValues[count] = sharedArea;
+                    count++;
+                }
             }
 
             switch (method) {
                 case POLYGON_TO_POLYGON_WEIGHTED_MEAN:
                     double denominator = 0;
-                    for (int j = 0; j < numberOfColumns; j++) {
-                        denominator = denominator + mappingMatrix[i][j];
+                    for (int k = 0; k < count; k++) {
+                        denominator = denominator + rowValues[k];
                     }
 
                     if (Double.compare(denominator, 0.0) != 0) {
-                        for (int j = 0; j < numberOfColumns; j++) {
-                            mappingMatrix[i][j] = mappingMatrix[i][j] / denominator;
+                        for (int k = 0; k < count; k++) {
+                            rowValues[k] = rowValues[k] / denominator;
                         }
                     }
                     break;
 
                 case POLYGON_TO_POLYGON_WEIGHTED_SUM:
-                    for (int j = 0; j < numberOfColumns; j++) {
-                        mappingMatrix[i][j] = mappingMatrix[i][j] / area;
+                    for (int k = 0; k < count; k++) {
+                        rowValues[k] = rowValues[k] / area;
                     }
                     break;
-
-                default:
-                    throw new Exception("Method unknown for polygon to polygon mapping");
             }
+            matrix.appendRow(rowColumns, rowValues, count);
         }
+        mappingMatrix = null;
+        sparseMatrix = matrix;
     }
 
 }
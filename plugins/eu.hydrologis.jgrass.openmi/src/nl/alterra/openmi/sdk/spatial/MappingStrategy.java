@@ -50,10 +50,16 @@ import org.openmi.standard.IElementSet;
  * 
  * The MappingStrategy class and the initial descendent implementations
  * started from a refactoring of the giant .NET ElementMapper original.
+ * 
+ * The values are mapped through a sparse copy of the matrix. Strategies that
+ * relate every target element to a few source elements only can build the
+ * sparse matrix directly, returning true from isSparse, in which case the
+ * dense matrix is only allocated when it is modified.
  */
 public abstract class MappingStrategy {
 
     protected double[][] mappingMatrix;
+    protected SparseMappingMatrix sparseMatrix;
     protected int numberOfRows;
     protected int numberOfColumns;
     protected boolean isInitialised = false;
@@ -70,7 +76,8 @@ public abstract class MappingStrategy {
             throws Exception {
         numberOfRows = target.getElementCount();
         numberOfColumns = source.getElementCount();
-        mappingMatrix = new double[numberOfRows][numberOfColumns];
+        sparseMatrix = null;
+        mappingMatrix = isSparse() ? null : new double[numberOfRows][numberOfColumns];
 
         // update matrix in specific implementations
         updateMappingMatrix(method, source, target);
@@ -90,6 +97,40 @@ public abstract class MappingStrategy {
     public abstract void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target)
             throws Exception;
 
+    /**
+     * Tells if the strategy fills the sparse matrix instead of the dense one
+     * in updateMappingMatrix.
+     *
+     * @return True if the strategy builds the sparse matrix directly
+     */
+    protected boolean isSparse() {
+        return false;
+    }
+
+    /**
+     * Get the mapping matrix in compressed sparse row format, as it is used
+     * to map the values.
+     *
+     * @return The sparse mapping matrix
+     */
+    public SparseMappingMatrix getSparseMatrix() {
+        if (sparseMatrix == null) {
+            sparseMatrix = SparseMappingMatrix.fromDense(mappingMatrix, numberOfRows, numberOfColumns);
+        }
+        return sparseMatrix;
+    }
+
+    /**
+     * Makes the dense matrix available for modification. The sparse matrix is
+     * rebuilt from it when it is needed again.
+     */
+    protected void prepareDenseMatrix() {
+        if (mappingMatrix == null) {
+            mappingMatrix = sparseMatrix.toDense();
+        }
+        sparseMatrix = null;
+    }
+
     /**
      * Extracts the (row, column) element from the mapping matrix.
      *
@@ -100,6 +141,9 @@ public abstract class MappingStrategy {
      */
     public double getValueFromMappingMatrix(int row, int column) {
         validateIndicies(row, column);
+        if (mappingMatrix == null) {
+            return sparseMatrix.get(row, column);
+        }
         return mappingMatrix[row][column];
     }
 
@@ -113,6 +157,7 @@ public abstract class MappingStrategy {
      */
     public void setValueInMappingMatrix(double value, int row, int column) {
         validateIndicies(row, column);
+        prepareDenseMatrix();
         mappingMatrix[row][column] = value;
     }
 
@@ -123,6 +168,9 @@ public abstract class MappingStrategy {
      * @return Minimum column value in the given row
      */
     public double getMinColumnValue(int row) {
+        if (mappingMatrix == null) {
+            mappingMatrix = sparseMatrix.toDense();
+        }
         double min = mappingMatrix[row][0];
 
         for (int j = 1; j < numberOfColumns; j++) {
@@ -157,6 +205,7 @@ public abstract class MappingStrategy {
      * @param value The value to calculate the denominators for
      */
     public void setStandardColumnDenominators(int row, double value) {
+        prepareDenseMatrix();
         int denominator = 0;
 
         for (int j = 0; j < numberOfColumns; j++) {
@@ -180,6 +229,7 @@ public abstract class MappingStrategy {
      * @param row The mapping matrix row to update
      */
     public void setInverseColumnDenominators(int row) {
+        prepareDenseMatrix();
         double denominator = 0;
 
         for (int j = 0; j < numberOfColumns; j++) {
@@ -0,0 +1,233 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ *****************************************************************************
+ *
+ * The classes in the utilities package are mostly a direct translation from
+ * the C# version. They successfully pass the unit tests (which were also
+ * taken from the C# version), but so far no extensive time as been put into
+ * them.
+ *
+ * @author Rob Knapen, Alterra B.V., The Netherlands
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.spatial;
+
+/**
+ * A mapping matrix in compressed sparse row format.
+ * 
+ * Most mapping methods relate every target element to a few source elements
+ * only, so only the non zero weights of every row are kept, together with
+ * their column index. The rows are built in order through appendRow, the
+ * columns of a row are expected in ascending order.
+ */
+public class SparseMappingMatrix {
+
+    private final int numberOfRows;
+    private final int numberOfColumns;
+
+    private final int[] rowPointers;
+    private int[] columns;
+    private double[] values;
+    private int rowCount = 0;
+
+    /**
+     * Creates an empty matrix, to be filled row by row.
+     *
+     * @param numberOfRows    Number of rows (target elements)
+     * @param numberOfColumns Number of columns (source elements)
+     */
+    public SparseMappingMatrix(int numberOfRows, int numberOfColumns) {
+        this.numberOfRows = numberOfRows;
+        this.numberOfColumns = numberOfColumns;
+        rowPointers = new int[numberOfRows + 1];
+        int capacity = Math.max(16, numberOfRows);
+        columns = new int[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Creates a sparse copy of a dense matrix, leaving out the zero values.
+     *
+     * @param matrix          The dense matrix
+     * @param numberOfRows    Number of rows
+     * @param numberOfColumns Number of columns
+     * @return The sparse matrix
+     */
+    public static SparseMappingMatrix fromDense(double[][] matrix, int numberOfRows, int numberOfColumns) {
+        SparseMappingMatrix sparse = new SparseMappingMatrix(numberOfRows, numberOfColumns);
+        int[] rowColumns = new int[numberOfColumns];
+        double[] rowValues = new double[numberOfColumns];
+        for (int i = 0; i < numberOfRows; i++) {
+            int count = 0;
+            for (int j = 0; j < numberOfColumns; j++) {
+                // NaN weights are kept, they have to show up in the mapped values
+                if (matrix[i][j] != 0.0 || Double.isNaN(matrix[i][j])) {
+                    rowColumns[count] = j;
+                    rowValues[count] = matrix[i][j];
+                    count++;
+                }
+            }
+            sparse.appendRow(rowColumns, rowValues, count);
+        }
+        return sparse;
+    }
+
+    /**
+     * Adds the next row to the matrix.
+     *
+     * @param rowColumns The ascending column indexes of the values
+     * @param rowValues  The values
+     * @param count      The number of values of the row
+     */
+    public void appendRow(int[] rowColumns, double[] rowValues, int count) {
+        if (rowCount >= numberOfRows) {
+            throw new IndexOutOfBoundsException("Sparse mapping matrix: all the " + numberOfRows + " rows are already set");
+        }
+        int start = rowPointers[rowCount];
+        int end = start + count;
+        if (end > columns.length) {
+            int capacity = Math.max(end, columns.length * 2);
+            int[] newColumns = new int[capacity];
+            double[] newValues = new double[capacity];
+            System.arraycopy(columns, 0, newColumns, 0, start);
+            System.arraycopy(values, 0, newValues, 0, start);
+            columns = newColumns;
+            values = newValues;
+        }
+        System.arraycopy(rowColumns, 0, columns, start, count);
+        System.arraycopy(rowValues, 0, values, start, count);
+        rowCount++;
+        rowPointers[rowCount] = end;
+    }
+
+    /**
+     * Gets the (row, column) value, zero if it is not stored.
+     *
+     * @param row    Zero based row index
+     * @param column Zero based column index
+     * @return Element(row,column)
+     */
+    public double get(int row, int column) {
+        if (row >= rowCount) {
+            return 0.0;
+        }
+        int low = rowPointers[row];
+        int high = rowPointers[row + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (columns[middle] < column) {
+                low = middle + 1;
+            }
+            else if (columns[middle] > column) {
+                high = middle - 1;
+            }
+            else {
+                return values[middle];
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Multiplies the matrix with a vector of source values.
+     *
+     * @param in  The source values, one per column
+     * @param out The array to fill with the target values, one per row
+     */
+    public void multiply(double[] in, double[] out) {
+        for (int i = 0; i < numberOfRows; i++) {
+            double sum = 0;
+            if (i < rowCount) {
+                for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                    sum += values[k] * in[columns[k]];
+                }
+            }
+            out[i] = sum;
+        }
+    }
+
+    /**
+     * @return A dense copy of the matrix
+     */
+    public double[][] toDense() {
+        double[][] matrix = new double[numberOfRows][numberOfColumns];
+        for (int i = 0; i < rowCount; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                matrix[i][columns[k]] = values[k];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @param row Zero based row index
+     * @return Index of the first value of the row in the column and value arrays
+     */
+    public int getRowStart(int row) {
+        return row < rowCount ? rowPointers[row] : rowPointers[rowCount];
+    }
+
+    /**
+     * @param row Zero based row index
+     * @return Index after the last value of the row in the column and value arrays
+     */
+    public int getRowEnd(int row) {
+        return row < rowCount ? rowPointers[row + 1] : rowPointers[rowCount];
+    }
+
+    /**
+     * @param index Index in the stored values, between getRowStart and getRowEnd
+     * @return The column of the stored value
+     */
+    public int getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * @param index Index in the stored values, between getRowStart and getRowEnd
+     * @return The stored value
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The number of stored values
+     */
+    public int getNonZeroCount() {
+        return rowPointers[rowCount];
+    }
+
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    public int getNumberOfColumns() {
+        return numberOfColumns;
+    }
+
+}
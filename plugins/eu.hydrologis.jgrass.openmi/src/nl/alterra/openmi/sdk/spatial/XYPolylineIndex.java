@@ -0,0 +1,244 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ *****************************************************************************
+ *
+ * The classes in the utilities package are mostly a direct translation from
+ * the C# version. They successfully pass the unit tests (which were also
+ * taken from the C# version), but so far no extensive time as been put into
+ * them.
+ *
+ * @author Rob Knapen, Alterra B.V., The Netherlands
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.spatial;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid index on the bounding boxes of a set of polylines or
+ * polygons, used to find the elements that may intersect a given geometry
+ * without testing all of them.
+ * 
+ * Every element is registered in all the grid cells covered by its bounding
+ * box. The grid has about as many cells as elements. An instance is not
+ * thread safe, since the queries share their working arrays.
+ */
+public class XYPolylineIndex {
+
+    private final XYPolyline[] polylines;
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+
+    private double originX;
+    private double originY;
+    private double cellWidth;
+    private double cellHeight;
+    private int gridColumns;
+    private int gridRows;
+
+    /* the elements of every grid cell, in compressed row format */
+    private int[] cellPointers;
+    private int[] cellElements;
+
+    private final int[] stamps;
+    private int stamp = 0;
+    private final int[] candidates;
+
+    /**
+     * Creates the index.
+     *
+     * @param polylines The elements to index
+     */
+    public XYPolylineIndex(XYPolyline[] polylines) {
+        int n = polylines.length;
+        this.polylines = polylines;
+        minX = new double[n];
+        minY = new double[n];
+        maxX = new double[n];
+        maxY = new double[n];
+        stamps = new int[n];
+        candidates = new int[n];
+
+        double[] extent = new double[4];
+        double allMinX = Double.POSITIVE_INFINITY;
+        double allMinY = Double.POSITIVE_INFINITY;
+        double allMaxX = Double.NEGATIVE_INFINITY;
+        double allMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            getExtent(polylines[i], extent);
+            minX[i] = extent[0];
+            minY[i] = extent[1];
+            maxX[i] = extent[2];
+            maxY[i] = extent[3];
+            allMinX = Math.min(allMinX, minX[i]);
+            allMinY = Math.min(allMinY, minY[i]);
+            allMaxX = Math.max(allMaxX, maxX[i]);
+            allMaxY = Math.max(allMaxY, maxY[i]);
+        }
+        if (n == 0) {
+            allMinX = allMinY = allMaxX = allMaxY = 0;
+        }
+
+        int side = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+        gridColumns = side;
+        gridRows = side;
+        originX = allMinX;
+        originY = allMinY;
+        cellWidth = (allMaxX - allMinX) / gridColumns;
+        cellHeight = (allMaxY - allMinY) / gridRows;
+        if (!(cellWidth > 0)) {
+            gridColumns = 1;
+            cellWidth = 1;
+        }
+        if (!(cellHeight > 0)) {
+            gridRows = 1;
+            cellHeight = 1;
+        }
+
+        // count the elements of every cell, then fill them in
+        cellPointers = new int[gridColumns * gridRows + 1];
+        for (int i = 0; i < n; i++) {
+            int c0 = column(minX[i]);
+            int c1 = column(maxX[i]);
+            int r1 = row(maxY[i]);
+            for (int r = row(minY[i]); r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellPointers[r * gridColumns + c + 1]++;
+                }
+            }
+        }
+        for (int k = 0; k < gridColumns * gridRows; k++) {
+            cellPointers[k + 1] += cellPointers[k];
+        }
+        cellElements = new int[cellPointers[gridColumns * gridRows]];
+        int[] fill = new int[gridColumns * gridRows];
+        System.arraycopy(cellPointers, 0, fill, 0, fill.length);
+        for (int i = 0; i < n; i++) {
+            int c0 = column(minX[i]);
+            int c1 = column(maxX[i]);
+            int r1 = row(maxY[i]);
+            for (int r = row(minY[i]); r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellElements[fill[r * gridColumns + c]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the indexed element.
+     *
+     * @param index Zero based element index
+     * @return The element
+     */
+    public XYPolyline getPolyline(int index) {
+        return polylines[index];
+    }
+
+    /**
+     * Finds the elements whose bounding box intersects, or touches, the
+     * bounding box of the given geometry.
+     *
+     * @param polyline The geometry to search around
+     * @param count    Set to the number of elements found
+     * @return Array holding the ascending indexes of the found elements in
+     *         its first count positions. The array is reused by the next query.
+     */
+    public int[] query(XYPolyline polyline, IntWrapper count) {
+        double[] extent = new double[4];
+        getExtent(polyline, extent);
+        return query(extent[0], extent[1], extent[2], extent[3], count);
+    }
+
+    /**
+     * Finds the elements whose bounding box intersects, or touches, the
+     * given box.
+     *
+     * @param boxMinX Minimum x of the box
+     * @param boxMinY Minimum y of the box
+     * @param boxMaxX Maximum x of the box
+     * @param boxMaxY Maximum y of the box
+     * @param count   Set to the number of elements found
+     * @return Array holding the ascending indexes of the found elements in
+     *         its first count positions. The array is reused by the next query.
+     */
+    public int[] query(double boxMinX, double boxMinY, double boxMaxX, double boxMaxY, IntWrapper count) {
+        stamp++;
+        int found = 0;
+        int c0 = column(boxMinX);
+        int c1 = column(boxMaxX);
+        int r1 = row(boxMaxY);
+        for (int r = row(boxMinY); r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * gridColumns + c;
+                for (int k = cellPointers[cell]; k < cellPointers[cell + 1]; k++) {
+                    int i = cellElements[k];
+                    if (stamps[i] == stamp) {
+                        continue;
+                    }
+                    stamps[i] = stamp;
+                    if (minX[i] <= boxMaxX && maxX[i] >= boxMinX && minY[i] <= boxMaxY && maxY[i] >= boxMinY) {
+                        candidates[found++] = i;
+                    }
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, found);
+        count.setValue(found);
+        return candidates;
+    }
+
+    private int column(double x) {
+        int c = (int) Math.floor((x - originX) / cellWidth);
+        return Math.max(0, Math.min(gridColumns - 1, c));
+    }
+
+    private int row(double y) {
+        int r = (int) Math.floor((y - originY) / cellHeight);
+        return Math.max(0, Math.min(gridRows - 1, r));
+    }
+
+    /*
+     * fills the extent with minx, miny, maxx, maxy of the geometry
+     */
+    private static void getExtent(XYPolyline polyline, double[] extent) {
+        extent[0] = extent[1] = Double.POSITIVE_INFINITY;
+        extent[2] = extent[3] = Double.NEGATIVE_INFINITY;
+        XYPoints points = polyline.getPoints();
+        for (int i = 0; i < points.size(); i++) {
+            double x = points.get(i).getX();
+            double y = points.get(i).getY();
+            extent[0] = Math.min(extent[0], x);
+            extent[1] = Math.min(extent[1], y);
+            extent[2] = Math.max(extent[2], x);
+            extent[3] = Math.max(extent[3], y);
+        }
+    }
+
+}
@@ -39,7 +39,7 @@ import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
-import nl.alterra.openmi.sdk.buffer.SmartBuffer;
+import nl.alterra.openmi.sdk.buffer.ArraySmartBuffer;
 import nl.alterra.openmi.sdk.spatial.ElementMapper;
 
 /**
@@ -48,7 +48,7 @@ import nl.alterra.openmi.sdk.spatial.ElementMapper;
  */
 public class SmartOutputLink extends SmartLink {
 
-    private SmartBuffer smartBuffer = null;
+    private ArraySmartBuffer smartBuffer = null;
     private ElementMapper elementMapper = null;
     private boolean useSpatialMapping = false;
     private HashMap bufferStates = null;
@@ -58,7 +58,7 @@ public class SmartOutputLink extends SmartLink {
      *
      * @return te smart buffer
      */
-    public SmartBuffer getSmartBuffer() {
+    public ArraySmartBuffer getSmartBuffer() {
         return smartBuffer;
     }
 
@@ -69,7 +69,7 @@ public class SmartOutputLink extends SmartLink {
      */
     public void initialize(IRunEngine engineApiAccess) {
         int i;
-        smartBuffer = new SmartBuffer();
+        smartBuffer = new ArraySmartBuffer();
         useSpatialMapping = false;
 
         bufferStates = new HashMap();
@@ -138,7 +138,7 @@ public class SmartOutputLink extends SmartLink {
      * @param bufferStateID the conresponding string ID of the buffer state
      */
     public void keepCurrentBufferState(String bufferStateID) {
-        bufferStates.put(bufferStateID, new SmartBuffer(this.getSmartBuffer()));
+        bufferStates.put(bufferStateID, new ArraySmartBuffer(this.getSmartBuffer()));
     }
 
     /**
@@ -147,7 +147,7 @@ public class SmartOutputLink extends SmartLink {
      * @param bufferStateID the conresponding string ID of the buffer state
      */
     public void restoreBufferState(String bufferStateID) {
-        this.smartBuffer = new SmartBuffer((SmartBuffer) bufferStates.get(bufferStateID));
+        this.smartBuffer = new ArraySmartBuffer((ArraySmartBuffer) bufferStates.get(bufferStateID));
     }
 
     /**
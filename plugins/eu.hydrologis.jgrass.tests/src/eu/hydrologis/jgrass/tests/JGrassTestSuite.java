@@ -1,8 +1,12 @@
 package eu.hydrologis.jgrass.tests;
 
+import eu.hydrologis.jgrass.tests.libs.TestAsciiGridParser;
+import eu.hydrologis.jgrass.tests.libs.TestCompressedRowPipeline;
+import eu.hydrologis.jgrass.tests.libs.TestGrassNullMaskReader;
 import eu.hydrologis.jgrass.tests.libs.TestJGrassCoverageReader;
 import eu.hydrologis.jgrass.tests.libs.TestJiffle;
 import eu.hydrologis.jgrass.tests.libs.TestOldJGrassRasterReader;
+import eu.hydrologis.jgrass.tests.libs.TestPolygonRasterizer;
 import eu.hydrologis.jgrass.tests.libs.TestPredefinedColorRules;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -15,6 +19,10 @@ public class JGrassTestSuite extends TestCase {
         suite.addTestSuite(TestJiffle.class);
         suite.addTestSuite(TestOldJGrassRasterReader.class);
         suite.addTestSuite(TestJGrassCoverageReader.class);
+        suite.addTestSuite(TestGrassNullMaskReader.class);
+        suite.addTestSuite(TestCompressedRowPipeline.class);
+        suite.addTestSuite(TestPolygonRasterizer.class);
+        suite.addTestSuite(TestAsciiGridParser.class);
         suite.addTestSuite(TestJiffle.class);
         return suite;
     }
@@ -0,0 +1,254 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.io.AsciiGridParser;
+
+/**
+ * Test the ascii grid parser against the tokenizing and the {@link Double#parseDouble(String)}
+ * of the lines, as it was done by the ascii raster readers.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestAsciiGridParser extends TestCase {
+
+    private static final String HEADER = "ncols 7\nnrows 5\nxllcorner 1000.0\nyllcorner 5000.0\n"
+            + "cellsize 10\nNODATA_value -9999\n";
+
+    private Random random = new Random(23);
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("asciigrid", ".asc");
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testNumbers() throws IOException {
+        String[] values = new String[5000];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = randomNumber();
+        }
+        write("", values, 13);
+        double[] parsed = new double[values.length];
+        AsciiGridParser parser = new AsciiGridParser(file);
+        parser.parse(parsed, parsed.length);
+        parser.close();
+        for( int i = 0; i < values.length; i++ ) {
+            assertEquals(values[i], Double.doubleToLongBits(Double.parseDouble(values[i])), Double
+                    .doubleToLongBits(parsed[i]));
+        }
+    }
+
+    public void testHeaderAndNovalues() throws IOException {
+        String[] values = new String[35];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = String.valueOf(i * 1.5);
+        }
+        values[3] = "-9999";
+        values[10] = "*";
+        values[20] = "-9999.000";
+        write(HEADER + "\r\n\n", values, 7);
+
+        AsciiGridParser parser = new AsciiGridParser(file);
+        assertEquals("ncols 7", parser.readLine());
+        for( int i = 0; i < 5; i++ ) {
+            parser.readLine();
+        }
+        parser.setNovalue(-9999.0);
+        double[] parsed = new double[values.length];
+        parser.parse(parsed, parsed.length);
+        // right after the last value
+        assertEquals("", parser.readLine());
+        assertNull(parser.readLine());
+        parser.close();
+        for( int i = 0; i < values.length; i++ ) {
+            if (i == 3 || i == 10 || i == 20) {
+                assertTrue(Double.isNaN(parsed[i]));
+            } else {
+                assertEquals(i * 1.5, parsed[i], 0.0);
+            }
+        }
+    }
+
+    public void testWindowsThreadsAndRows() throws IOException {
+        int cols = 97;
+        int rows = 61;
+        String[] values = new String[cols * rows];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = randomNumber();
+        }
+        write(HEADER, values, cols);
+
+        double[] expected = new double[values.length];
+        for( int i = 0; i < values.length; i++ ) {
+            expected[i] = Double.parseDouble(values[i]);
+        }
+        for( int threads = 1; threads <= 4; threads++ ) {
+            for( int window : new int[]{512, 1000, 1 << 20} ) {
+                AsciiGridParser parser = new AsciiGridParser(file);
+                skipHeader(parser);
+                parser.setThreads(threads);
+                parser.setWindowSize(window);
+                double[] parsed = new double[values.length];
+                parser.parse(parsed, parsed.length);
+                assertEquals("", parser.readLine());
+                assertNull(parser.readLine());
+                parser.close();
+                for( int i = 0; i < values.length; i++ ) {
+                    assertEquals(expected[i], parsed[i], 0.0);
+                }
+            }
+        }
+
+        final double[] streamed = new double[values.length];
+        AsciiGridParser parser = new AsciiGridParser(file);
+        skipHeader(parser);
+        parser.setWindowSize(700);
+        parser.parse(rows, cols, new AsciiGridParser.RowHandler(){
+            public void row( int row, double[] rowValues ) {
+                System.arraycopy(rowValues, 0, streamed, row * rowValues.length, rowValues.length);
+            }
+        });
+        parser.close();
+        for( int i = 0; i < values.length; i++ ) {
+            assertEquals(expected[i], streamed[i], 0.0);
+        }
+    }
+
+    public void testErrors() throws IOException {
+        write("", new String[]{"1", "2", "3"}, 3);
+        AsciiGridParser parser = new AsciiGridParser(file);
+        try {
+            parser.parse(new double[4], 4);
+            fail();
+        } catch (IOException e) {
+            // expected, less values than requested
+        }
+        parser.close();
+
+        write("", new String[]{"1", "2x", "3"}, 3);
+        parser = new AsciiGridParser(file);
+        try {
+            parser.parse(new double[3], 3);
+            fail();
+        } catch (IOException e) {
+            // expected, not a number
+        }
+        parser.close();
+    }
+
+    public void testGridAgainstTokenizer() throws IOException {
+        int cols = 300;
+        int rows = 200;
+        String[] values = new String[cols * rows];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = String.valueOf(Math.round(random.nextDouble() * 300000.0) / 100.0);
+        }
+        values[17] = "-9999";
+        write(HEADER, values, cols);
+
+        double[][] expected = tokenizerParse(rows, cols);
+
+        for( int threads = 1; threads <= 4; threads *= 2 ) {
+            AsciiGridParser parser = new AsciiGridParser(file);
+            skipHeader(parser);
+            parser.setNovalue(-9999.0);
+            parser.setThreads(threads);
+            // small windows, so that the chunks of the threads span several windows
+            parser.setWindowSize(4096);
+            double[] parsed = new double[rows * cols];
+            parser.parse(parsed, parsed.length);
+            parser.close();
+
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    if (Double.isNaN(expected[r][c])) {
+                        assertTrue(Double.isNaN(parsed[r * cols + c]));
+                    } else {
+                        assertEquals(expected[r][c], parsed[r * cols + c], 0.0);
+                    }
+                }
+            }
+            assertTrue(Double.isNaN(parsed[17]));
+        }
+    }
+
+    /*
+     * numbers in the formats found in the ascii grids
+     */
+    private String randomNumber() {
+        double value = (random.nextDouble() - 0.3) * Math.pow(10, random.nextInt(12) - 4);
+        switch( random.nextInt(8) ) {
+        case 0:
+            return String.valueOf(value);
+        case 1:
+            return String.format("%.3f", value).replace(',', '.');
+        case 2:
+            return String.format("%e", value).replace(',', '.');
+        case 3:
+            return String.valueOf((long) value);
+        case 4:
+            return String.valueOf((float) value);
+        case 5:
+            return "+" + String.format("%.17f", Math.abs(value)).replace(',', '.');
+        case 6:
+            return String.valueOf(random.nextLong());
+        default:
+            return random.nextInt(4) + "." + random.nextInt(1000) + "E" + (random.nextInt(60) - 30);
+        }
+    }
+
+    private void write( String header, String[] values, int cols ) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        writer.write(header);
+        for( int i = 0; i < values.length; i++ ) {
+            writer.write(values[i]);
+            writer.write((i + 1) % cols == 0 ? "\n" : (i % 3 == 0 ? "\t" : "  "));
+        }
+        writer.close();
+    }
+
+    private void skipHeader( AsciiGridParser parser ) throws IOException {
+        for( int i = 0; i < 6; i++ ) {
+            parser.readLine();
+        }
+    }
+
+    /*
+     * the values read as it was done by the ascii raster readers, line by line
+     */
+    private double[][] tokenizerParse( int rows, int cols ) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        for( int i = 0; i < 6; i++ ) {
+            reader.readLine();
+        }
+        String novalue = "-9999";
+        double[][] datamatrix = new double[rows][cols];
+        for( int i = 0; i < rows; i++ ) {
+            StringTokenizer tok = new StringTokenizer(reader.readLine());
+            for( int j = 0; j < cols; j++ ) {
+                String value = tok.nextToken().trim();
+                if (!value.equals(novalue)) {
+                    datamatrix[i][j] = Double.parseDouble(value);
+                } else {
+                    datamatrix[i][j] = Double.NaN;
+                }
+            }
+        }
+        reader.close();
+        return datamatrix;
+    }
+
+}
@@ -0,0 +1,104 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+
+/**
+ * Test the esri and grass ascii readers, parsing on more threads: the files with less values than
+ * their header are not opened and the novalues are recognized by their number, however they are
+ * written.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestAsciiRasterReaders extends TestCase {
+
+    private static final int THREADS = 3;
+
+    private static final String ESRIHEADER = "ncols 4\nnrows 3\nxllcorner 0.0\nyllcorner 0.0\n"
+            + "cellsize 10.0\nNODATA_value -9999\n";
+    private static final String GRASSHEADER = "north: 30.0\nsouth: 0.0\neast: 40.0\nwest: 0.0\n"
+            + "rows: 3\ncols: 4\n";
+    private static final String DATA = "1.0 2.0 3.0 4.0\n5.0 -9999.0 7.0 8.0\n9.0 10.0 -9.999E3 12.0\n";
+    private static final String SHORTDATA = "1.0 2.0 3.0 4.0\n5.0 6.0 7.0 8.0\n9.0 10.0\n";
+
+    private JGrassRegion region = new JGrassRegion(0.0, 40.0, 0.0, 30.0, 3, 4);
+    private File mapset;
+
+    protected void setUp() throws Exception {
+        File location = File.createTempFile("asciireaders", "");
+        location.delete();
+        mapset = new File(location, "mapset");
+        mapset.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = mapset.listFiles();
+        for( File file : files ) {
+            file.delete();
+        }
+        mapset.delete();
+        mapset.getParentFile().delete();
+    }
+
+    public void testShortFilesAreNotOpened() throws Exception {
+        assertFalse(reader(JGrassConstants.ESRIRASTERMAP, ESRIHEADER + SHORTDATA, Double.NaN)
+                .open());
+        assertFalse(reader(JGrassConstants.GRASSASCIIRASTERMAP, GRASSHEADER + SHORTDATA,
+                Double.NaN).open());
+
+        // the same files with all the values are read
+        assertTrue(reader(JGrassConstants.ESRIRASTERMAP, ESRIHEADER + DATA, Double.NaN).open());
+        assertTrue(reader(JGrassConstants.GRASSASCIIRASTERMAP, GRASSHEADER + DATA, Double.NaN)
+                .open());
+    }
+
+    public void testEsriNovaluesAsNumbers() throws Exception {
+        // the header novalue is written as -9999, the data as -9999.0 and -9.999E3
+        assertNovalues(reader(JGrassConstants.ESRIRASTERMAP, ESRIHEADER + DATA, Double.NaN));
+    }
+
+    public void testGrassNovaluesAsNumbers() throws Exception {
+        assertNovalues(reader(JGrassConstants.GRASSASCIIRASTERMAP, GRASSHEADER + DATA, -9999.0));
+    }
+
+    private void assertNovalues( JGrassRasterMapReader reader ) throws Exception {
+        assertTrue(reader.open());
+        assertTrue(reader.hasMoreData());
+        double[][] data = reader.getNextData().getData();
+        int novalues = 0;
+        for( int i = 0; i < data.length; i++ ) {
+            for( int j = 0; j < data[i].length; j++ ) {
+                if (data[i][j] == -9999.0) {
+                    novalues++;
+                }
+            }
+        }
+        assertEquals(2, novalues);
+
+        // the novalues are not taken in the range of the values
+        double[] range = reader.getRange();
+        assertEquals(1.0, range[0], 0.0);
+        assertEquals(12.0, range[1], 0.0);
+        reader.close();
+    }
+
+    private JGrassRasterMapReader reader( String maptype, String content, double novalue )
+            throws IOException {
+        File map = new File(mapset, "map" + mapset.list().length);
+        FileWriter writer = new FileWriter(map);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return new JGrassRasterMapReader.BuilderFromMapPath(region, map.getAbsolutePath())
+                .maptype(maptype).novalue(novalue).threads(THREADS).build();
+    }
+
+}
@@ -0,0 +1,102 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.io.CompressedRowPipeline;
+
+/**
+ * Test that the pipelined row compression writes the same file as the sequential one, whatever
+ * the number of threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestCompressedRowPipeline extends TestCase {
+
+    private static final int ROWS = 100;
+    private static final int COLS = 500;
+    private static final int HEADER = 1 + 4 * (ROWS + 1);
+
+    private byte[][] rows;
+
+    protected void setUp() throws Exception {
+        Random random = new Random(42);
+        rows = new byte[ROWS][COLS * 8];
+        for( int r = 0; r < ROWS; r++ ) {
+            ByteBuffer buffer = ByteBuffer.wrap(rows[r]);
+            double value = 1000.0 * random.nextDouble();
+            for( int c = 0; c < COLS; c++ ) {
+                value += random.nextGaussian();
+                buffer.putDouble(value);
+            }
+        }
+    }
+
+    public void testSameOutputAsSequentialWriting() throws IOException {
+        long[] addresses = new long[ROWS + 1];
+        byte[] expected = writeLikeTheOldWriter(addresses);
+
+        for( int threads = 1; threads <= 4; threads++ ) {
+            long[] pipelineAddresses = new long[ROWS + 1];
+            byte[] written = writeWithPipeline(threads, pipelineAddresses);
+
+            assertTrue(Arrays.equals(expected, written));
+            assertTrue(Arrays.equals(addresses, pipelineAddresses));
+        }
+    }
+
+    /*
+     * the row writing as it was done before the pipeline: a new deflater for every row
+     */
+    private byte[] writeLikeTheOldWriter( long[] rowaddresses ) throws IOException {
+        File file = File.createTempFile("jgrass_rows", null);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long pointerInFilePosition = HEADER;
+        rowaddresses[0] = pointerInFilePosition;
+        for( int i = 0; i < ROWS; i++ ) {
+            byte[] output = new byte[rows[i].length * 2];
+            Deflater compresser = new Deflater();
+            compresser.setInput(rows[i]);
+            compresser.finish();
+            int compressedDataLength = compresser.deflate(output);
+            raf.seek(pointerInFilePosition);
+            raf.write(49);
+            raf.write(output, 0, compressedDataLength);
+            rowaddresses[i + 1] = pointerInFilePosition = raf.getFilePointer();
+        }
+        return readAndDelete(file, raf);
+    }
+
+    private byte[] writeWithPipeline( int threads, long[] rowaddresses ) throws IOException {
+        File file = File.createTempFile("jgrass_rows", null);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        rowaddresses[0] = HEADER;
+        CompressedRowPipeline pipeline = new CompressedRowPipeline(raf, HEADER, rowaddresses,
+                threads);
+        byte[] rowAsBytes = new byte[COLS * 8];
+        for( int i = 0; i < ROWS; i++ ) {
+            // the caller reuses its row buffer
+            System.arraycopy(rows[i], 0, rowAsBytes, 0, rowAsBytes.length);
+            pipeline.writeRow(rowAsBytes);
+        }
+        long end = pipeline.finish();
+        assertEquals(rowaddresses[ROWS], end);
+        return readAndDelete(file, raf);
+    }
+
+    private byte[] readAndDelete( File file, RandomAccessFile raf ) throws IOException {
+        byte[] content = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(content);
+        raf.close();
+        file.delete();
+        return content;
+    }
+
+}
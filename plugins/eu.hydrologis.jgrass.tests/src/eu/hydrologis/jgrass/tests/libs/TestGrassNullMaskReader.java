@@ -0,0 +1,100 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.io.GrassNullMaskReader;
+import eu.hydrologis.jgrass.libs.utils.FileUtilities;
+
+/**
+ * Test the row based null file reader against the old per cell reading.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestGrassNullMaskReader extends TestCase {
+
+    private static final int ROWS = 500;
+    private static final int COLS = 1003;
+
+    private File nullFile;
+    private boolean[][] expected;
+
+    protected void setUp() throws Exception {
+        Random random = new Random(1234);
+        expected = new boolean[ROWS][COLS];
+        int bytesPerRow = (COLS + 7) / 8;
+        byte[] data = new byte[bytesPerRow * ROWS];
+        for( int r = 0; r < ROWS; r++ ) {
+            // leave some rows without novalues at all
+            if (r % 7 == 0) {
+                continue;
+            }
+            for( int c = 0; c < COLS; c++ ) {
+                if (random.nextDouble() < 0.2) {
+                    expected[r][c] = true;
+                    data[r * bytesPerRow + c / 8] |= 0x80 >>> (c % 8);
+                }
+            }
+        }
+        nullFile = File.createTempFile("jgrass_null", null);
+        FileOutputStream out = new FileOutputStream(nullFile);
+        out.write(data);
+        out.close();
+    }
+
+    protected void tearDown() throws Exception {
+        nullFile.delete();
+    }
+
+    public void testRowReading() throws IOException {
+        checkReader(false);
+        checkReader(true);
+    }
+
+    public void testAgainstCellReading() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(nullFile, "r");
+        int bytesPerRow = (COLS + 7) / 8;
+
+        // old path: one seek, one read and one BitSet per cell
+        boolean[][] cellNulls = new boolean[ROWS][COLS];
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                raf.seek((long) bytesPerRow * r + c / 8);
+                BitSet bits = FileUtilities.fromByteArray(new byte[]{raf.readByte()});
+                cellNulls[r][c] = bits.get(7 - c % 8);
+            }
+        }
+
+        // new path: one read per row
+        GrassNullMaskReader maskReader = new GrassNullMaskReader(raf, COLS, true);
+        for( int r = 0; r < ROWS; r++ ) {
+            maskReader.readRow(r);
+            for( int c = 0; c < COLS; c++ ) {
+                assertEquals(cellNulls[r][c], maskReader.isNull(c));
+            }
+        }
+        maskReader.close();
+        raf.close();
+    }
+
+    private void checkReader( boolean useMemoryMapping ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(nullFile, "r");
+        GrassNullMaskReader maskReader = new GrassNullMaskReader(raf, COLS, useMemoryMapping);
+        for( int r = 0; r < ROWS; r++ ) {
+            maskReader.readRow(r);
+            assertEquals(r % 7 != 0, maskReader.rowHasNulls());
+            for( int c = 0; c < COLS; c++ ) {
+                assertEquals(expected[r][c], maskReader.isNull(c));
+                assertEquals(expected[r][c], maskReader.isNullAt(r, c));
+            }
+        }
+        maskReader.close();
+        raf.close();
+    }
+
+}
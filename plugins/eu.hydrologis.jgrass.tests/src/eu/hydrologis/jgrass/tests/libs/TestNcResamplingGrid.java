@@ -0,0 +1,65 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import junit.framework.TestCase;
+
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.netcdf.export.core.NcResamplingGrid;
+
+/**
+ * Test that the netcdf export takes the values of the region at the lat and lon written for the
+ * cells, the north west corners of the lat/long grid.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestNcResamplingGrid extends TestCase {
+
+    // 6 rows and 8 cols of half a degree
+    private JGrassRegion region = new JGrassRegion(10.0, 14.0, 40.0, 43.0, 6, 8);
+    private double[][] data = new double[6][8];
+
+    protected void setUp() throws Exception {
+        for( int r = 0; r < 6; r++ ) {
+            for( int c = 0; c < 8; c++ ) {
+                data[r][c] = 100 * r + c;
+            }
+        }
+    }
+
+    public void testCornersOfTheCells() throws Exception {
+        // cells of a degree, the corners fall on the even cells of the region
+        JGrassRegion latlong = new JGrassRegion(10.0, 14.0, 40.0, 43.0, 3, 4);
+        NcResamplingGrid grid = new NcResamplingGrid(region, DefaultGeographicCRS.WGS84, latlong);
+        assertEquals(3, grid.getLatLength());
+        assertEquals(4, grid.getLonLength());
+
+        double[] target = new double[1 + 3 * 4];
+        grid.resample(data, target, 1);
+        for( int lat = 0; lat < 3; lat++ ) {
+            for( int lon = 0; lon < 4; lon++ ) {
+                assertEquals(200.0 * lat + 2 * lon, target[1 + lat * 4 + lon], 0.0);
+            }
+        }
+    }
+
+    public void testOutsideOfTheRegion() throws Exception {
+        // the first lon and the first lat are out of the region
+        JGrassRegion latlong = new JGrassRegion(9.0, 13.0, 41.0, 44.0, 3, 4);
+        NcResamplingGrid grid = new NcResamplingGrid(region, DefaultGeographicCRS.WGS84, latlong);
+
+        double[] target = new double[3 * 4];
+        grid.resample(data, target, 0);
+        for( int lat = 0; lat < 3; lat++ ) {
+            for( int lon = 0; lon < 4; lon++ ) {
+                double value = target[lat * 4 + lon];
+                if (lat == 0 || lon == 0) {
+                    assertTrue(Double.isNaN(value));
+                } else {
+                    assertEquals(200.0 * (lat - 1) + 2 * (lon - 1), value, 0.0);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.awt.Rectangle;
+
+import junit.framework.TestCase;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import eu.hydrologis.jgrass.netcdf.service.NetcdfSlabCache;
+import eu.hydrologis.jgrass.netcdf.service.NetcdfSlabCache.SlabKey;
+
+/**
+ * Test the memory accounting and the eviction of the netcdf slab cache, and the choice of the
+ * resolution level of the slabs.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestNetcdfSlabCache extends TestCase {
+
+    // 10x10 floats
+    private static final long SLAB_BYTES = 400;
+
+    private SlabKey a = new SlabKey("var", Long.valueOf(1000), null, 0);
+    private SlabKey b = new SlabKey("var", Long.valueOf(2000), null, 0);
+    private SlabKey c = new SlabKey("var", Long.valueOf(3000), null, 0);
+    private SlabKey d = new SlabKey("var", Long.valueOf(4000), null, 0);
+
+    public void testSizeOf() {
+        assertEquals(SLAB_BYTES, NetcdfSlabCache.sizeOf(slab(10, 10)));
+        assertEquals(10 * 20 * 4, NetcdfSlabCache.sizeOf(slab(10, 20)));
+    }
+
+    public void testKeys() {
+        assertEquals(new SlabKey("var", null, null, 1), new SlabKey("var", null, null, 1, null));
+        assertEquals(new SlabKey("var", Long.valueOf(1), Double.valueOf(2), 1, new Rectangle(1,
+                2, 3, 4)).hashCode(), new SlabKey("var", Long.valueOf(1), Double.valueOf(2), 1,
+                new Rectangle(1, 2, 3, 4)).hashCode());
+        assertFalse(new SlabKey("var", null, null, 1).equals(new SlabKey("var", null, null, 2)));
+        assertFalse(new SlabKey("var", null, null, 0).equals(new SlabKey("var", null, null, 0,
+                new Rectangle(0, 0, 5, 5))));
+        assertFalse(new SlabKey("var", null, null, 0, new Rectangle(0, 0, 5, 5))
+                .equals(new SlabKey("var", null, null, 0, new Rectangle(1, 0, 5, 5))));
+        assertFalse(new SlabKey("var", null, Double.valueOf(2), 0).equals(new SlabKey("var",
+                null, null, 0)));
+        assertFalse(a.equals(b));
+    }
+
+    public void testEvictsTheLeastRecentlyUsed() {
+        NetcdfSlabCache cache = new NetcdfSlabCache(3 * SLAB_BYTES);
+        cache.put(a, slab(10, 10));
+        cache.put(b, slab(10, 10));
+        cache.put(c, slab(10, 10));
+        assertEquals(3, cache.size());
+        assertEquals(3 * SLAB_BYTES, cache.getUsed());
+
+        // a becomes the most recently used, contains doesn't touch b
+        assertNotNull(cache.get(a));
+        assertTrue(cache.contains(b));
+        cache.put(d, slab(10, 10));
+        assertEquals(3, cache.size());
+        assertEquals(3 * SLAB_BYTES, cache.getUsed());
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+        assertNull(cache.get(b));
+        assertTrue(cache.contains(c));
+        assertTrue(cache.contains(d));
+
+        // a slab twice as large pushes out the two least recently used
+        cache.put(b, slab(10, 20));
+        assertEquals(2, cache.size());
+        assertEquals(3 * SLAB_BYTES, cache.getUsed());
+        assertFalse(cache.contains(a));
+        assertFalse(cache.contains(c));
+        assertTrue(cache.contains(d));
+        assertTrue(cache.contains(b));
+    }
+
+    public void testReplacingASlab() {
+        NetcdfSlabCache cache = new NetcdfSlabCache(3 * SLAB_BYTES);
+        cache.put(a, slab(10, 10));
+        cache.put(a, slab(10, 20));
+        assertEquals(1, cache.size());
+        assertEquals(2 * SLAB_BYTES, cache.getUsed());
+        cache.put(a, slab(10, 10));
+        assertEquals(SLAB_BYTES, cache.getUsed());
+
+        // a slab larger than the budget is not cached and drops the old one
+        GridCoverage2D tooLarge = slab(10, 40);
+        cache.put(b, slab(10, 10));
+        cache.put(a, tooLarge);
+        assertFalse(cache.contains(a));
+        assertTrue(cache.contains(b));
+        assertEquals(SLAB_BYTES, cache.getUsed());
+
+        cache.put(c, null);
+        assertFalse(cache.contains(c));
+        assertEquals(SLAB_BYTES, cache.getUsed());
+    }
+
+    public void testBudget() {
+        NetcdfSlabCache cache = new NetcdfSlabCache(4 * SLAB_BYTES);
+        cache.put(a, slab(10, 10));
+        cache.put(b, slab(10, 10));
+        cache.put(c, slab(10, 10));
+        cache.put(d, slab(10, 10));
+        assertEquals(4 * SLAB_BYTES, cache.getUsed());
+
+        cache.setBudget(2 * SLAB_BYTES + 1);
+        assertEquals(2 * SLAB_BYTES + 1, cache.getBudget());
+        assertEquals(2, cache.size());
+        assertEquals(2 * SLAB_BYTES, cache.getUsed());
+        assertFalse(cache.contains(a));
+        assertFalse(cache.contains(b));
+
+        cache.setBudget(-1);
+        assertEquals(0, cache.getBudget());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getUsed());
+        cache.put(a, slab(10, 10));
+        assertEquals(0, cache.size());
+    }
+
+    public void testResolutionLevel() {
+        assertEquals(0, NetcdfSlabCache.getResolutionLevel(0.5, 1.0, 1000, 500));
+        assertEquals(0, NetcdfSlabCache.getResolutionLevel(1.0, 1.0, 1000, 500));
+        assertEquals(0, NetcdfSlabCache.getResolutionLevel(1.99, 1.0, 1000, 500));
+        assertEquals(1, NetcdfSlabCache.getResolutionLevel(2.0, 1.0, 1000, 500));
+        assertEquals(2, NetcdfSlabCache.getResolutionLevel(7.9, 1.0, 1000, 500));
+        assertEquals(3, NetcdfSlabCache.getResolutionLevel(0.9, 0.1, 1000, 500));
+        assertEquals(NetcdfSlabCache.MAX_LEVEL, NetcdfSlabCache.getResolutionLevel(1000.0, 1.0,
+                1000, 500));
+        // never less than a cell
+        assertEquals(2, NetcdfSlabCache.getResolutionLevel(100.0, 1.0, 4, 1000));
+        assertEquals(0, NetcdfSlabCache.getResolutionLevel(100.0, 1.0, 1000, 1));
+    }
+
+    private GridCoverage2D slab( int width, int height ) {
+        return new GridCoverageFactory().create("slab", new float[height][width],
+                new ReferencedEnvelope(0, width, 0, height, DefaultGeographicCRS.WGS84));
+    }
+
+}
@@ -1,16 +1,22 @@
 package eu.hydrologis.jgrass.tests.libs;
 
 import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.GRASSBINARYRASTERMAP;
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 import static java.lang.Double.NaN;
 
 import java.io.File;
 import java.io.IOException;
 
 import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.io.MapReader;
 import eu.hydrologis.jgrass.libs.iodrivers.JGrassMapEnvironment;
 import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
 import eu.hydrologis.jgrass.libs.map.RasterData;
+import eu.hydrologis.jgrass.libs.map.RasterRowBlock;
+import eu.hydrologis.jgrass.libs.map.RasterRowBlockIterator;
+import eu.hydrologis.jgrass.libs.map.color.ColorMapBuffer;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
 import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
 
@@ -94,4 +100,128 @@ public class TestOldJGrassRasterReader extends JGrassTestCase {
 
     }
 
+    public void testRowBlockReading() throws IOException {
+        File mapFile = GrassMapTest.mapFile;
+        JGrassRegion fileRegion = GrassMapTest.fileRegion;
+        double[][] mapData = GrassMapTest.mapData;
+
+        for( int blockRows = 1; blockRows <= 4; blockRows++ ) {
+            JGrassRasterMapReader jgrassMapReader = new JGrassRasterMapReader.BuilderFromMapPath(
+                    fileRegion, mapFile.getAbsolutePath()).maptype(GRASSBINARYRASTERMAP).build();
+            assertTrue(jgrassMapReader.open());
+
+            RasterRowBlockIterator blocks = jgrassMapReader.rowBlocks(blockRows, 1);
+            int readRows = 0;
+            while( blocks.hasNext() ) {
+                RasterRowBlock block = blocks.next();
+                for( int r = -1; r <= block.getRows(); r++ ) {
+                    int row = block.getFirstRow() + r;
+                    for( int c = 0; c < mapData[0].length; c++ ) {
+                        double value = block.getValueAt(r, c);
+                        if (row < 0 || row >= mapData.length) {
+                            // the halo outside of the map is novalue
+                            assertTrue(isNovalue(value));
+                        } else if (isNovalue(value)) {
+                            assertTrue(isNovalue(mapData[row][c]));
+                        } else {
+                            assertEquals(mapData[row][c], value);
+                        }
+                    }
+                }
+                readRows += block.getRows();
+            }
+            jgrassMapReader.close();
+            assertEquals(mapData.length, readRows);
+        }
+    }
+
+    public void testParallelRowDecompression() throws IOException {
+        File mapFile = GrassMapTest.mapFile;
+        JGrassRegion fileRegion = GrassMapTest.fileRegion;
+        // a window coarser than the map, which skips every other row of the file
+        JGrassRegion coarseRegion = new JGrassRegion(fileRegion.getWest(), fileRegion.getEast(),
+                fileRegion.getSouth(), fileRegion.getNorth(), 60.0, 60.0);
+        RasterData coarseData = readMap(coarseRegion, 1);
+
+        for( int threads = 1; threads <= 4; threads++ ) {
+            checkMatrixEqual(readMap(fileRegion, threads), GrassMapTest.mapData);
+            checkMatrixEqual(readMap(coarseRegion, threads), coarseData.getData());
+        }
+    }
+
+    private RasterData readMap( JGrassRegion region, int threads ) throws IOException {
+        JGrassRasterMapReader jgrassMapReader = new JGrassRasterMapReader.BuilderFromMapPath(
+                region, GrassMapTest.mapFile.getAbsolutePath()).maptype(GRASSBINARYRASTERMAP)
+                .threads(threads).build();
+        assertTrue(jgrassMapReader.open());
+        assertTrue(jgrassMapReader.hasMoreData());
+        RasterData rasterData = jgrassMapReader.getNextData();
+        jgrassMapReader.close();
+        return rasterData;
+    }
+
+    /**
+     * A reader that is not able to read by rows goes through the default row reading of
+     * {@link MapReader}, that reads the map once and copies the rows out of it.
+     */
+    public void testDefaultRowBlockReading() throws IOException {
+        final double[][] mapData = GrassMapTest.mapData;
+        final int[] reads = new int[1];
+        MapReader reader = new MapReader(MapReader.RASTER_READER){
+            private boolean moreData = true;
+            public boolean open( String mapPath ) {
+                return true;
+            }
+            public boolean open( String fileName, String locationPath, String mapsetName ) {
+                return true;
+            }
+            public void close() {
+            }
+            public boolean hasMoreData( IProgressMonitorJGrass monitor ) {
+                return moreData;
+            }
+            public Object getNextData() {
+                moreData = false;
+                reads[0]++;
+                assertTrue(dataObject instanceof double[][]);
+                double[][] data = new double[mapData.length][];
+                for( int i = 0; i < data.length; i++ ) {
+                    data[i] = mapData[i].clone();
+                }
+                return data;
+            }
+            public ColorMapBuffer getNextDataColor( int attIndex ) {
+                return null;
+            }
+            public String getLegendString() {
+                return null;
+            }
+            public double[] getRange() {
+                return null;
+            }
+        };
+        reader.setDataWindow(GrassMapTest.fileRegion);
+
+        RasterRowBlockIterator blocks = new RasterRowBlockIterator(reader, 3, 1);
+        int readRows = 0;
+        while( blocks.hasNext() ) {
+            RasterRowBlock block = blocks.next();
+            for( int r = -1; r <= block.getRows(); r++ ) {
+                int row = block.getFirstRow() + r;
+                for( int c = 0; c < mapData[0].length; c++ ) {
+                    double value = block.getValueAt(r, c);
+                    if (row < 0 || row >= mapData.length || isNovalue(mapData[row][c])) {
+                        assertTrue(isNovalue(value));
+                    } else {
+                        assertEquals(mapData[row][c], value);
+                    }
+                }
+            }
+            readRows += block.getRows();
+        }
+        assertEquals(mapData.length, readRows);
+        // the map is read only once
+        assertEquals(1, reads[0]);
+    }
+
 }
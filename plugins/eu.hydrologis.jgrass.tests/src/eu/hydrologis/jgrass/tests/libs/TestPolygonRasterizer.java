@@ -0,0 +1,141 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
+
+/**
+ * Test the scanline polygon rasterizer against the rasterization through the jts intersection of
+ * every row, as it was done by {@link JGrassUtilities}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestPolygonRasterizer extends TestCase {
+
+    private static final int ROWS = 150;
+    private static final int COLS = 200;
+
+    private GeometryFactory gf = new GeometryFactory();
+    private Random random = new Random(19);
+    private JGrassRegion region = new JGrassRegion(1000.0, 1000.0 + COLS * 2.0, 5000.0,
+            5000.0 + ROWS * 3.0, ROWS, COLS);
+
+    public void testAgainstJtsScanline() {
+        Geometry[] geometries = new Geometry[20];
+        for( int i = 0; i < geometries.length; i++ ) {
+            if (i % 5 == 4) {
+                geometries[i] = gf.createMultiPolygon(new Polygon[]{randomPolygon(false),
+                        randomPolygon(true)});
+            } else {
+                geometries[i] = randomPolygon(i % 2 == 0);
+            }
+        }
+
+        PolygonRasterizer rasterizer = new PolygonRasterizer(region);
+        for( Geometry geometry : geometries ) {
+            double[] expected = new double[ROWS * COLS];
+            double[] result = new double[ROWS * COLS];
+            for( int i = 0; i < geometry.getNumGeometries(); i++ ) {
+                jtsRasterize(geometry.getGeometryN(i), expected);
+            }
+            rasterizer.fill(geometry, result, 1.0);
+
+            assertTrue(Arrays.equals(expected, result));
+        }
+    }
+
+    public void testCellCentersInside() {
+        PolygonRasterizer rasterizer = new PolygonRasterizer(region);
+        for( int k = 0; k < 5; k++ ) {
+            Polygon polygon = randomPolygon(true);
+            double[] result = new double[ROWS * COLS];
+            rasterizer.fill(polygon, result, 1.0);
+            for( int r = 0; r < ROWS; r++ ) {
+                for( int c = 0; c < COLS; c++ ) {
+                    Coordinate center = JGrassUtilities.rowColToCenterCoordinates(region, r, c);
+                    if (polygon.contains(gf.createPoint(center))) {
+                        assertEquals(1.0, result[r * COLS + c], 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testOutsideOfRegion() {
+        PolygonRasterizer rasterizer = new PolygonRasterizer(region);
+        double[] result = new double[ROWS * COLS];
+        rasterizer.fill(star(0.0, 0.0, 50.0, 100.0, 12), result, 1.0);
+        for( double value : result ) {
+            assertEquals(0.0, value, 0.0);
+        }
+        // a polygon larger than the region fills it all
+        rasterizer.fill(star(1200.0, 5225.0, 2000.0, 2100.0, 12), result, 1.0);
+        for( double value : result ) {
+            assertEquals(1.0, value, 0.0);
+        }
+    }
+
+    /*
+     * a star shaped polygon inside of the region, optionally with a hole
+     */
+    private Polygon randomPolygon( boolean withHole ) {
+        double cx = 1000.0 + 60.0 + random.nextDouble() * (COLS * 2.0 - 120.0);
+        double cy = 5000.0 + 60.0 + random.nextDouble() * (ROWS * 3.0 - 120.0);
+        Polygon outer = star(cx, cy, 20.0, 55.0, 15 + random.nextInt(20));
+        if (!withHole) {
+            return outer;
+        }
+        LinearRing hole = (LinearRing) star(cx + 0.37, cy - 0.21, 5.0, 12.0, 9).getExteriorRing();
+        return gf.createPolygon((LinearRing) outer.getExteriorRing(), new LinearRing[]{hole});
+    }
+
+    private Polygon star( double cx, double cy, double minRadius, double maxRadius, int points ) {
+        Coordinate[] coordinates = new Coordinate[points + 1];
+        for( int i = 0; i < points; i++ ) {
+            double angle = 2.0 * Math.PI * i / points;
+            double radius = minRadius + random.nextDouble() * (maxRadius - minRadius);
+            coordinates[i] = new Coordinate(cx + radius * Math.cos(angle), cy + radius
+                    * Math.sin(angle));
+        }
+        coordinates[points] = coordinates[0];
+        return gf.createPolygon(gf.createLinearRing(coordinates), null);
+    }
+
+    /*
+     * the rasterization as it was done by JGrassUtilities: the intersection of the polygon with
+     * the line through the cell centers of every row
+     */
+    private void jtsRasterize( Geometry polygon, double[] buffer ) {
+        double delta = region.getWEResolution() / 4.0;
+        for( int i = 0; i < ROWS; i++ ) {
+            Coordinate west = JGrassUtilities.rowColToCenterCoordinates(region, i, 0);
+            Coordinate east = JGrassUtilities.rowColToCenterCoordinates(region, i, COLS - 1);
+            LineString line = gf.createLineString(new Coordinate[]{west, east});
+            if (polygon.intersects(line)) {
+                Coordinate[] coords = polygon.intersection(line).getCoordinates();
+                for( int j = 0; j < coords.length; j = j + 2 ) {
+                    Coordinate startC = new Coordinate(coords[j].x + delta, coords[j].y);
+                    Coordinate endC = new Coordinate(coords[j + 1].x - delta, coords[j + 1].y);
+                    int[] startcol = JGrassUtilities.coordinateToNearestRowCol(region, startC);
+                    int[] endcol = JGrassUtilities.coordinateToNearestRowCol(region, endC);
+                    for( int k = startcol[1]; k <= endcol[1]; k++ ) {
+                        buffer[i * COLS + k] = 1.0;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaTileScheduler;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.operations.jai.aspect.HMAspectOpImage;
+import eu.hydrologis.jgrass.operations.jai.curvatures.HMCurvaturesOpImage;
+import eu.hydrologis.jgrass.operations.jai.gradient.HMGradientOperation;
+
+/**
+ * Test the computation of the area operations by blocks on a pool of threads against the finite
+ * differences computed cell by cell and against the untiled operations, and the one pass
+ * computation of several operations against the computation of every operation on its own.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestAreaTileScheduler extends TestCase {
+
+    private static final int COLS = 300;
+    private static final int ROWS = 200;
+    private static final double DX = 10.0;
+    private static final double DY = 7.5;
+
+    private Random random = new Random(31);
+
+    /*
+     * the progress of the operations is not of interest here
+     */
+    private PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+    public void testGradientAgainstFiniteDifferences() {
+        double[][] dem = randomDem(COLS, ROWS);
+        PlanarImage source = image(dem, 64, 64);
+
+        int[][] blocks = {{256, 256}, {37, 23}, {1, 1}, {COLS, 5}, {1000, 1000}};
+        for( int[] block : blocks ) {
+            for( int threads = 1; threads <= 4; threads++ ) {
+                HMGradientOperation gradient = new HMGradientOperation(source, null, null, null,
+                        DX, DY, false, out, out);
+                Raster raster = new JGrassAreaTileScheduler(threads, block[0], block[1])
+                        .compute(gradient)[0];
+                for( int y = 1; y < ROWS - 1; y++ ) {
+                    for( int x = 1; x < COLS - 1; x++ ) {
+                        double expected = gradient(dem, x, y);
+                        double value = raster.getSampleDouble(x, y, 0);
+                        if (isNovalue(expected)) {
+                            assertTrue(isNovalue(value));
+                        } else {
+                            assertEquals(block[0] + "x" + block[1] + " with " + threads
+                                    + " threads at " + x + "," + y, expected, value, 0.0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testFusedAgainstUntiled() {
+        double[][] dem = randomDem(COLS, ROWS);
+
+        /*
+         * the untiled operations on a source of a single tile, computed by jai. They skip one
+         * more cell on the border than the blocks do.
+         */
+        PlanarImage singleTile = image(dem, COLS, ROWS);
+        Raster untiledGradient = new HMGradientOperation(singleTile, null, null, null, DX, DY,
+                false, out, out).getData();
+        Raster untiledCurvatures = new HMCurvaturesOpImage(singleTile, null, null, null, out, out,
+                DX, DY, false).getData();
+
+        PlanarImage source = image(dem, 64, 64);
+        JGrassAreaOpImage gradient = new HMGradientOperation(source, null, null, null, DX, DY,
+                false, out, out);
+        JGrassAreaOpImage curvatures = new HMCurvaturesOpImage(source, null, null, null, out,
+                out, DX, DY, false);
+        for( int threads = 1; threads <= 4; threads++ ) {
+            WritableRaster[] fused = new JGrassAreaTileScheduler(threads, 50, 40).compute(
+                    gradient, curvatures);
+            compare(untiledGradient, fused[0], 2);
+            compare(untiledCurvatures, fused[1], 2);
+        }
+        compare(untiledGradient, gradient.computeTiles(2), 2);
+    }
+
+    public void testFusedAgainstSeparate() {
+        double[][] dem = randomDem(COLS, ROWS);
+        PlanarImage source = image(dem, 64, 64);
+
+        JGrassAreaOpImage gradient = new HMGradientOperation(source, null, null, null, DX, DY,
+                false, out, out);
+        JGrassAreaOpImage curvatures = new HMCurvaturesOpImage(source, null, null, null, out,
+                out, DX, DY, false);
+        JGrassAreaTileScheduler scheduler = new JGrassAreaTileScheduler(1, 50, 40);
+        Raster expectedGradient = scheduler.compute(gradient)[0];
+        Raster expectedCurvatures = scheduler.compute(curvatures)[0];
+
+        for( int threads = 1; threads <= 4; threads++ ) {
+            WritableRaster[] fused = new JGrassAreaTileScheduler(threads, 50, 40).compute(
+                    gradient, curvatures);
+            compare(expectedGradient, fused[0], 0);
+            compare(expectedCurvatures, fused[1], 0);
+        }
+    }
+
+    public void testRejectedOperations() {
+        double[][] dem = randomDem(COLS, ROWS);
+        PlanarImage source = image(dem, 64, 64);
+        JGrassAreaTileScheduler scheduler = new JGrassAreaTileScheduler(2, 50, 40);
+        JGrassAreaOpImage gradient = new HMGradientOperation(source, null, null, null, DX, DY,
+                false, out, out);
+
+        // the aspect carries the derivatives from a cell to the next, blocks would change it
+        JGrassAreaOpImage aspect = new HMAspectOpImage(source, null, null, null, DX, DY, false,
+                out, out);
+        try {
+            scheduler.compute(aspect);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            scheduler.compute(gradient, aspect);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // operations on different sources can not share the source blocks
+        JGrassAreaOpImage other = new HMGradientOperation(image(dem, 64, 64), null, null, null,
+                DX, DY, false, out, out);
+        try {
+            scheduler.compute(gradient, other);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testProgressOfTheBlocks() {
+        double[][] dem = randomDem(COLS, ROWS);
+        PlanarImage source = image(dem, 64, 64);
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        JGrassAreaOpImage gradient = new HMGradientOperation(source, null, null, null, DX, DY,
+                false, out, new PrintStream(progress));
+        new JGrassAreaTileScheduler(4, 50, 40).compute(gradient);
+
+        // a single task for all the blocks, the blocks themselves report nothing
+        String text = progress.toString();
+        assertEquals(text.indexOf("Finished."), text.lastIndexOf("Finished."));
+        assertTrue(text.indexOf("100%") != -1);
+        assertEquals(-1, text.indexOf("h.gradients"));
+    }
+
+    /*
+     * the gradient of a cell with the finite differences, as in the gradient operation
+     */
+    private double gradient( double[][] dem, int x, int y ) {
+        double elev = dem[y][x];
+        double west = dem[y][x - 1];
+        double east = dem[y][x + 1];
+        double north = dem[y - 1][x];
+        double south = dem[y + 1][x];
+        if (isNovalue(elev) || isNovalue(west) || isNovalue(east) || isNovalue(north)
+                || isNovalue(south)) {
+            return JGrassConstants.doubleNovalue;
+        }
+        double xGrad = 0.5 * (east - west) / DX;
+        double yGrad = 0.5 * (north - south) / DY;
+        return Math.sqrt(Math.pow(xGrad, 2) + Math.pow(yGrad, 2));
+    }
+
+    /*
+     * compares the rasters less a border of the given width
+     */
+    private void compare( Raster expected, Raster raster, int border ) {
+        assertEquals(expected.getBounds(), raster.getBounds());
+        assertEquals(expected.getNumBands(), raster.getNumBands());
+        int minX = expected.getMinX() + border;
+        int minY = expected.getMinY() + border;
+        int maxX = expected.getMinX() + expected.getWidth() - border;
+        int maxY = expected.getMinY() + expected.getHeight() - border;
+        for( int b = 0; b < expected.getNumBands(); b++ ) {
+            for( int y = minY; y < maxY; y++ ) {
+                for( int x = minX; x < maxX; x++ ) {
+                    double value = expected.getSampleDouble(x, y, b);
+                    if (isNovalue(value)) {
+                        assertTrue(isNovalue(raster.getSampleDouble(x, y, b)));
+                    } else {
+                        assertEquals(value, raster.getSampleDouble(x, y, b), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    private PlanarImage image( double[][] dem, int tileWidth, int tileHeight ) {
+        int rows = dem.length;
+        int cols = dem[0].length;
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE,
+                tileWidth, tileHeight, 1);
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, sampleModel, PlanarImage
+                .createColorModel(sampleModel));
+        WritableRaster raster = RasterFactory.createBandedRaster(DataBuffer.TYPE_DOUBLE, cols,
+                rows, 1, null);
+        for( int y = 0; y < rows; y++ ) {
+            for( int x = 0; x < cols; x++ ) {
+                raster.setSample(x, y, 0, dem[y][x]);
+            }
+        }
+        image.setData(raster);
+        return image;
+    }
+
+    /*
+     * a smooth surface with noise and some novalue holes
+     */
+    private double[][] randomDem( int cols, int rows ) {
+        double[][] dem = new double[rows][cols];
+        for( int y = 0; y < rows; y++ ) {
+            for( int x = 0; x < cols; x++ ) {
+                dem[y][x] = 500.0 + 80.0 * Math.sin(x * 0.05) * Math.cos(y * 0.03) + y
+                        + random.nextDouble() * 5.0;
+            }
+        }
+        for( int k = 0; k < cols * rows / 500 + 1; k++ ) {
+            dem[random.nextInt(rows)][random.nextInt(cols)] = JGrassConstants.doubleNovalue;
+        }
+        return dem;
+    }
+
+}
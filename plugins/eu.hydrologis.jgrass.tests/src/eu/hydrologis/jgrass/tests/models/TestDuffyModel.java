@@ -0,0 +1,224 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.libs.adige.HillSlope;
+import eu.hydrologis.libs.adige.PfafstetterNumber;
+import eu.hydrologis.libs.duffy.DuffyModel;
+
+/**
+ * Test the duffy model on synthetic pfafstetter networks: the discharge of every link has to
+ * reach only the link itself and the one downstream, and the evaluation into a given array and
+ * the parallel evaluation have to give the same result as the sequential allocating one, also when
+ * the same output array is evaluated into repeatedly.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDuffyModel extends TestCase {
+
+    private static final int[] DEPTHS = {0, 1, 2, 3};
+
+    private GeometryFactory gf = new GeometryFactory();
+    private SimpleFeatureType netType;
+    private SimpleFeatureType basinType;
+    private int id;
+
+    protected void setUp() throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("net");
+        b.add("the_geom", LineString.class);
+        b.add("startelev", Double.class);
+        b.add("endelev", Double.class);
+        netType = b.buildFeatureType();
+
+        b = new SimpleFeatureTypeBuilder();
+        b.setName("basins");
+        b.add("the_geom", Polygon.class);
+        b.add("elev", Double.class);
+        basinType = b.buildFeatureType();
+    }
+
+    public void testNetworkRouting() {
+        for( int depth : DEPTHS ) {
+            List<HillSlope> hillslopes = createNetwork(depth);
+            int n = hillslopes.size();
+            DuffyModel model = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY, System.out,
+                    30.0, false);
+            double[] input = initialConditions(hillslopes);
+            double[][] forcings = forcings(n);
+            double[] expected = eval(model, input, forcings);
+
+            for( int j = 0; j < n; j++ ) {
+                double[] perturbed = input.clone();
+                perturbed[j] = perturbed[j] + 0.5;
+                double[] output = eval(model, perturbed, forcings);
+
+                HillSlope downstream = hillslopes.get(j).getConnectedDownstreamElement();
+                int downstreamIndex = downstream == null ? -1 : hillslopes.indexOf(downstream);
+                for( int i = 0; i < n; i++ ) {
+                    if (i == j || i == downstreamIndex) {
+                        assertTrue(output[i] != expected[i]);
+                    } else {
+                        assertEquals(expected[i], output[i], 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testEvalIntoArray() {
+        List<HillSlope> hillslopes = createNetwork(2);
+        DuffyModel model = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY_NONEXPL,
+                System.out, 30.0, false);
+        double[] input = initialConditions(hillslopes);
+        double[][] f = forcings(hillslopes.size());
+        double[] expected = eval(model, input, f);
+
+        double[] output = new double[input.length];
+        model.eval(0.0, input, f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], false, output);
+        for( int i = 0; i < output.length; i++ ) {
+            assertEquals(expected[i], output[i], 0.0);
+        }
+    }
+
+    public void testParallelEvaluation() {
+        for( int depth : DEPTHS ) {
+            List<HillSlope> hillslopes = createNetwork(depth);
+            int n = hillslopes.size();
+            DuffyModel sequential = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY,
+                    System.out, 30.0, false);
+            DuffyModel parallel = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY, System.out,
+                    30.0, false);
+            parallel.setThreads(4);
+            try {
+                double[] input = initialConditions(hillslopes);
+                // some states below the minimum, which the evaluation resets
+                for( int i = 0; i < n; i += 5 ) {
+                    input[i] = 0.0;
+                    input[i + 2 * n] = 0.0;
+                }
+                double[][] f = forcings(n);
+                double[] sequentialInput = input.clone();
+                double[] parallelInput = input.clone();
+                double[] expected = new double[input.length];
+                double[] output = new double[input.length];
+                sequential.eval(0.0, sequentialInput, f[0], f[1], f[2], f[3], f[4], f[5], f[6],
+                        f[7], false, expected);
+                parallel.eval(0.0, parallelInput, f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7],
+                        false, output);
+
+                for( int i = 0; i < output.length; i++ ) {
+                    assertEquals(expected[i], output[i], 0.0);
+                    assertEquals(sequentialInput[i], parallelInput[i], 0.0);
+                }
+            } finally {
+                parallel.dispose();
+            }
+        }
+    }
+
+    public void testRepeatedEvaluation() {
+        for( int depth : DEPTHS ) {
+            List<HillSlope> hillslopes = createNetwork(depth);
+            int n = hillslopes.size();
+            DuffyModel model = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY, System.out,
+                    30.0, false);
+            double[] input = initialConditions(hillslopes);
+            double[][] f = forcings(n);
+            double[] expected = eval(model, input, f);
+
+            double[] output = new double[input.length];
+            for( int r = 0; r < 10; r++ ) {
+                model.eval(0.0, input.clone(), f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7],
+                        false, output);
+                for( int i = 0; i < output.length; i++ ) {
+                    assertEquals(expected[i], output[i], 0.0);
+                }
+            }
+        }
+    }
+
+    private double[] eval( DuffyModel model, double[] input, double[][] f ) {
+        return model.eval(0.0, input.clone(), f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7],
+                false);
+    }
+
+    /*
+     * a network where every even pfafstetter basin is split into nine basins down to the given
+     * depth
+     */
+    private List<HillSlope> createNetwork( int depth ) {
+        id = 0;
+        List<HillSlope> hillslopes = new ArrayList<HillSlope>();
+        addBasins("", depth, hillslopes);
+        HillSlope.connectElements(hillslopes);
+        return hillslopes;
+    }
+
+    private void addBasins( String prefix, int depth, List<HillSlope> hillslopes ) {
+        for( int k = 1; k <= 9; k++ ) {
+            String pfafstetter = prefix + k;
+            if (k % 2 == 0 && depth > 0) {
+                addBasins(pfafstetter + ".", depth - 1, hillslopes);
+                continue;
+            }
+            double x = id * 1000.0;
+            double side = 100.0 + id % 7 * 50.0;
+            double elevation = 100.0 + id % 5 * 20.0;
+
+            LineString link = gf.createLineString(new Coordinate[]{new Coordinate(x, 0),
+                    new Coordinate(x + 20.0 * side, 0)});
+            SimpleFeature netFeature = new SimpleFeatureBuilder(netType).buildFeature(String
+                    .valueOf(id), new Object[]{link, elevation + 10.0, elevation});
+
+            Polygon basin = gf.createPolygon(gf.createLinearRing(new Coordinate[]{
+                    new Coordinate(x, 0), new Coordinate(x + side, 0),
+                    new Coordinate(x + side, side), new Coordinate(x, side),
+                    new Coordinate(x, 0)}), null);
+            SimpleFeature basinFeature = new SimpleFeatureBuilder(basinType).buildFeature(String
+                    .valueOf(id), new Object[]{basin, elevation});
+
+            hillslopes.add(new HillSlope(netFeature, basinFeature, new PfafstetterNumber(
+                    pfafstetter), id, 1, 1, 2, -1));
+            id++;
+        }
+    }
+
+    /*
+     * discharges and storages well above the minimum values the model resets them to
+     */
+    private double[] initialConditions( List<HillSlope> hillslopes ) {
+        int n = hillslopes.size();
+        double[] input = new double[4 * n];
+        for( int i = 0; i < n; i++ ) {
+            HillSlope.Parameters parameters = hillslopes.get(i).parameters;
+            input[i] = 1.0 + i % 3 * 0.1;
+            input[i + n] = 0.5 + i % 4 * 0.1;
+            input[i + 2 * n] = 2.0 * parameters.getS1residual();
+            input[i + 3 * n] = 0.5 * parameters.getS2max();
+        }
+        return input;
+    }
+
+    private double[][] forcings( int n ) {
+        double[][] f = new double[8][n];
+        for( int i = 0; i < n; i++ ) {
+            f[0][i] = 5.0 + i % 3;
+        }
+        return f;
+    }
+
+}
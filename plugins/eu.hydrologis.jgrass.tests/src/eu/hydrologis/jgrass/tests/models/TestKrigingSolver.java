@@ -0,0 +1,232 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import Jama.Matrix;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import eu.hydrologis.jgrass.models.h.kriging.KrigingSolver;
+import eu.hydrologis.jgrass.models.h.kriging.sextante.Point3D;
+import eu.hydrologis.jgrass.models.h.kriging.sextante.PtAndDistance;
+import eu.hydrologis.jgrass.models.h.kriging.sextante.RTreeJsi;
+
+/**
+ * Test the cached kriging solver against the inversion of the kriging matrix for every cell, as it
+ * was done by h.kriging, the memory budget of the factorization cache and the cache kept over
+ * timesteps in which some stations have no value.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKrigingSolver extends TestCase {
+
+    private static final int STATIONS = 300;
+    private static final int MAXPOINTS = 12;
+    private static final int GRID = 120;
+    private static final double SIZE = 10000.0;
+
+    private double[] x = new double[STATIONS];
+    private double[] y = new double[STATIONS];
+    private double[] z = new double[STATIONS];
+
+    protected void setUp() throws Exception {
+        Random random = new Random(17);
+        for( int i = 0; i < STATIONS; i++ ) {
+            x[i] = random.nextDouble() * SIZE;
+            y[i] = random.nextDouble() * SIZE;
+            z[i] = 100.0 + 50.0 * Math.sin(x[i] / 2000.0) + random.nextDouble() * 10.0;
+        }
+    }
+
+    public void testSolverAgainstInverse() {
+        for( int model = 0; model < 2; model++ ) {
+            KrigingSolver solver = new KrigingSolver(model, 1.0, 80.0, 3000.0, MAXPOINTS, 3,
+                    1024 * 1024L);
+            double[] result = new double[2];
+            for( int r = 0; r < GRID; r++ ) {
+                for( int c = 0; c < GRID; c++ ) {
+                    double px = (c + 0.5) * SIZE / GRID;
+                    double py = (r + 0.5) * SIZE / GRID;
+                    PtAndDistance[] nearest = closestPoints(px, py);
+
+                    double[] expected = inverseKriging(solver, nearest);
+                    solver.interpolate(nearest, result);
+
+                    assertEquals(expected[0], result[0], 1E-6);
+                    assertEquals(expected[1], result[1], 1E-6);
+                }
+            }
+            // neighbouring cells share most of the neighbour sets
+            assertTrue(solver.getCacheHits() > solver.getCacheMisses());
+        }
+    }
+
+    public void testCacheBudget() {
+        // room for a few systems of MAXPOINTS stations only
+        long systemBytes = 8L * (MAXPOINTS + 1) * (MAXPOINTS + 1);
+        KrigingSolver.FactorizationCache cache = new KrigingSolver.FactorizationCache(
+                5 * systemBytes);
+        KrigingSolver solver = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3, cache);
+        KrigingSolver unbounded = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3,
+                1024 * 1024L);
+        double[] result = new double[2];
+        double[] expected = new double[2];
+        for( int r = 0; r < GRID; r += 4 ) {
+            for( int c = 0; c < GRID; c += 4 ) {
+                PtAndDistance[] nearest = closestPoints((c + 0.5) * SIZE / GRID, (r + 0.5) * SIZE
+                        / GRID);
+                solver.interpolate(nearest, result);
+                unbounded.interpolate(nearest, expected);
+                assertEquals(expected[0], result[0], 0.0);
+                assertEquals(expected[1], result[1], 0.0);
+                assertTrue(cache.getUsed() <= cache.getBudget());
+            }
+        }
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() < 5);
+        assertTrue(solver.getCacheMisses() > unbounded.getCacheMisses());
+
+        // a system larger than the whole budget is not cached at all
+        KrigingSolver.FactorizationCache tiny = new KrigingSolver.FactorizationCache(16);
+        KrigingSolver tinySolver = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3, tiny);
+        tinySolver.interpolate(closestPoints(SIZE / 2, SIZE / 2), result);
+        assertEquals(0, tiny.size());
+        assertEquals(0, tiny.getUsed());
+    }
+
+    public void testSharedCache() {
+        KrigingSolver.FactorizationCache cache = new KrigingSolver.FactorizationCache(
+                1024 * 1024L);
+        KrigingSolver first = new KrigingSolver(1, 1.0, 80.0, 3000.0, MAXPOINTS, 3, cache);
+        KrigingSolver second = new KrigingSolver(1, 1.0, 80.0, 3000.0, MAXPOINTS, 3, cache);
+        double[] firstResult = new double[2];
+        double[] secondResult = new double[2];
+        for( int c = 0; c < GRID; c++ ) {
+            PtAndDistance[] nearest = closestPoints((c + 0.5) * SIZE / GRID, SIZE / 2);
+            first.interpolate(nearest, firstResult);
+            second.interpolate(nearest, secondResult);
+            assertEquals(firstResult[0], secondResult[0], 0.0);
+            assertEquals(firstResult[1], secondResult[1], 0.0);
+        }
+        // the second solver finds every system factorized by the first one
+        assertEquals(0, second.getCacheMisses());
+        assertEquals(first.getCacheMisses(), cache.size());
+    }
+
+    public void testStationsGoingNovalue() {
+        /*
+         * stations along a valley, with the ids from west to east, so that the neighbours of a
+         * cell are a run of consecutive stations also in the search tree
+         */
+        double[] sortedX = x.clone();
+        Arrays.sort(sortedX);
+        HashMap<Integer, Coordinate> id2CoordinatesMap = new HashMap<Integer, Coordinate>();
+        HashMap<Integer, Double> id2valueMap = new HashMap<Integer, Double>();
+        for( int i = 0; i < STATIONS; i++ ) {
+            id2CoordinatesMap.put(i, new Coordinate(sortedX[i], SIZE / 2 + y[i] / 100.0));
+            id2valueMap.put(i, z[i]);
+        }
+        KrigingSolver.FactorizationCache cache = new KrigingSolver.FactorizationCache(
+                16 * 1024 * 1024L);
+        KrigingSolver solver = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3, cache);
+        double[] result = new double[2];
+        interpolateGrid(new RTreeJsi(id2valueMap, id2CoordinatesMap), solver, result);
+
+        // at the second timestep the westernmost stations have no value
+        for( int i = 0; i < 3; i++ ) {
+            id2valueMap.remove(i);
+        }
+        RTreeJsi searchEngine = new RTreeJsi(id2valueMap, id2CoordinatesMap);
+        KrigingSolver uncached = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3,
+                16 * 1024 * 1024L);
+        int hits = solver.getCacheHits();
+        double[] expected = new double[2];
+        for( int r = 0; r < GRID; r += 3 ) {
+            for( int c = 0; c < GRID; c += 3 ) {
+                PtAndDistance[] nearest = searchEngine.getClosestPoints((c + 0.5) * SIZE / GRID,
+                        (r + 0.5) * SIZE / GRID, SIZE, MAXPOINTS, true);
+                solver.interpolate(nearest, result);
+                uncached.interpolate(nearest, expected);
+                assertEquals(expected[0], result[0], 0.0);
+                assertEquals(expected[1], result[1], 0.0);
+            }
+        }
+        // the systems of the stations that still have a value are found in the cache
+        assertTrue(solver.getCacheHits() > hits);
+    }
+
+    public void testNotEnoughPoints() {
+        KrigingSolver solver = new KrigingSolver(0, 1.0, 80.0, 3000.0, MAXPOINTS, 3, 1024L);
+        PtAndDistance[] nearest = new PtAndDistance[]{new PtAndDistance(new Point3D(0, 0, 1), 1, 0),
+                new PtAndDistance(new Point3D(1, 1, 1), 2, 1)};
+        double[] result = new double[2];
+        solver.interpolate(nearest, result);
+        assertTrue(Double.isNaN(result[0]));
+        assertTrue(Double.isNaN(result[1]));
+    }
+
+    private void interpolateGrid( RTreeJsi searchEngine, KrigingSolver solver, double[] result ) {
+        for( int r = 0; r < GRID; r += 3 ) {
+            for( int c = 0; c < GRID; c += 3 ) {
+                PtAndDistance[] nearest = searchEngine.getClosestPoints((c + 0.5) * SIZE / GRID,
+                        (r + 0.5) * SIZE / GRID, SIZE, MAXPOINTS, true);
+                solver.interpolate(nearest, result);
+            }
+        }
+    }
+
+    /*
+     * the nearest stations, sorted by distance
+     */
+    private PtAndDistance[] closestPoints( double px, double py ) {
+        PtAndDistance[] all = new PtAndDistance[STATIONS];
+        for( int i = 0; i < STATIONS; i++ ) {
+            double dx = x[i] - px;
+            double dy = y[i] - py;
+            all[i] = new PtAndDistance(new Point3D(x[i], y[i], z[i]), Math.sqrt(dx * dx + dy * dy), i);
+        }
+        Arrays.sort(all);
+        PtAndDistance[] nearest = new PtAndDistance[MAXPOINTS];
+        System.arraycopy(all, 0, nearest, 0, MAXPOINTS);
+        return nearest;
+    }
+
+    /*
+     * the kriging as it was done by h.kriging: invert the matrix and multiply
+     */
+    private double[] inverseKriging( KrigingSolver variogram, PtAndDistance[] nearest ) {
+        int n = nearest.length;
+        double[][] weights = new double[n + 1][n + 1];
+        for( int i = 0; i < n; i++ ) {
+            Point3D pt = nearest[i].getPt();
+            weights[i][n] = weights[n][i] = 1.0;
+            for( int j = i + 1; j < n; j++ ) {
+                Point3D pt2 = nearest[j].getPt();
+                double dx = pt.getX() - pt2.getX();
+                double dy = pt.getY() - pt2.getY();
+                weights[i][j] = weights[j][i] = variogram.getWeight(Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+        double[][] inverse = new Matrix(weights).inverse().getArray();
+        double[] gammas = new double[n + 1];
+        for( int i = 0; i < n; i++ ) {
+            gammas[i] = variogram.getWeight(nearest[i].getDist());
+        }
+        gammas[n] = 1.0;
+        double value = 0.0;
+        double variance = 0.0;
+        for( int i = 0; i < n; i++ ) {
+            double lambda = 0.0;
+            for( int j = 0; j <= n; j++ ) {
+                lambda += inverse[i][j] * gammas[j];
+            }
+            value += lambda * nearest[i].getPt().getZ();
+            variance += lambda * gammas[i];
+        }
+        return new double[]{value, variance};
+    }
+
+}
@@ -0,0 +1,276 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcCompiler;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcEngine;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram;
+
+/**
+ * Test the compiled mapcalc functions, streamed by blocks of rows, against the same functions
+ * computed cell by cell in java. The result has to be the same whatever the number of threads and
+ * the size of the blocks.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestMapcalcEngine extends TestCase {
+
+    private static final int COLS = 83;
+    private static final int ROWS = 61;
+
+    private Random random = new Random(37);
+
+    private final JGrassRegion region = new JGrassRegion(1000.0, 1000.0 + COLS * 10.0, 5000.0,
+            5000.0 + ROWS * 5.0, ROWS, COLS);
+
+    private double[][] dem = randomMap(COLS, ROWS);
+    private double[][] rain = randomMap(COLS, ROWS);
+
+    public void testExpressions() throws Exception {
+        compare("@out@ = $dem$ * 2 + $rain$ / 3 - 1", new Cell(){
+            public double value( int r, int c ) {
+                return dem[r][c] * 2 + rain[r][c] / 3 - 1;
+            }
+        });
+        compare("@out@ = -2 ^ 2 + $dem$ % 7 - 2 ^ 3 ^ 0.5", new Cell(){
+            public double value( int r, int c ) {
+                return -Math.pow(2, 2) + dem[r][c] % 7 - Math.pow(2, Math.pow(3, 0.5));
+            }
+        });
+        compare("a = $dem$ > 500 && $rain$ <= 520\n"
+                + "b = if(a, sqrt($dem$), log($rain$, 10))\n@out@ = a ? b : -b", new Cell(){
+            public double value( int r, int c ) {
+                double d = dem[r][c];
+                double p = rain[r][c];
+                if (Double.isNaN(d) || Double.isNaN(p)) {
+                    return Double.NaN;
+                }
+                boolean a = d > 500 && p <= 520;
+                double b = a ? Math.sqrt(d) : Math.log(p) / Math.log(10);
+                return a ? b : -b;
+            }
+        });
+        compare("@out@ = if($dem$ - 500, 1, 2, 3) + isnull($rain$) + abs(sin($dem$))", new Cell(){
+            public double value( int r, int c ) {
+                double d = dem[r][c];
+                double branch = d - 500 > 0 ? 1 : (d - 500 == 0 ? 2 : 3);
+                return (Double.isNaN(d) ? Double.NaN : branch)
+                        + (Double.isNaN(rain[r][c]) ? 1 : 0) + Math.abs(Math.sin(d));
+            }
+        });
+        compare("x1 = 3 * 4; x2 = x1 / 0 ; @out@ = min($dem$, $rain$, x1 * 100) + isnull(x2)",
+                new Cell(){
+                    public double value( int r, int c ) {
+                        return Math.min(Math.min(dem[r][c], rain[r][c]), 1200) + 1;
+                    }
+                });
+        compare("@out@ = row() * 1000 + col() + (x() - 1000) / 10 + (5000 + 61 * 5 - y()) / 5",
+                new Cell(){
+                    public double value( int r, int c ) {
+                        return (r + 1) * 1000 + (c + 1) + (c + 0.5) + (r + 0.5);
+                    }
+                });
+        compare("@out@ = 12.5", new Cell(){
+            public double value( int r, int c ) {
+                return 12.5;
+            }
+        });
+    }
+
+    public void testNeighbours() throws Exception {
+        compare("@out@ = ($dem$[-1,0] + $dem$[1,0] + $dem$[0,-1] + $dem$[0,1]) / 4 - $dem$",
+                new Cell(){
+                    public double value( int r, int c ) {
+                        return (at(dem, r - 1, c) + at(dem, r + 1, c) + at(dem, r, c - 1) + at(
+                                dem, r, c + 1)) / 4 - dem[r][c];
+                    }
+                });
+        compare("@out@ = $rain$[-3,2] - $dem$[2,-1] + $rain$[0,0]", new Cell(){
+            public double value( int r, int c ) {
+                return at(rain, r - 3, c + 2) - at(dem, r + 2, c - 1) + rain[r][c];
+            }
+        });
+        compare("@out@ = $dem$[ 4 , 0 ]", new Cell(){
+            public double value( int r, int c ) {
+                return at(dem, r + 4, c);
+            }
+        });
+    }
+
+    public void testResultName() throws Exception {
+        MapcalcProgram program = MapcalcCompiler.compile("$dem$ + 1", "out");
+        assertEquals("out", program.getOutputName());
+        program = MapcalcCompiler.compile("a = $dem$; out = a + 1", "out");
+        assertEquals("out", program.getOutputName());
+        assertEquals(1, program.getMaps().length);
+        program = MapcalcCompiler.compile("@res@ = $dem$\n\n@res@ = @res@ * 2;", null);
+        assertEquals("res", program.getOutputName());
+        assertEquals(dem[3][5] * 2, run(program, 1, 64)[3][5], 0.0);
+    }
+
+    public void testErrors() {
+        String[] wrong = {"$dem$ + 1", "@out@ = $dem$ +", "@out@ = foo($dem$)",
+                "@out@ = a + 1", "@out@ = $dem$[1.5,0]", "@out@ = ($dem$; 1)", "@out@ = $dem",
+                "@out@ = sqrt(1, 2)", "@a@ = 1; @b@ = 2", "@out@ = $dem$ # 1", "@out@ = 1 2"};
+        for( String function : wrong ) {
+            try {
+                MapcalcCompiler.compile(function, null);
+                fail(function);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testLargerMap() throws Exception {
+        int cols = 300;
+        int rows = 200;
+        final double[][] a = randomMap(cols, rows);
+        final double[][] b = randomMap(cols, rows);
+        JGrassRegion largerRegion = new JGrassRegion(0.0, cols, 0.0, rows, rows, cols);
+        String function = "slope = ($a$[0,1] - $a$[0,-1]) / 2\n"
+                + "@out@ = if($b$ > 500, slope * $b$ + sqrt(abs($a$)), max($a$, $b$) / 2)";
+
+        double[][] expected = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double slope = (at(a, r, c + 1) - at(a, r, c - 1)) / 2;
+                double bv = b[r][c];
+                double cond = Double.isNaN(bv) ? Double.NaN : (bv > 500 ? 1 : 0);
+                expected[r][c] = Double.isNaN(cond) ? Double.NaN : (cond != 0 ? slope * bv
+                        + Math.sqrt(Math.abs(a[r][c])) : Math.max(a[r][c], bv) / 2);
+            }
+        }
+
+        MapcalcProgram program = MapcalcCompiler.compile(function, null);
+        for( int threads = 1; threads <= 3; threads++ ) {
+            check(expected, run(program, new double[][][]{a, b}, largerRegion, threads, 64),
+                    function + " with " + threads + " threads");
+        }
+    }
+
+    public void testTolerance() throws Exception {
+        // as in jiffle, values closer than 1e-8 are equal and values closer than 1e-8 to 0 false
+        compare("@out@ = ($dem$ + 0.000000001 == $dem$) + 2 * ($dem$ != $dem$ - 0.000000001)"
+                + " + 4 * ($dem$ + 0.000000001 > $dem$) + 8 * ($dem$ < $dem$ + 0.000000001)"
+                + " + 16 * ($dem$ >= $dem$ + 0.000000001) + 32 * ($dem$ - 0.000000001 <= $dem$)",
+                new Cell(){
+                    public double value( int r, int c ) {
+                        return Double.isNaN(dem[r][c]) ? Double.NaN : 1 + 16 + 32;
+                    }
+                });
+        compare("t = ($dem$ - $dem$) + 0.000000001\n"
+                + "@out@ = if(t, 1, 2) + 4 * if(t) + 8 * !t + 16 * (t && 1) + 32 * (t || 0)"
+                + " + 64 * if(t, 1, 0, 2)", new Cell(){
+            public double value( int r, int c ) {
+                return Double.isNaN(dem[r][c]) ? Double.NaN : 2 + 8;
+            }
+        });
+        compare("@out@ = if(0.000000001, 1, 2) + 4 * (1 == 1 + 0.000000001)", new Cell(){
+            public double value( int r, int c ) {
+                return 2 + 4;
+            }
+        });
+    }
+
+    private interface Cell {
+        public double value( int r, int c );
+    }
+
+    private void compare( String function, Cell cell ) throws Exception {
+        double[][] expected = new double[ROWS][COLS];
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                expected[r][c] = cell.value(r, c);
+            }
+        }
+        MapcalcProgram program = MapcalcCompiler.compile(function, null);
+        assertEquals("out", program.getOutputName());
+        for( int threads = 1; threads <= 4; threads++ ) {
+            for( int blockRows : new int[]{1, 2, 7, 64, 1000} ) {
+                check(expected, run(program, threads, blockRows), function + " with " + threads
+                        + " threads and blocks of " + blockRows);
+            }
+        }
+    }
+
+    private void check( double[][] expected, double[][] result, String message ) {
+        for( int r = 0; r < expected.length; r++ ) {
+            for( int c = 0; c < expected[0].length; c++ ) {
+                if (Double.isNaN(expected[r][c])) {
+                    assertTrue(message + " at " + r + "," + c, Double.isNaN(result[r][c]));
+                } else {
+                    assertEquals(message + " at " + r + "," + c, expected[r][c], result[r][c],
+                            0.0);
+                }
+            }
+        }
+    }
+
+    private double[][] run( MapcalcProgram program, int threads, int blockRows )
+            throws IOException {
+        String[] maps = program.getMaps();
+        double[][][] data = new double[maps.length][][];
+        for( int i = 0; i < maps.length; i++ ) {
+            data[i] = maps[i].equals("dem") ? dem : rain;
+        }
+        return run(program, data, region, threads, blockRows);
+    }
+
+    private double[][] run( MapcalcProgram program, double[][][] data, JGrassRegion window,
+            int threads, int blockRows ) throws IOException {
+        MapcalcEngine.Source[] sources = new MapcalcEngine.Source[data.length];
+        for( int i = 0; i < data.length; i++ ) {
+            final double[][] map = data[i];
+            sources[i] = new MapcalcEngine.Source(){
+                public void readRows( int firstRow, double[][] rows, int count ) {
+                    for( int k = 0; k < count; k++ ) {
+                        System.arraycopy(map[firstRow + k], 0, rows[k], 0, map[0].length);
+                    }
+                }
+            };
+        }
+        final double[][] result = new double[window.getRows()][];
+        MapcalcEngine.Sink sink = new MapcalcEngine.Sink(){
+            private int row = 0;
+            public void writeRow( double[] values ) {
+                result[row++] = values.clone();
+            }
+        };
+        MapcalcEngine engine = new MapcalcEngine(program, window);
+        engine.setThreads(threads);
+        engine.setBlockRows(blockRows);
+        engine.run(sources, sink, new DummyProgressMonitor());
+        return result;
+    }
+
+    private double at( double[][] map, int r, int c ) {
+        if (r < 0 || r >= map.length || c < 0 || c >= map[0].length) {
+            return Double.NaN;
+        }
+        return map[r][c];
+    }
+
+    /*
+     * values around 500, with some novalues
+     */
+    private double[][] randomMap( int cols, int rows ) {
+        double[][] map = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                map[r][c] = 450.0 + 40.0 * Math.sin(c * 0.07) * Math.cos(r * 0.05)
+                        + random.nextDouble() * 60.0;
+            }
+        }
+        for( int k = 0; k < cols * rows / 100 + 1; k++ ) {
+            map[random.nextInt(rows)][random.nextInt(cols)] = Double.NaN;
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,195 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import jaitools.CollectionFactory;
+import jaitools.imageutils.ImageUtils;
+import jaitools.jiffle.Jiffle;
+import jaitools.jiffle.runtime.JiffleRunner;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.WritableRectIter;
+import javax.media.jai.iterator.RectIterFactory;
+
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapWriter;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.FileUtilities;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcCompiler;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcEngine;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcJiffler;
+import eu.hydrologis.jgrass.models.r.mapcalc.MapcalcProgram;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the compiled mapcalc functions against the same functions run by jiffle, and the whole
+ * calculation of {@link MapcalcJiffler}, from the input maps on disk to the output map.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestMapcalcJiffler extends JGrassTestCase {
+
+    private static final int COLS = 37;
+    private static final int ROWS = 29;
+
+    private Random random = new Random(71);
+
+    private JGrassRegion region = new JGrassRegion(1000.0, 1000.0 + COLS * 10.0, 5000.0,
+            5000.0 + ROWS * 10.0, ROWS, COLS);
+
+    private double[][] dem = randomMap();
+    private double[][] rain = randomMap();
+
+    public void testAgainstJiffle() throws Exception {
+        String[] functions = {
+                "@out@ = $dem$ * 2 + $rain$ / 3 - 1 + 2 ^ 0.5;",
+                "@out@ = max($dem$, $rain$) - min($dem$, 480) + abs(sin($rain$));",
+                "a = $dem$ > 500 && $rain$ <= 520; b = !($dem$ == $rain$) || $dem$ < 460;"
+                        + " @out@ = if(a, sqrt($dem$), $rain$ / 2) + 2 * b;",
+                "@out@ = if($dem$ - 500) + 2 * if($dem$ - 500, $rain$)"
+                        + " + 4 * if($rain$ >= 490, $dem$, $rain$) + if($dem$ - $rain$, 1, 2, 3);",
+                "t = $dem$ - $dem$ + 0.000000001; @out@ = ($dem$ + t == $dem$) + 2 * !t"
+                        + " + 4 * ($dem$ + t > $dem$) + 8 * if(t, 1, 0, 2);"};
+        for( String function : functions ) {
+            checkMatrixEqual(runJiffle(function), runCompiled(function), 1E-9);
+        }
+    }
+
+    public void testExec() throws Exception {
+        File locationFile = File.createTempFile("jgrass_location", null);
+        locationFile.delete();
+        File permanentFile = new File(locationFile, JGrassConstants.PERMANENT_MAPSET);
+        permanentFile.mkdirs();
+        try {
+            String locationPath = locationFile.getAbsolutePath();
+            JGrassRegion.writeWINDToMapset(permanentFile.getAbsolutePath(), region);
+            JGrassRegion.writeDEFAULTWINDToLocation(locationPath, region);
+            writeMap(locationPath, "dem", dem);
+            writeMap(locationPath, "rain", rain);
+
+            String function = "@out@ = if($dem$ > $rain$, $dem$ - $rain$, sqrt($rain$));";
+            String cellFolderPath = locationPath + File.separator + "test" + File.separator
+                    + JGrassConstants.CELL;
+            MapcalcJiffler jiffler = new MapcalcJiffler(function, null, new String[]{"dem",
+                    "rain"}, region, cellFolderPath, System.out);
+            jiffler.setThreads(2);
+            assertNull(jiffler.exec());
+
+            JGrassRasterMapReader reader = new JGrassRasterMapReader.BuilderFromMapPath(region,
+                    cellFolderPath + File.separator + "out").maptype(
+                    JGrassConstants.GRASSBINARYRASTERMAP).build();
+            assertTrue(reader.open());
+            double[][] result = new double[ROWS][COLS];
+            try {
+                reader.getReader().readRows(0, result, 0, ROWS);
+            } finally {
+                reader.close();
+            }
+
+            double[][] expected = runCompiled(function);
+            for( int r = 0; r < ROWS; r++ ) {
+                for( int c = 0; c < COLS; c++ ) {
+                    if (Double.isNaN(expected[r][c])) {
+                        assertTrue(Double.isNaN(result[r][c]));
+                    } else {
+                        assertEquals(expected[r][c], result[r][c], 1E-9);
+                    }
+                }
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(locationFile);
+        }
+    }
+
+    private void writeMap( String locationPath, String mapName, double[][] data )
+            throws Exception {
+        JGrassRasterMapWriter writer = new JGrassRasterMapWriter(region, mapName, "test",
+                locationPath, new DummyProgressMonitor());
+        try {
+            assertTrue(writer.open());
+            writer.startRows();
+            for( double[] row : data ) {
+                writer.writeRow(row);
+            }
+            assertTrue(writer.finishRows());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private RenderedImage runJiffle( String function ) throws Exception {
+        TiledImage target = ImageUtils.createConstantImage(COLS, ROWS, Double.valueOf(0));
+        Map<String, RenderedImage> params = CollectionFactory.map();
+        params.put("dem", toImage(dem));
+        params.put("rain", toImage(rain));
+        params.put("out", target);
+        Jiffle jiffle = new Jiffle(function.replaceAll("\\$", "").replaceAll("@", ""), params);
+        new JiffleRunner(jiffle).run();
+        return target;
+    }
+
+    private double[][] runCompiled( String function ) throws Exception {
+        MapcalcProgram program = MapcalcCompiler.compile(function, null);
+        String[] maps = program.getMaps();
+        MapcalcEngine.Source[] sources = new MapcalcEngine.Source[maps.length];
+        for( int i = 0; i < maps.length; i++ ) {
+            final double[][] map = maps[i].equals("dem") ? dem : rain;
+            sources[i] = new MapcalcEngine.Source(){
+                public void readRows( int firstRow, double[][] rows, int count ) {
+                    for( int k = 0; k < count; k++ ) {
+                        System.arraycopy(map[firstRow + k], 0, rows[k], 0, COLS);
+                    }
+                }
+            };
+        }
+        final double[][] result = new double[ROWS][];
+        MapcalcEngine.Sink sink = new MapcalcEngine.Sink(){
+            private int row = 0;
+            public void writeRow( double[] values ) {
+                result[row++] = values.clone();
+            }
+        };
+        new MapcalcEngine(program, region).run(sources, sink, new DummyProgressMonitor());
+        return result;
+    }
+
+    private TiledImage toImage( double[][] data ) {
+        TiledImage image = ImageUtils.createConstantImage(COLS, ROWS, Double.valueOf(0));
+        WritableRectIter iter = RectIterFactory.createWritable(image, null);
+        int y = 0;
+        do {
+            int x = 0;
+            do {
+                iter.setSample(data[y][x]);
+                x++;
+            } while( !iter.nextPixelDone() );
+            iter.startPixels();
+            y++;
+        } while( !iter.nextLineDone() );
+        return image;
+    }
+
+    /*
+     * values around 500, with some novalues
+     */
+    private double[][] randomMap() {
+        double[][] map = new double[ROWS][COLS];
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                map[r][c] = 450.0 + 100.0 * random.nextDouble();
+            }
+        }
+        for( int k = 0; k < 10; k++ ) {
+            map[random.nextInt(ROWS)][random.nextInt(COLS)] = Double.NaN;
+        }
+        return map;
+    }
+
+}
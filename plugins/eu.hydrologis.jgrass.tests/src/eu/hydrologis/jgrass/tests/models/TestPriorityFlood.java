@@ -0,0 +1,261 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+import static java.lang.Double.NaN;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.h.pitfiller.PriorityFlood;
+import eu.hydrologis.jgrass.models.h.pitfiller.TiledPriorityFlood;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+
+/**
+ * Test the priority flood against the iterative flooding of the depressions, which raises every
+ * cell to the lowest of its neighbours until nothing changes. The tiled flood has to give the same
+ * result as the flood in memory, whatever the tiles.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestPriorityFlood extends TestCase {
+
+    private static final int[] SIZES = {50, 200, 500};
+
+    private static final int[] DROW = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] DCOL = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private Random random = new Random(17);
+
+    public void testTestMap() {
+        double[][] map = GrassMapTest.mapData;
+        int rows = map.length;
+        int cols = map[0].length;
+        double[] data = new double[rows * cols];
+        for( int r = 0; r < rows; r++ ) {
+            System.arraycopy(map[r], 0, data, r * cols, cols);
+        }
+        new PriorityFlood(0.0).fill(data, cols, rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                // the novalue inside of the map is filled too
+                assertEquals(GrassMapTest.outPitData[r][c], data[r * cols + c], 0.0);
+            }
+        }
+    }
+
+    public void testAgainstIterativeFlooding() {
+        for( int size : SIZES ) {
+            int cols = size;
+            int rows = size * 3 / 4;
+            double[] dem = randomDem(cols, rows);
+
+            double[] expected = dem.clone();
+            iterativeFill(expected, cols, rows);
+
+            double[] filled = dem.clone();
+            new PriorityFlood(0.0).fill(filled, cols, rows);
+
+            assertSameFill(expected, filled);
+        }
+    }
+
+    public void testTiledAgainstMemory() throws IOException {
+        int cols = 137;
+        int rows = 91;
+        double[] dem = randomDem(cols, rows);
+        double[] expected = dem.clone();
+        new PriorityFlood(0.0).fill(expected, cols, rows);
+
+        int[][] tiles = {{2, 2}, {10, 10}, {17, 23}, {50, 7}, {64, 64}, {cols, rows}};
+        for( int[] tile : tiles ) {
+            ArrayTileStore store = new ArrayTileStore(dem.clone(), cols, rows);
+            new TiledPriorityFlood(tile[0], tile[1]).fill(store, new DummyProgressMonitor());
+            assertSameFill(expected, store.data);
+        }
+    }
+
+    public void testNovalues() {
+        // a novalue hole inside of the model and a novalue area on its border
+        double[] data = {
+            900, 900, 900, 900, 900, 900, 
+            900, 800, 800, 800, 800, NaN, 
+            900, 800, NaN, NaN, 800, NaN, 
+            900, 800, NaN, NaN, 800, 900, 
+            900, 800, 800, 800, 800, 900, 
+            900, 900, 900, 900, 900, 900};
+        new PriorityFlood(0.0).fill(data, 6, 6);
+        // the hole is filled to the ring around it, which drains into the novalues on the border
+        assertEquals(800.0, data[2 * 6 + 2], 0.0);
+        assertEquals(800.0, data[3 * 6 + 3], 0.0);
+        assertEquals(800.0, data[1 * 6 + 1], 0.0);
+        // the area on the border drains outside and stays novalue
+        assertTrue(isNovalue(data[1 * 6 + 5]));
+        assertTrue(isNovalue(data[2 * 6 + 5]));
+    }
+
+    public void testEpsilonDrains() {
+        int cols = 120;
+        int rows = 80;
+        double[] dem = randomDem(cols, rows);
+        double[] filled = dem.clone();
+        new PriorityFlood(1E-4).fill(filled, cols, rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int cell = r * cols + c;
+                if (isNovalue(filled[cell])) {
+                    // the novalues that drain outside of the model
+                    assertTrue(isNovalue(dem[cell]));
+                    continue;
+                }
+                assertTrue(isNovalue(dem[cell]) || filled[cell] >= dem[cell]);
+                if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1) {
+                    assertEquals(dem[cell], filled[cell], 0.0);
+                    continue;
+                }
+                // no flats and no depressions: every cell has a lower neighbour
+                boolean drains = false;
+                for( int k = 0; k < 8; k++ ) {
+                    double neighbour = filled[(r + DROW[k]) * cols + c + DCOL[k]];
+                    drains = drains || isNovalue(neighbour) || neighbour < filled[cell];
+                }
+                assertTrue(drains);
+            }
+        }
+        try {
+            new PriorityFlood(-1.0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * a smooth surface with noise and a large bowl, some deep pits, flat areas and novalue holes
+     */
+    private double[] randomDem( int cols, int rows ) {
+        double[] dem = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double distance = Math.hypot(c - cols / 2.0, r - rows / 2.0) / (0.4 * rows);
+                dem[r * cols + c] = 500.0 + 80.0 * Math.sin(c * 0.11) * Math.cos(r * 0.07) + r
+                        + Math.floor(random.nextDouble() * 30.0) - 200.0
+                        * Math.max(0.0, 1.0 - distance);
+            }
+        }
+        for( int k = 0; k < cols * rows / 500 + 1; k++ ) {
+            int r = 1 + random.nextInt(rows - 2);
+            int c = 1 + random.nextInt(cols - 2);
+            dem[r * cols + c] = 300.0;
+        }
+        for( int k = 0; k < 3; k++ ) {
+            int r = random.nextInt(rows - 5);
+            int c = random.nextInt(cols - 5);
+            double value = dem[r * cols + c];
+            for( int i = 0; i < 5; i++ ) {
+                for( int j = 0; j < 5; j++ ) {
+                    dem[(r + i) * cols + c + j] = k == 0 ? JGrassConstants.doubleNovalue : value;
+                }
+            }
+        }
+        for( int k = 0; k < cols * rows / 1000 + 1; k++ ) {
+            dem[random.nextInt(dem.length)] = JGrassConstants.doubleNovalue;
+        }
+        return dem;
+    }
+
+    private void assertSameFill( double[] expected, double[] filled ) {
+        for( int i = 0; i < expected.length; i++ ) {
+            if (isNovalue(expected[i])) {
+                assertTrue("at " + i, isNovalue(filled[i]));
+            } else {
+                assertEquals("at " + i, expected[i], filled[i], 0.0);
+            }
+        }
+    }
+
+    /*
+     * the depressions filled by raising every cell to the lowest of its neighbours, scanning the
+     * whole model back and forth until nothing changes. The border cells are the outlets and the
+     * novalues are the lowest elevation.
+     */
+    private void iterativeFill( double[] data, int cols, int rows ) {
+        double[] ground = new double[data.length];
+        double[] water = new double[data.length];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int cell = r * cols + c;
+                ground[cell] = isNovalue(data[cell]) ? Double.NEGATIVE_INFINITY : data[cell];
+                if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1) {
+                    water[cell] = ground[cell];
+                } else {
+                    water[cell] = Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+        boolean changed = true;
+        boolean forward = true;
+        while( changed ) {
+            changed = false;
+            for( int i = 0; i < data.length; i++ ) {
+                int cell = forward ? i : data.length - 1 - i;
+                if (water[cell] == ground[cell]) {
+                    continue;
+                }
+                int r = cell / cols;
+                int c = cell % cols;
+                double lowest = Double.POSITIVE_INFINITY;
+                for( int k = 0; k < 8; k++ ) {
+                    lowest = Math.min(lowest, water[(r + DROW[k]) * cols + c + DCOL[k]]);
+                }
+                double level = Math.max(ground[cell], lowest);
+                if (level < water[cell]) {
+                    water[cell] = level;
+                    changed = true;
+                }
+            }
+            forward = !forward;
+        }
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = water[i] == Double.NEGATIVE_INFINITY ? JGrassConstants.doubleNovalue
+                    : water[i];
+        }
+    }
+
+    private static class ArrayTileStore implements TiledPriorityFlood.TileStore {
+        private final double[] data;
+        private final int cols;
+        private final int rows;
+
+        private ArrayTileStore( double[] data, int cols, int rows ) {
+            this.data = data;
+            this.cols = cols;
+            this.rows = rows;
+        }
+
+        public int getCols() {
+            return cols;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public void read( int firstCol, int firstRow, int tileCols, int tileRows, double[] tile ) {
+            for( int r = 0; r < tileRows; r++ ) {
+                System.arraycopy(data, (firstRow + r) * cols + firstCol, tile, r * tileCols,
+                        tileCols);
+            }
+        }
+
+        public void write( int firstCol, int firstRow, int tileCols, int tileRows, double[] tile ) {
+            for( int r = 0; r < tileRows; r++ ) {
+                System.arraycopy(tile, r * tileCols, data, (firstRow + r) * cols + firstCol,
+                        tileCols);
+            }
+        }
+    }
+
+}
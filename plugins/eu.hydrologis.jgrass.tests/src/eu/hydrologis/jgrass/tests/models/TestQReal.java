@@ -0,0 +1,186 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import eu.hydrologis.libs.peakflow.core.discharge.QReal;
+import eu.hydrologis.libs.peakflow.core.iuh.IUHCalculator;
+import eu.hydrologis.libs.peakflow.core.jeff.RealJeff;
+import eu.hydrologis.libs.peakflow.utils.ParameterBox;
+import eu.hydrologis.libs.utils.FluidUtils;
+
+/**
+ * Test the discharge of real rainfall against the sum of the shifted discharges of every rain
+ * value, as it was done by {@link QReal} before.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestQReal extends TestCase {
+
+    private static final int[] RAINLENGTHS = {10, 50, 100};
+    private static final double TCORR = 3600.0;
+    private static final int RAINTIMESTEP = 300;
+
+    private PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+    public void testDischargeAgainstShiftMatrix() {
+        double[][] ampi = widthFunction();
+        Random random = new Random(7);
+        for( int rainLength : RAINLENGTHS ) {
+            Map<DateTime, Double> rain = new LinkedHashMap<DateTime, Double>();
+            DateTime date = new DateTime(2008, 10, 1, 0, 0, 0, 0);
+            for( int i = 0; i < rainLength; i++ ) {
+                // some dry intervals between the showers
+                double value = i % 4 == 3 ? 0.0 : random.nextDouble() * 20.0;
+                rain.put(date, value);
+                date = date.plusSeconds(RAINTIMESTEP);
+            }
+            for( int sub = 0; sub < 2; sub++ ) {
+                ParameterBox parameters = new ParameterBox();
+                parameters.setArea(2.5E6);
+                parameters.setTimestep(1.0);
+                if (sub == 1) {
+                    parameters.setArea_sub(0.5E6);
+                }
+                RealJeff jeff = new RealJeff(rain);
+
+                double[][] expected = shiftMatrixDischarge(parameters, ampi, jeff);
+                double[][] q = new QReal(parameters, new WidthFunction(ampi), jeff, out)
+                        .calculateQ();
+
+                assertEquals(expected.length, q.length);
+                for( int k = 0; k < q.length; k++ ) {
+                    assertEquals(expected[k][0], q[k][0], 0.0);
+                    assertEquals(expected[k][1], q[k][1], 0.0);
+                }
+            }
+        }
+    }
+
+    /*
+     * a cumulative width function with a bell shaped width, one value every minute
+     */
+    private double[][] widthFunction() {
+        int rows = (int) (TCORR / 60.0);
+        double[][] ampi = new double[rows][3];
+        double cumulated = 0.0;
+        for( int i = 0; i < rows; i++ ) {
+            double t = (i + 1) * 60.0;
+            double width = Math.sin(Math.PI * t / TCORR);
+            cumulated = cumulated + width * width;
+            ampi[i][0] = t;
+            ampi[i][1] = width * width;
+            ampi[i][2] = cumulated;
+        }
+        for( int i = 0; i < rows; i++ ) {
+            ampi[i][1] = ampi[i][1] / cumulated;
+            ampi[i][2] = ampi[i][2] / cumulated;
+        }
+        return ampi;
+    }
+
+    /*
+     * the discharge as it was calculated by QReal: a shifted discharge row for every rain value,
+     * summed up at the end
+     */
+    private double[][] shiftMatrixDischarge( ParameterBox parameters, double[][] ampi,
+            RealJeff jeffC ) {
+        double timestep = parameters.getTimestep();
+        double area_tot = parameters.getArea();
+        if (parameters.getArea_sub() != -9999.0) {
+            area_tot = parameters.getArea_sub() + parameters.getArea();
+        }
+        double raintimestep = jeffC.getRain_timestep();
+        DateTime firstDate = jeffC.getFirstDate();
+        Map<DateTime, Double> jeff = jeffC.calculateJeff();
+
+        double tcorr = ampi[ampi.length - 1][0];
+        double tpmax = raintimestep;
+        int rainLength = jeff.size();
+        double[][] totalQshiftMatrix = new double[rainLength][(int) (Math.floor((tcorr + tpmax)
+                / timestep) + 1 + rainLength * raintimestep / timestep)];
+        double[] Q = new double[(int) Math.floor((tcorr + tpmax) / timestep) + 1];
+
+        Set<DateTime> dates = jeff.keySet();
+        int i = 0;
+        for( DateTime dateTime : dates ) {
+            double J = jeff.get(dateTime);
+            int j = 0;
+            for( int t = 1; t < tcorr; t += timestep ) {
+                j = (int) Math.floor((t) / timestep);
+                if (t <= tpmax) {
+                    Q[j] = J * area_tot * FluidUtils.width_interpolate(ampi, t, 0, 2);
+                } else {
+                    Q[j] = J
+                            * area_tot
+                            * (FluidUtils.width_interpolate(ampi, t, 0, 2) - FluidUtils
+                                    .width_interpolate(ampi, t - tpmax, 0, 2));
+                }
+            }
+            for( double t = tcorr; t < (tcorr + tpmax); t += timestep ) {
+                j = (int) Math.floor(((int) t) / timestep);
+                Q[j] = J
+                        * area_tot
+                        * (ampi[ampi.length - 1][2] - FluidUtils.width_interpolate(ampi, t
+                                - tpmax, 0, 2));
+            }
+            Duration duration = new Duration(firstDate, dateTime);
+            int paddingnumber = (int) (duration.getStandardSeconds() / timestep);
+            for( int k = 0; k < Q.length; k++ ) {
+                totalQshiftMatrix[i][paddingnumber + k] = Q[k];
+            }
+            i++;
+        }
+
+        double[][] Qtot = new double[totalQshiftMatrix[0].length][2];
+        double tottime = 0f;
+        for( int k = 0; k < Qtot.length; k++ ) {
+            double sum = 0f;
+            for( int r = 0; r < totalQshiftMatrix.length; r++ ) {
+                sum = sum + totalQshiftMatrix[r][k];
+            }
+            tottime = tottime + timestep;
+            Qtot[k][1] = sum;
+            Qtot[k][0] = tottime;
+        }
+        return Qtot;
+    }
+
+    private static class WidthFunction implements IUHCalculator {
+        private final double[][] ampi;
+
+        private WidthFunction( double[][] ampi ) {
+            this.ampi = ampi;
+        }
+
+        public double[][] calculateIUH() {
+            return ampi;
+        }
+
+        public double getTpMax() {
+            return 0;
+        }
+
+        public double getTstarMax() {
+            return 0;
+        }
+
+        public double[][] getIUHSuperficial() {
+            return ampi;
+        }
+
+        public double[][] getIUHSubsuperficial() {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.r.mosaic.RasterMosaic;
+
+/**
+ * Test the mosaic of overlapping tiles against the cell by cell patching of the tiles, for every
+ * overlap policy and with one and more threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRasterMosaic extends TestCase {
+
+    private static final double RES = 10.0;
+    private static final double WEST = 650000.0;
+    private static final double NORTH = 5120000.0;
+
+    private Random random = new Random(17);
+
+    public void testMosaicRegion() {
+        List<JGrassRegion> regions = new ArrayList<JGrassRegion>();
+        regions.add(region(10, 5, 20, 30));
+        regions.add(region(-3, 12, 40, 10));
+        // a region that is not aligned to the grid of the first one
+        regions.add(new JGrassRegion(WEST + 2.5, WEST + 52.5, NORTH - 364.0, NORTH - 304.0, 6, 5));
+        JGrassRegion mosaicRegion = RasterMosaic.mosaicRegion(regions);
+        assertEquals(NORTH + 3 * RES, mosaicRegion.getNorth(), 1E-9);
+        assertEquals(NORTH - 37 * RES, mosaicRegion.getSouth(), 1E-9);
+        assertEquals(WEST, mosaicRegion.getWest(), 1E-9);
+        assertEquals(WEST + 35 * RES, mosaicRegion.getEast(), 1E-9);
+        assertEquals(40, mosaicRegion.getRows());
+        assertEquals(35, mosaicRegion.getCols());
+
+        RasterMosaic rasterMosaic = new RasterMosaic(mosaicRegion, RasterMosaic.OVERLAP_LAST);
+        JGrassRegion snapped = rasterMosaic.snap(regions.get(2));
+        assertEquals(WEST, snapped.getWest(), 1E-9);
+        assertEquals(WEST + 60.0, snapped.getEast(), 1E-9);
+        assertEquals(NORTH - 370.0, snapped.getSouth(), 1E-9);
+        assertEquals(NORTH - 300.0, snapped.getNorth(), 1E-9);
+        assertEquals(7, snapped.getRows());
+        assertEquals(6, snapped.getCols());
+    }
+
+    public void testAgainstCellByCell() throws IOException {
+        List<MemoryTile> tiles = new ArrayList<MemoryTile>();
+        for( int i = 0; i < 60; i++ ) {
+            int row = random.nextInt(300);
+            int col = random.nextInt(300);
+            tiles.add(new MemoryTile(region(row, col, 20 + random.nextInt(80),
+                    20 + random.nextInt(80)), random));
+        }
+        List<JGrassRegion> regions = new ArrayList<JGrassRegion>();
+        for( MemoryTile tile : tiles ) {
+            regions.add(tile.getRegion());
+        }
+        JGrassRegion mosaicRegion = RasterMosaic.mosaicRegion(regions);
+        List<RasterMosaic.Tile> mosaicTiles = new ArrayList<RasterMosaic.Tile>(tiles);
+
+        int[] policies = {RasterMosaic.OVERLAP_FIRST, RasterMosaic.OVERLAP_LAST,
+                RasterMosaic.OVERLAP_MEAN};
+        for( int policy : policies ) {
+            double[][] expected = cellByCell(mosaicRegion, tiles, policy);
+
+            for( int threads = 1; threads <= 4; threads += 3 ) {
+                RasterMosaic rasterMosaic = new RasterMosaic(mosaicRegion, policy);
+                rasterMosaic.setThreads(threads);
+                rasterMosaic.setBlockRows(7);
+                double[][] mosaic = rasterMosaic.mosaic(mosaicTiles, new DummyProgressMonitor());
+
+                for( int r = 0; r < expected.length; r++ ) {
+                    for( int c = 0; c < expected[r].length; c++ ) {
+                        if (JGrassConstants.isNovalue(expected[r][c])) {
+                            assertTrue(JGrassConstants.isNovalue(mosaic[r][c]));
+                        } else {
+                            assertEquals(expected[r][c], mosaic[r][c], 1E-9);
+                        }
+                    }
+                }
+                for( MemoryTile tile : tiles ) {
+                    assertFalse(tile.open);
+                }
+            }
+        }
+    }
+
+    public void testStreamedRows() throws IOException {
+        final JGrassRegion mosaicRegion = region(0, 0, 83, 61);
+        List<MemoryTile> tiles = new ArrayList<MemoryTile>();
+        tiles.add(new MemoryTile(region(-5, -5, 40, 30), random));
+        tiles.add(new MemoryTile(region(20, 10, 50, 40), random));
+        tiles.add(new MemoryTile(region(60, 40, 30, 30), random));
+        List<RasterMosaic.Tile> mosaicTiles = new ArrayList<RasterMosaic.Tile>(tiles);
+        final double[][] expected = cellByCell(mosaicRegion, tiles, RasterMosaic.OVERLAP_MEAN);
+
+        for( int threads = 1; threads <= 3; threads++ ) {
+            for( MemoryTile tile : tiles ) {
+                tile.rowsRead = 0;
+            }
+            RasterMosaic rasterMosaic = new RasterMosaic(mosaicRegion, RasterMosaic.OVERLAP_MEAN);
+            rasterMosaic.setThreads(threads);
+            rasterMosaic.setBlockRows(8);
+            final int[] written = new int[1];
+            rasterMosaic.mosaic(mosaicTiles, new RasterMosaic.Sink(){
+                public void writeRow( double[] row ) throws IOException {
+                    // the rows come in order
+                    double[] expectedRow = expected[written[0]++];
+                    assertEquals(mosaicRegion.getCols(), row.length);
+                    for( int c = 0; c < row.length; c++ ) {
+                        if (JGrassConstants.isNovalue(expectedRow[c])) {
+                            assertTrue(JGrassConstants.isNovalue(row[c]));
+                        } else {
+                            assertEquals(expectedRow[c], row[c], 1E-9);
+                        }
+                    }
+                }
+            }, new DummyProgressMonitor());
+            assertEquals(mosaicRegion.getRows(), written[0]);
+
+            // every row of a tile inside of the mosaic is read once, then the tile is closed
+            assertEquals(35, tiles.get(0).rowsRead);
+            assertEquals(50, tiles.get(1).rowsRead);
+            assertEquals(23, tiles.get(2).rowsRead);
+            for( MemoryTile tile : tiles ) {
+                assertFalse(tile.open);
+            }
+        }
+    }
+
+    public void testTilesOutsideOfRegion() throws IOException {
+        JGrassRegion mosaicRegion = region(0, 0, 50, 50);
+        List<RasterMosaic.Tile> tiles = new ArrayList<RasterMosaic.Tile>();
+        tiles.add(new MemoryTile(region(-10, -10, 20, 20), random));
+        tiles.add(new MemoryTile(region(45, 40, 20, 20), random));
+        tiles.add(new MemoryTile(region(60, 60, 5, 5), random));
+        double[][] mosaic = new RasterMosaic(mosaicRegion, RasterMosaic.OVERLAP_LAST).mosaic(
+                tiles, new DummyProgressMonitor());
+        assertEquals(((MemoryTile) tiles.get(0)).data[19][10], mosaic[9][0], 0.0);
+        assertEquals(((MemoryTile) tiles.get(1)).data[4][9], mosaic[49][49], 0.0);
+        assertTrue(JGrassConstants.isNovalue(mosaic[25][25]));
+    }
+
+    /*
+     * the region of the given rows and columns, on the grid of the test
+     */
+    private JGrassRegion region( int firstRow, int firstCol, int rows, int cols ) {
+        double north = NORTH - firstRow * RES;
+        double west = WEST + firstCol * RES;
+        return new JGrassRegion(west, west + cols * RES, north - rows * RES, north, rows, cols);
+    }
+
+    /*
+     * the mosaic patched cell by cell, going through the tiles for every cell
+     */
+    private double[][] cellByCell( JGrassRegion mosaicRegion, List<MemoryTile> tiles, int policy ) {
+        int rows = mosaicRegion.getRows();
+        int cols = mosaicRegion.getCols();
+        double[][] mosaic = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double x = mosaicRegion.getWest() + (c + 0.5) * RES;
+                double y = mosaicRegion.getNorth() - (r + 0.5) * RES;
+                double value = JGrassConstants.doubleNovalue;
+                double sum = 0.0;
+                int count = 0;
+                for( MemoryTile tile : tiles ) {
+                    JGrassRegion tileRegion = tile.getRegion();
+                    if (x < tileRegion.getWest() || x > tileRegion.getEast()
+                            || y < tileRegion.getSouth() || y > tileRegion.getNorth()) {
+                        continue;
+                    }
+                    int row = (int) ((tileRegion.getNorth() - y) / RES);
+                    int col = (int) ((x - tileRegion.getWest()) / RES);
+                    double tileValue = tile.data[row][col];
+                    if (JGrassConstants.isNovalue(tileValue)) {
+                        continue;
+                    }
+                    if (policy == RasterMosaic.OVERLAP_LAST || count == 0) {
+                        value = tileValue;
+                    }
+                    sum = sum + tileValue;
+                    count++;
+                }
+                if (policy == RasterMosaic.OVERLAP_MEAN && count > 0) {
+                    value = sum / count;
+                }
+                mosaic[r][c] = value;
+            }
+        }
+        return mosaic;
+    }
+
+    /**
+     * A tile of random values, with a novalue patch in the middle.
+     */
+    private static class MemoryTile implements RasterMosaic.Tile {
+        private final JGrassRegion region;
+        private final double[][] data;
+        private boolean open = false;
+        private int rowsRead = 0;
+
+        private MemoryTile( JGrassRegion region, Random random ) {
+            this.region = region;
+            int rows = region.getRows();
+            int cols = region.getCols();
+            data = new double[rows][cols];
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    if (Math.abs(r - rows / 2) < rows / 6 && Math.abs(c - cols / 2) < cols / 6) {
+                        data[r][c] = JGrassConstants.doubleNovalue;
+                    } else {
+                        data[r][c] = random.nextDouble() * 1000.0;
+                    }
+                }
+            }
+        }
+
+        public JGrassRegion getRegion() {
+            return region;
+        }
+
+        public void readRows( int firstRow, double[][] rows, int count ) throws IOException {
+            open = true;
+            rowsRead += count;
+            for( int i = 0; i < count; i++ ) {
+                System.arraycopy(data[firstRow + i], 0, rows[i], 0, data[0].length);
+            }
+        }
+
+        public void close() {
+            open = false;
+        }
+    }
+
+}
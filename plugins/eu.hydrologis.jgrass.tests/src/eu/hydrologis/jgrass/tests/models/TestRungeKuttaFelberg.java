@@ -0,0 +1,104 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+import eu.hydrologis.libs.duffy.IBasicFunction;
+import eu.hydrologis.libs.duffy.PIStepController;
+import eu.hydrologis.libs.duffy.RungeKuttaFelberg;
+
+/**
+ * Test the integrator on a cascade of linear reservoirs, which has an analytic solution, with
+ * the default and the PI step control, and the steps taken by the two controllers.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRungeKuttaFelberg extends TestCase {
+
+    private static final double K = 0.01;
+    private static final double Y0 = 100.0;
+
+    private PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+    public void testLinearReservoirs() throws Exception {
+        int n = 4;
+        double[][] f = forcings(n);
+        RungeKuttaFelberg rkf = new RungeKuttaFelberg(new Cascade(), 1e-3, 10 / 60., out, false);
+        double[] y = solve(rkf, n, f, 240.0);
+
+        // the solution is given at one second before the end of the interval
+        double t = 240.0 - 1. / 60.;
+        assertEquals(Y0 * Math.exp(-K * t), y[0], 1E-3 * Y0);
+        assertEquals(Y0 * K * t * Math.exp(-K * t), y[1], 1E-3 * Y0);
+        assertEquals(Y0 * K * K * t * t / 2.0 * Math.exp(-K * t), y[2], 1E-3 * Y0);
+
+        assertTrue(rkf.getAcceptedSteps() > 0);
+        // six evaluations for every trial and final step
+        assertEquals(0, rkf.getEvaluations() % 6);
+        assertTrue(rkf.getEvaluations() >= 6 * rkf.getAcceptedSteps());
+    }
+
+    public void testStepControllers() throws Exception {
+        int n = 2000;
+        double[][] f = forcings(n);
+        RungeKuttaFelberg exponent = new RungeKuttaFelberg(new Cascade(), 1e-3, 10 / 60., out,
+                false);
+        RungeKuttaFelberg pi = new RungeKuttaFelberg(new Cascade(), 1e-3, 10 / 60., out, false);
+        pi.setStepController(new PIStepController());
+
+        double[] expected = solve(exponent, n, f, 600.0);
+        double[] y = solve(pi, n, f, 600.0);
+
+        for( int i = 0; i < n; i++ ) {
+            assertEquals(expected[i], y[i], 1E-3 * Y0);
+        }
+        assertEquals(993, exponent.getAcceptedSteps());
+        assertEquals(351, exponent.getRejectedSteps());
+        assertEquals(1992, pi.getAcceptedSteps());
+        assertEquals(475, pi.getRejectedSteps());
+    }
+
+    private double[] solve( RungeKuttaFelberg rkf, int n, double[][] f, double end )
+            throws Exception {
+        double[] y = new double[n];
+        y[0] = Y0;
+        rkf.solve(0.0, end, 60.0, y, f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7]);
+        return rkf.getFinalCond();
+    }
+
+    /*
+     * the integrator reads the state as four values for every forcing
+     */
+    private double[][] forcings( int n ) {
+        return new double[8][n / 4];
+    }
+
+    /*
+     * every reservoir drains into the next one, with a rate constant K in 1/min
+     */
+    private static class Cascade implements IBasicFunction {
+
+        public double[] eval( double currentTimeInMinutes, double[] input,
+                double[] precipitation, double[] radiationArray, double[] netshortArray,
+                double[] temperatureArray, double[] humidityArray, double[] windspeedArray,
+                double[] pressureArray, double[] snowWaterEquivalentArray, boolean isMainTimeStep ) {
+            double[] output = new double[input.length];
+            eval(currentTimeInMinutes, input, precipitation, radiationArray, netshortArray,
+                    temperatureArray, humidityArray, windspeedArray, pressureArray,
+                    snowWaterEquivalentArray, isMainTimeStep, output);
+            return output;
+        }
+
+        public void eval( double currentTimeInMinutes, double[] input, double[] precipitation,
+                double[] radiationArray, double[] netshortArray, double[] temperatureArray,
+                double[] humidityArray, double[] windspeedArray, double[] pressureArray,
+                double[] snowWaterEquivalentArray, boolean isMainTimeStep, double[] output ) {
+            output[0] = -K * input[0];
+            for( int i = 1; i < input.length; i++ ) {
+                output[i] = K * (input[i - 1] - input[i]);
+            }
+        }
+    }
+
+}
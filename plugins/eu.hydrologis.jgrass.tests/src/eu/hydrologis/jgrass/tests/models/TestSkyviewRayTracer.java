@@ -0,0 +1,77 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.models.h.skyview.SkyviewRayTracer;
+import eu.hydrologis.libs.utils.GridDouble;
+
+/**
+ * Test the default skyview factor of h.skyviewfactor on a reference dem, against the values of
+ * the tracing of the shadows on the images, as it was done before the exact horizons.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestSkyviewRayTracer extends TestCase {
+
+    private static final int COLS = 30;
+    private static final int ROWS = 24;
+
+    private static final double[] ROW7 = {0.874141091037468, 0.840910706244708,
+            0.8180597588768328, 0.7945950847991057, 0.7751314683405959, 0.7690844664489505,
+            0.7650197232724653, 0.7536013696896876, 0.7772032030512288, 0.7850826381242594,
+            0.8023296596139966, 0.8277780384121134, 0.8767953016892451, 0.8876448606100604,
+            0.8643045561838354, 0.8291496220843724, 0.799998240400247, 0.7687786874800264,
+            0.7244369430943202, 0.7247481594415476, 0.7037359482337656, 0.6919735892549386,
+            0.7057423956346937, 0.7154407659029164, 0.7050530081089169, 0.7396196235314153};
+
+    private static final double[] COL15 = {0.7762765071247686, 0.7984546363337952,
+            0.8304006378374197, 0.8661606493895097, 0.8865950951650066, 0.8876448606100604,
+            0.8603106612414914, 0.8260170292847175, 0.7966152333986174, 0.7751696170947867,
+            0.7686574239081707, 0.769007627319119, 0.7651040995518729, 0.7869198231194874,
+            0.8018675002377602, 0.8329737208781045, 0.8673168171772486, 0.8798198848851344,
+            0.8788616155748054, 0.8514370520791914};
+
+    public void testReferenceDem() {
+        GridDouble dem = new GridDouble(COLS, ROWS);
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                dem.set(c, r, 1000.0 + 3.0 * r + 60.0 * Math.sin(c / 5.0) * Math.cos(r / 4.0)
+                        + 0.1 * (c - 15) * (c - 15));
+            }
+        }
+        dem.set(10, 10, JGrassConstants.doubleNovalue);
+        GridDouble sky = new SkyviewRayTracer(dem, 10.0).skyviewfactor();
+
+        for( int c = 2; c < COLS - 2; c++ ) {
+            assertEquals(ROW7[c - 2], sky.get(c, 7), 1E-12);
+        }
+        for( int r = 2; r < ROWS - 2; r++ ) {
+            assertEquals(COL15[r - 2], sky.get(15, r), 1E-12);
+        }
+        assertTrue(JGrassConstants.isNovalue(sky.get(10, 10)));
+        assertBorder(sky);
+    }
+
+    public void testFlat() {
+        GridDouble sky = new SkyviewRayTracer(new GridDouble(COLS, ROWS, 100.0), 10.0)
+                .skyviewfactor();
+        for( int r = 2; r < ROWS - 2; r++ ) {
+            for( int c = 2; c < COLS - 2; c++ ) {
+                // the last azimuth is not taken
+                assertEquals(35.0 / 36.0, sky.get(c, r), 1E-12);
+            }
+        }
+        assertBorder(sky);
+    }
+
+    private void assertBorder( GridDouble sky ) {
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                if (r < 2 || r >= ROWS - 2 || c < 2 || c >= COLS - 2) {
+                    assertTrue(JGrassConstants.isNovalue(sky.get(c, r)));
+                }
+            }
+        }
+    }
+
+}
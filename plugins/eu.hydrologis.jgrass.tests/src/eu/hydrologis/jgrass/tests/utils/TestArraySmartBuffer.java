@@ -0,0 +1,169 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.TimeSpan;
+import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.backbone.Vector;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
+import nl.alterra.openmi.sdk.buffer.ArraySmartBuffer;
+import nl.alterra.openmi.sdk.buffer.SmartBuffer;
+
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.ITime;
+import org.openmi.standard.IValueSet;
+import org.openmi.standard.IVectorSet;
+
+/**
+ * Test the array based smart buffer against the smart buffer for all the time mappings.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestArraySmartBuffer extends TestCase {
+
+    private static final double[] RELAXATIONS = {1.0, 0.5, 0.0};
+
+    private Random random = new Random(23);
+
+    public void testMappings() throws Exception {
+        for( int spans = 0; spans < 2; spans++ ) {
+            for( int vectors = 0; vectors < 2; vectors++ ) {
+                for( double relaxation : RELAXATIONS ) {
+                    SmartBuffer expected = new SmartBuffer();
+                    ArraySmartBuffer buffer = new ArraySmartBuffer();
+                    expected.setRelaxationFactor(relaxation);
+                    buffer.setRelaxationFactor(relaxation);
+
+                    double t = 100.0;
+                    for( int n = 0; n < 30; n++ ) {
+                        double next = t + 0.5 + random.nextDouble();
+                        ITime time = spans == 1 ? span(t, next) : new TimeStamp(t);
+                        IValueSet values = randomValues(5, vectors == 1);
+                        expected.addValues(time, values);
+                        buffer.addValues(time, values);
+                        t = next;
+                        if (n > 0) {
+                            compareRequests(expected, buffer, 95.0, t + 5.0);
+                        }
+                    }
+
+                    // clear as the output links do and compare again
+                    expected.clearBefore(new TimeStamp(110.0));
+                    buffer.clearBefore(new TimeStamp(110.0));
+                    assertEquals(expected.getTimesCount(), buffer.getTimesCount());
+                    compareRequests(expected, buffer, 105.0, t + 5.0);
+
+                    double after = ((TimeStamp) (spans == 1 ? ((TimeSpan) expected.getTimeAt(8))
+                            .getStart() : expected.getTimeAt(8))).getModifiedJulianDay();
+                    expected.clearAfter(new TimeStamp(after));
+                    buffer.clearAfter(new TimeStamp(after));
+                    assertEquals(expected.getTimesCount(), buffer.getTimesCount());
+                    compareRequests(expected, buffer, 105.0, after + 5.0);
+
+                    expected.setDoExtendedDataVerification(false);
+                    buffer.setDoExtendedDataVerification(false);
+                    TimeSpan clear = span(after - 4.0, after - 1.0);
+                    expected.clear(clear);
+                    buffer.clear(clear);
+                    assertEquals(expected.getTimesCount(), buffer.getTimesCount());
+                    for( int i = 0; i < expected.getTimesCount(); i++ ) {
+                        assertEquals(expected.getTimeAt(i), buffer.getTimeAt(i));
+                        assertValues(expected.getValuesAt(i), buffer.getValuesAt(i));
+                    }
+
+                    ArraySmartBuffer copy = new ArraySmartBuffer(buffer);
+                    copy.setDoExtendedDataVerification(false);
+                    for( int i = 0; i < expected.getTimesCount(); i++ ) {
+                        assertValues(expected.getValuesAt(i), copy.getValuesAt(i));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testLongBuffer() throws Exception {
+        int steps = 5000;
+        int scalars = 200;
+        SmartBuffer expected = new SmartBuffer();
+        ArraySmartBuffer buffer = new ArraySmartBuffer();
+        expected.setDoExtendedDataVerification(false);
+        buffer.setDoExtendedDataVerification(false);
+        for( int n = 0; n < steps; n++ ) {
+            IValueSet values = randomValues(scalars, false);
+            expected.addValues(new TimeStamp(n), values);
+            buffer.addValues(new TimeStamp(n), values);
+        }
+
+        int requests = 2000;
+        double[] times = new double[requests];
+        for( int r = 0; r < requests; r++ ) {
+            times[r] = random.nextDouble() * steps;
+        }
+
+        double[] values = new double[scalars];
+        for( int r = 0; r < requests; r++ ) {
+            IScalarSet result = (IScalarSet) expected.getValues(new TimeStamp(times[r]));
+            buffer.getValues(new TimeStamp(times[r]), values);
+            for( int i = 0; i < scalars; i++ ) {
+                assertEquals(result.getScalar(i), values[i], 0.0);
+            }
+        }
+    }
+
+    /*
+     * requests time stamps and spans before, inside and after the buffered times
+     */
+    private void compareRequests( SmartBuffer expected, ArraySmartBuffer buffer, double from,
+            double to ) throws Exception {
+        for( int r = 0; r < 20; r++ ) {
+            double t1 = from + random.nextDouble() * (to - from);
+            double t2 = t1 + 0.1 + random.nextDouble() * 3.0;
+            assertValues(expected.getValues(new TimeStamp(t1)), buffer.getValues(new TimeStamp(t1)));
+            assertValues(expected.getValues(span(t1, t2)), buffer.getValues(span(t1, t2)));
+        }
+        // exactly on the buffered times
+        for( int i = 0; i < expected.getTimesCount(); i++ ) {
+            ITime time = expected.getTimeAt(i);
+            assertValues(expected.getValues(time), buffer.getValues(time));
+        }
+    }
+
+    private void assertValues( IValueSet expected, IValueSet values ) {
+        assertEquals(expected.getCount(), values.getCount());
+        for( int i = 0; i < expected.getCount(); i++ ) {
+            if (expected instanceof IScalarSet) {
+                assertEquals(((IScalarSet) expected).getScalar(i), ((IScalarSet) values)
+                        .getScalar(i));
+            } else {
+                assertEquals(((IVectorSet) expected).getVector(i).getXComponent(),
+                        ((IVectorSet) values).getVector(i).getXComponent());
+                assertEquals(((IVectorSet) expected).getVector(i).getYComponent(),
+                        ((IVectorSet) values).getVector(i).getYComponent());
+                assertEquals(((IVectorSet) expected).getVector(i).getZComponent(),
+                        ((IVectorSet) values).getVector(i).getZComponent());
+            }
+        }
+    }
+
+    private IValueSet randomValues( int n, boolean vectors ) {
+        if (vectors) {
+            Vector[] v = new Vector[n];
+            for( int i = 0; i < n; i++ ) {
+                v[i] = new Vector(random.nextDouble(), random.nextDouble(), random.nextDouble());
+            }
+            return new VectorSet(v);
+        }
+        double[] x = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            x[i] = random.nextDouble() * 10.0;
+        }
+        return new ScalarSet(x);
+    }
+
+    private TimeSpan span( double start, double end ) {
+        return new TimeSpan(new TimeStamp(start), new TimeStamp(end));
+    }
+
+}
@@ -0,0 +1,133 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nl.alterra.openmi.sdk.backbone.DoubleScalarSet;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+
+import org.openmi.standard.IScalarSet;
+
+/**
+ * Test the primitive scalar set against the scalar set, and compare the timings of the two when
+ * filled and read as the models do at every timestep.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDoubleScalarSet extends TestCase {
+
+    private Random random = new Random(29);
+
+    public void testAgainstScalarSet() {
+        ScalarSet expected = new ScalarSet();
+        DoubleScalarSet set = new DoubleScalarSet(1);
+        for( int i = 0; i < 1000; i++ ) {
+            double value = random.nextDouble();
+            expected.add(value);
+            set.add(value);
+        }
+        expected.add(0, 42.0);
+        set.add(0, 42.0);
+        expected.setValue(500, -1.0);
+        set.setScalar(500, -1.0);
+        compare(expected, set);
+
+        compare(expected, new DoubleScalarSet(expected));
+        compare(expected, DoubleScalarSet.valueOf(expected));
+        assertSame(set, DoubleScalarSet.valueOf(set));
+        compare(new ScalarSet(set), set);
+        assertEquals(expected.toString(), set.toString());
+        assertEquals(new ScalarSet().toString(), new DoubleScalarSet().toString());
+
+        try {
+            set.getScalar(set.getCount());
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected, beyond the values even if inside of the array
+        }
+        assertFalse(set.isValid(-1));
+        assertFalse(set.isValid(set.getCount()));
+    }
+
+    public void testBulkAccess() {
+        double[] values = new double[100];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = random.nextDouble();
+        }
+        DoubleScalarSet set = new DoubleScalarSet(values);
+        // a copy, later changes of the array do not change the set
+        values[0] = -1.0;
+        assertEquals(100, set.getCount());
+        assertTrue(set.getScalar(0) != -1.0);
+
+        set.setScalars(values, 10, 20);
+        assertEquals(20, set.getCount());
+        double[] large = new double[50];
+        assertSame(large, set.getScalars(large));
+        double[] small = set.getScalars(new double[5]);
+        assertEquals(20, small.length);
+        double[] part = new double[5];
+        set.getScalars(3, part, 1, 4);
+        for( int i = 0; i < 20; i++ ) {
+            assertEquals(values[10 + i], large[i], 0.0);
+            assertEquals(values[10 + i], small[i], 0.0);
+        }
+        for( int i = 0; i < 4; i++ ) {
+            assertEquals(values[13 + i], part[i + 1], 0.0);
+        }
+        try {
+            set.getScalars(18, part, 0, 3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected, beyond the values
+        }
+
+        ScalarSet scalarSet = new ScalarSet(values);
+        double[] copy = DoubleScalarSet.toArray(scalarSet, null);
+        for( int i = 0; i < values.length; i++ ) {
+            assertEquals(values[i], copy[i], 0.0);
+        }
+        assertSame(copy, DoubleScalarSet.toArray(set, copy));
+
+        set.clear();
+        assertEquals(0, set.getCount());
+        set.add(values, 0, values.length);
+        compare(scalarSet, set);
+    }
+
+    public void testRepeatedTimesteps() {
+        int values = 200;
+        int timesteps = 20;
+        double[] data = new double[values];
+        for( int i = 0; i < values; i++ ) {
+            data[i] = random.nextDouble();
+        }
+
+        // filled value by value and read back as the models do at every timestep
+        double[] buffer = null;
+        for( int t = 0; t < timesteps; t++ ) {
+            ScalarSet scalarSet = new ScalarSet();
+            scalarSet.add((double) values);
+            DoubleScalarSet set = new DoubleScalarSet(1);
+            set.add((double) values);
+            for( int i = 0; i < values; i++ ) {
+                scalarSet.add(data[i] + t);
+                set.add(data[i] + t);
+            }
+            compare(scalarSet, set);
+            buffer = DoubleScalarSet.toArray(set, buffer);
+            for( int i = 0; i < set.getCount(); i++ ) {
+                assertEquals(scalarSet.getScalar(i), buffer[i], 0.0);
+            }
+        }
+    }
+
+    private void compare( IScalarSet expected, IScalarSet set ) {
+        assertEquals(expected.getCount(), set.getCount());
+        for( int i = 0; i < expected.getCount(); i++ ) {
+            assertTrue(set.isValid(i));
+            assertEquals(expected.getScalar(i), set.getScalar(i), 0.0);
+        }
+    }
+
+}
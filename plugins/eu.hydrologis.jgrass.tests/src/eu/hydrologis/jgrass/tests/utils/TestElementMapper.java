@@ -0,0 +1,102 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import junit.framework.TestCase;
+import nl.alterra.openmi.sdk.backbone.Element;
+import nl.alterra.openmi.sdk.backbone.ElementSet;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.Vertex;
+import nl.alterra.openmi.sdk.spatial.ElementMapper;
+import nl.alterra.openmi.sdk.spatial.XYGeometryTools;
+import nl.alterra.openmi.sdk.spatial.XYPolygon;
+
+import org.openmi.standard.IElementSet;
+import org.openmi.standard.IScalarSet;
+
+/**
+ * Test the indexed polygon to polygon mapping against the shared areas of all the pairs of
+ * polygons, as the mapping matrix was filled before.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestElementMapper extends TestCase {
+
+    private static final String[] METHODS = {"Weighted Mean", "Weighted Sum"};
+
+    public void testPolygonToPolygon() throws Exception {
+        // a grid of source cells and a coarser, shifted grid of target cells
+        ElementSet source = squares(40, 40, 1.0, 0.0);
+        ElementSet target = squares(25, 25, 1.5, 0.3);
+        int rows = target.getElementCount();
+        int columns = source.getElementCount();
+
+        double[] values = new double[columns];
+        for( int j = 0; j < columns; j++ ) {
+            values[j] = j % 7 + 0.5 * (j % 3);
+        }
+
+        for( int m = 0; m < METHODS.length; m++ ) {
+            double[][] expected = allPairs(source, target, m == 0);
+
+            ElementMapper mapper = new ElementMapper();
+            mapper.initialise(METHODS[m], source, target);
+
+            for( int i = 0; i < rows; i++ ) {
+                for( int j = 0; j < columns; j++ ) {
+                    assertEquals(expected[i][j], mapper.getMappingValue(i, j), 1E-12);
+                }
+            }
+
+            IScalarSet mapped = (IScalarSet) mapper.mapValues(new ScalarSet(values));
+            for( int i = 0; i < rows; i++ ) {
+                double value = 0;
+                for( int j = 0; j < columns; j++ ) {
+                    value += expected[i][j] * values[j];
+                }
+                assertEquals(value, mapped.getScalar(i), 1E-9);
+            }
+        }
+    }
+
+    private ElementSet squares( int cols, int rows, double size, double offset ) {
+        ElementSet set = new ElementSet("squares", "squares", IElementSet.ElementType.XYPolygon,
+                null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double x = offset + c * size;
+                double y = offset + r * size;
+                Element element = new Element(r + "_" + c);
+                element.addVertex(new Vertex(x, y, 0));
+                element.addVertex(new Vertex(x + size, y, 0));
+                element.addVertex(new Vertex(x + size, y + size, 0));
+                element.addVertex(new Vertex(x, y + size, 0));
+                set.addElement(element);
+            }
+        }
+        return set;
+    }
+
+    /*
+     * the mapping matrix as it was filled before, testing every pair of polygons
+     */
+    private double[][] allPairs( ElementSet source, ElementSet target, boolean mean )
+            throws Exception {
+        int rows = target.getElementCount();
+        int columns = source.getElementCount();
+        double[][] matrix = new double[rows][columns];
+        for( int i = 0; i < rows; i++ ) {
+            XYPolygon toPolygon = XYGeometryTools.createXYPolygon(target, i);
+            double area = toPolygon.getArea();
+            double denominator = 0;
+            for( int j = 0; j < columns; j++ ) {
+                XYPolygon fromPolygon = XYGeometryTools.createXYPolygon(source, j);
+                matrix[i][j] = XYGeometryTools.calculateSharedArea(toPolygon, fromPolygon);
+                denominator += matrix[i][j];
+            }
+            for( int j = 0; j < columns; j++ ) {
+                matrix[i][j] = matrix[i][j] / (mean ? denominator : area);
+            }
+        }
+        return matrix;
+    }
+
+}
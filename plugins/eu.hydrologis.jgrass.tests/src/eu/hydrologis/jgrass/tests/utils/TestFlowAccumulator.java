@@ -0,0 +1,197 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.utils.FlowAccumulator;
+
+/**
+ * Test the topologically ordered accumulation against the path walking one previously used by
+ * h.tca and h.sumdownstream.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFlowAccumulator extends TestCase {
+
+    public void testTcaOnRandomDem() {
+        int cols = 120;
+        int rows = 90;
+        int[] flow = flowFromDem(randomDem(cols, rows, 0.0, new Random(7)), cols, rows);
+        // some pixels that are neither directions nor outlets
+        flow[10 * cols + 10] = 9;
+        flow[50 * cols + 70] = 9;
+
+        FlowAccumulator accumulator = new FlowAccumulator(flow, cols, rows);
+        assertNull(accumulator.getLoop());
+        double[] tca = new double[flow.length];
+        assertTrue(accumulator.accumulate(null, true, tca));
+
+        double[] expected = walkTca(flow, cols, rows);
+        for( int i = 0; i < flow.length; i++ ) {
+            assertEquals(expected[i], tca[i], 0.0);
+        }
+    }
+
+    public void testSumOnRandomDem() {
+        int cols = 100;
+        int rows = 80;
+        Random random = new Random(11);
+        int[] flow = flowFromDem(randomDem(cols, rows, 0.0, random), cols, rows);
+        double[] net = new double[flow.length];
+        for( int i = 0; i < net.length; i++ ) {
+            net[i] = random.nextDouble() * 10.0;
+        }
+
+        FlowAccumulator accumulator = new FlowAccumulator(flow, cols, rows);
+        double[] sum = new double[flow.length];
+        assertTrue(accumulator.accumulate(net, false, sum));
+
+        double[] expected = walkSum(flow, net, cols, rows);
+        for( int i = 0; i < flow.length; i++ ) {
+            if (isNovalue(expected[i])) {
+                assertTrue(isNovalue(sum[i]));
+            } else {
+                assertEquals(expected[i], sum[i], 1E-9 * Math.max(1.0, expected[i]));
+            }
+        }
+    }
+
+    public void testLoops() {
+        int n = JGrassConstants.intNovalue;
+        // two pixels draining into each other
+        int[] flow = new int[]{n, n, n, n, //
+                n, 1, 5, n, //
+                n, n, n, n};
+        FlowAccumulator accumulator = new FlowAccumulator(flow, 4, 3);
+        int[] loop = accumulator.getLoop();
+        assertNotNull(loop);
+        assertEquals(1, loop[0]);
+        assertEquals(1, loop[1]);
+        assertEquals(1, loop[2]);
+        assertEquals(2, loop[3]);
+
+        // a loop of four pixels is not found upfront, but stops the accumulation
+        flow = new int[]{n, n, n, n, //
+                n, 1, 7, n, //
+                n, 3, 5, n, //
+                n, n, n, n};
+        accumulator = new FlowAccumulator(flow, 4, 4);
+        assertNull(accumulator.getLoop());
+        assertFalse(accumulator.accumulate(null, true, new double[flow.length]));
+        assertTrue(accumulator.getUnresolvedPixel() != -1);
+    }
+
+    public void testLongBasin() {
+        // a tilted and elongated basin, where the paths to the outlet are long
+        int cols = 60;
+        int rows = 1500;
+        int[] flow = flowFromDem(randomDem(cols, rows, 5.0, new Random(3)), cols, rows);
+
+        FlowAccumulator accumulator = new FlowAccumulator(flow, cols, rows);
+        double[] tca = new double[flow.length];
+        assertTrue(accumulator.accumulate(null, true, tca));
+
+        double[] expected = walkTca(flow, cols, rows);
+        for( int i = 0; i < flow.length; i++ ) {
+            assertEquals(expected[i], tca[i], 0.0);
+        }
+    }
+
+    /*
+     * a random surface, optionally tilted towards the last row
+     */
+    private double[] randomDem( int cols, int rows, double slope, Random random ) {
+        double[] dem = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                dem[r * cols + c] = (rows - r) * slope + random.nextDouble() * 3.0;
+            }
+        }
+        return dem;
+    }
+
+    /*
+     * steepest descent directions, novalues on the border and outlets in the pits
+     */
+    private int[] flowFromDem( double[] dem, int cols, int rows ) {
+        int[][] dirs = ModelsConstants.DIR;
+        int[] flow = new int[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1) {
+                    flow[index] = JGrassConstants.intNovalue;
+                    continue;
+                }
+                int best = 10;
+                double bestDrop = 0.0;
+                for( int k = 1; k <= 8; k++ ) {
+                    int nr = r + dirs[k][0];
+                    int nc = c + dirs[k][1];
+                    if (nr == 0 || nc == 0 || nr == rows - 1 || nc == cols - 1) {
+                        continue;
+                    }
+                    double distance = k % 2 == 0 ? Math.sqrt(2.0) : 1.0;
+                    double drop = (dem[index] - dem[nr * cols + nc]) / distance;
+                    if (drop > bestDrop) {
+                        bestDrop = drop;
+                        best = k;
+                    }
+                }
+                flow[index] = best;
+            }
+        }
+        return flow;
+    }
+
+    /*
+     * the tca as it was done by h.tca: from every pixel walk down to the outlet adding one
+     */
+    private double[] walkTca( int[] flow, int cols, int rows ) {
+        int[][] dirs = ModelsConstants.DIR;
+        double[] tca = new double[flow.length];
+        for( int i = 0; i < flow.length; i++ ) {
+            if (isNovalue(flow[i])) {
+                tca[i] = JGrassConstants.doubleNovalue;
+                continue;
+            }
+            int p = i;
+            while( flow[p] < 9 ) {
+                tca[p] += 1;
+                int nextFlow = flow[p];
+                p = (p / cols + dirs[nextFlow][0]) * cols + p % cols + dirs[nextFlow][1];
+            }
+            if (flow[p] == 10) {
+                tca[p] += 1;
+            }
+        }
+        return tca;
+    }
+
+    /*
+     * the sum as it was done by FluidUtils.sum_downstream
+     */
+    private double[] walkSum( int[] flow, double[] net, int cols, int rows ) {
+        int[][] dirs = ModelsConstants.DIR;
+        double[] sum = new double[flow.length];
+        for( int i = 0; i < flow.length; i++ ) {
+            if (isNovalue(flow[i])) {
+                sum[i] = JGrassConstants.doubleNovalue;
+                continue;
+            }
+            int p = i;
+            while( flow[p] < 9 ) {
+                sum[p] += net[i];
+                int nextFlow = flow[p];
+                p = (p / cols + dirs[nextFlow][0]) * cols + p % cols + dirs[nextFlow][1];
+            }
+            sum[p] += net[i];
+        }
+        return sum;
+    }
+
+}
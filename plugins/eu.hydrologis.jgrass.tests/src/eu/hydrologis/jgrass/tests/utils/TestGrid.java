@@ -0,0 +1,213 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.GridDouble;
+import eu.hydrologis.libs.utils.GridInt;
+
+/**
+ * Test the primitive grids against the rasters they are read from and the outlet distance
+ * calculated on them, and the neighbour access through the grids against the one through the
+ * {@link RandomIter}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestGrid extends TestCase {
+
+    public void testRasterRoundTrip() {
+        int cols = 70;
+        int rows = 45;
+        WritableRaster raster = doubleRaster(cols, rows);
+        Random random = new Random(3);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                raster.setSample(c, r, 0, random.nextDouble() * 100.0);
+            }
+        }
+        raster.setSample(5, 5, 0, JGrassConstants.doubleNovalue);
+
+        GridDouble grid = GridDouble.fromRaster(raster);
+        GridInt intGrid = GridInt.fromRaster(raster);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double value = raster.getSampleDouble(c, r, 0);
+                if (isNovalue(value)) {
+                    assertTrue(isNovalue(grid.get(c, r)));
+                    assertTrue(isNovalue(intGrid.get(c, r)));
+                } else {
+                    assertEquals(value, grid.get(c, r), 0.0);
+                    assertEquals((int) value, intGrid.get(c, r));
+                }
+            }
+        }
+        // outside of the grid there are novalues
+        assertTrue(isNovalue(grid.get(-1, 0)));
+        assertTrue(isNovalue(grid.get(cols, rows - 1)));
+        assertTrue(isNovalue(intGrid.get(0, rows)));
+
+        grid.setNovalueBorder();
+        WritableRaster out = doubleRaster(cols, rows);
+        grid.toWritableRaster(out);
+        assertTrue(isNovalue(out.getSampleDouble(0, 10, 0)));
+        assertTrue(isNovalue(out.getSampleDouble(cols - 1, rows - 1, 0)));
+        assertEquals(raster.getSampleDouble(20, 20, 0), out.getSampleDouble(20, 20, 0), 0.0);
+
+        intGrid.toWritableRaster(out);
+        assertTrue(isNovalue(out.getSampleDouble(5, 5, 0)));
+        assertEquals((int) raster.getSampleDouble(20, 20, 0), out.getSampleDouble(20, 20, 0), 0.0);
+    }
+
+    public void testTiledImage() {
+        int cols = 100;
+        int rows = 75;
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, new BandedSampleModel(
+                DataBuffer.TYPE_DOUBLE, 32, 32, 1), null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                image.setSample(c, r, 0, r * 1000.0 + c);
+            }
+        }
+        GridDouble grid = GridDouble.fromRenderedImage(image);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                assertEquals(r * 1000.0 + c, grid.get(c, r), 0.0);
+            }
+        }
+    }
+
+    public void testOutletDistance() {
+        int cols = 90;
+        int rows = 70;
+        double dx = 10.0;
+        double dy = 15.0;
+        GridDouble flow = flowFromDem(cols, rows, new Random(13));
+
+        GridDouble dist = new GridDouble(cols, rows);
+        FluidUtils.outletdistance(flow, dist, dx, dy, System.out);
+        GridDouble topologicalDist = new GridDouble(cols, rows);
+        FluidUtils.topological_outletdistance(flow, topologicalDist, System.out);
+
+        double[] steps = {0, dx, Math.sqrt(dx * dx + dy * dy), dy, Math.sqrt(dx * dx + dy * dy),
+                dx, Math.sqrt(dx * dx + dy * dy), dy, Math.sqrt(dx * dx + dy * dy)};
+        int[][] dirs = ModelsConstants.DIR;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                if (isNovalue(flow.get(c, r))) {
+                    assertTrue(isNovalue(dist.get(c, r)));
+                    assertTrue(isNovalue(topologicalDist.get(c, r)));
+                    continue;
+                }
+                // walk down to the outlet
+                double length = 0.0;
+                int count = 0;
+                int row = r;
+                int col = c;
+                int direction = (int) flow.get(col, row);
+                while( direction != 10 ) {
+                    length += steps[direction];
+                    count++;
+                    row += dirs[direction][0];
+                    col += dirs[direction][1];
+                    direction = (int) flow.get(col, row);
+                }
+                assertEquals(length, dist.get(c, r), 1E-9);
+                assertEquals(count, topologicalDist.get(c, r), 0.0);
+            }
+        }
+    }
+
+    public void testNeighbourAccess() {
+        int cols = 1000;
+        int rows = 1000;
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, new BandedSampleModel(
+                DataBuffer.TYPE_DOUBLE, 256, 256, 1), null);
+        Random random = new Random(21);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                image.setSample(c, r, 0, random.nextDouble());
+            }
+        }
+        int[][] dirs = ModelsConstants.DIR;
+
+        RandomIter iter = RandomIterFactory.create(image, null);
+        double iterSum = 0.0;
+        for( int r = 1; r < rows - 1; r++ ) {
+            for( int c = 1; c < cols - 1; c++ ) {
+                for( int k = 1; k <= 8; k++ ) {
+                    iterSum += iter.getSampleDouble(c + dirs[k][1], r + dirs[k][0], 0);
+                }
+            }
+        }
+        iter.done();
+
+        GridDouble grid = GridDouble.fromRenderedImage(image);
+        double gridSum = 0.0;
+        for( int r = 1; r < rows - 1; r++ ) {
+            for( int c = 1; c < cols - 1; c++ ) {
+                for( int k = 1; k <= 8; k++ ) {
+                    gridSum += grid.get(c + dirs[k][1], r + dirs[k][0]);
+                }
+            }
+        }
+
+        assertEquals(iterSum, gridSum, 0.0);
+    }
+
+    private WritableRaster doubleRaster( int cols, int rows ) {
+        SampleModel sampleModel = new BandedSampleModel(DataBuffer.TYPE_DOUBLE, cols, rows, 1);
+        return Raster.createWritableRaster(sampleModel, null);
+    }
+
+    /*
+     * steepest descent directions, novalues on the border and outlets in the pits
+     */
+    private GridDouble flowFromDem( int cols, int rows, Random random ) {
+        double[] dem = new double[cols * rows];
+        for( int i = 0; i < dem.length; i++ ) {
+            dem[i] = random.nextDouble() * 3.0;
+        }
+        int[][] dirs = ModelsConstants.DIR;
+        GridDouble flow = new GridDouble(cols, rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1) {
+                    flow.set(c, r, JGrassConstants.doubleNovalue);
+                    continue;
+                }
+                int best = 10;
+                double bestDrop = 0.0;
+                for( int k = 1; k <= 8; k++ ) {
+                    int nr = r + dirs[k][0];
+                    int nc = c + dirs[k][1];
+                    if (nr == 0 || nc == 0 || nr == rows - 1 || nc == cols - 1) {
+                        continue;
+                    }
+                    double distance = k % 2 == 0 ? Math.sqrt(2.0) : 1.0;
+                    double drop = (dem[r * cols + c] - dem[nr * cols + nc]) / distance;
+                    if (drop > bestDrop) {
+                        bestDrop = drop;
+                        best = k;
+                    }
+                }
+                flow.set(c, r, best);
+            }
+        }
+        return flow;
+    }
+
+}
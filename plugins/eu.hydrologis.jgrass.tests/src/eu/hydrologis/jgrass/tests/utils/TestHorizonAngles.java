@@ -0,0 +1,154 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.libs.utils.GridDouble;
+import eu.hydrologis.libs.utils.HorizonAngles;
+
+/**
+ * Test the horizon sweep against the maximum angle to every pixel ahead on the same line, and the
+ * parallel sweep of the azimuths against the sequential one.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHorizonAngles extends TestCase {
+
+    private static final double RES = 5.0;
+
+    private Random random = new Random(23);
+
+    public void testAgainstBruteForce() {
+        GridDouble dem = randomDem(70, 50);
+        HorizonAngles horizonAngles = new HorizonAngles(dem, RES);
+        for( int a = 0; a < 36; a++ ) {
+            double azimuth = 2.0 * Math.PI * a / 36 + 0.013;
+            double[] horizon = horizonAngles.horizon(azimuth);
+            double[] expected = bruteForceHorizon(dem, azimuth);
+
+            for( int i = 0; i < expected.length; i++ ) {
+                if (JGrassConstants.isNovalue(expected[i])) {
+                    assertTrue(JGrassConstants.isNovalue(horizon[i]));
+                } else {
+                    assertEquals(expected[i], horizon[i], 1E-12);
+                }
+            }
+        }
+    }
+
+    public void testWall() {
+        int cols = 40;
+        int rows = 10;
+        GridDouble dem = new GridDouble(cols, rows, 100.0);
+        for( int r = 0; r < rows; r++ ) {
+            dem.set(5, r, 150.0);
+        }
+        HorizonAngles horizonAngles = new HorizonAngles(dem, RES);
+        // looking west the wall hides the sky
+        double[] west = horizonAngles.horizon(1.5 * Math.PI);
+        double[] east = horizonAngles.horizon(0.5 * Math.PI);
+        for( int c = 6; c < cols; c++ ) {
+            assertEquals(Math.atan(50.0 / ((c - 5) * RES)), west[3 * cols + c], 1E-12);
+            assertEquals(0.0, east[3 * cols + c], 0.0);
+        }
+        for( int c = 0; c <= 5; c++ ) {
+            assertEquals(0.0, west[3 * cols + c], 0.0);
+        }
+
+        // a flat terrain sees all of the sky
+        GridDouble sky = new HorizonAngles(new GridDouble(cols, rows, 100.0), RES)
+                .skyViewFactor(36);
+        for( double value : sky.getData() ) {
+            assertEquals(1.0, value, 1E-12);
+        }
+    }
+
+    public void testParallelAzimuths() {
+        GridDouble dem = randomDem(300, 200);
+        HorizonAngles sequential = new HorizonAngles(dem, RES);
+        HorizonAngles parallel = new HorizonAngles(dem, RES);
+        parallel.setThreads(4);
+
+        GridDouble expected = sequential.skyViewFactor(36);
+        GridDouble sky = parallel.skyViewFactor(36);
+
+        double[][] horizons = parallel.horizons(36);
+        for( int i = 0; i < expected.getData().length; i++ ) {
+            if (JGrassConstants.isNovalue(expected.get(i))) {
+                assertTrue(JGrassConstants.isNovalue(sky.get(i)));
+                continue;
+            }
+            assertEquals(expected.get(i), sky.get(i), 0.0);
+            assertTrue(sky.get(i) > 0.0 && sky.get(i) <= 1.0 + 1E-12);
+            // the sun on the horizon of an azimuth is not in the shadow
+            assertFalse(HorizonAngles.isShadowed(horizons, i, 2.0 * Math.PI * 7 / 36,
+                    horizons[7][i] + 1E-9));
+            assertTrue(HorizonAngles.isShadowed(horizons, i, 2.0 * Math.PI * 7 / 36,
+                    horizons[7][i] - 1E-9)
+                    || horizons[7][i] == 0.0);
+        }
+    }
+
+    /*
+     * a rough terrain on a slope, with some novalues
+     */
+    private GridDouble randomDem( int cols, int rows ) {
+        GridDouble dem = new GridDouble(cols, rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double z = 1000.0 + r * 2.0 + 30.0 * Math.sin(c / 7.0) * Math.cos(r / 5.0)
+                        + random.nextDouble() * 10.0;
+                dem.set(c, r, z);
+            }
+        }
+        for( int k = 0; k < cols * rows / 50; k++ ) {
+            dem.set(random.nextInt(cols), random.nextInt(rows), JGrassConstants.doubleNovalue);
+        }
+        return dem;
+    }
+
+    /*
+     * the maximum angle to every pixel that is ahead of the pixel on the same line of the sweep
+     */
+    private double[] bruteForceHorizon( GridDouble dem, double azimuth ) {
+        int cols = dem.getCols();
+        int rows = dem.getRows();
+        double dirCol = Math.sin(azimuth);
+        double dirRow = -Math.cos(azimuth);
+        boolean colMajor = Math.abs(dirCol) >= Math.abs(dirRow);
+        double major = colMajor ? dirCol : dirRow;
+        double minor = colMajor ? dirRow : dirCol;
+        int majorSize = colMajor ? cols : rows;
+        double slope = -minor / Math.abs(major);
+        double stepLength = RES * Math.sqrt(1.0 + slope * slope);
+
+        double[] horizon = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double z = dem.get(c, r);
+                if (JGrassConstants.isNovalue(z)) {
+                    horizon[r * cols + c] = JGrassConstants.doubleNovalue;
+                    continue;
+                }
+                int majorIndex = colMajor ? c : r;
+                int minorIndex = colMajor ? r : c;
+                int m = major > 0 ? majorSize - 1 - majorIndex : majorIndex;
+                int line = minorIndex - (int) Math.round(m * slope);
+                double max = 0.0;
+                for( int k = 0; k < m; k++ ) {
+                    int kMinor = line + (int) Math.round(k * slope);
+                    int kMajor = major > 0 ? majorSize - 1 - k : k;
+                    double kz = colMajor ? dem.get(kMajor, kMinor) : dem.get(kMinor, kMajor);
+                    if (JGrassConstants.isNovalue(kz)) {
+                        continue;
+                    }
+                    max = Math.max(max, Math.atan((kz - z) / ((m - k) * stepLength)));
+                }
+                horizon[r * cols + c] = max;
+            }
+        }
+        return horizon;
+    }
+
+}
@@ -0,0 +1,264 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import Jama.Matrix;
+import eu.hydrologis.libs.utils.LinearAlgebra;
+
+/**
+ * Test the flat array linear algebra against the jama matrices, for the system sizes used by the
+ * kriging, and the tridiagonal solver of h.saintgeo against the iterative solver it replaced.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLinearAlgebra extends TestCase {
+
+    private static final int[] SIZES = {10, 50, 100, 250, 500};
+
+    private Random random = new Random(5);
+
+    public void testLuSolve() {
+        for( int n : SIZES ) {
+            double[][] a = randomMatrix(n, n);
+            double[] b = new double[n];
+            for( int i = 0; i < n; i++ ) {
+                b[i] = random.nextDouble();
+            }
+            Matrix expected = new Matrix(a).solve(new Matrix(b, n));
+
+            double[] flat = new double[n * n];
+            for( int i = 0; i < n; i++ ) {
+                System.arraycopy(a[i], 0, flat, i * n, n);
+            }
+            int[] pivot = new int[n];
+            double[] x = new double[n];
+            assertTrue(LinearAlgebra.luDecompose(flat, n, pivot));
+            LinearAlgebra.luSolve(flat, n, pivot, b, x);
+
+            for( int i = 0; i < n; i++ ) {
+                assertEquals(expected.get(i, 0), x[i], 1E-8);
+            }
+        }
+    }
+
+    public void testSingular() {
+        double[] a = new double[]{1, 2, 3, 2, 4, 6, 1, 0, 1};
+        assertFalse(LinearAlgebra.luDecompose(a, 3, new int[3]));
+
+        // a singular tridiagonal system is reported, not half solved
+        double[] d = {1, 1, 1};
+        double[] ds = {1, 0};
+        double[] di = {1, 0};
+        assertFalse(new LinearAlgebra().ris_sistema(d, ds, di, new double[]{1, 1, 1},
+                new double[3], 3));
+    }
+
+    public void testTridiagonal() {
+        int n = 200;
+        double[] d = new double[n];
+        double[] ds = new double[n - 1];
+        double[] di = new double[n - 1];
+        double[] b = new double[n];
+        double[][] a = new double[n][n];
+        for( int i = 0; i < n; i++ ) {
+            d[i] = 4.0 + random.nextDouble();
+            a[i][i] = d[i];
+            b[i] = random.nextDouble();
+            if (i < n - 1) {
+                ds[i] = random.nextDouble();
+                di[i] = random.nextDouble();
+                a[i][i + 1] = ds[i];
+                a[i + 1][i] = di[i];
+            }
+        }
+        Matrix expected = new Matrix(a).solve(new Matrix(b, n));
+
+        double[] x = new double[n];
+        assertTrue(new LinearAlgebra().ris_sistema(d, ds, di, b, x, n));
+        for( int i = 0; i < n; i++ ) {
+            assertEquals(expected.get(i, 0), x[i], 1E-10);
+        }
+
+        // a null first pivot falls back to the pivoting decomposition
+        d[0] = 0.0;
+        a[0][0] = 0.0;
+        expected = new Matrix(a).solve(new Matrix(b, n));
+        assertTrue(new LinearAlgebra().ris_sistema(d, ds, di, b, x, n));
+        for( int i = 0; i < n; i++ ) {
+            assertEquals(expected.get(i, 0), x[i], 1E-8);
+        }
+    }
+
+    /**
+     * The water levels of h.saintgeo were solved by the iterative biconjugate gradient, with a
+     * tolerance of 1E-5 and the levels of the previous timestep as first guess. The direct solution
+     * has to stay within that tolerance on the systems that the model builds.
+     */
+    public void testSaintGeoSystems() {
+        double delt = 10.0;
+        for( int n : new int[]{5, 50, 300} ) {
+            double[] d = new double[n];
+            double[] ds = new double[n - 1];
+            double[] di = new double[n - 1];
+            double[] b = new double[n];
+            double[] previous = new double[n];
+            // the conductances of the reaches between the sections and the lengths of the cells
+            double[] c = new double[n + 1];
+            double[] dx = new double[n];
+            for( int i = 0; i <= n; i++ ) {
+                c[i] = 5.0 + 200.0 * random.nextDouble();
+                if (i < n) {
+                    dx[i] = 5.0 + 20.0 * random.nextDouble();
+                }
+            }
+            for( int i = 0; i < n; i++ ) {
+                double base = 5.0 + 30.0 * random.nextDouble();
+                previous[i] = 1.0 + random.nextDouble();
+                d[i] = (c[i] + c[i + 1]) / dx[i] + base / delt;
+                if (i < n - 1) {
+                    ds[i] = -c[i + 1] / dx[i];
+                    di[i] = -c[i + 1] / dx[i + 1];
+                }
+                b[i] = base / delt * previous[i] + random.nextDouble() - 0.5;
+            }
+
+            double[] expected = previous.clone();
+            new IterativeSolver().solve(d, ds, di, b, expected, n);
+            double[] x = previous.clone();
+            assertTrue(new LinearAlgebra().ris_sistema(d, ds, di, b, x, n));
+
+            double norm = 0.0;
+            for( int i = 0; i < n; i++ ) {
+                norm += x[i] * x[i];
+            }
+            norm = Math.sqrt(norm);
+            for( int i = 0; i < n; i++ ) {
+                assertEquals(expected[i], x[i], 1E-4 * norm);
+            }
+        }
+    }
+
+    private double[][] randomMatrix( int rows, int cols ) {
+        double[][] m = new double[rows][cols];
+        for( int i = 0; i < rows; i++ ) {
+            for( int j = 0; j < cols; j++ ) {
+                m[i][j] = random.nextDouble() - 0.5;
+            }
+        }
+        return m;
+    }
+
+    /*
+     * the preconditioned biconjugate gradient (Numerical Recipes in C, linbcg with itol = 3) with
+     * which h.saintgeo solved the tridiagonal systems, the matrix stored by rows
+     */
+    private static class IterativeSolver {
+        private static final double TOL = 0.00001;
+        private static final int ITMAX = 1000;
+        private static final double EPS = 1.0e-14;
+
+        private double[] d;
+        private double[] ds;
+        private double[] di;
+        private int n;
+
+        void solve( double[] d, double[] ds, double[] di, double[] b, double[] x, int n ) {
+            this.d = d;
+            this.ds = ds;
+            this.di = di;
+            this.n = n;
+            double[] p = new double[n];
+            double[] pp = new double[n];
+            double[] r = new double[n];
+            double[] rr = new double[n];
+            double[] z = new double[n];
+            double[] zz = new double[n];
+
+            times(x, r, false);
+            for( int j = 0; j < n; j++ ) {
+                r[j] = b[j] - r[j];
+                rr[j] = r[j];
+            }
+            precondition(r, z);
+            double znrm = norm(z);
+
+            double bkden = 0.0;
+            int iter = 0;
+            while( iter <= ITMAX ) {
+                ++iter;
+                precondition(rr, zz);
+                double bknum = 0.0;
+                for( int j = 0; j < n; j++ )
+                    bknum += z[j] * rr[j];
+                if (iter == 1) {
+                    for( int j = 0; j < n; j++ ) {
+                        p[j] = z[j];
+                        pp[j] = zz[j];
+                    }
+                } else {
+                    double bk = bknum / bkden;
+                    for( int j = 0; j < n; j++ ) {
+                        p[j] = bk * p[j] + z[j];
+                        pp[j] = bk * pp[j] + zz[j];
+                    }
+                }
+                bkden = bknum;
+                times(p, z, false);
+                double akden = 0.0;
+                for( int j = 0; j < n; j++ )
+                    akden += z[j] * pp[j];
+                double ak = bknum / akden;
+                times(pp, zz, true);
+                for( int j = 0; j < n; j++ ) {
+                    x[j] += ak * p[j];
+                    r[j] -= ak * z[j];
+                    rr[j] -= ak * zz[j];
+                }
+                precondition(r, z);
+                double zm1nrm = znrm;
+                znrm = norm(z);
+                double err;
+                if (Math.abs(zm1nrm - znrm) > EPS * znrm) {
+                    double dxnrm = Math.abs(ak) * norm(p);
+                    err = znrm / Math.abs(zm1nrm - znrm) * dxnrm;
+                } else {
+                    continue;
+                }
+                double xnrm = norm(x);
+                if (err <= 0.5 * xnrm)
+                    err /= xnrm;
+                else {
+                    continue;
+                }
+                if (err <= TOL)
+                    break;
+            }
+        }
+
+        private void times( double[] x, double[] r, boolean transpose ) {
+            double[] upper = transpose ? di : ds;
+            double[] lower = transpose ? ds : di;
+            for( int i = 0; i < n; i++ ) {
+                r[i] = d[i] * x[i];
+                if (i < n - 1)
+                    r[i] += upper[i] * x[i + 1];
+                if (i > 0)
+                    r[i] += lower[i - 1] * x[i - 1];
+            }
+        }
+
+        private void precondition( double[] b, double[] x ) {
+            for( int i = 0; i < n; i++ )
+                x[i] = d[i] != 0.0 ? b[i] / d[i] : b[i];
+        }
+
+        private double norm( double[] x ) {
+            double sum = 0.0;
+            for( int i = 0; i < n; i++ )
+                sum += x[i] * x[i];
+            return Math.sqrt(sum);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.WidthFunction;
+
+/**
+ * Test the indexed width function against the linear search of the width function table and the
+ * henderson equation as it was solved before.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestWidthFunction extends TestCase {
+
+    private static final int[] SIZES = {10, 100, 400};
+
+    private Random random = new Random(11);
+
+    public void testInterpolation() {
+        for( int rows : SIZES ) {
+            double[][] data = widthFunction(rows, 30.0);
+            WidthFunction widthFunction = new WidthFunction(data);
+            double last = data[rows - 1][0];
+            for( int k = 0; k < 10 * rows; k++ ) {
+                double x = random.nextDouble() * last;
+                assertEquals(FluidUtils.width_interpolate(data, x, 0, 1), widthFunction.width(x),
+                        0.0);
+                assertEquals(FluidUtils.width_interpolate(data, x, 0, 2), widthFunction
+                        .cumulated(x), 0.0);
+            }
+            // the values in the table and at the limits
+            for( int i = 0; i < rows; i++ ) {
+                double x = data[i][0];
+                assertEquals(FluidUtils.width_interpolate(data, x, 0, 2), widthFunction
+                        .cumulated(x), 0.0);
+            }
+            assertEquals(FluidUtils.width_interpolate(data, 0.0, 0, 2), widthFunction
+                    .cumulated(0.0), 0.0);
+            try {
+                widthFunction.cumulated(last + 1.0);
+                fail();
+            } catch (RuntimeException e) {
+                // expected outside of the table
+            }
+        }
+    }
+
+    public void testRepeatedAndUnsortedTimes() {
+        double[][] data = widthFunction(50, 30.0);
+        // a repeated time
+        data[20][0] = data[19][0];
+        WidthFunction widthFunction = new WidthFunction(data);
+        for( int k = 0; k < 500; k++ ) {
+            double x = random.nextDouble() * data[49][0];
+            assertEquals(FluidUtils.width_interpolate(data, x, 0, 1), widthFunction.width(x), 0.0);
+        }
+        // unsorted times are searched linearly
+        data[30][0] = data[35][0];
+        widthFunction = new WidthFunction(data);
+        for( int k = 0; k < 500; k++ ) {
+            double x = random.nextDouble() * data[49][0];
+            assertEquals(FluidUtils.width_interpolate(data, x, 0, 1), widthFunction.width(x), 0.0);
+        }
+    }
+
+    public void testHenderson() {
+        for( int rows : SIZES ) {
+            double[][] data = widthFunction(rows, 30.0);
+            WidthFunction widthFunction = new WidthFunction(data);
+            double tcorr = data[rows - 1][0];
+            int step = Math.max(1, (int) (tcorr / 50));
+            for( int tp = 1; tp <= tcorr; tp += step ) {
+                assertEquals(linearHenderson(data, tp), widthFunction.henderson(tp), 0.0);
+            }
+        }
+    }
+
+    /*
+     * a width function with a random width, one value every given number of seconds
+     */
+    private double[][] widthFunction( int rows, double timestep ) {
+        double[][] data = new double[rows][3];
+        double cumulated = 0.0;
+        for( int i = 0; i < rows; i++ ) {
+            double width = Math.sin(Math.PI * (i + 1) / rows) + random.nextDouble() * 0.3;
+            cumulated = cumulated + width;
+            data[i][0] = (i + 1) * timestep;
+            data[i][1] = width;
+            data[i][2] = cumulated;
+        }
+        for( int i = 0; i < rows; i++ ) {
+            data[i][2] = data[i][2] / cumulated;
+        }
+        return data;
+    }
+
+    /*
+     * the henderson equation as it was solved by FluidUtils, intersecting every segment with
+     * every shifted segment
+     */
+    private double linearHenderson( double[][] data, int tp ) {
+        int rows = data.length;
+        double dt = 0, muno, mdue, a, b, x, s_uno, s_due, smax = 0;
+        for( int i = 1; i < rows; i++ ) {
+            if (data[i][0] + tp <= data[(rows - 1)][0]) {
+                muno = (data[i][1] - data[(i - 1)][1]) / (data[i][0] - data[(i - 1)][0]);
+                a = data[i][1] - (data[i][0] + tp) * muno;
+                for( int j = 1; j <= (rows - 1); j++ ) {
+                    mdue = (data[j][1] - data[(j - 1)][1]) / (data[j][0] - data[(j - 1)][0]);
+                    b = data[j][1] - data[j][0] * mdue;
+                    x = (a - b) / (mdue - muno);
+                    if (x >= data[(j - 1)][0] && x <= data[j][0] && x - tp >= data[(i - 1)][0]
+                            && x - tp <= data[i][0]) {
+                        s_uno = FluidUtils.width_interpolate(data, x - tp, 0, 2);
+                        s_due = FluidUtils.width_interpolate(data, x, 0, 2);
+                        if (s_due - s_uno > smax) {
+                            smax = s_due - s_uno;
+                            dt = x - tp;
+                        }
+                    }
+                }
+            }
+        }
+        return dt;
+    }
+
+}